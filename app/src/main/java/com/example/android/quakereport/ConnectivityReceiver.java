@@ -0,0 +1,24 @@
+package com.example.android.quakereport;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Starts the background sync when the network comes back.
+ *
+ * Disabled in the manifest, {@link EarthquakeSyncScheduler} only switches it on while a sync
+ * is waiting for a network, so we aren't woken up for every connectivity change.
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork != null && activeNetwork.isConnected())
+            EarthquakeSyncScheduler.onNetworkAvailable(context);
+    }
+}
@@ -1,76 +1,289 @@
 package com.example.android.quakereport;
 
-import android.app.Activity;
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-public class EarthQuackAdapter extends ArrayAdapter<Earthquake> {
+/**
+ * RecyclerView adapter for the earthquake list.
+ *
+ * A new result set is handed over with {@link #submitList(List)}: the difference with the list
+ * currently shown is computed on a background thread and only the rows that were inserted,
+ * removed, moved or changed are notified, so a refresh doesn't rebind every visible row.
+ * A caller that knows which rows can't have changed, like the pager after a page load, says so
+ * with {@link #submitList(List, int, int)} and only the rows in between are diffed. Rows that only
+ * grew at the end, like the batches of a progressive load, are then inserted without a diff.
+ */
+public class EarthQuackAdapter extends RecyclerView.Adapter<EarthQuackAdapter.ViewHolder> {
 
+    /**
+     * Called when a row is tapped. The earthquake is null for the placeholder of a dropped page.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(Earthquake earthquake, int position);
+    }
+
+    /** Diffs run one at a time, in submission order, off the main thread. */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Context mContext;
+    private final OnItemClickListener mClickListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The rows on screen. Never modified, a new result set replaces it as a whole. */
+    private List<Earthquake> mEarthquakes = Collections.emptyList();
+    /** Bumped on every submitList, so a diff that finished after a newer one was submitted is dropped. */
+    private int mGeneration;
+    /**
+     * While a diff runs: how many rows at the start and the end of the list shown are the same in
+     * every list submitted since, so the next diff still covers the rows the running one would have.
+     */
+    private boolean mDiffPending;
+    private int mPendingHead;
+    private int mPendingTail;
 
-    public EarthQuackAdapter(Activity context, ArrayList<Earthquake> earthquackList) {
-        super(context, 0, earthquackList);
+    // Everything onBindViewHolder needs to format a row is created once per adapter and reused,
+    // binding always runs on the main thread so sharing the formatter is safe.
+    private final EarthquakeFormatter mFormatter = new EarthquakeFormatter();
+    private final int[] mMagnitudeColors;
+
+
+    public EarthQuackAdapter(Context context, OnItemClickListener clickListener) {
+        mContext = context;
+        mClickListener = clickListener;
+        mMagnitudeColors = resolveMagnitudeColors();
     }
 
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public int getItemCount() {
+        return mEarthquakes.size();
+    }
 
-        View currView = convertView;
-        if (currView == null) {
-            currView = LayoutInflater.from(getContext()).inflate(R.layout.earthquack_list_item, parent, false);
+    /**
+     * @return the earthquake at the position, or null for the placeholder of a dropped page
+     */
+    @Nullable
+    public Earthquake getItem(int position) {
+        return mEarthquakes.get(position);
+    }
+
+    /**
+     * Show a new result set. The list must not be modified afterwards.
+     */
+    public void submitList(List<Earthquake> earthquakes) {
+        submitList(earthquakes, 0, 0);
+    }
+
+    /**
+     * Show a new result set of which only some rows in the middle changed, see
+     * {@link EarthquakePager.Snapshot}. The list must not be modified afterwards.
+     *
+     * @param unchangedHead how many rows at the start are the same as in the list submitted before
+     * @param unchangedTail how many rows at the end are the same as in the list submitted before
+     */
+    public void submitList(final List<Earthquake> earthquakes, int unchangedHead, int unchangedTail) {
+        final int generation = ++mGeneration;
+        final List<Earthquake> oldList = mEarthquakes;
+
+        // The rows that changed since the list shown, including those of a diff that is still running.
+        if (mDiffPending) {
+            unchangedHead = Math.min(unchangedHead, mPendingHead);
+            unchangedTail = Math.min(unchangedTail, mPendingTail);
         }
+        final int head = Math.max(0, Math.min(unchangedHead, Math.min(oldList.size(), earthquakes.size())));
+        int tail = Math.max(0, Math.min(unchangedTail, Math.min(oldList.size(), earthquakes.size()) - head));
 
-        Earthquake currentEarthquack = getItem(position);
+        // Nothing to compare against, no need for a background round trip.
+        if (oldList.isEmpty() || earthquakes.isEmpty()) {
+            mDiffPending = false;
+            mEarthquakes = earthquakes;
+            notifyDataSetChanged();
+            return;
+        }
+
+        // Every row shown stays, rows were only added at the end.
+        if (head == oldList.size()) {
+            mDiffPending = false;
+            mEarthquakes = earthquakes;
+            if (earthquakes.size() > head)
+                notifyItemRangeInserted(head, earthquakes.size() - head);
+            return;
+        }
+
+        mDiffPending = true;
+        mPendingHead = head;
+        mPendingTail = tail;
+        final List<Earthquake> oldRows = oldList.subList(head, oldList.size() - tail);
+        final List<Earthquake> newRows = earthquakes.subList(head, earthquakes.size() - tail);
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final EarthquakeDiff diff = EarthquakeDiff.calculate(oldRows, newRows);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration)
+                            return;
+                        mDiffPending = false;
+                        mEarthquakes = earthquakes;
+                        diff.dispatchTo(new OffsetCallback(head));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Show a new result set right away, without diffing it against the current one.
+     * For filter and sort changes, e.g. an {@link EarthquakeRangeIndex} view, where most rows
+     * change position anyway and the update should land in the next frame.
+     * The list must not be modified afterwards.
+     */
+    public void setList(List<Earthquake> earthquakes) {
+        // Also drops any diff still running for an older submitList.
+        ++mGeneration;
+        mDiffPending = false;
+        mEarthquakes = earthquakes;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Notifies the updates of a diff of the rows from {@code offset} on.
+     */
+    private final class OffsetCallback implements EarthquakeDiff.Callback {
+        private final int mOffset;
+
+        OffsetCallback(int offset) {
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position) {
+            notifyItemInserted(mOffset + position);
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            notifyItemRemoved(mOffset + position);
+        }
 
-        TextView magnitude = (TextView) currView.findViewById(R.id.magnitudeView);
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(mOffset + fromPosition, mOffset + toPosition);
+        }
 
+        @Override
+        public void onChanged(int position) {
+            notifyItemChanged(mOffset + position);
+        }
+    }
 
-        magnitude.setText(formatMagnitude(currentEarthquack.getMagnitude()));
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View row = LayoutInflater.from(mContext).inflate(R.layout.earthquack_list_item, parent, false);
+        return new ViewHolder(row);
+    }
 
-        TextView palce = (TextView) currView.findViewById(R.id.placeview);
-        palce.setText(currentEarthquack.getPlace());
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
 
-        TextView dateView = (TextView) currView.findViewById(R.id.dateView);
-        TextView timeView = (TextView) currView.findViewById(R.id.timeView);
+        Earthquake currentEarthquack = getItem(position);
+
+        // The page of this row was dropped and is being loaded again, show an empty row meanwhile.
+        if (currentEarthquack == null) {
+            bindPlaceholder(holder);
+            return;
+        }
 
-        Date dateObject = new Date(currentEarthquack.getTimeInMillisecond());
+        long start = LoadTrace.start();
 
-        String formattedDate = FormatDate(dateObject);
-        String formattedTime = FormatTime(dateObject);
+        double magnitude = currentEarthquack.getMagnitudeValue();
+        long timeInMillisecond = currentEarthquack.getTimeInMillisecond();
 
-        dateView.setText(formattedDate);
-        timeView.setText(formattedTime);
+        holder.magnitude.setText(mFormatter.formatMagnitude(magnitude));
+        holder.place.setText(currentEarthquack.getPlace());
+        holder.date.setText(mFormatter.formatDate(timeInMillisecond));
+        holder.time.setText(mFormatter.formatTime(timeInMillisecond));
 
-        // Set the proper background color on the magnitude circle.
-        // Fetch the background from the TextView, which is a GradientDrawable.
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitude.getBackground();
+        // Set the proper background color on the magnitude circle,
+        // picked from the colors we resolved once in the constructor.
+        holder.magnitudeCircle.setColor(getMagnitudeColor(magnitude));
 
-        // Get the appropriate background color based on the current earthquake magnitude
-        int magnitudeColor = getMagnitudeColor(currentEarthquack.getMagnitude());
+        LoadTrace.end(LoadTrace.Phase.BIND, start);
+    }
+
+    /**
+     * The views of one row, looked up once when the row is inflated.
+     */
+    public final class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitude;
+        final GradientDrawable magnitudeCircle;
+        final TextView place;
+        final TextView date;
+        final TextView time;
 
-        // Set the color on the magnitude circle
-        magnitudeCircle.setColor(magnitudeColor);
+        ViewHolder(View row) {
+            super(row);
+            magnitude = (TextView) row.findViewById(R.id.magnitudeView);
+            // mutate() so setting the color of one row doesn't change the drawable shared by all rows.
+            magnitudeCircle = (GradientDrawable) magnitude.getBackground().mutate();
+            place = (TextView) row.findViewById(R.id.placeview);
+            date = (TextView) row.findViewById(R.id.dateView);
+            time = (TextView) row.findViewById(R.id.timeView);
+            row.setOnClickListener(this);
+        }
 
-        return currView;
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mClickListener != null)
+                mClickListener.onItemClick(getItem(position), position);
+        }
     }
 
+    private void bindPlaceholder(ViewHolder holder) {
+        holder.magnitude.setText("");
+        holder.magnitudeCircle.setColor(mMagnitudeColors[0]);
+        holder.place.setText("");
+        holder.date.setText("");
+        holder.time.setText("");
+    }
 
+    /**
+     * Color of the magnitude circle for a magnitude, from the table built by {@link #resolveMagnitudeColors()}.
+     */
     private int getMagnitudeColor(double magnitude) {
+        return mMagnitudeColors[EarthquakeFormatter.getMagnitudeBucket(magnitude)];
+    }
+
+    /**
+     * Resolve every magnitude bucket to its color int once, so binding a row doesn't go through
+     * {@link ContextCompat#getColor} each time. Index i holds the color of
+     * {@link EarthquakeFormatter#getMagnitudeBucket magnitude bucket} i.
+     */
+    private int[] resolveMagnitudeColors() {
+        int[] colors = new int[EarthquakeFormatter.MAGNITUDE_BUCKETS];
+        for (int floor = 0; floor < colors.length; floor++) {
+            colors[floor] = ContextCompat.getColor(mContext, getMagnitudeColorResourceId(floor));
+        }
+        return colors;
+    }
+
+    private static int getMagnitudeColorResourceId(int magnitudeFloor) {
         int magnitudeColorResourceId;
-        int magnitudeFloor = (int) Math.floor(magnitude);
         switch (magnitudeFloor) {
             case 0:
             case 1:
@@ -108,21 +321,6 @@ public class EarthQuackAdapter extends ArrayAdapter<Earthquake> {
         //The int returned by ContextCompat.getColor() is actually the color you want (an hexadecimal (ffc00 type) color as an integer),
         //in most case you will be asked for that color. The R.color.xxx int is actually just a ID referencing you
         //hexadecimal/integer color from your resources
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId); // clor resource to color int
-    }
-
-    private String formatMagnitude(double magnitude) {
-        DecimalFormat magnitudeFormat = new DecimalFormat("0.0");
-        return magnitudeFormat.format(magnitude);
-    }
-
-    private String FormatDate(Date dateObject) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
-        return dateFormat.format(dateObject);
-    }
-
-    private String FormatTime(Date dateObject) {
-        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
-        return timeFormat.format(dateObject);
+        return magnitudeColorResourceId;
     }
 }
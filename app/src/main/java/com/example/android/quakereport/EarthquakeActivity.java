@@ -25,14 +25,18 @@ import android.net.NetworkInfo;
 import android.net.Uri;
 
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 
 /**
@@ -55,37 +59,113 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
 
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
-    private  static final String USGS_REQUEST_URL =   "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&orderby=time&minmag=6&limit=10";
+    /**
+     * The CSV feed has every field we show and is about a quarter of the size of the GeoJSON one,
+     * the decoder is picked by the "format" parameter, see {@link FeedDecoders}.
+     */
+    private  static final String USGS_REQUEST_URL =   "https://earthquake.usgs.gov/fdsnws/event/1/query?format=csv&orderby=time&minmag=6";
     private EarthQuackAdapter mAdapter;
 
+    /**
+     * The list is loaded in pages of PAGE_SIZE rows using the "offset"/"limit" parameters.
+     * One page past the viewport is prefetched, and pages further than RETAIN_PAGES away are dropped.
+     * Each page has its own loader, with the id EARTHQUAKE_LOADER_ID + page.
+     */
+    private static final int PAGE_SIZE = 20;
+    private static final int PREFETCH_PAGES = 1;
+    private static final int RETAIN_PAGES = 2;
+    private EarthquakePager mPager;
+    /** The pages with rows on screen, their loaders go ahead of the prefetches. */
+    private int mFirstVisiblePage;
+    private int mLastVisiblePage;
+    private final Handler mHandler = new Handler();
+    private boolean mIsConnected;
+
+    /**
+     * Upper bound for the responses kept on disk by the {@link HttpDiskCache}.
+     */
+    private static final long HTTP_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /** How often the first page is refreshed in the background, see {@link EarthquakeSyncScheduler}. */
+    private static final long SYNC_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    /**
+     * Load tracing is switched on with {@code adb shell setprop log.tag.QuakeTrace DEBUG} before the app starts.
+     * The phase timings are then shown on top of the list, and {@code adb shell dumpsys activity
+     * com.example.android.quakereport/.EarthquakeActivity} prints all of them, see {@link LoadTrace}.
+     */
+    private static final String TRACE_TAG = "QuakeTrace";
+    private TextView mTraceOverlay;
+
+    /**
+     * The header sums up every page loaded so far: the stats of each page come with it from its
+     * loader, and a reloaded page only swaps its own stats in the total.
+     * Dropped pages stay counted, their rows are still in the list.
+     */
+    private TextView mSummaryView;
+    private final SparseArray<EarthquakeStats> mPageStats = new SparseArray<EarthquakeStats>();
+    private final EarthquakeStats mTotalStats = new EarthquakeStats();
+    private final EarthquakeFormatter mSummaryFormatter = new EarthquakeFormatter();
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
+        LoadTrace.setEnabled(Log.isLoggable(TRACE_TAG, Log.DEBUG));
+        if (LoadTrace.isEnabled()) {
+            mTraceOverlay = (TextView) findViewById(R.id.trace_overlay);
+            mTraceOverlay.setVisibility(View.VISIBLE);
+        }
+
+        // Keep the USGS responses on disk so a repeat launch can skip the network or get a cheap 304.
+        if (QueryUtils.getHttpCache() == null) {
+            QueryUtils.setHttpCache(new HttpDiskCache(new File(getCacheDir(), "usgs-http"), HTTP_CACHE_SIZE));
+        }
+
 
+        // Find a reference to the {@link RecyclerView} in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(layoutManager);
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Keep the stored first page fresh, so the next launch has something to show straight away.
+        EarthquakeSyncScheduler.start(this, getPageUrl(0), SYNC_INTERVAL_MILLIS);
 
         mEmptyStateTextView = (TextView)findViewById(R.id.empty_view);
+        mSummaryView = (TextView) findViewById(R.id.summary);
         // remember we haven't set the string resource here yet because we dont want is to display no earthquack at starting but we will do
         // that afeter we had performed networking requests
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
 
-        // Create a new adapter that takes an empty list of earthquakes as input
-        mAdapter = new EarthQuackAdapter(
-                this, new ArrayList<Earthquake>());
-
-        // Set the adapter on the {@link ListView}
-        // so the list can be populated in the user interface
-        earthquakeListView.setAdapter(mAdapter);
+        // Create a new adapter that reads its rows from the pages held by the pager
+        mPager = new EarthquakePager(PAGE_SIZE, PREFETCH_PAGES, RETAIN_PAGES, new EarthquakePager.PageRequester() {
+            @Override
+            public void requestPage(final int page) {
+                // Pages are asked for from scroll and loader callbacks, start the loader once those are done.
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        getLoaderManager().initLoader(EARTHQUAKE_LOADER_ID + page, null, EarthquakeActivity.this);
+                    }
+                });
+            }
 
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long l) {
-                // Find the current earthquake that was clicked on
-                Earthquake currentEarthquake = mAdapter.getItem(position);
+            public void dropPage(final int page) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        getLoaderManager().destroyLoader(EARTHQUAKE_LOADER_ID + page);
+                    }
+                });
+            }
+        });
+        mAdapter = new EarthQuackAdapter(this, new EarthQuackAdapter.OnItemClickListener() {
+            @Override
+            public void onItemClick(Earthquake currentEarthquake, int position) {
+                // The row of a dropped page that is still loading, nothing to open yet
+                if (currentEarthquake == null)
+                    return;
 
                 // Convert the String URL into a URI object (to pass into the Intent constructor)
                 Uri earthquakeUri = Uri.parse(currentEarthquake.getUrl());
@@ -98,6 +178,42 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             }
         });
 
+        // Set the adapter on the {@link RecyclerView}
+        // so the list can be populated in the user interface
+        earthquakeListView.setAdapter(mAdapter);
+
+        // RecyclerView has no empty view of its own, show ours whenever the list runs empty
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+
+        // Let the pager know what is on screen, so it can load the next page before we get there
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                if (firstVisibleItem == RecyclerView.NO_POSITION)
+                    return;
+                int visibleItemCount = layoutManager.findLastVisibleItemPosition() - firstVisibleItem + 1;
+                mPager.onVisibleRangeChanged(firstVisibleItem, visibleItemCount);
+                onVisiblePagesChanged(firstVisibleItem / PAGE_SIZE,
+                        (firstVisibleItem + visibleItemCount - 1) / PAGE_SIZE);
+            }
+        });
+
         /**
          * Finally, to retrieve an earthquake, we need to get the loader manager and tell the loader manager to initialize the loader with the specified ID,
          * the second argument allows us to pass a bundle of additional information, which we'll skip.
@@ -112,19 +228,18 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
                 (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
 
         NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        boolean isConnected = activeNetwork != null &&
+        mIsConnected = activeNetwork != null &&
                 activeNetwork.isConnectedOrConnecting();
 
+        /**
+         *  The pager asks for the first page (and the one after it) through initLoader,
+         *  passing in this activity for the LoaderCallbacks parameter (which is valid
+         *  because this activity implements the LoaderCallbacks interface).
+         *  Even offline the first page still shows what the background sync stored.
+         */
+        mPager.start();
 
-
-        if(isConnected) {
-            LoaderManager loaderManager = getLoaderManager();
-            /**
-             *  Pass in this activity for the LoaderCallbacks parameter (3rd parameter) (which is valid
-             *  because this activity implements the LoaderCallbacks interface).
-             */
-            loaderManager.initLoader(EARTHQUAKE_LOADER_ID, null, this);
-        }else
+        if(!mIsConnected)
         {
             mEmptyStateTextView.setText("No Internet Connection");
         }
@@ -139,8 +254,38 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
 
     @Override
     public Loader<List<Earthquake>> onCreateLoader(int i, Bundle bundle) {
-        // Create a new loader for the given URL
-        return new EarthquakeLoader(this,USGS_REQUEST_URL);
+        int page = i - EARTHQUAKE_LOADER_ID;
+
+        // Only the first page is kept in the local store, the rest always comes from the network
+        EarthquakeLoader loader = new EarthquakeLoader(this, getPageUrl(page), page == 0);
+        // Show the first rows of a page while the rest of it is still downloading.
+        loader.setProgressive(true);
+        loader.setPriority(getLoaderPriority(page));
+        return loader;
+    }
+
+    private int getLoaderPriority(int page) {
+        return page >= mFirstVisiblePage && page <= mLastVisiblePage
+                ? ExecutorLoader.PRIORITY_VISIBLE : ExecutorLoader.PRIORITY_PREFETCH;
+    }
+
+    /**
+     * Move the loaders of the pages that came on screen ahead of the rest, and the ones of the
+     * pages that left behind it.
+     */
+    private void onVisiblePagesChanged(int firstPage, int lastPage) {
+        if (firstPage == mFirstVisiblePage && lastPage == mLastVisiblePage)
+            return;
+        int from = Math.min(firstPage, mFirstVisiblePage);
+        int to = Math.max(lastPage, mLastVisiblePage);
+        mFirstVisiblePage = firstPage;
+        mLastVisiblePage = lastPage;
+
+        for (int page = from; page <= to; page++) {
+            Loader<List<Earthquake>> loader = getLoaderManager().getLoader(EARTHQUAKE_LOADER_ID + page);
+            if (loader instanceof ExecutorLoader)
+                ((ExecutorLoader<List<Earthquake>>) loader).setPriority(getLoaderPriority(page));
+        }
     }
 
     /**
@@ -153,18 +298,50 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     @Override
     public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> earthquakes) {
 
-        // Clear the adapter of previous earthquake data
-        mAdapter.clear();
+        long start = LoadTrace.start();
 
-        // If there is a valid list of {@link Earthquake}s, then add them to the adapter's
-        // data set. This will trigger the ListView to update.
-        if (earthquakes != null && !earthquakes.isEmpty()) {
-            mAdapter.addAll(earthquakes);
+        int page = loader.getId() - EARTHQUAKE_LOADER_ID;
 
+        // If there is a valid list of {@link Earthquake}s, then hand the page to the pager
+        // and let the adapter work out which rows of it changed. Otherwise the page is asked for again on the next scroll.
+        // The next batch of a progressive load only adds rows at the end, those are appended without a diff.
+        if (earthquakes != null) {
+            mPager.onPageLoaded(page, earthquakes, !EarthquakeBatcher.isPartial(earthquakes));
+            EarthquakePager.Snapshot rows = mPager.snapshot();
+            mAdapter.submitList(rows, rows.getUnchangedHead(), rows.getUnchangedTail());
+            updateSummary(page, ((EarthquakeLoader) loader).getStats());
+        } else {
+            mPager.onPageFailed(page);
         }
+
         // Set empty state text to display "No earthquakes found."
-        mEmptyStateTextView.setText(R.string.no_eathquake);
+        // Offline, an empty list means we have nothing stored, keep saying why.
+        if (mIsConnected)
+            mEmptyStateTextView.setText(R.string.no_eathquake);
 
+        LoadTrace.end(LoadTrace.Phase.ON_LOAD_FINISHED, start);
+        if (mTraceOverlay != null)
+            mTraceOverlay.setText(LoadTrace.summary());
+    }
+
+    /**
+     * Swap the stats of a page in the total, at the cost of the counters and not of the rows.
+     *
+     * @param stats of the page's new rows, null for a partial page which keeps what it had
+     */
+    private void updateSummary(int page, EarthquakeStats stats) {
+        if (stats == null)
+            return;
+        EarthquakeStats previous = mPageStats.get(page);
+        if (previous == stats)
+            return;
+        if (previous != null)
+            mTotalStats.subtract(previous);
+        mTotalStats.merge(stats);
+        mPageStats.put(page, stats);
+
+        mSummaryView.setText(mSummaryFormatter.formatSummary(mTotalStats));
+        mSummaryView.setVisibility(mTotalStats.getCount() > 0 ? View.VISIBLE : View.GONE);
     }
 
     /**
@@ -176,9 +353,47 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
     @Override
     public void onLoaderReset(Loader<List<Earthquake>> loader) {
 
-        // Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        // Loaders are reset when the pager drops their page, which already released its rows,
+        // or when the activity goes away together with the adapter. Nothing left to clear here.
+
+    }
+
+    /**
+     * Adds the load trace, the counters of the result cache and the loader queue to
+     * {@code adb shell dumpsys activity}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println(LoadTrace.dump().replace("\n", "\n" + prefix));
+        writer.print(prefix);
+        writer.println("Result cache: " + EarthquakeFetcher.getResultCache());
+        writer.print(prefix);
+        writer.println(ExecutorLoader.getDefaultExecutor().dump().replace("\n", "\n" + prefix));
+    }
+
+    /**
+     * The parsed results are cached process wide, give that memory back when asked to.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        EarthquakeFetcher.onTrimMemory(level);
+    }
+
+    /**
+     * @return the query for one page of the list, the first page is also what the background sync stores
+     */
+    private static String getPageUrl(int page) {
+        return Uri.parse(USGS_REQUEST_URL).buildUpon()
+                .appendQueryParameter("offset", String.valueOf(page * PAGE_SIZE + 1))
+                .appendQueryParameter("limit", String.valueOf(PAGE_SIZE))
+                .build().toString();
+    }
 
+    private void updateEmptyView() {
+        mEmptyStateTextView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
     // we have used The List here To get Flexibility as we had read here :-
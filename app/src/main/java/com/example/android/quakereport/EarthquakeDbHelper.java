@@ -0,0 +1,69 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Creates and upgrades the local database that {@link EarthquakeStore} keeps the USGS events in.
+ */
+public class EarthquakeDbHelper extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "earthquakes.db";
+    private static final int DATABASE_VERSION = 3;
+
+    /** One row per USGS event, keyed by the event id. */
+    public static final String TABLE_EARTHQUAKES = "earthquakes";
+    public static final String COLUMN_EVENT_ID = "event_id";
+    public static final String COLUMN_MAGNITUDE = "magnitude";
+    public static final String COLUMN_PLACE = "place";
+    public static final String COLUMN_TIME = "time";
+    public static final String COLUMN_URL = "url";
+    public static final String COLUMN_UPDATED = "updated";
+    /** The epicenter, NULL when the feed had no coordinates. */
+    public static final String COLUMN_LATITUDE = "latitude";
+    public static final String COLUMN_LONGITUDE = "longitude";
+    public static final String COLUMN_DEPTH = "depth";
+
+    /** The newest "updated" value seen per query, used as the next "updatedafter". */
+    public static final String TABLE_SYNC_STATE = "sync_state";
+    public static final String COLUMN_QUERY = "query";
+    public static final String COLUMN_LAST_UPDATED = "last_updated";
+    /** Wall clock time of the last successful sync, so a fresh store can skip the network. */
+    public static final String COLUMN_SYNCED_AT = "synced_at";
+
+    public EarthquakeDbHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EARTHQUAKES + " ("
+                + COLUMN_EVENT_ID + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_MAGNITUDE + " REAL NOT NULL, "
+                + COLUMN_PLACE + " TEXT, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_URL + " TEXT, "
+                + COLUMN_UPDATED + " INTEGER NOT NULL, "
+                + COLUMN_LATITUDE + " REAL, "
+                + COLUMN_LONGITUDE + " REAL, "
+                + COLUMN_DEPTH + " REAL)");
+
+        // The list is always read newest first, filtered by magnitude.
+        db.execSQL("CREATE INDEX " + TABLE_EARTHQUAKES + "_time ON "
+                + TABLE_EARTHQUAKES + " (" + COLUMN_TIME + " DESC)");
+
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + COLUMN_QUERY + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_LAST_UPDATED + " INTEGER NOT NULL, "
+                + COLUMN_SYNCED_AT + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store is only a copy of what USGS serves, so it is fine to start over.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_EARTHQUAKES);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC_STATE);
+        onCreate(db);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.quakereport;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Downloads and parses a query at most once at a time: loaders (or the background sync) asking
+ * for the same query while it is already being fetched, e.g. the loaders of a recreated activity,
+ * wait for that fetch instead of starting their own, see {@link SingleFlight}.
+ *
+ * Queries are matched by their {@link QueryKey normalized} URL. Everybody gets the same frozen
+ * {@link EarthquakeTable}, so the shared result can't be changed under another caller. The
+ * {@link EarthquakeStats} summed up during the parse come with it, and are only ever read.
+ *
+ * A fetch that every caller gave up on is aborted, connection and parse, unless one asks for it
+ * again within {@link #ABANDON_DELAY_MILLIS}: the loader of a rotated activity is canceled when
+ * the old activity stops and restarted by the new one a moment later, it should pick its fetch up
+ * where it was rather than start over.
+ *
+ * Finished results are also kept in a {@link ResultCache} for a while, so switching back to a query
+ * shown a moment ago doesn't download and parse it again, see {@link #fetchCached}.
+ */
+final class EarthquakeFetcher {
+
+    private static final String LOG_TAG = EarthquakeFetcher.class.getName();
+
+    /** How long a fetch nobody waits for anymore keeps going before it is aborted. */
+    private static final long ABANDON_DELAY_MILLIS = 1000;
+
+    /** Runs the fetches, one thread per query in flight. */
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+    private static final ScheduledExecutorService sScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private static final SingleFlight<String, Result> sFlights =
+            new SingleFlight<String, Result>(sExecutor, sScheduler, ABANDON_DELAY_MILLIS);
+
+    /**
+     * How long a result is reused. Well below the loaders' {@link EarthquakeLoader#DEFAULT_STALE_AFTER_MILLIS},
+     * so a loader refreshing a stale result gets a new one. A query with an "endtime" asks about the
+     * past, which only changes when USGS revises an event, so it is kept longer.
+     */
+    private static final long CACHE_TTL_MILLIS = 60 * 1000;
+    private static final long CLOSED_RANGE_CACHE_TTL_MILLIS = 10 * 60 * 1000;
+    /** A slice of the heap, a page of results is a few kilobytes. */
+    private static final long CACHE_MAX_BYTES = Math.min(8 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 32);
+
+    private static final ResultCache<String, Result> sResults = new ResultCache<String, Result>(CACHE_MAX_BYTES,
+            new ResultCache.Weigher<Result>() {
+                @Override
+                public long weigh(Result result) {
+                    return result.mTable.estimateSizeInBytes() + result.mStats.estimateSizeInBytes();
+                }
+            });
+
+    /**
+     * What a fetch hands to every caller that waited for it.
+     */
+    private static final class Result {
+        final EarthquakeTable mTable;
+        final EarthquakeStats mStats;
+
+        Result(EarthquakeTable table, EarthquakeStats stats) {
+            mTable = table;
+            mStats = stats;
+        }
+    }
+
+    private EarthquakeFetcher() {
+    }
+
+    /**
+     * Must be called from a background thread.
+     *
+     * @param fanOutWindows number of parallel time windows, see {@link TimeWindowFetcher}; 1 for a single request
+     * @param cancellation  canceled when this caller doesn't want the result anymore, may be null.
+     *                      The call then returns at once, the fetch itself goes on as long as
+     *                      somebody else still waits for it.
+     * @return the earthquakes, or null if the request failed or this caller gave up
+     */
+    static List<Earthquake> fetch(String url, int fanOutWindows, CancellationToken cancellation) {
+        return fetch(url, fanOutWindows, cancellation, null, null);
+    }
+
+    static List<Earthquake> fetch(String url, int fanOutWindows, CancellationToken cancellation,
+                                  EarthquakeBatcher batcher) {
+        return fetch(url, fanOutWindows, cancellation, batcher, null);
+    }
+
+    /**
+     * Like {@link #fetch(String, int, CancellationToken, EarthquakeBatcher, EarthquakeStats)}, but a
+     * result of the same query fetched in the last minute or so is handed out again straight away,
+     * as a whole, without batches. For loaders; a sync wants to know what the server has now.
+     */
+    static List<Earthquake> fetchCached(String url, int fanOutWindows, CancellationToken cancellation,
+                                        EarthquakeBatcher batcher, EarthquakeStats stats) {
+        Result cached = sResults.get(QueryKey.normalize(url));
+        if (cached == null)
+            return fetch(url, fanOutWindows, cancellation, batcher, stats);
+        if (stats != null)
+            stats.merge(cached.mStats);
+        return cached.mTable.asList();
+    }
+
+    /**
+     * @param batcher hands out the rows while they are parsed, see {@link QueryUtils#fetchEarthquakeTable(String,
+     *                CancellationToken, EarthquakeBatcher)}; may be null. Only used when this caller starts the
+     *                fetch and it is a single request, a caller joining a fetch in flight just gets the result.
+     * @param stats   the stats of the result are merged into them, may be null. Only changed if there is a result.
+     */
+    static List<Earthquake> fetch(final String url, final int fanOutWindows, CancellationToken cancellation,
+                                  final EarthquakeBatcher batcher, EarthquakeStats stats) {
+        final String key = QueryKey.normalize(url);
+        try {
+            Result result = sFlights.get(key, new SingleFlight.Call<Result>() {
+                @Override
+                public Result call(CancellationToken flightCancellation) {
+                    EarthquakeStats stats = new EarthquakeStats();
+                    EarthquakeTable table = fanOutWindows <= 1
+                            ? QueryUtils.fetchEarthquakeTable(url, flightCancellation, batcher, stats)
+                            : TimeWindowFetcher.fetch(url, fanOutWindows, flightCancellation, stats);
+                    if (table == null)
+                        return null;
+                    Result result = new Result(table.freeze(), stats);
+                    sResults.put(key, result, getCacheTimeToLive(url));
+                    return result;
+                }
+            }, cancellation);
+            if (result == null)
+                return null;
+            if (stats != null)
+                stats.merge(result.mStats);
+            return result.mTable.asList();
+        } catch (CancellationException e) {
+            Log.d(LOG_TAG, "Gave up waiting for " + url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG, "Problem fetching " + url, e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * The changes since a point in time ("updatedafter") are only asked for once, there is no
+     * point in keeping them.
+     */
+    private static long getCacheTimeToLive(String url) {
+        if (TimeWindowFetcher.getQueryParameter(url, "updatedafter") != null)
+            return 0;
+        return TimeWindowFetcher.getQueryParameter(url, "endtime") != null
+                ? CLOSED_RANGE_CACHE_TTL_MILLIS : CACHE_TTL_MILLIS;
+    }
+
+    /**
+     * Give memory back, see {@link ComponentCallbacks2#onTrimMemory}: the cached results are halved
+     * when memory runs low, and dropped when the system is about to kill us or the process.
+     * Hidden UI alone keeps them, the user may well come straight back.
+     */
+    static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            sResults.clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            sResults.trimToSize(sResults.maxSize() / 2);
+        }
+    }
+
+    /**
+     * @return the cache of recent results, for its counters
+     */
+    static ResultCache<?, ?> getResultCache() {
+        return sResults;
+    }
+
+    /**
+     * @return the number of fetches that were started
+     */
+    static long getStartedCount() {
+        return sFlights.getStartedCount();
+    }
+
+    /**
+     * @return the number of callers that were handed the result of a fetch somebody else started
+     */
+    static long getJoinedCount() {
+        return sFlights.getJoinedCount();
+    }
+}
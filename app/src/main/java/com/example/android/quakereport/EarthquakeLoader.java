@@ -1,28 +1,89 @@
 package com.example.android.quakereport;
 
 /*
-* To define the com.example.android.quakereport.EarthquakeLoader class, we extend AsyncTaskLoader and specify List as the generic parameter,
+* To define the com.example.android.quakereport.EarthquakeLoader class, we extend ExecutorLoader and specify List as the generic parameter,
 * which explains what type of data is expected to be loaded. In this case, the loader is loading a list of Earthquake objects.
 *Then we take a String URL in the constructor, and in loadInBackground(), we'll do the exact same operations as in doInBackground back in EarthquakeAsyncTask.
-* Important: Notice that we also override the onStartLoading() method to call forceLoad()
-* which is a required step to actually trigger the loadInBackground() method to execute.
+* Important: Notice that we also override the onStartLoading() method, which calls forceLoad() when there is nothing
+* usable cached yet. forceLoad() is a required step to actually trigger the loadInBackground() method to execute.
 **/
 
-import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
- * Loads a list of earthquakes by using an AsyncTask to perform the
- * network request to the given URL.
+ * Loads a list of earthquakes by performing the network request to the given URL on the
+ * shared loader pool, see {@link ExecutorLoader}.
+ *
+ * The events are kept in the local {@link EarthquakeStore}: whatever is stored is shown first,
+ * then only the events that changed since the last sync are downloaded and merged in.
+ * Between loads the events are also held in an {@link EarthquakeIndex}, so a poll only has to
+ * merge its changes instead of reading the whole list back from the store.
+ * The last result is also kept as an {@link EarthquakeSnapshot}, which a cold start shows before
+ * even the store has answered.
+ * In {@link #setProgressive progressive} mode the rows of a download are delivered in batches
+ * while it is still being parsed, see {@link EarthquakeBatcher}.
+ * Every complete result comes with its {@link #getStats() stats}, summed up while it was parsed
+ * or merged, so showing them takes no extra pass over the list.
  */
 
-public class EarthquakeLoader extends AsyncTaskLoader {
+public class EarthquakeLoader extends ExecutorLoader<List<Earthquake>> {
     private String mUrl;
+    private boolean mSyncWithStore;
     private static  final String LOG_TAG = EarthquakeLoader.class.getName();
 
+    /** Where the snapshots of the last results are kept, one file per query, under the cache directory. */
+    private static final String SNAPSHOT_DIRECTORY = "snapshots";
+
+    /** Used when the query doesn't say how many events it wants (the USGS default is 20000). */
+    private static final int DEFAULT_LIMIT = 20000;
+
+    /** By default a delivered result is reused for this long before it is loaded again. */
+    public static final long DEFAULT_STALE_AFTER_MILLIS = 5 * 60 * 1000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The last result we delivered, handed out again when the loader is restarted. */
+    private List<Earthquake> mEarthquakes;
+    /** The stats of mEarthquakes, null for a partial result. Only used on the main thread. */
+    private EarthquakeStats mStats;
+    /** The stats of the result loadInBackground is about to return, for when it is delivered. */
+    private volatile EarthquakeStats mResultStats;
+    private volatile List<Earthquake> mResult;
+    /** When the last load finished, in {@link SystemClock#elapsedRealtime()} time. */
+    private volatile long mLoadedAt;
+    private long mStaleAfterMillis = DEFAULT_STALE_AFTER_MILLIS;
+    private int mFanOutWindows = 1;
+    private boolean mProgressive;
+
+    /**
+     * Marks the loader dirty when somebody else writes to the {@link EarthquakeStore}.
+     * Our own writes pass this observer along and are not reported back to us.
+     */
+    private ContentObserver mStoreObserver;
+
+    /** The stored events as of the last load, capped at the query's limit. Only changed on the load thread. */
+    private volatile EarthquakeIndex mIndex;
+    /** Somebody else wrote to the store, so the index has to be read back from it. */
+    private final AtomicBoolean mStoreChanged = new AtomicBoolean();
+
+    /** The token of the load in progress, to tell its batches from those of an earlier load. */
+    private volatile CancellationToken mCancellation;
+
+    /** When the last background load ended, while tracing and until its result is delivered, otherwise 0. */
+    private volatile long mTraceLoadEnd;
+
 
     /**
      * Constructs a new {@link EarthquakeLoader}.
@@ -32,24 +93,369 @@ public class EarthquakeLoader extends AsyncTaskLoader {
      */
 
     public EarthquakeLoader(Context context , String url) {
+        this(context, url, true);
+    }
+
+    /**
+     * @param syncWithStore false to skip the {@link EarthquakeStore} and always load the URL from the
+     *                      network, e.g. for pages past the first one which the store can't answer
+     */
+    public EarthquakeLoader(Context context, String url, boolean syncWithStore) {
         super(context);
         this.mUrl = url;
+        this.mSyncWithStore = syncWithStore;
     }
 
 
+    /**
+     * Set how long a delivered result stays usable. Once it is older, the next start loads again.
+     */
+    public void setStaleAfter(long millis) {
+        mStaleAfterMillis = millis;
+    }
+
+    /**
+     * Split the query's starttime/endtime range into this many windows which are fetched in parallel
+     * by the {@link TimeWindowFetcher}. 1, the default, sends the query as it is. Opt-in for
+     * unpaged queries ordered by time, a query with an "offset" or another order is still sent whole.
+     */
+    public void setFanOutWindows(int windows) {
+        mFanOutWindows = windows;
+    }
+
+    /**
+     * Deliver the rows of a download while it is still going on, so the first rows show up after
+     * about the first kilobytes instead of after the whole response. The partial results are
+     * growing lists, each starting with the rows of the one before, which
+     * {@link EarthquakeBatcher#isPartial} tells apart from the complete result that follows them.
+     * They are only delivered as long as nothing complete is shown, e.g. not over the stored events.
+     */
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
+    }
+
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        // Hand out what we already have straight away.
+        if (mEarthquakes != null)
+            deliverResult(mEarthquakes);
+
+        if (mSyncWithStore && mStoreObserver == null) {
+            mStoreObserver = new ContentObserver(mMainHandler) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    mStoreChanged.set(true);
+                    onContentChanged();
+                }
+            };
+            getContext().getContentResolver().registerContentObserver(EarthquakeStore.CONTENT_URI, true, mStoreObserver);
+        }
+
+        boolean stale = SystemClock.elapsedRealtime() - mLoadedAt > mStaleAfterMillis;
+        // A partial result is what a canceled progressive load got to, it still has to be completed.
+        if (takeContentChanged() || mEarthquakes == null || EarthquakeBatcher.isPartial(mEarthquakes) || stale)
+            forceLoad();
+    }
+
+    @Override
+    protected void onStopLoading() {
+        // Attempt to cancel the current load task if possible.
+        cancelLoad();
+    }
+
+    /**
+     * @return the stats of the last result delivered, or null if it was a partial one (or there is
+     * none yet). Only to be read; call from the main thread, e.g. in onLoadFinished.
+     */
+    public EarthquakeStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Called on the main thread when there is a result to show.
+     */
+    @Override
+    public void deliverResult(List<Earthquake> data) {
+        deliverResult(data, getStatsOf(data));
+    }
+
+    /**
+     * @return the stats of a result this loader produced, or null if it doesn't know them
+     */
+    private EarthquakeStats getStatsOf(List<Earthquake> data) {
+        if (data == null)
+            return null;
+        if (data == mEarthquakes)
+            return mStats;
+        return data == mResult ? mResultStats : null;
+    }
+
+    private void deliverResult(List<Earthquake> earthquakes, EarthquakeStats stats) {
+        if (isReset()) {
+            // The loader was reset while a load was running, nobody wants the result anymore.
+            return;
+        }
+
+        mEarthquakes = earthquakes;
+        mStats = stats;
+
+        long loadEnd = mTraceLoadEnd;
+        if (loadEnd != 0) {
+            mTraceLoadEnd = 0;
+            LoadTrace.end(LoadTrace.Phase.DELIVER, loadEnd);
+        }
+
+        if (isStarted())
+            super.deliverResult(earthquakes);
     }
 
     /**
-     * This is on a background thread.
+     * The result of a canceled load. A canceled load returns null, but one that completed just
+     * before it was canceled has a complete result which is kept for the next start.
      */
     @Override
-    public Object loadInBackground() {
+    public void onCanceled(List<Earthquake> data) {
+        mTraceLoadEnd = 0;
+        if (data != null && !isReset()) {
+            mStats = getStatsOf(data);
+            mEarthquakes = data;
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        // Ensure the loader is stopped
+        onStopLoading();
+
+        mEarthquakes = null;
+        mStats = null;
+        mResult = null;
+        mResultStats = null;
+        mLoadedAt = 0;
+        mTraceLoadEnd = 0;
+        // Not cleared, a load may still be running on it. Dropping the reference makes the next load start over.
+        mIndex = null;
+        if (mStoreObserver != null) {
+            getContext().getContentResolver().unregisterContentObserver(mStoreObserver);
+            mStoreObserver = null;
+        }
+    }
+
+    /**
+     * This is on a background thread. When the load is canceled, e.g. because the activity stopped,
+     * it returns straight away: it stops waiting for its fetch, which is aborted (connection and
+     * parse) unless another loader still wants it, see {@link EarthquakeFetcher}.
+     */
+    @Override
+    public List<Earthquake> loadInBackground(CancellationToken cancellation) {
         if(mUrl == null)
             return null;
-        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mUrl);
+
+        long start = LoadTrace.start();
+        long heapAtStart = LoadTrace.startHeapGrowth();
+
+        mCancellation = cancellation;
+
+        EarthquakeBatcher batcher = newBatcher(cancellation, start);
+        EarthquakeStats stats = new EarthquakeStats();
+        List<Earthquake> earthquakes = mSyncWithStore
+                ? syncWithStore(cancellation, batcher, stats) : fetch(mUrl, cancellation, batcher, stats);
+        mCancellation = null;
+        if (earthquakes != null) {
+            mLoadedAt = SystemClock.elapsedRealtime();
+            // The stats first, deliverResult looks them up by the result.
+            mResultStats = stats;
+            mResult = earthquakes;
+        } else if (batcher != null && !cancellation.isCanceled()) {
+            // The feed broke off halfway, e.g. a malformed tail. The batches shown so far stay, as the
+            // partial result they are: without stats, and loaded again on the next start.
+            earthquakes = batcher.getPartial();
+        }
+
+        LoadTrace.endHeapGrowth(heapAtStart);
+        mTraceLoadEnd = LoadTrace.end(LoadTrace.Phase.LOAD, start);
         return earthquakes;
     }
+
+    /**
+     * Show the stored events, then fetch and store the ones that changed since the last sync.
+     *
+     * @param batcher of a progressive load, or null
+     * @param stats   the stats of the result are added to them
+     */
+    private List<Earthquake> syncWithStore(CancellationToken cancellation, EarthquakeBatcher batcher,
+                                           EarthquakeStats stats) {
+
+        Uri query = Uri.parse(mUrl);
+        double minMagnitude = parseDouble(query.getQueryParameter("minmag"),
+                parseDouble(query.getQueryParameter("minmagnitude"), 0));
+        int limit = parseLimit(query);
+
+        EarthquakeStore store = EarthquakeStore.getInstance(getContext());
+
+        EarthquakeIndex index = mIndex;
+        // Whether the result differs from the snapshot on disk.
+        boolean changedSinceSnapshot = false;
+        if (index == null) {
+            // A cold start: the snapshot of the last result is the quickest thing we can show.
+            showSnapshot();
+        }
+        if (index == null || mStoreChanged.getAndSet(false)) {
+            // Show what we already have while we ask USGS for the changes.
+            changedSinceSnapshot = true;
+            index = new EarthquakeIndex(limit);
+            long start = LoadTrace.start();
+            index.apply(store.query(minMagnitude, limit));
+            LoadTrace.end(LoadTrace.Phase.STORE_QUERY, start);
+            mIndex = index;
+            final List<Earthquake> stored = index.snapshot();
+            if (!stored.isEmpty()) {
+                final EarthquakeStats storedStats = index.getStats().copy();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isStarted() && !isAbandoned())
+                            deliverResult(stored, storedStats);
+                    }
+                });
+            }
+        }
+
+        // The background sync may have refreshed the store moments ago, no need to ask USGS again.
+        if (System.currentTimeMillis() - store.getSyncedAt(mUrl) < mStaleAfterMillis) {
+            stats.merge(index.getStats());
+            return saveSnapshot(index.snapshot(), changedSinceSnapshot);
+        }
+
+        // With nothing stored the changes are the whole result, in the order they are shown in.
+        // Otherwise they are merged into the stored events and can't be shown on their own.
+        List<Earthquake> changed = EarthquakeSync.syncChanges(getContext(), mUrl, mFanOutWindows, mStoreObserver,
+                cancellation, index.size() == 0 ? batcher : null);
+        if (changed == null && cancellation.isCanceled()) {
+            // Nobody wants the result anymore, and it wouldn't be up to date.
+            return null;
+        } else if (changed == null) {
+            // Offline or the request failed, the stored events are the best we have.
+            Log.w(LOG_TAG, "Sync failed, showing " + index.size() + " stored earthquakes");
+        } else if (!changed.isEmpty()) {
+            // The store has them now too, but merging the poll is cheaper than reading it all back.
+            // The index updates its stats with the changes only.
+            EarthquakeIndex.ChangeSet changes = index.apply(changed);
+            Log.d(LOG_TAG, "Merged poll: " + changes);
+            changedSinceSnapshot = true;
+        }
+
+        stats.merge(index.getStats());
+        return saveSnapshot(index.snapshot(), changedSinceSnapshot);
+    }
+
+    /**
+     * Deliver the snapshot of the last result of this query, if there is one.
+     */
+    private void showSnapshot() {
+        File file = getSnapshotFile();
+        long start = LoadTrace.start();
+        try {
+            EarthquakeTable table = EarthquakeSnapshot.read(file, QueryKey.normalize(mUrl));
+            LoadTrace.end(LoadTrace.Phase.SNAPSHOT_READ, start);
+            if (table == null || table.size() == 0)
+                return;
+            final List<Earthquake> snapshot = table.asList();
+            final EarthquakeStats snapshotStats = EarthquakeStats.of(snapshot);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (isStarted() && !isAbandoned() && mEarthquakes == null)
+                        deliverResult(snapshot, snapshotStats);
+                }
+            });
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable snapshot " + file, e);
+            file.delete();
+        }
+    }
+
+    /**
+     * Replace the snapshot with the result, unless nothing changed since it was written.
+     *
+     * @return the result
+     */
+    private List<Earthquake> saveSnapshot(List<Earthquake> earthquakes, boolean changed) {
+        if (!changed)
+            return earthquakes;
+        File file = getSnapshotFile();
+        try {
+            File directory = file.getParentFile();
+            if (!directory.exists() && !directory.mkdirs())
+                throw new IOException("Cannot create " + directory);
+            EarthquakeSnapshot.write(file, QueryKey.normalize(mUrl), earthquakes);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not write snapshot " + file, e);
+        }
+        return earthquakes;
+    }
+
+    private File getSnapshotFile() {
+        String name = Integer.toHexString(QueryKey.normalize(mUrl).hashCode()) + ".snapshot";
+        return new File(new File(getContext().getCacheDir(), SNAPSHOT_DIRECTORY), name);
+    }
+
+    private List<Earthquake> fetch(String url, CancellationToken cancellation, EarthquakeBatcher batcher,
+                                   EarthquakeStats stats) {
+        // Loaders asking for the same page at the same time, e.g. after a rotation, share one fetch,
+        // and one asking for a page fetched a moment ago gets that result again.
+        return EarthquakeFetcher.fetchCached(url, mFanOutWindows, cancellation, batcher, stats);
+    }
+
+    /**
+     * @param traceStart when the load started, for the {@link LoadTrace.Phase#FIRST_ROWS} trace
+     * @return the batcher of a progressive load, or null if this load isn't progressive
+     */
+    private EarthquakeBatcher newBatcher(final CancellationToken cancellation, final long traceStart) {
+        // A page that fits into a single batch would only be delivered twice.
+        int firstBatchSize = Math.min(EarthquakeBatcher.DEFAULT_FIRST_BATCH_SIZE, parseLimit(Uri.parse(mUrl)) / 2);
+        if (!mProgressive || firstBatchSize < 1)
+            return null;
+
+        return new EarthquakeBatcher(firstBatchSize, new EarthquakeBatcher.Listener() {
+            /** Only used on the main thread. */
+            private boolean mDelivered;
+
+            @Override
+            public void onBatch(final List<Earthquake> rows) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only while this load is still running, the complete result replaces the batches,
+                        // and never over a complete result that is already shown.
+                        if (mCancellation != cancellation || !isStarted() || isAbandoned())
+                            return;
+                        if (mEarthquakes != null && !EarthquakeBatcher.isPartial(mEarthquakes))
+                            return;
+                        if (!mDelivered) {
+                            mDelivered = true;
+                            LoadTrace.end(LoadTrace.Phase.FIRST_ROWS, traceStart);
+                        }
+                        deliverResult(rows);
+                    }
+                });
+            }
+        });
+    }
+
+    private static int parseLimit(Uri query) {
+        return (int) parseDouble(query.getQueryParameter("limit"), DEFAULT_LIMIT);
+    }
+
+    private static double parseDouble(String value, double fallback) {
+        if (value == null)
+            return fallback;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
 }
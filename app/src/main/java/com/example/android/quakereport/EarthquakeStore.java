@@ -0,0 +1,230 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_DEPTH;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_EVENT_ID;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_LAST_UPDATED;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_LATITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_LONGITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_MAGNITUDE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_PLACE;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_QUERY;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_SYNCED_AT;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_TIME;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_UPDATED;
+import static com.example.android.quakereport.EarthquakeDbHelper.COLUMN_URL;
+import static com.example.android.quakereport.EarthquakeDbHelper.TABLE_EARTHQUAKES;
+import static com.example.android.quakereport.EarthquakeDbHelper.TABLE_SYNC_STATE;
+
+/**
+ * Persistent copy of the USGS events we have already downloaded, keyed by event id.
+ *
+ * The {@link EarthquakeLoader} reads from here first so the list can be shown straight away,
+ * then asks USGS only for the events updated since the last sync ("updatedafter") and
+ * upserts them with {@link #upsert(String, List, ContentObserver)}.
+ *
+ * All methods hit the disk, call them from a background thread.
+ */
+public final class EarthquakeStore {
+
+    /**
+     * Notified through the ContentResolver whenever events are written, so loaders showing
+     * stored events know they have to load again.
+     */
+    public static final Uri CONTENT_URI = Uri.parse("content://com.example.android.quakereport/earthquakes");
+
+    private static EarthquakeStore sInstance;
+
+    private final Context mContext;
+    private final EarthquakeDbHelper mDbHelper;
+
+    private EarthquakeStore(Context context) {
+        mContext = context.getApplicationContext();
+        mDbHelper = new EarthquakeDbHelper(mContext);
+    }
+
+    public static synchronized EarthquakeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeStore(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return the newest stored earthquakes, newest first.
+     *
+     * @param minMagnitude only events with at least this magnitude
+     * @param limit        at most this many events
+     */
+    public List<Earthquake> query(double minMagnitude, int limit) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_EARTHQUAKES, null,
+                COLUMN_MAGNITUDE + " >= ?", new String[]{Double.toString(minMagnitude)},
+                null, null, COLUMN_TIME + " DESC", Integer.toString(limit));
+        EarthquakeTable earthquakes;
+        try {
+            // getCount() runs the query, so it can throw too.
+            earthquakes = new EarthquakeTable(cursor.getCount());
+            int idColumn = cursor.getColumnIndexOrThrow(COLUMN_EVENT_ID);
+            int magnitudeColumn = cursor.getColumnIndexOrThrow(COLUMN_MAGNITUDE);
+            int placeColumn = cursor.getColumnIndexOrThrow(COLUMN_PLACE);
+            int timeColumn = cursor.getColumnIndexOrThrow(COLUMN_TIME);
+            int urlColumn = cursor.getColumnIndexOrThrow(COLUMN_URL);
+            int updatedColumn = cursor.getColumnIndexOrThrow(COLUMN_UPDATED);
+            int latitudeColumn = cursor.getColumnIndexOrThrow(COLUMN_LATITUDE);
+            int longitudeColumn = cursor.getColumnIndexOrThrow(COLUMN_LONGITUDE);
+            int depthColumn = cursor.getColumnIndexOrThrow(COLUMN_DEPTH);
+
+            while (cursor.moveToNext()) {
+                earthquakes.add(
+                        cursor.getString(idColumn),
+                        cursor.getDouble(magnitudeColumn),
+                        cursor.getString(placeColumn),
+                        cursor.getLong(timeColumn),
+                        cursor.getString(urlColumn),
+                        cursor.getLong(updatedColumn),
+                        getDoubleOrNaN(cursor, latitudeColumn),
+                        getDoubleOrNaN(cursor, longitudeColumn),
+                        getDoubleOrNaN(cursor, depthColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return earthquakes.asList();
+    }
+
+    /**
+     * @return the newest "updated" time we have synced for the query, or 0 if it was never synced
+     */
+    public long getLastUpdated(String query) {
+        return getSyncState(query, COLUMN_LAST_UPDATED);
+    }
+
+    /**
+     * @return when the query was last synced successfully (wall clock), or 0 if it was never synced
+     */
+    public long getSyncedAt(String query) {
+        return getSyncState(query, COLUMN_SYNCED_AT);
+    }
+
+    private long getSyncState(String query, String column) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_SYNC_STATE, new String[]{column},
+                COLUMN_QUERY + " = ?", new String[]{query}, null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Insert or replace the given events and move the sync watermark of the query forward,
+     * all in a single transaction. Events without an id are ignored, we couldn't match them later.
+     * Observers of {@link #CONTENT_URI} are notified afterwards.
+     *
+     * @param origin the observer of the writer itself, which doesn't need to hear about its own change
+     */
+    public void upsert(String query, List<Earthquake> earthquakes, ContentObserver origin) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long lastUpdated = getLastUpdated(query);
+
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_EARTHQUAKES + " ("
+                + COLUMN_EVENT_ID + ", " + COLUMN_MAGNITUDE + ", " + COLUMN_PLACE + ", "
+                + COLUMN_TIME + ", " + COLUMN_URL + ", " + COLUMN_UPDATED + ", "
+                + COLUMN_LATITUDE + ", " + COLUMN_LONGITUDE + ", " + COLUMN_DEPTH + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            for (Earthquake earthquake : earthquakes) {
+                if (earthquake.getId() == null)
+                    continue;
+
+                insert.clearBindings();
+                insert.bindString(1, earthquake.getId());
+                insert.bindDouble(2, earthquake.getMagnitudeValue());
+                bindStringOrNull(insert, 3, earthquake.getPlace());
+                insert.bindLong(4, earthquake.getTimeInMillisecond());
+                bindStringOrNull(insert, 5, earthquake.getUrl());
+                insert.bindLong(6, earthquake.getUpdatedInMillisecond());
+                bindDoubleOrNull(insert, 7, earthquake.getLatitude());
+                bindDoubleOrNull(insert, 8, earthquake.getLongitude());
+                bindDoubleOrNull(insert, 9, earthquake.getDepthInKm());
+                insert.executeInsert();
+
+                lastUpdated = Math.max(lastUpdated, earthquake.getUpdatedInMillisecond());
+            }
+
+            writeSyncState(db, query, lastUpdated);
+
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+
+        mContext.getContentResolver().notifyChange(CONTENT_URI, origin);
+    }
+
+    /**
+     * Record a sync that found nothing new, so the query counts as fresh again.
+     */
+    public void markSynced(String query) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        writeSyncState(db, query, getLastUpdated(query));
+    }
+
+    private static void writeSyncState(SQLiteDatabase db, String query, long lastUpdated) {
+        SQLiteStatement syncState = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_SYNC_STATE
+                + " (" + COLUMN_QUERY + ", " + COLUMN_LAST_UPDATED + ", " + COLUMN_SYNCED_AT + ") VALUES (?, ?, ?)");
+        try {
+            syncState.bindString(1, query);
+            syncState.bindLong(2, lastUpdated);
+            syncState.bindLong(3, System.currentTimeMillis());
+            syncState.executeInsert();
+        } finally {
+            syncState.close();
+        }
+    }
+
+    /**
+     * Format a time the way the USGS "updatedafter" parameter expects it (ISO 8601, UTC).
+     */
+    public static String formatUpdatedAfter(long timeInMillis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timeInMillis));
+    }
+
+    private static void bindDoubleOrNull(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static double getDoubleOrNaN(Cursor cursor, int column) {
+        return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Brings the {@link EarthquakeStore} up to date for one query by downloading only the events
+ * updated since the last sync. Shared by the {@link EarthquakeLoader} and the background
+ * {@link EarthquakeSyncService}.
+ */
+public final class EarthquakeSync {
+
+    private static final String LOG_TAG = EarthquakeSync.class.getName();
+
+    private EarthquakeSync() {
+    }
+
+    /**
+     * Must be called from a background thread.
+     *
+     * @param url         the query to sync
+     * @param fanOutWindows number of parallel time windows, see {@link TimeWindowFetcher}; 1 for a single request
+     * @param origin      observer of the caller, which isn't told about its own change
+     * @return true if the store is now up to date with the server
+     */
+    public static boolean sync(Context context, String url, int fanOutWindows, ContentObserver origin) {
+        return syncChanges(context, url, fanOutWindows, origin) != null;
+    }
+
+    /**
+     * Like {@link #sync}, but hands back what the server sent.
+     *
+     * @return the events that were added or updated since the last sync (empty if none),
+     * or null if the sync failed
+     */
+    public static List<Earthquake> syncChanges(Context context, String url, int fanOutWindows, ContentObserver origin) {
+        return syncChanges(context, url, fanOutWindows, origin, null);
+    }
+
+    /**
+     * @param cancellation canceled when the caller gives up, the store is then left as it is. May be null.
+     */
+    public static List<Earthquake> syncChanges(Context context, String url, int fanOutWindows, ContentObserver origin,
+                                               CancellationToken cancellation) {
+        return syncChanges(context, url, fanOutWindows, origin, cancellation, null);
+    }
+
+    /**
+     * @param batcher hands out the changes while they are parsed, before they are stored, see
+     *                {@link EarthquakeFetcher#fetch(String, int, CancellationToken, EarthquakeBatcher)}. May be null.
+     */
+    public static List<Earthquake> syncChanges(Context context, String url, int fanOutWindows, ContentObserver origin,
+                                               CancellationToken cancellation, EarthquakeBatcher batcher) {
+        EarthquakeStore store = EarthquakeStore.getInstance(context);
+
+        long lastUpdated = store.getLastUpdated(url);
+        String requestUrl = url;
+        if (lastUpdated > 0) {
+            requestUrl = Uri.parse(url).buildUpon()
+                    .appendQueryParameter("updatedafter", EarthquakeStore.formatUpdatedAfter(lastUpdated))
+                    .build().toString();
+        }
+
+        // Concurrent syncs of the same query, e.g. a loader and the background service, share one fetch.
+        List<Earthquake> changed = EarthquakeFetcher.fetch(requestUrl, fanOutWindows, cancellation, batcher);
+        if (changed == null) {
+            if (cancellation == null || !cancellation.isCanceled())
+                Log.w(LOG_TAG, "Sync failed for " + url);
+            return null;
+        }
+
+        if (changed.isEmpty()) {
+            store.markSynced(url);
+        } else {
+            store.upsert(url, changed, origin);
+        }
+        return changed;
+    }
+}
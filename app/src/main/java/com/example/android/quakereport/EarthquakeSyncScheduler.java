@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the {@link EarthquakeStore} fresh in the background, so the activity can show stored
+ * events straight away instead of waiting on the network.
+ *
+ * A one-shot alarm starts the {@link EarthquakeSyncService} every interval. When a sync fails the
+ * next one is pushed back exponentially (with jitter, so a flaky network doesn't line every retry up),
+ * and a success goes back to the normal interval. Without a network no alarm is set at all: the
+ * {@link ConnectivityReceiver} is switched on instead and starts the sync once we are connected again.
+ *
+ * The query, interval and failure count live in shared preferences so they survive the process.
+ */
+public final class EarthquakeSyncScheduler {
+
+    private static final String LOG_TAG = EarthquakeSyncScheduler.class.getName();
+
+    private static final String PREFS_NAME = "earthquake_sync";
+    private static final String KEY_URL = "url";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_NEXT_RUN_AT = "next_run_at";
+
+    /** The first retry waits this long, every further failure doubles it. */
+    private static final long INITIAL_BACKOFF_MILLIS = 30 * 1000;
+    /** Never wait longer than this between retries. */
+    private static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000;
+
+    /** The action of the intents the alarm starts the service with, see {@link #onAlarm}. */
+    static final String ACTION_ALARM = "com.example.android.quakereport.action.SYNC_ALARM";
+
+    private static final Random sRandom = new Random();
+
+    /** True while a requested sync is queued or any sync is running, later requests are folded into it. */
+    private static final AtomicBoolean sPending = new AtomicBoolean();
+
+    private EarthquakeSyncScheduler() {
+    }
+
+    /**
+     * Keep the query synced every intervalMillis. Calling this again with the same values doesn't
+     * move the next run, so it is fine to call from every onCreate.
+     */
+    public static void start(Context context, String url, long intervalMillis) {
+        SharedPreferences prefs = getPreferences(context);
+        boolean changed = !url.equals(prefs.getString(KEY_URL, null))
+                || intervalMillis != prefs.getLong(KEY_INTERVAL, 0);
+
+        long nextRunAt = prefs.getLong(KEY_NEXT_RUN_AT, 0);
+        if (changed) {
+            nextRunAt = System.currentTimeMillis() + intervalMillis;
+            prefs.edit()
+                    .putString(KEY_URL, url)
+                    .putLong(KEY_INTERVAL, intervalMillis)
+                    .putInt(KEY_FAILURES, 0)
+                    .putLong(KEY_NEXT_RUN_AT, nextRunAt)
+                    .apply();
+        }
+
+        // Alarms don't survive a reboot or an app update, so set it again. Overdue runs fire right away.
+        setAlarm(context, nextRunAt);
+    }
+
+    /**
+     * Stop the background syncs.
+     */
+    public static void stop(Context context) {
+        getPreferences(context).edit().putString(KEY_URL, null).apply();
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(getSyncIntent(context));
+        setConnectivityReceiverEnabled(context, false);
+    }
+
+    /**
+     * Start a sync now, unless one is already queued or running.
+     */
+    public static void requestSync(Context context) {
+        if (!sPending.compareAndSet(false, true)) {
+            Log.d(LOG_TAG, "Sync already pending");
+            return;
+        }
+        context.startService(new Intent(context, EarthquakeSyncService.class));
+    }
+
+    /**
+     * @return the query to sync, or null if background syncs are stopped
+     */
+    static String getUrl(Context context) {
+        return getPreferences(context).getString(KEY_URL, null);
+    }
+
+    static long getInterval(Context context) {
+        return getPreferences(context).getLong(KEY_INTERVAL, 0);
+    }
+
+    /**
+     * Called by the service when a sync has finished, schedules the next one.
+     */
+    static void onSyncFinished(Context context, boolean success) {
+        SharedPreferences prefs = getPreferences(context);
+        int failures = success ? 0 : prefs.getInt(KEY_FAILURES, 0) + 1;
+        long delay = success ? prefs.getLong(KEY_INTERVAL, 0) : getBackoff(failures);
+        long nextRunAt = System.currentTimeMillis() + delay;
+
+        prefs.edit()
+                .putInt(KEY_FAILURES, failures)
+                .putLong(KEY_NEXT_RUN_AT, nextRunAt)
+                .apply();
+
+        if (!success)
+            Log.w(LOG_TAG, "Sync failed " + failures + " times, retrying in " + delay + " ms");
+
+        setConnectivityReceiverEnabled(context, false);
+        setAlarm(context, nextRunAt);
+    }
+
+    /**
+     * Called by the service when there is no network. Polling would only fail, wait for the
+     * {@link ConnectivityReceiver} to tell us the network is back.
+     */
+    static void onNetworkUnavailable(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(getSyncIntent(context));
+        setConnectivityReceiverEnabled(context, true);
+    }
+
+    /**
+     * Called by the service when it gets to a sync the alarm started. The alarm starts the service
+     * directly rather than through {@link #requestSync}, so it takes the pending flag here.
+     *
+     * @return false if a requested sync already holds it: that one is queued behind this one, does
+     * the same work and sets the next alarm, so this one is dropped
+     */
+    static boolean onAlarm() {
+        if (!sPending.compareAndSet(false, true)) {
+            Log.d(LOG_TAG, "Sync already pending, alarm dropped");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Called by the service once it is done with a request, however that went, so the next
+     * {@link #requestSync} starts a sync again.
+     */
+    static void onSyncDone() {
+        sPending.set(false);
+    }
+
+    /**
+     * Called by the {@link ConnectivityReceiver} once a network is available again.
+     */
+    static void onNetworkAvailable(Context context) {
+        setConnectivityReceiverEnabled(context, false);
+        if (getUrl(context) != null)
+            requestSync(context);
+    }
+
+    /**
+     * @return INITIAL_BACKOFF_MILLIS doubled for every failure after the first, capped at
+     * MAX_BACKOFF_MILLIS, then a random amount between half of that and all of it
+     */
+    static long getBackoff(int failures) {
+        int shift = Math.min(failures - 1, 30);
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << shift);
+        long half = backoff / 2;
+        return half + (long) (sRandom.nextDouble() * (backoff - half));
+    }
+
+    private static void setAlarm(Context context, long triggerAtMillis) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        // Not exact, the system may batch it with other alarms to save battery.
+        alarmManager.set(AlarmManager.RTC, triggerAtMillis, getSyncIntent(context));
+    }
+
+    private static PendingIntent getSyncIntent(Context context) {
+        Intent intent = new Intent(context, EarthquakeSyncService.class).setAction(ACTION_ALARM);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private static void setConnectivityReceiverEnabled(Context context, boolean enabled) {
+        ComponentName receiver = new ComponentName(context, ConnectivityReceiver.class);
+        context.getPackageManager().setComponentEnabledSetting(receiver,
+                enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+                PackageManager.DONT_KILL_APP);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
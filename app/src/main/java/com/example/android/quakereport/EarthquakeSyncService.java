@@ -0,0 +1,71 @@
+package com.example.android.quakereport;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+/**
+ * Runs one background sync of the query set up with {@link EarthquakeSyncScheduler#start},
+ * then hands the result back to the scheduler so it can plan the next run.
+ *
+ * IntentService runs its requests one at a time, so an alarm and a connectivity change arriving
+ * together can't sync in parallel, and the second one finds the store fresh and does nothing.
+ */
+public class EarthquakeSyncService extends IntentService {
+
+    private static final String LOG_TAG = EarthquakeSyncService.class.getName();
+
+    /** A sync that finished less than this long ago, here or in a loader, is good enough. */
+    private static final long MIN_SPACING_MILLIS = 30 * 1000;
+
+    public EarthquakeSyncService() {
+        super("EarthquakeSyncService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent != null && EarthquakeSyncScheduler.ACTION_ALARM.equals(intent.getAction())
+                && !EarthquakeSyncScheduler.onAlarm())
+            return;
+        try {
+            sync();
+        } finally {
+            // However the request ended, or every later one would be dropped as already pending.
+            EarthquakeSyncScheduler.onSyncDone();
+        }
+    }
+
+    private void sync() {
+        String url = EarthquakeSyncScheduler.getUrl(this);
+        if (url == null)
+            return;
+
+        if (!isConnected()) {
+            EarthquakeSyncScheduler.onNetworkUnavailable(this);
+            return;
+        }
+
+        boolean success;
+        try {
+            long syncedAt = EarthquakeStore.getInstance(this).getSyncedAt(url);
+            success = System.currentTimeMillis() - syncedAt < MIN_SPACING_MILLIS
+                    // No origin observer: every open loader should pick up what we stored.
+                    || EarthquakeSync.sync(this, url, 1, null);
+        } catch (RuntimeException e) {
+            // E.g. the store failed to write. Retried with backoff, like a failed request.
+            Log.e(LOG_TAG, "Problem syncing " + url, e);
+            success = false;
+        }
+
+        EarthquakeSyncScheduler.onSyncFinished(this, success);
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.content.Loader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A loader that does its work in {@link #loadInBackground()} like an AsyncTaskLoader, but on a
+ * {@link PriorityExecutor} of our choosing instead of the process wide AsyncTask executor, where
+ * it would wait behind whatever else the process runs there.
+ *
+ * By default all loaders share one pool of background priority threads, so a few queries load in
+ * parallel without starving the UI thread, and the queue is ordered by {@link #setPriority
+ * priority}: a loader whose rows are on screen is started before one that only prefetches.
+ *
+ * Loads are started, canceled and delivered the way AsyncTaskLoader does it: a load that is
+ * canceled while it runs is allowed to finish, its result goes to {@link #onCanceled}, and the next
+ * load only starts after that. One that is canceled while it still waits never runs.
+ *
+ * Every load gets its own {@link CancellationToken}, created on the main thread before the load is
+ * submitted, so a cancel is never lost however early it comes, even before the load has started.
+ */
+public abstract class ExecutorLoader<D> extends Loader<D> {
+
+    /** Loads whose result is not on screen yet, e.g. the page after the visible one. */
+    public static final int PRIORITY_PREFETCH = -1;
+    public static final int PRIORITY_DEFAULT = PriorityExecutor.DEFAULT_PRIORITY;
+    /** Loads whose result is on screen, or about to replace what is. */
+    public static final int PRIORITY_VISIBLE = 1;
+
+    /** A loader mostly waits on the network, a few are enough to keep the pages in flight busy. */
+    private static final int DEFAULT_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static PriorityExecutor sDefaultExecutor;
+
+    private final PriorityExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private int mPriority = PRIORITY_DEFAULT;
+
+    /** The load that runs or waits to run, only used on the main thread. */
+    private LoadTask mTask;
+    /** A canceled load that is still running, the next one waits for it. */
+    private LoadTask mCancellingTask;
+
+    /**
+     * Runs on the {@link #getDefaultExecutor() shared loader pool}.
+     */
+    public ExecutorLoader(Context context) {
+        this(context, getDefaultExecutor());
+    }
+
+    public ExecutorLoader(Context context, PriorityExecutor executor) {
+        super(context);
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the pool the loaders share unless they are given another one
+     */
+    public static synchronized PriorityExecutor getDefaultExecutor() {
+        if (sDefaultExecutor == null)
+            sDefaultExecutor = newExecutor("Loaders", DEFAULT_THREADS, Process.THREAD_PRIORITY_BACKGROUND);
+        return sDefaultExecutor;
+    }
+
+    /**
+     * @param threads        the most loads running at the same time
+     * @param threadPriority an {@link Process#setThreadPriority(int) Android thread priority} for its threads
+     * @return an executor for loaders that should not share the default pool
+     */
+    public static PriorityExecutor newExecutor(final String name, int threads, final int threadPriority) {
+        return new PriorityExecutor(name, threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(threadPriority);
+                        runnable.run();
+                    }
+                }, name + " #" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Called on a background thread to do the work of a load.
+     *
+     * @param cancellation canceled when the load is, from the main thread
+     * @return the result to deliver, or to hand to {@link #onCanceled} if the load was canceled meanwhile
+     */
+    public abstract D loadInBackground(CancellationToken cancellation);
+
+    /**
+     * Called on the main thread when the load in progress is canceled, right after its token.
+     */
+    public void cancelLoadInBackground() {
+    }
+
+    /**
+     * Called on the main thread with the result of a canceled load, to release it. May be null.
+     */
+    public void onCanceled(D data) {
+    }
+
+    /**
+     * @return whether a canceled load is still running
+     */
+    public boolean isLoadInBackgroundCanceled() {
+        return mCancellingTask != null;
+    }
+
+    /**
+     * Set the priority of this loader's loads on the executor, higher runs first. Also moves a load
+     * that is already waiting. Call on the main thread.
+     */
+    public void setPriority(int priority) {
+        mPriority = priority;
+        if (mTask != null && mTask.mExecutorTask != null)
+            mTask.mExecutorTask.setPriority(priority);
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Loader only has this since API 16, before that AsyncTaskLoader had its own.
+     *
+     * @return false if there was no load to cancel or it had already finished
+     */
+    @Override
+    public boolean cancelLoad() {
+        return onCancelLoad();
+    }
+
+    @Override
+    protected void onForceLoad() {
+        super.onForceLoad();
+        cancelLoad();
+        mTask = new LoadTask();
+        executePendingTask();
+    }
+
+    @Override
+    protected boolean onCancelLoad() {
+        if (mTask == null)
+            return false;
+
+        if (mCancellingTask != null) {
+            // The load waits for a canceled one to finish and hasn't been submitted, just drop it.
+            mTask = null;
+            return false;
+        }
+
+        boolean canceled = mTask.cancel();
+        if (canceled) {
+            mCancellingTask = mTask;
+            cancelLoadInBackground();
+        }
+        mTask = null;
+        return canceled;
+    }
+
+    private void executePendingTask() {
+        if (mCancellingTask == null && mTask != null)
+            mTask.mExecutorTask = mExecutor.submit(mTask, mPriority);
+    }
+
+    private void dispatchOnCanceled(LoadTask task, D data) {
+        onCanceled(data);
+        if (mCancellingTask == task) {
+            // The content change that started the canceled load still has to be loaded.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                rollbackContentChanged();
+            mCancellingTask = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+                deliverCancellation();
+            executePendingTask();
+        }
+    }
+
+    private void dispatchOnLoadComplete(LoadTask task, D data) {
+        if (mTask != task) {
+            // Canceled just after it finished.
+            dispatchOnCanceled(task, data);
+        } else if (isAbandoned()) {
+            onCanceled(data);
+        } else {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                commitContentChanged();
+            mTask = null;
+            deliverResult(data);
+        }
+    }
+
+    /**
+     * One load: runs on the executor, then reports back on the main thread.
+     */
+    private final class LoadTask implements Runnable {
+        /** Set on the main thread once submitted. */
+        PriorityExecutor.Task mExecutorTask;
+        private final CancellationToken mCancellation = new CancellationToken();
+        private volatile boolean mCanceled;
+        private volatile boolean mFinished;
+
+        @Override
+        public void run() {
+            D data = null;
+            try {
+                if (!mCanceled)
+                    data = loadInBackground(mCancellation);
+            } finally {
+                mFinished = true;
+                final D result = data;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCanceled)
+                            dispatchOnCanceled(LoadTask.this, result);
+                        else
+                            dispatchOnLoadComplete(LoadTask.this, result);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Called on the main thread.
+         *
+         * @return false if the load had already finished
+         */
+        boolean cancel() {
+            if (mFinished || mCanceled)
+                return false;
+            mCanceled = true;
+            mCancellation.cancel();
+            if (mExecutorTask != null && mExecutorTask.cancel()) {
+                // It never ran, so nothing else will report back.
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatchOnCanceled(LoadTask.this, null);
+                    }
+                });
+            }
+            return true;
+        }
+    }
+}
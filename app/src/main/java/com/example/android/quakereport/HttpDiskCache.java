@@ -0,0 +1,576 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small persistent response cache for the USGS feed, keyed by request URL.
+ *
+ * For every URL we keep two files in the cache directory: the raw response body and a
+ * properties file with the validators ("ETag" / "Last-Modified") and the time the body stops
+ * being fresh ("Cache-Control: max-age"). {@link QueryUtils} uses the validators to send a
+ * conditional GET, and serves the body from disk when the server answers 304 or while the
+ * entry is still fresh.
+ *
+ * The directory is bounded by size and the least recently used entries are evicted first.
+ * The access order survives restarts because the body file's last-modified time is bumped
+ * on every read.
+ */
+public final class HttpDiskCache {
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_EXPIRES_AT = "expiresAt";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /** Entries in access order, the eldest entry is the first one to evict. */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mSize;
+    private boolean mLoaded;
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mRevalidationCount = new AtomicLong();
+
+    /**
+     * Creating the cache is cheap, the directory is only scanned on first use so it is safe
+     * to do this from the main thread.
+     *
+     * @param directory where the responses are stored, it is created if needed
+     * @param maxBytes  upper bound for the total size of the cached bodies
+     */
+    public HttpDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * A cached response. Instances are only handed out by the cache.
+     */
+    public static final class Entry {
+        private final String mKey;
+        private final String mUrl;
+        private final File mBodyFile;
+        private final File mMetaFile;
+        private String mETag;
+        private String mLastModified;
+        private long mExpiresAt;
+
+        private Entry(String key, String url, File bodyFile, File metaFile) {
+            mKey = key;
+            mUrl = url;
+            mBodyFile = bodyFile;
+            mMetaFile = metaFile;
+        }
+
+        public String getETag() {
+            return mETag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public File getBodyFile() {
+            return mBodyFile;
+        }
+
+        /**
+         * @return true while the server said this response may be reused without asking again
+         */
+        public boolean isFresh(long nowMillis) {
+            return nowMillis < mExpiresAt;
+        }
+
+        /**
+         * Open the cached response body.
+         *
+         * @throws java.io.FileNotFoundException if the entry was evicted since it was handed out
+         */
+        public InputStream newInputStream() throws IOException {
+            return new FileInputStream(mBodyFile);
+        }
+    }
+
+    /**
+     * Look up the response stored for the given URL and mark it as most recently used.
+     *
+     * @return the entry, or null if nothing is cached for the URL
+     */
+    public synchronized Entry get(String url) {
+        ensureLoaded();
+
+        Entry entry = mEntries.get(keyFor(url));
+        if (entry == null || !entry.mUrl.equals(url) || !entry.mBodyFile.exists()) {
+            return null;
+        }
+
+        entry.mBodyFile.setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Copy a response body into the cache. The body is written to a temporary file first and
+     * only moved into place once it is complete, so a failed download never replaces a good entry.
+     *
+     * @return the new entry with its body, opened before another download could evict it. The
+     * caller closes it.
+     */
+    public Snapshot put(String url, InputStream body, String eTag, String lastModified, long expiresAt)
+            throws IOException {
+        Editor editor = edit(url);
+        try {
+            byte[] buffer = HttpTransport.buffer();
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                editor.mOut.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+        return editor.commit(eTag, lastModified, expiresAt, true);
+    }
+
+    /**
+     * An entry together with its body, opened while the cache was locked. The open body stays
+     * readable even when the entry is evicted or replaced afterwards.
+     */
+    public static final class Snapshot implements Closeable {
+        private final Entry mEntry;
+        private final InputStream mBody;
+
+        private Snapshot(Entry entry, InputStream body) {
+            mEntry = entry;
+            mBody = body;
+        }
+
+        public Entry getEntry() {
+            return mEntry;
+        }
+
+        public InputStream getInputStream() {
+            return mBody;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mBody.close();
+        }
+    }
+
+    /**
+     * Start writing a response body into the cache, for callers that want to read the body
+     * themselves while it is stored, see {@link Editor#tee}. Like {@link #put}, the body only
+     * replaces the entry for the URL once it is {@link Editor#commit committed}.
+     */
+    public Editor edit(String url) throws IOException {
+        String key = keyFor(url);
+
+        synchronized (this) {
+            ensureLoaded();
+            if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+                throw new IOException("Cannot create cache directory " + mDirectory);
+            }
+        }
+
+        // Download outside of the lock so a slow response doesn't block readers of other entries.
+        File tempFile = new File(mDirectory, key + TEMP_SUFFIX + Thread.currentThread().getId());
+        return new Editor(key, url, tempFile);
+    }
+
+    /**
+     * A response body being written into the cache. Must be either committed or aborted.
+     */
+    public final class Editor {
+        private final String mKey;
+        private final String mUrl;
+        private final File mTempFile;
+        private final OutputStream mOut;
+
+        private Editor(String key, String url, File tempFile) throws IOException {
+            mKey = key;
+            mUrl = url;
+            mTempFile = tempFile;
+            mOut = new FileOutputStream(tempFile);
+        }
+
+        /**
+         * @return a stream that reads the body and writes everything it reads into the cache.
+         * Read it to the end before committing, anything not read isn't stored.
+         */
+        public InputStream tee(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1)
+                        mOut.write(b);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0)
+                        mOut.write(buffer, offset, read);
+                    return read;
+                }
+
+                @Override
+                public long skip(long count) throws IOException {
+                    // Skipped bytes have to be stored too.
+                    byte[] buffer = new byte[(int) Math.min(count, 4096)];
+                    int read = read(buffer, 0, buffer.length);
+                    return Math.max(read, 0);
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Move the written body into place, replacing the previous entry for the URL.
+         *
+         * @return the new entry
+         */
+        public Entry commit(String eTag, String lastModified, long expiresAt) throws IOException {
+            return commit(eTag, lastModified, expiresAt, false).getEntry();
+        }
+
+        /**
+         * @param open also open the new body, before the next commit can evict it
+         * @return the new entry, with its body if it was opened
+         */
+        private Snapshot commit(String eTag, String lastModified, long expiresAt, boolean open)
+                throws IOException {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                mTempFile.delete();
+                throw e;
+            }
+
+            synchronized (HttpDiskCache.this) {
+                Entry entry = new Entry(mKey, mUrl, new File(mDirectory, mKey + BODY_SUFFIX),
+                        new File(mDirectory, mKey + META_SUFFIX));
+                entry.mETag = eTag;
+                entry.mLastModified = lastModified;
+                entry.mExpiresAt = expiresAt;
+
+                // The meta goes first. If it can't be written, the previous entry is left as it was.
+                try {
+                    writeMeta(entry);
+                } catch (IOException e) {
+                    mTempFile.delete();
+                    throw e;
+                }
+
+                Entry previous = mEntries.remove(mKey);
+                if (previous != null) {
+                    mSize -= previous.mBodyFile.length();
+                }
+
+                if (!mTempFile.renameTo(entry.mBodyFile)) {
+                    // The new meta mustn't describe the previous body, e.g. vouch for it with the new ETag.
+                    mTempFile.delete();
+                    entry.mBodyFile.delete();
+                    entry.mMetaFile.delete();
+                    throw new IOException("Cannot move " + mTempFile + " into the cache");
+                }
+
+                mEntries.put(mKey, entry);
+                mSize += entry.mBodyFile.length();
+                trimToSize();
+                return new Snapshot(entry, open ? new FileInputStream(entry.mBodyFile) : null);
+            }
+        }
+
+        /**
+         * Throw away what was written, the entry for the URL stays as it was.
+         */
+        public void abort() {
+            try {
+                mOut.close();
+            } catch (IOException ignored) {
+            }
+            mTempFile.delete();
+        }
+    }
+
+    /**
+     * The server answered 304 Not Modified: keep the body and refresh its freshness lifetime.
+     * Validators sent along with the 304 replace the stored ones.
+     */
+    public synchronized void update(Entry entry, String eTag, String lastModified, long expiresAt) {
+        if (eTag != null) {
+            entry.mETag = eTag;
+        }
+        if (lastModified != null) {
+            entry.mLastModified = lastModified;
+        }
+        entry.mExpiresAt = expiresAt;
+
+        try {
+            writeMeta(entry);
+        } catch (IOException e) {
+            // Not fatal, the next request will simply revalidate again.
+        }
+    }
+
+    /**
+     * Throw away an entry whose body turned out to be unusable, e.g. an error page that isn't a
+     * feed, so the next request goes to the network. An entry that was replaced meanwhile is kept.
+     */
+    public synchronized void remove(Entry entry) {
+        if (mEntries.get(entry.mKey) != entry) {
+            return;
+        }
+        mEntries.remove(entry.mKey);
+        mSize -= entry.mBodyFile.length();
+        entry.mBodyFile.delete();
+        entry.mMetaFile.delete();
+    }
+
+    /** Record a response served from disk without touching the network. */
+    public void recordHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    /** Record a response that had to be downloaded in full. */
+    public void recordMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    /** Record a conditional request that the server answered with 304. */
+    public void recordRevalidation() {
+        mRevalidationCount.incrementAndGet();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    public long getRevalidationCount() {
+        return mRevalidationCount.get();
+    }
+
+    public synchronized long size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Work out when a response stops being fresh from its "Cache-Control" header.
+     *
+     * @return the expiry time in milliseconds, or 0 when the response must be revalidated
+     * (no max-age, "no-cache" or "no-store")
+     */
+    public static long computeExpiresAt(String cacheControl, long nowMillis) {
+        if (cacheControl == null) {
+            return 0;
+        }
+
+        long maxAgeSeconds = -1;
+        for (String directive : cacheControl.split(",")) {
+            String value = directive.trim().toLowerCase(Locale.US);
+            if (value.equals("no-cache") || value.equals("no-store")) {
+                return 0;
+            }
+            if (value.startsWith("max-age=")) {
+                try {
+                    maxAgeSeconds = Long.parseLong(value.substring("max-age=".length()));
+                } catch (NumberFormatException e) {
+                    maxAgeSeconds = -1;
+                }
+            }
+        }
+
+        return maxAgeSeconds > 0 ? nowMillis + maxAgeSeconds * 1000 : 0;
+    }
+
+    /**
+     * @return false when the server asked us not to keep the response at all
+     */
+    public static boolean isStorable(String cacheControl) {
+        return cacheControl == null || !cacheControl.toLowerCase(Locale.US).contains("no-store");
+    }
+
+    /**
+     * Evict the least recently used entries until we fit. The most recent entry is always kept,
+     * even when it is larger than the whole cache, because the caller is about to read it.
+     */
+    private void trimToSize() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (mSize > mMaxBytes && mEntries.size() > 1) {
+            Entry eldest = iterator.next();
+            mSize -= eldest.mBodyFile.length();
+            eldest.mBodyFile.delete();
+            eldest.mMetaFile.delete();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Rebuild the index from the files left by a previous run, oldest access first.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        File[] metaFiles = mDirectory.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<Entry>();
+        for (File file : metaFiles) {
+            String name = file.getName();
+            if (name.contains(TEMP_SUFFIX)) {
+                // Left over from a download that never finished.
+                file.delete();
+                continue;
+            }
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+
+            String key = name.substring(0, name.length() - META_SUFFIX.length());
+            Entry entry = readMeta(key, file);
+            if (entry == null) {
+                file.delete();
+                new File(mDirectory, key + BODY_SUFFIX).delete();
+            } else {
+                entries.add(entry);
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                long lhs = a.mBodyFile.lastModified();
+                long rhs = b.mBodyFile.lastModified();
+                return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+            }
+        });
+        for (Entry entry : entries) {
+            mEntries.put(entry.mKey, entry);
+            mSize += entry.mBodyFile.length();
+        }
+        trimToSize();
+    }
+
+    private Entry readMeta(String key, File metaFile) {
+        File bodyFile = new File(mDirectory, key + BODY_SUFFIX);
+        if (!bodyFile.exists()) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(metaFile);
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        String url = properties.getProperty(KEY_URL);
+        if (url == null) {
+            return null;
+        }
+
+        Entry entry = new Entry(key, url, bodyFile, metaFile);
+        entry.mETag = properties.getProperty(KEY_ETAG);
+        entry.mLastModified = properties.getProperty(KEY_LAST_MODIFIED);
+        try {
+            entry.mExpiresAt = Long.parseLong(properties.getProperty(KEY_EXPIRES_AT, "0"));
+        } catch (NumberFormatException e) {
+            entry.mExpiresAt = 0;
+        }
+        return entry;
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_URL, entry.mUrl);
+        if (entry.mETag != null) {
+            properties.setProperty(KEY_ETAG, entry.mETag);
+        }
+        if (entry.mLastModified != null) {
+            properties.setProperty(KEY_LAST_MODIFIED, entry.mLastModified);
+        }
+        properties.setProperty(KEY_EXPIRES_AT, Long.toString(entry.mExpiresAt));
+
+        File tempFile = new File(mDirectory, entry.mKey + META_SUFFIX + TEMP_SUFFIX);
+        OutputStream out = new FileOutputStream(tempFile);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(entry.mMetaFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot write " + entry.mMetaFile);
+        }
+    }
+
+    private static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            return String.format(Locale.US, "%032x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // MD5 and UTF-8 are always there, but fall back to something that still works.
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
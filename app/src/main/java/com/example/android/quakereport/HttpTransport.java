@@ -0,0 +1,280 @@
+package com.example.android.quakereport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP plumbing under {@link QueryUtils}.
+ *
+ * Connections are not disconnected after a request: the body is read to the end and closed, which
+ * hands the socket back to HttpURLConnection's keep-alive pool so the next loader run can skip the
+ * TCP and TLS handshakes. Responses are requested gzip compressed and decompressed here, and both
+ * the compressed bytes read from the socket and the decoded bytes handed to the parser are counted.
+ *
+ * A request can be given a {@link CancellationToken}: canceling it closes the connection, which
+ * unblocks a connect or read in progress, and the body stops between two chunks.
+ */
+final class HttpTransport {
+
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Don't spend more than this on draining a body nobody wants, just drop the connection. */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final AtomicLong sBytesOnWire = new AtomicLong();
+    private static final AtomicLong sBytesDecoded = new AtomicLong();
+
+    /** One copy buffer per thread, reused for every request that thread makes. */
+    private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private HttpTransport() {
+    }
+
+    /**
+     * Open a GET request that asks for a gzip compressed response over a persistent connection.
+     */
+    static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setUseCaches(false);
+        urlConnection.setRequestProperty("Connection", "keep-alive");
+        // Setting this ourselves turns off the transparent decompression, openBody() does it instead,
+        // which is what lets us count the bytes that actually went over the wire.
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        return urlConnection;
+    }
+
+    /**
+     * Close the connection as soon as the token is canceled, from the canceling thread.
+     *
+     * @return the listener to pass to {@link #stopAbortOnCancel} once the request is over, null without a token
+     */
+    static CancellationToken.OnCancelListener abortOnCancel(final HttpURLConnection urlConnection,
+                                                            CancellationToken cancellation) {
+        if (cancellation == null)
+            return null;
+        CancellationToken.OnCancelListener abort = new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                urlConnection.disconnect();
+            }
+        };
+        cancellation.addListener(abort);
+        return abort;
+    }
+
+    static void stopAbortOnCancel(CancellationToken cancellation, CancellationToken.OnCancelListener abort) {
+        if (abort != null)
+            cancellation.removeListener(abort);
+    }
+
+    /**
+     * @param transfer     where the reads of the body are reported to, or null when not tracing
+     * @param cancellation checked before each read, may be null
+     * @return the decoded response body. Read it to the end, then pass it to {@link #release}.
+     *         Once the token is canceled its reads throw an {@link InterruptedIOException}.
+     */
+    static InputStream openBody(HttpURLConnection urlConnection, LoadTrace.Transfer transfer,
+                                CancellationToken cancellation) throws IOException {
+        InputStream body = urlConnection.getInputStream();
+        if (transfer != null)
+            body = new TracingInputStream(body, transfer, true);
+        body = new CountingInputStream(body, sBytesOnWire);
+        if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+            body = new GZIPInputStream(body, BUFFER_SIZE);
+        }
+        body = new CountingInputStream(body, sBytesDecoded);
+        if (transfer != null)
+            body = new TracingInputStream(body, transfer, false);
+        if (cancellation != null)
+            body = new CancelableInputStream(body, cancellation);
+        return body;
+    }
+
+    /**
+     * Finish a request. After a complete exchange the connection is kept for reuse, otherwise
+     * (an error, or a body we gave up on) it is closed.
+     *
+     * @param body     the stream returned by {@link #openBody}, may be null
+     * @param complete true if the response was handled completely
+     */
+    static void release(HttpURLConnection urlConnection, InputStream body, boolean complete) throws IOException {
+        if (urlConnection == null)
+            return;
+
+        if (body == null) {
+            if (!complete)
+                urlConnection.disconnect();
+            return;
+        }
+
+        try {
+            // The connection can only be reused once its body has been consumed.
+            if (complete && drain(body))
+                return;
+            urlConnection.disconnect();
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * @return the per-thread copy buffer, callers must not keep it past their own call
+     */
+    static byte[] buffer() {
+        return sBuffers.get();
+    }
+
+    /**
+     * @return the number of (possibly compressed) body bytes read from the network
+     */
+    static long getBytesOnWire() {
+        return sBytesOnWire.get();
+    }
+
+    /**
+     * @return the number of body bytes after decompression
+     */
+    static long getBytesDecoded() {
+        return sBytesDecoded.get();
+    }
+
+    private static boolean drain(InputStream body) throws IOException {
+        byte[] buffer = buffer();
+        int drained = 0;
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            drained += read;
+            if (drained > MAX_DRAIN_BYTES)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the number of bytes read through it to a counter.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1)
+                mCounter.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0)
+                mCounter.addAndGet(read);
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            if (skipped > 0)
+                mCounter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+
+    /**
+     * Reports the reads of a response body to a {@link LoadTrace.Transfer}: on the socket side how
+     * long each read blocked and what it returned, on the decoded side only the bytes.
+     */
+    private static final class TracingInputStream extends FilterInputStream {
+        private final LoadTrace.Transfer mTransfer;
+        private final boolean mWire;
+
+        TracingInputStream(InputStream in, LoadTrace.Transfer transfer, boolean wire) {
+            super(in);
+            mTransfer = transfer;
+            mWire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = mWire ? System.nanoTime() : 0;
+            int b = super.read();
+            report(start, b != -1 ? 1 : 0);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = mWire ? System.nanoTime() : 0;
+            int read = super.read(buffer, offset, count);
+            report(start, Math.max(read, 0));
+            return read;
+        }
+
+        private void report(long start, long bytes) {
+            if (mWire) {
+                mTransfer.onWireRead(System.nanoTime() - start, bytes);
+            } else {
+                mTransfer.onDecodedRead(bytes);
+            }
+        }
+    }
+
+    /**
+     * Stops handing out bytes once its token is canceled, so whoever loops over the body
+     * (the parser, the cache spooling it to disk) gives up at the next chunk.
+     */
+    private static final class CancelableInputStream extends FilterInputStream {
+        private final CancellationToken mCancellation;
+
+        CancelableInputStream(InputStream in, CancellationToken cancellation) {
+            super(in);
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkCanceled();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            checkCanceled();
+            return super.read(buffer, offset, count);
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            checkCanceled();
+            return super.skip(count);
+        }
+
+        private void checkCanceled() throws InterruptedIOException {
+            if (mCancellation.isCanceled())
+                throw new InterruptedIOException("Request canceled");
+        }
+    }
+}
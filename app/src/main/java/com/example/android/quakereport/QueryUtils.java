@@ -1,27 +1,18 @@
 package com.example.android.quakereport;
 
-import android.support.v4.app.NavUtils;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.LinearLayout;
-import android.widget.ListView;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.concurrent.RecursiveTask;
 
 /**
  * Helper methods related to requesting and receiving earthquake data from USGS.
@@ -33,6 +24,11 @@ public final class QueryUtils {
      */
     private static final String LOG_TAG = QueryUtils.class.getName();
 
+    /**
+     * Response cache used by {@link #makeHttpRequest}, or null to always go to the network.
+     */
+    private static volatile HttpDiskCache sHttpCache;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -41,6 +37,32 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * @return the number of response body bytes received from the network, before decompression
+     */
+    public static long getBytesOnWire() {
+        return HttpTransport.getBytesOnWire();
+    }
+
+    /**
+     * @return the number of response body bytes after gzip decompression
+     */
+    public static long getBytesDecoded() {
+        return HttpTransport.getBytesDecoded();
+    }
+
+    /**
+     * Install the cache that HTTP responses are stored in and revalidated against.
+     * Pass null to turn caching off.
+     */
+    public static void setHttpCache(HttpDiskCache cache) {
+        sHttpCache = cache;
+    }
+
+    public static HttpDiskCache getHttpCache() {
+        return sHttpCache;
+    }
+
     /*
     * Add in the fetchEarthquakeData() helper method that ties all the steps together - creating a URL,
     * sending the request, processing the response. Since this is the only “public” QueryUtils method
@@ -49,18 +71,109 @@ public final class QueryUtils {
 
     public static List<Earthquake> fetchEarthquakeData(String requestURL)
     {
-        URL url = createURL(requestURL);
+        EarthquakeTable table = fetchEarthquakeTable(requestURL);
 
-        String JsonResponse = null;
+        // Keep the old contract: a failed request gives back null rather than an empty list.
+        return table != null ? table.asList() : null;
+    }
+
+    /**
+     * Like {@link #fetchEarthquakeData(String)}, but the parsed fields go straight into the columns of an
+     * {@link EarthquakeTable}, without creating an {@link Earthquake} object per event.
+     *
+     * @return the table, or null if the request failed
+     */
+    public static EarthquakeTable fetchEarthquakeTable(String requestURL)
+    {
+        return fetchEarthquakeTable(requestURL, null);
+    }
+
+    /**
+     * @param cancellation canceling it closes the connection and stops the parse, may be null
+     * @return the table, or null if the request failed or was canceled
+     */
+    public static EarthquakeTable fetchEarthquakeTable(String requestURL, CancellationToken cancellation)
+    {
+        return fetchEarthquakeTable(requestURL, cancellation, null);
+    }
+
+    /**
+     * Progressive variant: the rows are handed to the batcher while the response is still coming
+     * in. A response that goes into the {@link HttpDiskCache} is parsed as it is stored, instead
+     * of after it has been stored completely.
+     *
+     * @param batcher hands out the rows parsed so far, may be null
+     * @return the table, or null if the request failed or was canceled
+     */
+    public static EarthquakeTable fetchEarthquakeTable(String requestURL, CancellationToken cancellation,
+                                                       EarthquakeBatcher batcher)
+    {
+        return fetchEarthquakeTable(requestURL, cancellation, batcher, null);
+    }
+
+    /**
+     * @param stats every parsed row is added to them as it is parsed, so the result doesn't need
+     *              another pass to be summed up; may be null. On failure they have counted the
+     *              rows parsed before it.
+     * @return the table, or null if the request failed or was canceled
+     */
+    public static EarthquakeTable fetchEarthquakeTable(String requestURL, CancellationToken cancellation,
+                                                       EarthquakeBatcher batcher, EarthquakeStats stats)
+    {
+        FeedDecoder decoder = getDecoder(requestURL);
+        if (decoder == null)
+            return null;
+
+        EarthquakeTable table = new EarthquakeTable();
+
+        boolean success = fetchFeatures(requestURL, toSink(decoder, FeedDecoders.toSink(table, batcher, stats),
+                cancellation), cancellation, batcher != null);
+
+        return success ? table : null;
+    }
+
+    /**
+     * Streaming variant of {@link #fetchEarthquakeData(String)}. The response is parsed straight from the
+     * connection's InputStream and every {@link Earthquake} is handed to the listener as soon as its feature
+     * has been read, so we never hold more than one feature of the feed in memory.
+     *
+     * @return true if the request succeeded and the feed was parsed
+     */
+    public static boolean fetchEarthquakeData(String requestURL, OnEarthquakeParsedListener listener)
+    {
+        FeedDecoder decoder = getDecoder(requestURL);
+        if (decoder == null)
+            return false;
+
+        return fetchFeatures(requestURL, toSink(decoder, FeedDecoders.toSink(listener), null), null, false);
+    }
+
+    /**
+     * @return the decoder for the format the query asks for, see {@link FeedDecoders#forQuery},
+     * or null if we can't read it
+     */
+    private static FeedDecoder getDecoder(String requestURL)
+    {
+        FeedDecoder decoder = FeedDecoders.forQuery(requestURL);
+        if (decoder == null)
+            Log.e(LOG_TAG, "Unsupported format: " + requestURL);
+        return decoder;
+    }
+
+    private static boolean fetchFeatures(String requestURL, FeatureSink sink, CancellationToken cancellation,
+                                         boolean progressive)
+    {
+        URL url = createURL(requestURL);
 
         try {
-            JsonResponse = makeHttpRequest(url);
+            return makeHttpRequest(url, sink, cancellation, progressive);
         } catch (IOException e) {
-            Log.e(LOG_TAG,"Problem in making HTTP Request ",e);
+            if (isCanceled(cancellation))
+                Log.d(LOG_TAG, "Request canceled: " + requestURL);
+            else
+                Log.e(LOG_TAG,"Problem in making HTTP Request ",e);
         }
-        List<Earthquake> earthquakes = extractFeatureFromJson(JsonResponse);
-
-        return earthquakes;
+        return false;
     }
 
     /**
@@ -79,60 +192,21 @@ public final class QueryUtils {
         * a linkList instead of an ArrayList we can directly change from here    List<Earthquake> earthquakes = new LinkList<>();
         * And Thus our code will become more flexible
         **/
-        List<Earthquake> earthquakes = new ArrayList<Earthquake>();
-
+        final List<Earthquake> earthquakes = new ArrayList<Earthquake>();
 
-        // Try to parse the SAMPLE_JSON_RESPONSE. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
+        // Try to parse the JSON response. If there's a problem with the way the JSON
+        // is formatted, an IOException will be thrown.
         // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        // The earthquakes parsed before the problem are kept.
         try {
-
-            // TODO: Parse the response given by the SAMPLE_JSON_RESPONSE string and
-            // build up a list of Earthquake objects with the corresponding data.
-
-
-            JSONObject baseJasonResponse = new JSONObject(earthquakeJSON);
-
-            // Extract the JSONArray associated with the key called "features",
-            // which represents a list of features (or earthquakes).
-
-            JSONArray earhQuackArray = baseJasonResponse.getJSONArray("features");
-
-            // For each earthquake in the earthquakeArray, create an {@link Earthquake} object
-            for (int i = 0; i < earhQuackArray.length(); i++) {
-
-                // Get a single earthquake at position i within the list of earthquakes
-                JSONObject currEarthQuack = earhQuackArray.getJSONObject(i);
-
-                // For a given earthquake, extract the JSONObject associated with the
-                // key called "properties", which represents a list of all properties
-                // for that earthquake.
-                JSONObject properties = currEarthQuack.getJSONObject("properties");
-
-                // Extract the value for the key called "mag"
-                double magnitude = properties.getDouble("mag");
-
-                // Extract the value for the key called "place"
-                String location = properties.getString("place");
-
-                // Extract the value for the key called "time"
-                long time = properties.getLong("time");
-
-                // Extract the value for the key called "url"
-                String url = properties.getString("url");
-
-                // Create a new {@link Earthquake} object with the magnitude, location, time,
-                // and url from the JSON response.
-                Earthquake earthquake = new Earthquake(magnitude, location, time, url);
-
-                // Add the new {@link Earthquake} to the list of earthquakes.
-                earthquakes.add(earthquake);
-            }
-
-        } catch (JSONException e) {
-            // If an error is thrown when executing any of the above statements in the "try" block,
-            // catch the exception here, so the app doesn't crash. Print a log message
-            // with the message from the exception.
+            GeoJsonParser.parse(new StringReader(earthquakeJSON), new GeoJsonParser.Listener() {
+                @Override
+                public void onEarthquakeParsed(Earthquake earthquake) {
+                    // Add the new {@link Earthquake} to the list of earthquakes.
+                    earthquakes.add(earthquake);
+                }
+            });
+        } catch (IOException e) {
             Log.e("QueryUtils", "Problem parsing the earthquake JSON results", e);
         }
 
@@ -140,6 +214,36 @@ public final class QueryUtils {
         return earthquakes;
     }
 
+    /**
+     * Parse a USGS GeoJSON feed from a stream, one feature at a time, see {@link GeoJsonParser}.
+     *
+     * @return the number of earthquakes handed to the listener
+     * @throws FeedDecoder.MalformedFeedException if the body isn't a feed, the rows before the problem
+     *                                             have already been handed out
+     */
+    public static int extractFeatureFromStream(InputStream inputStream, OnEarthquakeParsedListener listener) throws IOException {
+        return extractFeatureFromStream(inputStream,
+                toSink(FeedDecoders.GEOJSON, FeedDecoders.toSink(listener), null));
+    }
+
+    /**
+     * Parse a USGS GeoJSON feed from a stream straight into the rows of the given table.
+     *
+     * @return the number of rows added
+     * @throws FeedDecoder.MalformedFeedException if the body isn't a feed, the rows before the problem
+     *                                             have already been handed out
+     */
+    public static int extractFeatureFromStream(InputStream inputStream, EarthquakeTable table) throws IOException {
+        return extractFeatureFromStream(inputStream,
+                toSink(FeedDecoders.GEOJSON, FeedDecoders.toSink(table, null), null));
+    }
+
+    private static int extractFeatureFromStream(InputStream inputStream, FeatureSink sink) throws IOException {
+        // A body that isn't a feed, like an error page, fails the request rather than coming back as
+        // an empty or cut short result that would be cached and taken as the whole answer.
+        return sink.parse(inputStream);
+    }
+
     /**
      * Returns new URL object from the given string URL.
      */
@@ -151,87 +255,225 @@ public final class QueryUtils {
         try {
             url = new URL(stringURL);
         } catch (MalformedURLException e) {
-            e.printStackTrace();
+            Log.e(LOG_TAG, "Problem building the URL " + stringURL, e);
         }
         return url;
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and stream the response into the sink.
+     * When a {@link HttpDiskCache} is installed, a fresh cached response is used without touching
+     * the network, and a stale one is revalidated with a conditional GET.
+     * Canceling the token closes the connection, which also unblocks a connect or read in progress.
+     *
+     * @param progressive parse a body that goes into the cache while it is stored, rather than once it is
      */
 
-    private static String makeHttpRequest(URL url) throws IOException{
+    private static boolean makeHttpRequest(URL url, FeatureSink sink, CancellationToken cancellation,
+                                           boolean progressive) throws IOException{
         if(url == null)
-            return "";
+            return false;
+
+        HttpDiskCache cache = sHttpCache;
+        HttpDiskCache.Entry cached = cache != null ? cache.get(url.toString()) : null;
+        // Open the cached body right away. An entry evicted since get() is a miss, one evicted after
+        // this can still be read from the open file.
+        InputStream cachedBody = cached != null ? openCachedBody(cached) : null;
+        if (cachedBody == null)
+            cached = null;
+
+        if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+            cache.recordHit();
+            return readCachedResponse(cache, cached, cachedBody, sink, LoadTrace.startTransfer());
+        }
 
-        String JasonResponse = "";
+        boolean success = false;
 
         HttpURLConnection urlConnection = null;
         InputStream inputStream = null;
+        CancellationToken.OnCancelListener abort = null;
 
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000);
-            urlConnection.setConnectTimeout(15000);
-            urlConnection.setRequestMethod("GET");
+            long start = LoadTrace.start();
+
+            // Timeouts, gzip and keep-alive are set up by the transport
+            urlConnection = HttpTransport.open(url);
+            abort = HttpTransport.abortOnCancel(urlConnection, cancellation);
+
+            // Ask the server to only send the body if it changed since we cached it.
+            if (cached != null) {
+                if (cached.getETag() != null)
+                    urlConnection.setRequestProperty("If-None-Match", cached.getETag());
+                if (cached.getLastModified() != null)
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
 
             urlConnection.connect();
-
+            start = LoadTrace.end(LoadTrace.Phase.CONNECT, start);
+
+            int responseCode = urlConnection.getResponseCode();
+            LoadTrace.end(LoadTrace.Phase.FIRST_BYTE, start);
+            String cacheControl = urlConnection.getHeaderField("Cache-Control");
+            long expiresAt = HttpDiskCache.computeExpiresAt(cacheControl, System.currentTimeMillis());
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                // Nothing changed, the body we already have is still good.
+                cache.recordRevalidation();
+                cache.update(cached, urlConnection.getHeaderField("ETag"),
+                        urlConnection.getHeaderField("Last-Modified"), expiresAt);
+                success = readCachedResponse(cache, cached, cachedBody, sink, LoadTrace.startTransfer());
+            }
             // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-
-            if(urlConnection.getResponseCode()==200)
+            // then parse the input stream as it comes in.
+            else if(responseCode==200)
             {
-                inputStream = urlConnection.getInputStream();
-                JasonResponse = readFromStream(inputStream);
+                LoadTrace.Transfer transfer = LoadTrace.startTransfer();
+                inputStream = HttpTransport.openBody(urlConnection, transfer, cancellation);
+
+                if (cache != null && HttpDiskCache.isStorable(cacheControl) && progressive) {
+                    // Parse the body as it comes in and store the same bytes on the way,
+                    // so the first rows don't wait for the whole download.
+                    cache.recordMiss();
+                    success = parseAndStore(cache.edit(url.toString()), inputStream, sink, transfer,
+                            urlConnection.getHeaderField("ETag"),
+                            urlConnection.getHeaderField("Last-Modified"), expiresAt);
+                } else if (cache != null && HttpDiskCache.isStorable(cacheControl)) {
+                    // Spool the body to disk first and parse it from there, so the cached copy
+                    // and what we show are always the same bytes.
+                    cache.recordMiss();
+                    HttpDiskCache.Snapshot stored = cache.put(url.toString(), inputStream,
+                            urlConnection.getHeaderField("ETag"),
+                            urlConnection.getHeaderField("Last-Modified"), expiresAt);
+                    success = readCachedResponse(cache, stored.getEntry(),
+                            new BufferedInputStream(stored.getInputStream()), sink, transfer);
+                } else {
+                    int features = extractFeatureFromStream(inputStream, sink);
+                    if (transfer != null)
+                        transfer.finish(features);
+                    success = true;
+                }
             }else {
-                Log.e("QueryUtils"," Problem in retriving Jason Reasponse "  + (urlConnection.getResponseCode()));
+                Log.e("QueryUtils"," Problem in retriving Jason Reasponse "  + responseCode);
             }
 
 
         } catch (IOException e) {
-            Log.e("QUTIL ","Problem in making connection " , e);
+            if (isCanceled(cancellation))
+                Log.d(LOG_TAG, "Request canceled: " + url);
+            else
+                Log.e("QUTIL ","Problem in making connection " , e);
         }finally {
-
-            if(urlConnection!=null)
-                urlConnection.disconnect();
+            HttpTransport.stopAbortOnCancel(cancellation, abort);
+            closeQuietly(cachedBody);
 
             // Closing the input stream could throw an IOException, which is why
             // the makeHttpRequest(URL url) method signature specifies than an IOException
-            // could be thrown.
-            if(inputStream!=null)
-                inputStream.close();
+            // could be thrown. The connection itself is only closed if the exchange failed,
+            // otherwise it goes back to the keep-alive pool for the next request.
+            HttpTransport.release(urlConnection, inputStream, success);
         }
 
-        return JasonResponse;
+        return success;
 
     }
 
+    /**
+     * @return the body of a cached response, or null if the entry was evicted since it was looked up
+     */
+    private static InputStream openCachedBody(HttpDiskCache.Entry entry) throws IOException {
+        try {
+            return new BufferedInputStream(entry.newInputStream());
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse a response body that is stored in the {@link HttpDiskCache}, and close it. A body that
+     * isn't a feed is dropped from the cache.
+     *
+     * @param transfer the trace of the request the body came with, or null when not tracing
+     */
+    private static boolean readCachedResponse(HttpDiskCache cache, HttpDiskCache.Entry entry,
+                                              InputStream inputStream, FeatureSink sink,
+                                              LoadTrace.Transfer transfer) throws IOException {
+        try {
+            int features = extractFeatureFromStream(inputStream, sink);
+            if (transfer != null)
+                transfer.finish(features);
+        } catch (FeedDecoder.MalformedFeedException e) {
+            cache.remove(entry);
+            throw e;
+        } finally {
+            inputStream.close();
+        }
+        return true;
+    }
 
     /**
-     * Convert the {@link InputStream} into a String which contains the
-     * whole JSON response from the server.
+     * Parse a response body from the network while it is written into the {@link HttpDiskCache}.
+     * The entry is only replaced once the whole body has been read, a failed transfer leaves it as it was.
+     *
+     * @param transfer the trace of the request, or null when not tracing
      */
+    private static boolean parseAndStore(HttpDiskCache.Editor editor, InputStream body, FeatureSink sink,
+                                         LoadTrace.Transfer transfer, String eTag, String lastModified,
+                                         long expiresAt) throws IOException {
+        boolean committed = false;
+        try {
+            InputStream tee = editor.tee(body);
+            int features = extractFeatureFromStream(tee, sink);
+            // Whatever the parser left unread still belongs in the cached copy.
+            byte[] buffer = HttpTransport.buffer();
+            while (tee.read(buffer) != -1) {
+                // Stored by the tee as it is read.
+            }
+            editor.commit(eTag, lastModified, expiresAt);
+            committed = true;
+            if (transfer != null)
+                transfer.finish(features);
+        } finally {
+            if (!committed)
+                editor.abort();
+        }
+        return true;
+    }
 
-    private static String readFromStream(InputStream inputStream) throws IOException{
+    /**
+     * Receives each {@link Earthquake} as soon as it has been parsed from the feed.
+     */
+    public interface OnEarthquakeParsedListener extends GeoJsonParser.Listener {
+    }
 
-        StringBuilder result = new StringBuilder();
+    /**
+     * Where a response body is parsed to: handed out one {@link Earthquake} at a time, or stored
+     * straight into the columns of an {@link EarthquakeTable}, by the {@link FeedDecoder} of its format.
+     */
+    private interface FeatureSink {
+        int parse(InputStream inputStream) throws IOException;
+    }
 
-        if(inputStream!=null)
-        {
-            InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-            BufferedReader reader = new BufferedReader(inputStreamReader);
+    private static FeatureSink toSink(final FeedDecoder decoder, final FeedDecoder.Sink events,
+                                      final CancellationToken cancellation) {
+        return new FeatureSink() {
+            @Override
+            public int parse(InputStream inputStream) throws IOException {
+                return decoder.decode(inputStream, events, cancellation);
+            }
+        };
+    }
 
-            String line = reader.readLine();
+    private static boolean isCanceled(CancellationToken cancellation) {
+        return cancellation != null && cancellation.isCanceled();
+    }
 
-            while (line!=null)
-            {
-                result.append(line);
-                line = reader.readLine();
+    private static void closeQuietly(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
             }
         }
-
-        return result.toString();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,384 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches a long query as several smaller ones running at the same time.
+ *
+ * The query's starttime/endtime range is split into equal windows, each window is fetched and
+ * parsed on its own thread, and the time sorted results are merged back into one list with
+ * the same order the query asked for. A window that fails is retried on its own, so one bad
+ * response doesn't throw away the windows that already came back.
+ *
+ * Each window also sums up its own rows in {@link EarthquakeStats} while they are parsed, and
+ * those are merged rather than counting the merged result again.
+ */
+public final class TimeWindowFetcher {
+
+    private static final String LOG_TAG = TimeWindowFetcher.class.getName();
+
+    /** USGS uses the last 30 days when the query has no starttime. */
+    private static final long DEFAULT_RANGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Shared by every fan-out so parallel loaders can't open an unbounded number of connections. */
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        ((ThreadPoolExecutor) EXECUTOR).allowCoreThreadTimeOut(true);
+    }
+
+    private TimeWindowFetcher() {
+    }
+
+    /**
+     * Fetch the query split into the given number of time windows.
+     * Queries with an "offset", or ordered by anything but time, can't be split and are fetched as they are.
+     *
+     * @return the merged result, or null if a window still failed after retrying
+     */
+    public static EarthquakeTable fetch(String requestUrl, int windows) {
+        return fetch(requestUrl, windows, null);
+    }
+
+    /**
+     * @param cancellation canceling it aborts every window and stops the retries, may be null
+     * @return the merged result, or null if a window still failed after retrying or the fetch was canceled
+     */
+    public static EarthquakeTable fetch(String requestUrl, int windows, CancellationToken cancellation) {
+        return fetch(requestUrl, windows, cancellation, null);
+    }
+
+    /**
+     * @param stats the rows of the result are added to them, may be null. Only changed if the fetch succeeds.
+     * @return the merged result, or null if a window still failed after retrying or the fetch was canceled
+     */
+    public static EarthquakeTable fetch(String requestUrl, int windows, CancellationToken cancellation,
+                                        EarthquakeStats stats) {
+        if (windows <= 1 || getQueryParameter(requestUrl, "offset") != null || !isOrderedByTime(requestUrl))
+            return fetchWhole(requestUrl, cancellation, stats);
+
+        long now = System.currentTimeMillis();
+        long end = parseTime(getQueryParameter(requestUrl, "endtime"), now);
+        long start = parseTime(getQueryParameter(requestUrl, "starttime"), end - DEFAULT_RANGE_MILLIS);
+        if (end <= start)
+            return fetchWhole(requestUrl, cancellation, stats);
+
+        // Submit every window before waiting on any of them. Each window keeps the query's limit,
+        // the newest (or oldest) rows may all be in one of them, and the merge trims the rest.
+        final List<Future<EarthquakeTable>> futures = new ArrayList<Future<EarthquakeTable>>(windows);
+        List<WindowTask> tasks = new ArrayList<WindowTask>(windows);
+        long span = end - start;
+        for (int i = 0; i < windows; i++) {
+            long windowStart = start + span * i / windows;
+            long windowEnd = start + span * (i + 1) / windows;
+            String windowUrl = withQueryParameter(withQueryParameter(requestUrl,
+                    "starttime", formatTime(windowStart)), "endtime", formatTime(windowEnd));
+            WindowTask task = new WindowTask(windowUrl, cancellation);
+            tasks.add(task);
+            futures.add(EXECUTOR.submit(task));
+        }
+
+        // The windows abort their own requests, this wakes up the ones waiting to retry
+        // and drops the ones still queued.
+        CancellationToken.OnCancelListener cancelWindows = null;
+        if (cancellation != null) {
+            cancelWindows = new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancelAll(futures);
+                }
+            };
+            cancellation.addListener(cancelWindows);
+        }
+
+        List<EarthquakeTable> parts = new ArrayList<EarthquakeTable>(windows);
+        try {
+            for (Future<EarthquakeTable> future : futures) {
+                EarthquakeTable part = future.get();
+                if (part == null) {
+                    cancelAll(futures);
+                    return null;
+                }
+                parts.add(part);
+            }
+        } catch (InterruptedException e) {
+            cancelAll(futures);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            cancelAll(futures);
+            Log.e(LOG_TAG, "Problem fetching a time window", e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            Log.d(LOG_TAG, "Fan-out canceled: " + requestUrl);
+            return null;
+        } finally {
+            if (cancelWindows != null)
+                cancellation.removeListener(cancelWindows);
+        }
+
+        // Every window is done, so reading their stats is safe.
+        EarthquakeStats merged = null;
+        if (stats != null) {
+            merged = new EarthquakeStats();
+            for (WindowTask task : tasks) {
+                merged.merge(task.mStats);
+            }
+        }
+
+        boolean ascending = "time-asc".equals(getQueryParameter(requestUrl, "orderby"));
+        int limit = parseLimit(getQueryParameter(requestUrl, "limit"));
+        EarthquakeTable table = merge(parts, ascending, limit, merged);
+        if (stats != null)
+            stats.merge(merged);
+        return table;
+    }
+
+    /**
+     * Only rows ordered by time can be merged back from the windows. Ordered by magnitude, each
+     * window would return its own largest events and the merge would keep the wrong ones.
+     */
+    private static boolean isOrderedByTime(String requestUrl) {
+        String orderBy = getQueryParameter(requestUrl, "orderby");
+        return orderBy == null || orderBy.equals("time") || orderBy.equals("time-asc");
+    }
+
+    /**
+     * Fetch the query in one request, adding to the stats only if it succeeds.
+     */
+    private static EarthquakeTable fetchWhole(String requestUrl, CancellationToken cancellation,
+                                              EarthquakeStats stats) {
+        EarthquakeStats attempt = stats != null ? new EarthquakeStats() : null;
+        EarthquakeTable table = QueryUtils.fetchEarthquakeTable(requestUrl, cancellation, null, attempt);
+        if (table != null && stats != null)
+            stats.merge(attempt);
+        return table;
+    }
+
+    /**
+     * Fetches one window, retrying with a growing delay when the request fails.
+     */
+    private static final class WindowTask implements Callable<EarthquakeTable> {
+        private final String mUrl;
+        private final CancellationToken mCancellation;
+        /** The stats of the attempt that succeeded, read once the task is done. */
+        EarthquakeStats mStats;
+
+        WindowTask(String url, CancellationToken cancellation) {
+            mUrl = url;
+            mCancellation = cancellation;
+        }
+
+        @Override
+        public EarthquakeTable call() throws InterruptedException {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                // A failed attempt may have counted some rows already, every attempt starts over.
+                EarthquakeStats stats = new EarthquakeStats();
+                EarthquakeTable table = QueryUtils.fetchEarthquakeTable(mUrl, mCancellation, null, stats);
+                if (table != null) {
+                    mStats = stats;
+                    return table;
+                }
+                if (mCancellation != null && mCancellation.isCanceled())
+                    return null;
+
+                Log.w(LOG_TAG, "Attempt " + attempt + " failed for " + mUrl);
+                if (attempt < MAX_ATTEMPTS)
+                    Thread.sleep(RETRY_DELAY_MILLIS << (attempt - 1));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * k-way merge of tables that are each sorted by time. Events that sit exactly on a window
+     * boundary can come back from both windows, the second copy is dropped.
+     *
+     * @param limit stop after this many rows
+     */
+    static EarthquakeTable merge(List<EarthquakeTable> parts, boolean ascending, int limit) {
+        return merge(parts, ascending, limit, null);
+    }
+
+    /**
+     * @param stats the stats of all the parts' rows, may be null. The rows that are dropped, the
+     *              second copies and those past the limit, are taken out of them again.
+     */
+    static EarthquakeTable merge(List<EarthquakeTable> parts, boolean ascending, int limit,
+                                 EarthquakeStats stats) {
+        int total = 0;
+        for (EarthquakeTable part : parts) {
+            total += part.size();
+        }
+
+        EarthquakeTable merged = new EarthquakeTable(Math.min(total, limit));
+        int[] heads = new int[parts.size()];
+        String lastId = null;
+        long lastTime = Long.MIN_VALUE;
+
+        while (merged.size() < limit) {
+            // There are only a handful of windows, a linear scan beats a heap here.
+            int best = -1;
+            long bestTime = 0;
+            for (int i = 0; i < heads.length; i++) {
+                EarthquakeTable part = parts.get(i);
+                if (heads[i] >= part.size())
+                    continue;
+                long time = part.getTimeInMillisecond(heads[i]);
+                if (best == -1 || (ascending ? time < bestTime : time > bestTime)) {
+                    best = i;
+                    bestTime = time;
+                }
+            }
+            if (best == -1)
+                break;
+
+            EarthquakeTable part = parts.get(best);
+            int row = heads[best]++;
+            String id = part.getId(row);
+            if (id != null && bestTime == lastTime && id.equals(lastId)) {
+                if (stats != null)
+                    stats.remove(part.getMagnitude(row), bestTime);
+                continue;
+            }
+
+            merged.add(id, part.getMagnitude(row), part.getPlace(row), bestTime,
+                    part.getUrl(row), part.getUpdatedInMillisecond(row),
+                    part.getLatitude(row), part.getLongitude(row), part.getDepthInKm(row));
+            lastId = id;
+            lastTime = bestTime;
+        }
+
+        if (stats != null) {
+            for (int i = 0; i < heads.length; i++) {
+                EarthquakeTable part = parts.get(i);
+                for (int row = heads[i]; row < part.size(); row++) {
+                    stats.remove(part.getMagnitude(row), part.getTimeInMillisecond(row));
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    private static void cancelAll(List<Future<EarthquakeTable>> futures) {
+        for (Future<EarthquakeTable> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static int parseLimit(String limit) {
+        if (limit == null)
+            return Integer.MAX_VALUE;
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Parse the ISO 8601 forms USGS accepts for starttime/endtime, in UTC.
+     */
+    private static long parseTime(String value, long fallback) {
+        if (value == null)
+            return fallback;
+
+        String[] patterns = {"yyyy-MM-dd'T'HH:mm:ss.SSS", "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"};
+        for (String pattern : patterns) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            format.setLenient(false);
+            try {
+                return format.parse(value).getTime();
+            } catch (ParseException e) {
+                // try the next pattern
+            }
+        }
+        return fallback;
+    }
+
+    private static String formatTime(long timeInMillis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(timeInMillis));
+    }
+
+    /**
+     * @return the decoded value of the first query parameter with that name, or null
+     */
+    static String getQueryParameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query == -1)
+            return null;
+
+        for (String parameter : url.substring(query + 1).split("&")) {
+            int equals = parameter.indexOf('=');
+            String key = equals == -1 ? parameter : parameter.substring(0, equals);
+            if (key.equals(name)) {
+                return equals == -1 ? "" : decode(parameter.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the url with every parameter of that name replaced by a single name=value
+     */
+    static String withQueryParameter(String url, String name, String value) {
+        int query = url.indexOf('?');
+        StringBuilder result = new StringBuilder(query == -1 ? url : url.substring(0, query));
+        char separator = '?';
+
+        if (query != -1) {
+            for (String parameter : url.substring(query + 1).split("&")) {
+                if (parameter.isEmpty() || parameter.equals(name) || parameter.startsWith(name + "="))
+                    continue;
+                result.append(separator).append(parameter);
+                separator = '&';
+            }
+        }
+        return result.append(separator).append(name).append('=').append(encode(value)).toString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+}
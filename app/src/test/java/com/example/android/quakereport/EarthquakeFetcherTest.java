@@ -0,0 +1,60 @@
+package com.example.android.quakereport;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class EarthquakeFetcherTest {
+
+    private StubServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        QueryUtils.setHttpCache(null);
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        mServer = new StubServer(new StubServer.Dispatcher() {
+            @Override
+            public StubServer.Response dispatch(StubServer.Request request) {
+                return new StubServer.Response(200).body(HttpDiskCacheTest.feed(request.mPath));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void cachedResultsAreReusedUntilMemoryRunsOut() {
+        String url = mServer.url("/query?format=geojson&limit=20");
+        assertNotNull(EarthquakeFetcher.fetchCached(url, 1, null, null, null));
+        assertNotNull(EarthquakeFetcher.fetchCached(mServer.url("/query?limit=20&format=geojson"), 1, null, null, null));
+        assertEquals(1, mServer.getRequestCount());
+
+        ResultCache<?, ?> cache = EarthquakeFetcher.getResultCache();
+        long size = cache.size();
+        // Hidden UI keeps everything, low memory halves the cache (one small result fits).
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(size, cache.size());
+
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.size());
+        assertNotNull(EarthquakeFetcher.fetchCached(url, 1, null, null, null));
+        assertEquals(2, mServer.getRequestCount());
+
+        EarthquakeFetcher.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(0, cache.getEntryCount());
+    }
+}
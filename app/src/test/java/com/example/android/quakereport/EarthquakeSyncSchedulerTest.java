@@ -0,0 +1,57 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSyncSchedulerTest {
+
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void backoffDoublesFromThirtySeconds() {
+        long full = 30 * 1000;
+        for (int failures = 1; failures <= 7; failures++) {
+            assertBackoff(failures, full);
+            full *= 2;
+        }
+    }
+
+    @Test
+    public void backoffIsCappedAtAnHour() {
+        // 30 s doubled 7 times is more than an hour.
+        int[] failures = {8, 9, 31, 32, 100, Integer.MAX_VALUE};
+        for (int failure : failures) {
+            assertBackoff(failure, 60 * 60 * 1000);
+        }
+    }
+
+    @Test
+    public void alarmTakesTheSameGateAsRequests() {
+        EarthquakeSyncScheduler.onSyncDone();
+        assertTrue(EarthquakeSyncScheduler.onAlarm());
+        // A sync is running, another alarm is dropped.
+        assertFalse(EarthquakeSyncScheduler.onAlarm());
+
+        EarthquakeSyncScheduler.onSyncDone();
+        assertTrue(EarthquakeSyncScheduler.onAlarm());
+        EarthquakeSyncScheduler.onSyncDone();
+    }
+
+    /**
+     * Every backoff is between half of the full delay and all of it, and they spread over that range.
+     */
+    private static void assertBackoff(int failures, long full) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long backoff = EarthquakeSyncScheduler.getBackoff(failures);
+            min = Math.min(min, backoff);
+            max = Math.max(max, backoff);
+        }
+        String range = failures + " failures, " + min + " to " + max + " ms";
+        assertTrue(range, min >= full / 2 && max <= full);
+        assertTrue(range, min < full * 6 / 10 && max > full * 9 / 10);
+    }
+}
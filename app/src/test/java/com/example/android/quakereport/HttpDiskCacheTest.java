@@ -0,0 +1,329 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The {@link HttpDiskCache} as {@link QueryUtils} uses it, against a {@link StubServer}.
+ */
+public class HttpDiskCacheTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    /** Answers the requests in order, once they run out a 200 that may be cached for a minute. */
+    private final Queue<StubServer.Response> mResponses = new ConcurrentLinkedQueue<StubServer.Response>();
+    private StubServer mServer;
+    private File mDirectory;
+    private HttpDiskCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubServer(new StubServer.Dispatcher() {
+            @Override
+            public StubServer.Response dispatch(StubServer.Request request) {
+                StubServer.Response response = mResponses.poll();
+                return response != null ? response
+                        : new StubServer.Response(200).header("Cache-Control", "max-age=60").body(feed(request.mPath));
+            }
+        });
+        mDirectory = new File(mFolder.getRoot(), "http");
+        mCache = new HttpDiskCache(mDirectory, 1024 * 1024);
+        QueryUtils.setHttpCache(mCache);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        QueryUtils.setHttpCache(null);
+        mServer.close();
+    }
+
+    @Test
+    public void freshResponseIsServedWithoutTheNetwork() {
+        String url = mServer.url("/query?starttime=1");
+        mResponses.add(new StubServer.Response(200).header("Cache-Control", "max-age=60").body(feed(url)));
+
+        assertEquals(1, fetch(url).size());
+        EarthquakeTable cached = fetch(url);
+
+        assertEquals(1, cached.size());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void notModifiedRevalidatesAndUpdatesTheMetadata() {
+        String url = mServer.url("/query?starttime=1");
+        mResponses.add(new StubServer.Response(200).header("ETag", "\"v1\"")
+                .header("Last-Modified", "Thu, 07 Apr 2016 03:50:00 GMT").body(feed(url)));
+        mResponses.add(new StubServer.Response(304).header("ETag", "\"v2\"").header("Cache-Control", "max-age=60"));
+
+        assertEquals(1, fetch(url).size());
+        assertEquals(1, fetch(url).size());
+
+        List<StubServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull(requests.get(0).getHeader("If-None-Match"));
+        assertEquals("\"v1\"", requests.get(1).getHeader("If-None-Match"));
+        assertEquals("Thu, 07 Apr 2016 03:50:00 GMT", requests.get(1).getHeader("If-Modified-Since"));
+        assertEquals(1, mCache.getRevalidationCount());
+
+        // The new validator and lifetime are on disk too, a restarted cache has them.
+        HttpDiskCache.Entry entry = new HttpDiskCache(mDirectory, 1024 * 1024).get(url);
+        assertEquals("\"v2\"", entry.getETag());
+        assertEquals("Thu, 07 Apr 2016 03:50:00 GMT", entry.getLastModified());
+        assertTrue(entry.isFresh(System.currentTimeMillis()));
+
+        // So the next request doesn't even go out.
+        assertEquals(1, fetch(url).size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void responseIsRevalidatedOnceItsMaxAgeIsOver() throws InterruptedException {
+        String url = mServer.url("/query?starttime=1");
+        mResponses.add(new StubServer.Response(200).header("ETag", "\"v1\"").header("Cache-Control", "max-age=1")
+                .body(feed(url)));
+        mResponses.add(new StubServer.Response(304));
+
+        fetch(url);
+        fetch(url);
+        assertEquals(1, mServer.getRequestCount());
+
+        Thread.sleep(1100);
+        assertFalse(mCache.get(url).isFresh(System.currentTimeMillis()));
+        assertEquals(1, fetch(url).size());
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("\"v1\"", mServer.getRequests().get(1).getHeader("If-None-Match"));
+        assertEquals(1, mCache.getRevalidationCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesGoOverTheByteBound() {
+        String a = mServer.url("/query?starttime=a");
+        String b = mServer.url("/query?starttime=b");
+        String c = mServer.url("/query?starttime=c");
+        // The bodies have the same size, the cache holds two and a half of them.
+        mCache = new HttpDiskCache(mDirectory, feed(a).length() * 5 / 2);
+        QueryUtils.setHttpCache(mCache);
+        fetch(a);
+        fetch(b);
+        // a is used again, so b is now the least recently used.
+        fetch(a);
+        fetch(c);
+        assertEquals(3, mServer.getRequestCount());
+
+        assertNotNull(mCache.get(a));
+        assertNull(mCache.get(b));
+        assertNotNull(mCache.get(c));
+        assertTrue(mCache.size() <= mCache.maxSize());
+        assertEquals(2, mDirectory.listFiles(new BodyFilter()).length);
+    }
+
+    @Test
+    public void leftoverTempFilesAreDeletedOnRestart() throws IOException {
+        String url = mServer.url("/query?starttime=1");
+        fetch(url);
+        assertTrue(mDirectory.mkdirs() || mDirectory.isDirectory());
+        File download = new File(mDirectory, "0123456789abcdef.tmp12");
+        File meta = new File(mDirectory, "0123456789abcdef.meta.tmp");
+        assertTrue(download.createNewFile() && meta.createNewFile());
+
+        HttpDiskCache restarted = new HttpDiskCache(mDirectory, 1024 * 1024);
+        assertNotNull(restarted.get(url));
+        assertFalse(download.exists());
+        assertFalse(meta.exists());
+    }
+
+    @Test
+    public void pageThatIsntAFeedFailsAndIsNotKept() {
+        String url = mServer.url("/query?starttime=1");
+        mResponses.add(new StubServer.Response(200).header("Cache-Control", "max-age=60")
+                .body("<!DOCTYPE html>\n<html><body>Service unavailable</body></html>"));
+
+        assertNull(QueryUtils.fetchEarthquakeTable(url));
+        assertNull(mCache.get(url));
+        // So the next request goes out again, and gets the feed.
+        assertEquals(1, fetch(url).size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void feedThatBreaksOffFailsAndLeavesThePartialRows() {
+        String url = mServer.url("/query?starttime=1");
+        String feed = feed(url);
+        // The first feature, then an error page where the second one should be.
+        mResponses.add(new StubServer.Response(200).header("Cache-Control", "max-age=60")
+                .body(feed.substring(0, feed.length() - 2) + ",<html>"));
+        EarthquakeBatcher batcher = new EarthquakeBatcher(1, new EarthquakeBatcher.Listener() {
+            @Override
+            public void onBatch(List<Earthquake> rows) {
+            }
+        });
+
+        assertNull(QueryUtils.fetchEarthquakeTable(url, null, batcher));
+        assertNull(mCache.get(url));
+        List<Earthquake> partial = batcher.getPartial();
+        assertEquals(1, partial.size());
+        assertTrue(EarthquakeBatcher.isPartial(partial));
+    }
+
+    @Test
+    public void commitThatFailsLeavesThePreviousEntry() throws IOException {
+        String url = mServer.url("/query?starttime=1");
+        mCache.put(url, stream("v1"), "\"v1\"", null, Long.MAX_VALUE).close();
+        // A directory where the next commit writes its meta, so that write fails.
+        File[] metas = mDirectory.listFiles(new SuffixFilter(".meta"));
+        assertEquals(1, metas.length);
+        File blocker = new File(mDirectory, metas[0].getName() + ".tmp");
+        assertTrue(blocker.mkdir());
+
+        try {
+            mCache.put(url, stream("v2"), "\"v2\"", null, Long.MAX_VALUE).close();
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertEquals("\"v1\"", mCache.get(url).getETag());
+        assertEquals("v1", read(mCache.get(url)));
+        // The files on disk still match each other too.
+        assertTrue(blocker.delete());
+        HttpDiskCache restarted = new HttpDiskCache(mDirectory, 1024 * 1024);
+        assertEquals("\"v1\"", restarted.get(url).getETag());
+        assertEquals("v1", read(restarted.get(url)));
+    }
+
+    @Test
+    public void entryEvictedWhileInUseIsAMiss() throws InterruptedException {
+        // Room for one body, so every download evicts the entry the other thread is reading.
+        mCache = new HttpDiskCache(mDirectory, feed(mServer.url("/query?starttime=0")).length());
+        QueryUtils.setHttpCache(mCache);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final String url = mServer.url("/query?starttime=" + t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100; i++) {
+                        if (QueryUtils.fetchEarthquakeTable(url) == null)
+                            failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void concurrentMissesAllGetTheirBody() throws InterruptedException {
+        // Room for one body: every commit evicts the bodies the other threads have just stored
+        // and not read yet.
+        mCache = new HttpDiskCache(mDirectory, feed(mServer.url("/query?starttime=0")).length());
+        QueryUtils.setHttpCache(mCache);
+        final AtomicInteger failures = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 300; i++) {
+                        // A url of its own every time, so every fetch is a miss that stores its body.
+                        String url = mServer.url("/query?starttime=" + thread + "-" + i);
+                        if (QueryUtils.fetchEarthquakeTable(url) == null)
+                            failures.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1200, mCache.getMissCount());
+    }
+
+    private static EarthquakeTable fetch(String url) {
+        EarthquakeTable table = QueryUtils.fetchEarthquakeTable(url);
+        assertNotNull("fetching " + url, table);
+        return table;
+    }
+
+    /**
+     * @return a feed with one earthquake, whose id depends on the path so that every url has a
+     * body of its own, of the same length
+     */
+    static String feed(String path) {
+        String id = "us" + String.format("%08x", path.hashCode());
+        return "{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",\"properties\":{\"mag\":5.1,"
+                + "\"place\":\"120km SSE of Lae, Papua New Guinea\",\"time\":1460000000120,"
+                + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/" + id + "\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[147.2,-6.05,35]},\"id\":\"" + id + "\"}]}";
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static String read(HttpDiskCache.Entry entry) throws IOException {
+        InputStream in = entry.newInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), Charset.forName("UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final class BodyFilter extends SuffixFilter {
+        BodyFilter() {
+            super(".body");
+        }
+    }
+
+    private static class SuffixFilter implements java.io.FileFilter {
+        private final String mSuffix;
+
+        SuffixFilter(String suffix) {
+            mSuffix = suffix;
+        }
+
+        @Override
+        public boolean accept(File file) {
+            return file.getName().endsWith(mSuffix);
+        }
+    }
+}
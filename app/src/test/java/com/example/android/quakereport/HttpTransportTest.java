@@ -0,0 +1,211 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HttpTransport} against a {@link StubServer} that compresses when asked to.
+ */
+public class HttpTransportTest {
+
+    /** A feed followed by whitespace the parser leaves unread, so the body has to be drained. */
+    private static final byte[] BODY = (HttpDiskCacheTest.feed("/query") + repeat(' ', 2000))
+            .getBytes(Charset.forName("UTF-8"));
+
+    /** A fast mobile link, 64 Mbit/s. */
+    private static final long LINK_BYTES_PER_SECOND = 8 * 1024 * 1024;
+    private static final int LARGE_FEED_BYTES = 5 * 1024 * 1024;
+    private static final int RUNS = 3;
+    private static final String[] DIRECTIONS = {"N", "NE", "E", "SE", "S", "SW", "W", "NW", "NNE", "ESE", "WSW"};
+    private static final String[] PLACES = {"Anza, CA", "Ridgecrest, CA", "Lae, Papua New Guinea", "Hilo, Hawaii",
+            "Kaikoura, New Zealand", "Tobelo, Indonesia", "Atka, Alaska", "Ishinomaki, Japan"};
+
+    private StubServer mServer;
+    private volatile boolean mCompress = true;
+    /** Served for "/large", plain and compressed. */
+    private volatile byte[] mLargeBody;
+    private volatile byte[] mLargeBodyGzip;
+
+    @Before
+    public void setUp() throws IOException {
+        QueryUtils.setHttpCache(null);
+        mServer = new StubServer(new StubServer.Dispatcher() {
+            @Override
+            public StubServer.Response dispatch(StubServer.Request request) {
+                boolean large = request.mPath.startsWith("/large");
+                String acceptEncoding = request.getHeader("Accept-Encoding");
+                if (mCompress && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    return new StubServer.Response(200).header("Content-Encoding", "gzip")
+                            .body(large ? mLargeBodyGzip : gzip(BODY));
+                }
+                return new StubServer.Response(200).body(large ? mLargeBody : BODY);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void gzipIsNegotiatedAndDecoded() {
+        long wire = QueryUtils.getBytesOnWire();
+        long decoded = QueryUtils.getBytesDecoded();
+
+        EarthquakeTable table = QueryUtils.fetchEarthquakeTable(mServer.url("/query"));
+
+        assertNotNull(table);
+        assertEquals(1, table.size());
+        assertEquals("gzip", mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+        assertEquals(gzip(BODY).length, QueryUtils.getBytesOnWire() - wire);
+        assertEquals(BODY.length, QueryUtils.getBytesDecoded() - decoded);
+        assertTrue(gzip(BODY).length < BODY.length);
+    }
+
+    @Test
+    public void uncompressedResponseCountsTheSameOnBothCounters() {
+        mCompress = false;
+        long wire = QueryUtils.getBytesOnWire();
+        long decoded = QueryUtils.getBytesDecoded();
+
+        assertNotNull(QueryUtils.fetchEarthquakeTable(mServer.url("/query")));
+
+        assertEquals(BODY.length, QueryUtils.getBytesOnWire() - wire);
+        assertEquals(BODY.length, QueryUtils.getBytesDecoded() - decoded);
+    }
+
+    @Test
+    public void connectionIsReusedOnceTheBodyIsDrained() {
+        long wire = QueryUtils.getBytesOnWire();
+        long decoded = QueryUtils.getBytesDecoded();
+
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(QueryUtils.fetchEarthquakeTable(mServer.url("/query")));
+        }
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+        // The drained whitespace went over the wire, and was decoded, like the rest of the body.
+        assertEquals(3 * gzip(BODY).length, QueryUtils.getBytesOnWire() - wire);
+        assertEquals(3 * BODY.length, QueryUtils.getBytesDecoded() - decoded);
+    }
+
+    @Test
+    public void abandonedBodyClosesTheConnection() throws IOException {
+        HttpURLConnection urlConnection = HttpTransport.open(new URL(mServer.url("/query")));
+        InputStream body = HttpTransport.openBody(urlConnection, null, null);
+        assertTrue(body.read() != -1);
+        HttpTransport.release(urlConnection, body, false);
+
+        assertNotNull(QueryUtils.fetchEarthquakeTable(mServer.url("/query")));
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    /**
+     * The time from the request until the last decoded byte of a 5 MB feed, over a throttled
+     * link, with and without gzip. Each is the best of a few runs after a warm-up.
+     */
+    @Test
+    public void gzipCutsTheTimeToLastByteOfALargeFeed() throws IOException {
+        mLargeBody = largeFeed(LARGE_FEED_BYTES);
+        mLargeBodyGzip = gzip(mLargeBody);
+        mServer.throttle(LINK_BYTES_PER_SECOND);
+
+        long plain = bestTimeToLastByte(false);
+        long compressed = bestTimeToLastByte(true);
+
+        System.out.println(String.format(Locale.US, "%d KB feed at %d KB/s: plain %d ms, gzip (%d KB) %d ms",
+                mLargeBody.length / 1024, LINK_BYTES_PER_SECOND / 1024, plain / 1000000,
+                mLargeBodyGzip.length / 1024, compressed / 1000000));
+        // The plain body alone takes 625 ms on this link, the compressed one about a sixth of that.
+        assertTrue(plain >= LARGE_FEED_BYTES * 1000000000L / LINK_BYTES_PER_SECOND);
+        assertTrue("plain " + plain + " ns, gzip " + compressed + " ns", compressed < plain / 2);
+    }
+
+    private long bestTimeToLastByte(boolean compress) throws IOException {
+        mCompress = compress;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run <= RUNS; run++) {
+            long start = System.nanoTime();
+            HttpURLConnection urlConnection = HttpTransport.open(new URL(mServer.url("/large")));
+            InputStream body = HttpTransport.openBody(urlConnection, null, null);
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                length += read;
+            }
+            long elapsed = System.nanoTime() - start;
+            HttpTransport.release(urlConnection, body, true);
+
+            assertEquals(mLargeBody.length, length);
+            // The first run warms up the connection and the code.
+            if (run > 0)
+                best = Math.min(best, elapsed);
+        }
+        return best;
+    }
+
+    /**
+     * A feed of distinct events, like a month of all magnitudes, of at least that many bytes.
+     */
+    private static byte[] largeFeed(int bytes) {
+        Random random = new Random(5);
+        StringBuilder feed = new StringBuilder(bytes + 1024);
+        feed.append("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; feed.length() < bytes; i++) {
+            String id = String.format(Locale.US, "ci%08d", 37000000 + random.nextInt(1000000));
+            long time = 1460000000000L - i * 60000L - random.nextInt(60000);
+            if (i > 0)
+                feed.append(',');
+            feed.append(String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%.2f,"
+                            + "\"place\":\"%dkm %s of %s\",\"time\":%d,\"updated\":%d,"
+                            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/%s\",\"status\":\"%s\","
+                            + "\"tsunami\":0,\"sig\":%d,\"net\":\"ci\",\"nst\":%d,\"rms\":%.2f},"
+                            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[%.4f,%.4f,%.2f]},\"id\":\"%s\"}",
+                    random.nextDouble() * 6 - 0.5, random.nextInt(200), DIRECTIONS[random.nextInt(DIRECTIONS.length)],
+                    PLACES[random.nextInt(PLACES.length)], time, time + random.nextInt(100000000),
+                    id, random.nextBoolean() ? "reviewed" : "automatic", random.nextInt(1000), random.nextInt(80),
+                    random.nextDouble(), random.nextDouble() * 360 - 180, random.nextDouble() * 180 - 90,
+                    random.nextDouble() * 600, id));
+        }
+        feed.append("]}");
+        return feed.toString().getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(compressed);
+            out.write(bytes);
+            out.close();
+            return compressed.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP/1.1 server on a local socket, for tests of the code that talks to USGS. It answers
+ * every request with whatever the {@link Dispatcher} returns, keeps connections alive between
+ * requests, and records the requests and how many connections they came over. Bodies can be sent
+ * no faster than a given rate, like over a real network, see {@link #throttle}.
+ */
+final class StubServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int THROTTLE_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * Decides the response to a request. Called on the thread of the request's connection.
+     */
+    interface Dispatcher {
+        Response dispatch(Request request);
+    }
+
+    static final class Request {
+        final String mPath;
+        /** The header names in lower case. */
+        final Map<String, String> mHeaders;
+        /** Counts from 1, requests over the same connection have the same number. */
+        final int mConnection;
+
+        Request(String path, Map<String, String> headers, int connection) {
+            mPath = path;
+            mHeaders = headers;
+            mConnection = connection;
+        }
+
+        String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    static final class Response {
+        final int mCode;
+        final Map<String, String> mHeaders = new HashMap<String, String>();
+        byte[] mBody = new byte[0];
+
+        Response(int code) {
+            mCode = code;
+        }
+
+        Response header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        Response body(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        Response body(String body) {
+            return body(body.getBytes(UTF_8));
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Dispatcher mDispatcher;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger mConnections = new AtomicInteger();
+    /** 0 for as fast as the socket goes. */
+    private volatile long mBytesPerSecond;
+
+    StubServer(Dispatcher dispatcher) throws IOException {
+        mDispatcher = dispatcher;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "StubServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the url of the path on this server, e.g. "/query?format=geojson"
+     */
+    String url(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    int getRequestCount() {
+        return mRequests.size();
+    }
+
+    int getConnectionCount() {
+        return mConnections.get();
+    }
+
+    /**
+     * Send the bodies of the following responses at most that fast, 0 for no limit.
+     */
+    void throttle(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    void close() throws IOException {
+        mServerSocket.close();
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mSockets.add(socket);
+            final int connection = mConnections.incrementAndGet();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket, connection);
+                }
+            }, "StubServer #" + connection);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket, int connection) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String head;
+            while ((head = readHead(in)) != null) {
+                String[] lines = head.split("\r\n");
+                Map<String, String> headers = new HashMap<String, String>();
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+                                lines[i].substring(colon + 1).trim());
+                    }
+                }
+                Request request = new Request(lines[0].split(" ")[1], headers, connection);
+                mRequests.add(request);
+                write(out, mDispatcher.dispatch(request));
+            }
+        } catch (IOException ignored) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the request line and headers, or null at the end of the connection
+     */
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            head.write(b);
+            // Looking for the blank line, \r\n\r\n.
+            matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+            if (matched == 4)
+                return new String(head.toByteArray(), UTF_8);
+        }
+        return null;
+    }
+
+    private void write(OutputStream out, Response response) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(' ').append(reasonOf(response.mCode)).append("\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // A 304 has no body, not even an empty one.
+        if (response.mCode != 304)
+            head.append("Content-Length: ").append(response.mBody.length).append("\r\n");
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        if (response.mCode != 304)
+            writeBody(out, response.mBody);
+        out.flush();
+    }
+
+    private void writeBody(OutputStream out, byte[] body) throws IOException {
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(body);
+            return;
+        }
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += THROTTLE_CHUNK_SIZE) {
+            int count = Math.min(THROTTLE_CHUNK_SIZE, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            // Wait until the link would have carried everything sent so far.
+            long due = start + (offset + count) * 1000000000L / bytesPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private static String reasonOf(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            default:
+                return "Error";
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Which queries {@link TimeWindowFetcher} splits and how failed windows are retried, against a
+ * {@link StubServer} that answers every request with one earthquake of its own, and how the
+ * windows are merged back.
+ */
+public class TimeWindowFetcherTest {
+
+    private static final String RANGE = "starttime=2016-04-01&endtime=2016-04-05";
+    private static final String FIRST_WINDOW = "2016-04-01T00:00:00.000";
+
+    private StubServer mServer;
+    /** How many more times the requests of the first window fail. */
+    private final AtomicInteger mFirstWindowFailures = new AtomicInteger();
+    /** When the requests of the first window came in, in nanoseconds. */
+    private final List<Long> mFirstWindowTimes = Collections.synchronizedList(new ArrayList<Long>());
+
+    @Before
+    public void setUp() throws IOException {
+        QueryUtils.setHttpCache(null);
+        mServer = new StubServer(new StubServer.Dispatcher() {
+            @Override
+            public StubServer.Response dispatch(StubServer.Request request) {
+                if (FIRST_WINDOW.equals(TimeWindowFetcher.getQueryParameter(request.mPath, "starttime"))) {
+                    mFirstWindowTimes.add(System.nanoTime());
+                    if (mFirstWindowFailures.getAndDecrement() > 0)
+                        return new StubServer.Response(503);
+                }
+                return new StubServer.Response(200).body(HttpDiskCacheTest.feed(request.mPath));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    @Test
+    public void queryOrderedByTimeIsSplit() {
+        String[] queries = {RANGE, RANGE + "&orderby=time", RANGE + "&orderby=time-asc"};
+        for (int i = 0; i < queries.length; i++) {
+            EarthquakeTable table = TimeWindowFetcher.fetch(mServer.url("/query?" + queries[i]), 4);
+
+            assertNotNull(queries[i], table);
+            assertEquals(queries[i], 4, table.size());
+            assertEquals(queries[i], 4 * (i + 1), mServer.getRequestCount());
+        }
+    }
+
+    @Test
+    public void queryOrderedByMagnitudeIsFetchedWhole() {
+        String[] queries = {RANGE + "&orderby=magnitude", RANGE + "&orderby=magnitude-asc"};
+        for (int i = 0; i < queries.length; i++) {
+            EarthquakeTable table = TimeWindowFetcher.fetch(mServer.url("/query?" + queries[i]), 4);
+
+            assertNotNull(queries[i], table);
+            assertEquals(queries[i], 1, table.size());
+            assertEquals(queries[i], i + 1, mServer.getRequestCount());
+        }
+        assertEquals("/query?" + queries[1], mServer.getRequests().get(1).mPath);
+    }
+
+    @Test
+    public void pagedQueryIsFetchedWhole() {
+        assertEquals(1, TimeWindowFetcher.fetch(mServer.url("/query?" + RANGE + "&offset=21"), 4).size());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void everyWindowKeepsTheLimitAndTheResultIsTrimmed() {
+        EarthquakeTable table = TimeWindowFetcher.fetch(mServer.url("/query?" + RANGE + "&limit=2"), 4);
+
+        assertNotNull(table);
+        assertEquals(2, table.size());
+        assertEquals(4, mServer.getRequestCount());
+        for (StubServer.Request request : mServer.getRequests()) {
+            assertEquals(request.mPath, "2", TimeWindowFetcher.getQueryParameter(request.mPath, "limit"));
+        }
+    }
+
+    @Test
+    public void failedWindowIsRetriedOnItsOwn() {
+        mFirstWindowFailures.set(2);
+        EarthquakeTable table = TimeWindowFetcher.fetch(mServer.url("/query?" + RANGE), 4);
+
+        assertNotNull(table);
+        assertEquals(4, table.size());
+        // The other windows are fetched once.
+        assertEquals(4 + 2, mServer.getRequestCount());
+        assertEquals(3, mFirstWindowTimes.size());
+        // 500 ms before the second attempt, twice that before the third.
+        assertTrue(millisBetween(0, 1) >= 500);
+        assertTrue(millisBetween(1, 2) >= 1000);
+    }
+
+    @Test
+    public void windowThatFailsEveryAttemptFailsTheFetch() {
+        mFirstWindowFailures.set(3);
+        assertNull(TimeWindowFetcher.fetch(mServer.url("/query?" + RANGE), 4));
+        assertEquals(3, mFirstWindowTimes.size());
+    }
+
+    @Test
+    public void windowsAreMergedInOrder() {
+        Random random = new Random(7);
+        List<EarthquakeTable> descending = new ArrayList<EarthquakeTable>();
+        List<EarthquakeTable> ascending = new ArrayList<EarthquakeTable>();
+        int total = 0;
+        for (int window = 0; window < 4; window++) {
+            // Windows of different sizes, the times in them overlapping.
+            long[] times = new long[random.nextInt(50)];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = 1460000000000L + random.nextInt(1000) * 1000L;
+            }
+            Arrays.sort(times);
+            ascending.add(table("w" + window + "-", times));
+            reverse(times);
+            descending.add(table("w" + window + "-", times));
+            total += times.length;
+        }
+
+        assertInOrder(TimeWindowFetcher.merge(descending, false, Integer.MAX_VALUE), false, total);
+        assertInOrder(TimeWindowFetcher.merge(ascending, true, Integer.MAX_VALUE), true, total);
+    }
+
+    @Test
+    public void eventsOnTheBoundaryAreMergedOnce() {
+        // The event at 200 is in both windows, the one at 100 only shares its time with another.
+        List<EarthquakeTable> parts = Arrays.asList(
+                table(new String[]{"a", "b"}, new long[]{300, 200}),
+                table(new String[]{"b", "c", "d"}, new long[]{200, 100, 100}));
+        EarthquakeStats stats = new EarthquakeStats();
+        for (EarthquakeTable part : parts) {
+            for (int row = 0; row < part.size(); row++) {
+                stats.add(part.getMagnitude(row), part.getTimeInMillisecond(row));
+            }
+        }
+
+        EarthquakeTable merged = TimeWindowFetcher.merge(parts, false, Integer.MAX_VALUE, stats);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(merged));
+        assertEquals(4, stats.getCount());
+    }
+
+    @Test
+    public void mergeStopsAtTheLimit() {
+        List<EarthquakeTable> parts = Arrays.asList(
+                table(new String[]{"a", "c", "e"}, new long[]{500, 300, 100}),
+                table(new String[]{"b", "d"}, new long[]{400, 200}));
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.add(4.5, 0);
+        stats.add(4.5, 0);
+        stats.add(4.5, 0);
+        stats.add(4.5, 0);
+        stats.add(4.5, 0);
+
+        EarthquakeTable merged = TimeWindowFetcher.merge(parts, false, 3, stats);
+        assertEquals(Arrays.asList("a", "b", "c"), ids(merged));
+        // The rows past the limit are taken out of the stats again.
+        assertEquals(3, stats.getCount());
+        assertEquals(0, TimeWindowFetcher.merge(parts, false, 0).size());
+    }
+
+    private long millisBetween(int attempt, int nextAttempt) {
+        return (mFirstWindowTimes.get(nextAttempt) - mFirstWindowTimes.get(attempt)) / 1000000;
+    }
+
+    private static void assertInOrder(EarthquakeTable merged, boolean ascending, int size) {
+        assertEquals(size, merged.size());
+        for (int row = 1; row < merged.size(); row++) {
+            long previous = merged.getTimeInMillisecond(row - 1);
+            long time = merged.getTimeInMillisecond(row);
+            assertTrue("row " + row, ascending ? previous <= time : previous >= time);
+        }
+    }
+
+    private static EarthquakeTable table(String idPrefix, long[] times) {
+        String[] ids = new String[times.length];
+        for (int i = 0; i < times.length; i++) {
+            ids[i] = idPrefix + i;
+        }
+        return table(ids, times);
+    }
+
+    private static EarthquakeTable table(String[] ids, long[] times) {
+        EarthquakeTable table = new EarthquakeTable(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            table.add(ids[i], 4.5, null, times[i], null, 0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        return table;
+    }
+
+    private static void reverse(long[] values) {
+        for (int i = 0; i < values.length / 2; i++) {
+            long value = values[i];
+            values[i] = values[values.length - 1 - i];
+            values[values.length - 1 - i] = value;
+        }
+    }
+
+    private static List<String> ids(EarthquakeTable table) {
+        List<String> ids = new ArrayList<String>(table.size());
+        for (int row = 0; row < table.size(); row++) {
+            ids.add(table.getId(row));
+        }
+        return ids;
+    }
+}
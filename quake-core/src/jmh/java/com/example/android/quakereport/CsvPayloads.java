@@ -0,0 +1,47 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The same events as {@link GeoJsonPayloads}, in the USGS "format=csv" feed with all of its
+ * columns, so the formats can be compared on the same data.
+ */
+final class CsvPayloads {
+
+    private static final String HEADER = "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,"
+            + "updated,place,type,horizontalError,depthError,magError,magNst,status,locationSource,magSource\n";
+
+    private CsvPayloads() {
+    }
+
+    static byte[] generate(int features, long seed) throws IOException {
+        List<Earthquake> earthquakes = GeoJsonParser.parse(
+                new String(GeoJsonPayloads.generate(features, seed), Charset.forName("UTF-8")));
+
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder csv = new StringBuilder(features * 200 + HEADER.length());
+        csv.append(HEADER);
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            String place = earthquake.getPlace();
+            csv.append(iso.format(new Date(earthquake.getTimeInMillisecond()))).append(',')
+                    .append(String.format(Locale.US, "%.4f,%.4f,%.2f,", earthquake.getLatitude(),
+                            earthquake.getLongitude(), earthquake.getDepthInKm()))
+                    .append(earthquake.getMagnitude()).append(",mb,,").append(i % 200).append(',')
+                    .append(String.format(Locale.US, "%.3f,%.2f", (i % 1000) / 100.0, (i % 100) / 100.0))
+                    .append(",us,").append(earthquake.getId()).append(',')
+                    .append(iso.format(new Date(earthquake.getUpdatedInMillisecond()))).append(',')
+                    .append(place.indexOf(',') != -1 ? '"' + place + '"' : place)
+                    .append(",earthquake,8.2,3.6,0.06,85,reviewed,us,us\n");
+        }
+        return csv.toString().getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decode time of the same events in each {@link FeedDecoders feed format}, from the plain body
+ * and from the gzipped body the server actually sends.
+ *
+ * JMH only reports times (and with the gc profiler, allocations), so the size of each payload,
+ * plain and gzipped, is printed when it is generated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"geojson", "csv"})
+    public String format;
+
+    @Param({"10000"})
+    public int features;
+
+    private FeedDecoder mDecoder;
+    private byte[] mPayload;
+    private byte[] mGzipped;
+
+    @Setup
+    public void generatePayload() throws IOException {
+        mDecoder = FeedDecoders.forFormat(format);
+        mPayload = format.equals("csv") ? CsvPayloads.generate(features, 42) : GeoJsonPayloads.generate(features, 42);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(mPayload);
+        out.close();
+        mGzipped = gzipped.toByteArray();
+
+        System.out.printf(Locale.US, "%n%s, %d events: %d bytes, %d gzipped (%.0f / %.0f bytes per event)%n",
+                format, features, mPayload.length, mGzipped.length,
+                mPayload.length / (double) features, mGzipped.length / (double) features);
+    }
+
+    @Benchmark
+    public EarthquakeTable decode() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        mDecoder.decode(new ByteArrayInputStream(mPayload), FeedDecoders.toSink(table, null), null);
+        return table;
+    }
+
+    @Benchmark
+    public EarthquakeTable gunzipAndDecode() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        mDecoder.decode(new GZIPInputStream(new ByteArrayInputStream(mGzipped)), FeedDecoders.toSink(table, null),
+                null);
+        return table;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of formatting the rows of a 1000 feature feed the way the list binds them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    private EarthquakeTable mTable;
+    private EarthquakeFormatter mFormatter;
+
+    @Setup
+    public void parse() throws IOException {
+        mTable = new EarthquakeTable();
+        GeoJsonParser.parse(new ByteArrayInputStream(GeoJsonPayloads.generate(1000, 42)), mTable);
+        mFormatter = new EarthquakeFormatter(TimeZone.getTimeZone("UTC"));
+    }
+
+    @Benchmark
+    public void formatRows(Blackhole blackhole) {
+        for (int row = 0; row < mTable.size(); row++) {
+            double magnitude = mTable.getMagnitude(row);
+            long time = mTable.getTimeInMillisecond(row);
+            blackhole.consume(mFormatter.formatMagnitude(magnitude));
+            blackhole.consume(mFormatter.formatDate(time));
+            blackhole.consume(mFormatter.formatTime(time));
+            blackhole.consume(EarthquakeFormatter.getMagnitudeBucket(magnitude));
+        }
+    }
+}
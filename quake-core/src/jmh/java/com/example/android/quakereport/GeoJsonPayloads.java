@@ -0,0 +1,73 @@
+package com.example.android.quakereport;
+
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates USGS shaped GeoJSON feeds for the benchmarks: the same metadata block, the full set of
+ * feature properties the real feed sends (most of which the parser skips), and realistic places,
+ * magnitudes and coordinates. The same seed always gives the same bytes.
+ */
+final class GeoJsonPayloads {
+
+    private static final String[] REGIONS = {
+            "Alaska", "California", "Japan", "Indonesia", "Chile", "Tonga", "Papua New Guinea",
+            "Fiji region", "Peru", "Mexico", "Philippines", "Kermadec Islands, New Zealand"
+    };
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+
+    private GeoJsonPayloads() {
+    }
+
+    static byte[] generate(int features, long seed) {
+        Random random = new Random(seed);
+        long now = 1460000000000L;
+        StringBuilder json = new StringBuilder(features * 1100 + 512);
+
+        json.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":").append(now)
+                .append(",\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\"")
+                .append(",\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.2\",\"count\":")
+                .append(features).append("},\"features\":[");
+
+        for (int i = 0; i < features; i++) {
+            String id = "us" + Long.toString(10000000L + random.nextInt(90000000), 36);
+            double magnitude = Math.round((2.5 + random.nextDouble() * random.nextDouble() * 6) * 10) / 10.0;
+            long time = now - (long) i * 60000 - random.nextInt(60000);
+            String place = (1 + random.nextInt(300)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of " + REGIONS[random.nextInt(REGIONS.length)];
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            double depth = random.nextDouble() * 600;
+
+            if (i > 0)
+                json.append(',');
+            json.append("{\"type\":\"Feature\",\"properties\":{\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(place).append('"')
+                    .append(",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + random.nextInt(3600000))
+                    .append(",\"tz\":null")
+                    .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id).append('"')
+                    .append(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=").append(id)
+                    .append("&format=geojson\"")
+                    .append(",\"felt\":").append(random.nextBoolean() ? "null" : String.valueOf(random.nextInt(500)))
+                    .append(",\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\",\"tsunami\":0")
+                    .append(",\"sig\":").append(random.nextInt(1000))
+                    .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2)).append('"')
+                    .append(",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\"")
+                    .append(",\"types\":\",geoserve,origin,phase-data,\"")
+                    .append(",\"nst\":null,\"dmin\":").append(String.format(Locale.US, "%.3f", random.nextDouble() * 10))
+                    .append(",\"rms\":").append(String.format(Locale.US, "%.2f", random.nextDouble()))
+                    .append(",\"gap\":").append(random.nextInt(200))
+                    .append(",\"magType\":\"mb\",\"type\":\"earthquake\",\"title\":\"M ").append(magnitude)
+                    .append(" - ").append(place).append("\"}")
+                    .append(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(String.format(Locale.US, "%.4f,%.4f,%.2f", longitude, latitude, depth))
+                    .append("]},\"id\":\"").append(id).append("\"}");
+        }
+
+        json.append("],\"bbox\":[-180,-90,0,180,90,700]}");
+        return json.toString().getBytes(Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput and latency of {@link GeoJsonParser} on generated feeds of 10 to 100k features,
+ * into table columns (what the loaders do) and into one {@link Earthquake} per feature.
+ *
+ * Throughput mode gives feeds per second, sample mode the latency distribution (p50/p90/p99...),
+ * and the gc profiler the bytes allocated per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int features;
+
+    private byte[] mPayload;
+
+    @Setup
+    public void generatePayload() {
+        mPayload = GeoJsonPayloads.generate(features, 42);
+    }
+
+    @Benchmark
+    public EarthquakeTable parseToTable() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        GeoJsonParser.parse(new ByteArrayInputStream(mPayload), table);
+        return table;
+    }
+
+    @Benchmark
+    public int parseToObjects(final Blackhole blackhole) throws IOException {
+        return GeoJsonParser.parse(new ByteArrayInputStream(mPayload), new GeoJsonParser.Listener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                blackhole.consume(earthquake);
+            }
+        });
+    }
+}
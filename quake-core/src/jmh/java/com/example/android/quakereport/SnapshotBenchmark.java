@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start cost of showing the last result: reading an {@link EarthquakeSnapshot} back,
+ * compared with parsing the same rows from the GeoJSON feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private static final String QUERY = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson";
+
+    @Param({"100", "10000"})
+    public int features;
+
+    private byte[] mPayload;
+    private File mFile;
+
+    @Setup
+    public void writeSnapshot() throws IOException {
+        mPayload = GeoJsonPayloads.generate(features, 42);
+        EarthquakeTable table = new EarthquakeTable();
+        GeoJsonParser.parse(new ByteArrayInputStream(mPayload), table);
+        mFile = File.createTempFile("earthquakes", ".snapshot");
+        EarthquakeSnapshot.write(mFile, QUERY, table.asList());
+    }
+
+    @TearDown
+    public void deleteSnapshot() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public EarthquakeTable readSnapshot() throws IOException {
+        return EarthquakeSnapshot.read(mFile, QUERY);
+    }
+
+    @Benchmark
+    public EarthquakeTable parseFeed() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        GeoJsonParser.parse(new ByteArrayInputStream(mPayload), table);
+        return table;
+    }
+}
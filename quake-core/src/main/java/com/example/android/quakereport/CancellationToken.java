@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a piece of work that whoever asked for it doesn't want the result anymore.
+ *
+ * Long running work either polls {@link #isCanceled()} or registers a listener that unblocks it.
+ * Thread safe, and a token can only be canceled once.
+ */
+public final class CancellationToken {
+
+    /**
+     * Called once, on the thread calling {@link #cancel()}, or right away when added to a token
+     * that is already canceled.
+     */
+    public interface OnCancelListener {
+        void onCancel();
+    }
+
+    private volatile boolean mCanceled;
+    private final List<OnCancelListener> mListeners = new ArrayList<OnCancelListener>();
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    public void cancel() {
+        OnCancelListener[] listeners;
+        synchronized (mListeners) {
+            if (mCanceled)
+                return;
+            mCanceled = true;
+            listeners = mListeners.toArray(new OnCancelListener[mListeners.size()]);
+            mListeners.clear();
+        }
+        // Outside the lock, a listener may well call back into this token.
+        for (OnCancelListener listener : listeners) {
+            listener.onCancel();
+        }
+    }
+
+    public void addListener(OnCancelListener listener) {
+        synchronized (mListeners) {
+            if (!mCanceled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.onCancel();
+    }
+
+    public void removeListener(OnCancelListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * Decoder for the USGS "format=csv" feed, one line per event after a header naming the columns:
+ *
+ * <pre>
+ * time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,updated,place,type,...
+ * 2016-04-07T03:33:20.120Z,-6.05,147.2,35.0,5.1,mb,,54,3.1,0.86,us,us20005dbv,2016-04-07T03:50:00.040Z,"120km SSE of Lae, Papua New Guinea",earthquake,...
+ * </pre>
+ *
+ * The columns are found by name, so their order doesn't matter. Only the fields we show are
+ * decoded, the others are skipped over. Lines are read into one reused byte buffer and numbers
+ * and times are parsed straight from the bytes, so the only objects created per event are the
+ * id, place and url Strings. The feed has no url column, the url is the event page of the id.
+ */
+public final class CsvFeedDecoder implements FeedDecoder {
+
+    /** The page of an event is this followed by its id. */
+    public static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Doubles with up to this many significant digits are parsed without going through a String. */
+    private static final int MAX_FAST_DIGITS = 15;
+    /** Every power of ten up to 10^22 is exact as a double. */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+    @Override
+    public String getFormat() {
+        return "csv";
+    }
+
+    @Override
+    public int decode(InputStream inputStream, Sink sink, CancellationToken cancellation) throws IOException {
+        LineReader reader = new LineReader(inputStream);
+        // Even a feed without events has its header, an empty body isn't one.
+        if (!reader.nextLine())
+            throw new MalformedFeedException(0, "Empty body, not a USGS CSV feed", null);
+
+        Columns columns = new Columns(reader);
+        int count = 0;
+        while (reader.nextLine()) {
+            if (cancellation != null && cancellation.isCanceled())
+                throw new InterruptedIOException("Decode canceled after " + count + " earthquakes");
+            try {
+                if (decodeLine(reader, columns, sink))
+                    count++;
+            } catch (NumberFormatException e) {
+                throw new MalformedFeedException(count, "Problem parsing the earthquake CSV results", e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return false when the event has no magnitude
+     */
+    private static boolean decodeLine(LineReader reader, Columns columns, Sink sink) {
+        byte[] line = reader.mBuffer;
+        int end = reader.mLineEnd;
+
+        String id = null;
+        double magnitude = Double.NaN;
+        String place = null;
+        long time = 0;
+        long updated = 0;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        double depth = Double.NaN;
+
+        int column = 0;
+        int position = reader.mLineStart;
+        while (position <= end && column <= columns.mLast) {
+            boolean quoted = position < end && line[position] == '"';
+            int fieldEnd = quoted ? closingQuote(line, position + 1, end) : indexOf(line, ',', position, end);
+            int start = quoted ? position + 1 : position;
+
+            if (column == columns.mTime) {
+                time = parseTime(line, start, fieldEnd);
+            } else if (column == columns.mUpdated) {
+                updated = parseTime(line, start, fieldEnd);
+            } else if (column == columns.mLatitude) {
+                latitude = parseDouble(line, start, fieldEnd);
+            } else if (column == columns.mLongitude) {
+                longitude = parseDouble(line, start, fieldEnd);
+            } else if (column == columns.mDepth) {
+                depth = parseDouble(line, start, fieldEnd);
+            } else if (column == columns.mMagnitude) {
+                magnitude = parseDouble(line, start, fieldEnd);
+            } else if (column == columns.mId) {
+                id = decodeString(line, start, fieldEnd, quoted);
+            } else if (column == columns.mPlace) {
+                place = decodeString(line, start, fieldEnd, quoted);
+            }
+
+            // Past the closing quote and the comma after the field.
+            position = (quoted ? Math.min(fieldEnd + 1, end) : fieldEnd) + 1;
+            column++;
+        }
+
+        if (Double.isNaN(magnitude))
+            return false;
+
+        sink.onEvent(id, magnitude, place, time, id != null ? EVENT_PAGE_URL.concat(id) : null,
+                updated != 0 ? updated : time, latitude, longitude, depth);
+        return true;
+    }
+
+    /**
+     * Where the fields we read are in a line, from the header. -1 for a column the feed doesn't have.
+     */
+    private static final class Columns {
+        int mTime = -1;
+        int mLatitude = -1;
+        int mLongitude = -1;
+        int mDepth = -1;
+        int mMagnitude = -1;
+        int mId = -1;
+        int mUpdated = -1;
+        int mPlace = -1;
+        /** The last column we read, the rest of a line is skipped. */
+        int mLast;
+
+        Columns(LineReader reader) throws IOException {
+            byte[] line = reader.mBuffer;
+            int end = reader.mLineEnd;
+            int column = 0;
+            for (int position = reader.mLineStart; position <= end; column++) {
+                int fieldEnd = indexOf(line, ',', position, end);
+                String name = columnName(new String(line, position, fieldEnd - position, UTF_8));
+                if (name.equals("time")) mTime = column;
+                else if (name.equals("latitude")) mLatitude = column;
+                else if (name.equals("longitude")) mLongitude = column;
+                else if (name.equals("depth")) mDepth = column;
+                else if (name.equals("mag")) mMagnitude = column;
+                else if (name.equals("id")) mId = column;
+                else if (name.equals("updated")) mUpdated = column;
+                else if (name.equals("place")) mPlace = column;
+                position = fieldEnd + 1;
+            }
+
+            if (mTime == -1 || mMagnitude == -1 || mId == -1)
+                throw new MalformedFeedException(0, "Not a USGS CSV header: "
+                        + new String(line, reader.mLineStart, end - reader.mLineStart, UTF_8), null);
+            mLast = Math.max(Math.max(Math.max(mTime, mLatitude), Math.max(mLongitude, mDepth)),
+                    Math.max(Math.max(mMagnitude, mId), Math.max(mUpdated, mPlace)));
+        }
+    }
+
+    /**
+     * @return the name of a header field, without the quotes or the byte order mark it may come with
+     */
+    private static String columnName(String field) {
+        String name = field.trim();
+        if (name.startsWith("\uFEFF"))
+            name = name.substring(1).trim();
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\""))
+            name = name.substring(1, name.length() - 1).trim();
+        return name;
+    }
+
+    /**
+     * Reads the body one line at a time into a buffer that is reused for the whole feed. A line
+     * break inside a quoted field doesn't end the line.
+     */
+    private static final class LineReader {
+        private final InputStream mIn;
+        byte[] mBuffer = new byte[BUFFER_SIZE];
+        /** The bytes read from the stream and not handed out yet are mPosition..mLimit. */
+        private int mPosition;
+        private int mLimit;
+        private boolean mEof;
+        /** The current line, without its line break. */
+        int mLineStart;
+        int mLineEnd;
+
+        LineReader(InputStream in) {
+            mIn = in;
+        }
+
+        /**
+         * @return false at the end of the body. Empty lines are skipped.
+         */
+        boolean nextLine() throws IOException {
+            while (true) {
+                int lineBreak = findLineBreak();
+                if (lineBreak == -1) {
+                    if (!mEof) {
+                        fill();
+                        continue;
+                    }
+                    if (mPosition == mLimit)
+                        return false;
+                    // The last line doesn't have a line break.
+                    lineBreak = mLimit;
+                }
+
+                mLineStart = mPosition;
+                mLineEnd = lineBreak > mLineStart && mBuffer[lineBreak - 1] == '\r' ? lineBreak - 1 : lineBreak;
+                mPosition = Math.min(lineBreak + 1, mLimit);
+                if (mLineEnd > mLineStart)
+                    return true;
+            }
+        }
+
+        private int findLineBreak() {
+            boolean quoted = false;
+            for (int i = mPosition; i < mLimit; i++) {
+                byte b = mBuffer[i];
+                if (b == '"')
+                    quoted = !quoted;
+                else if (b == '\n' && !quoted)
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Move what is left to the front of the buffer, growing it for a line longer than the
+         * buffer, and read more of the body behind it.
+         */
+        private void fill() throws IOException {
+            int remaining = mLimit - mPosition;
+            if (remaining == mBuffer.length) {
+                byte[] larger = new byte[mBuffer.length * 2];
+                System.arraycopy(mBuffer, mPosition, larger, 0, remaining);
+                mBuffer = larger;
+            } else if (mPosition > 0) {
+                System.arraycopy(mBuffer, mPosition, mBuffer, 0, remaining);
+            }
+            mPosition = 0;
+            mLimit = remaining;
+
+            int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read == -1)
+                mEof = true;
+            else
+                mLimit += read;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == c)
+                return i;
+        }
+        return end;
+    }
+
+    /**
+     * @param from the first byte after the opening quote
+     * @return the closing quote, quotes inside the field are doubled
+     */
+    private static int closingQuote(byte[] bytes, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (bytes[i] == '"') {
+                if (i + 1 < end && bytes[i + 1] == '"')
+                    i++;
+                else
+                    return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return the field, or null if it is empty
+     */
+    private static String decodeString(byte[] bytes, int start, int end, boolean quoted) {
+        if (start == end)
+            return null;
+        String value = new String(bytes, start, end - start, UTF_8);
+        return quoted && value.indexOf('"') != -1 ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Parse a decimal number. Up to {@link #MAX_FAST_DIGITS} significant digits it is parsed
+     * from the bytes: the digits as a long divided by a power of ten, both exact as doubles, so the
+     * single division rounds the same way {@link Double#parseDouble} does. Anything else, like an
+     * exponent, goes through {@link Double#parseDouble}.
+     *
+     * @return NaN for an empty field
+     */
+    static double parseDouble(byte[] bytes, int start, int end) {
+        if (start == end)
+            return Double.NaN;
+
+        int i = start;
+        boolean negative = bytes[i] == '-';
+        if (negative || bytes[i] == '+')
+            i++;
+
+        long digits = 0;
+        int significant = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                digits = digits * 10 + (b - '0');
+                if (digits != 0)
+                    significant++;
+                if (point)
+                    fractionDigits++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+
+        if (i != end || !any || significant > MAX_FAST_DIGITS || fractionDigits >= POWERS_OF_TEN.length)
+            return Double.parseDouble(new String(bytes, start, end - start, UTF_8));
+
+        double value = fractionDigits == 0 ? digits : digits / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a UTC time like "2016-04-07T03:33:20.120Z", the fraction of a second and the Z are optional.
+     *
+     * @return milliseconds since the epoch, 0 for an empty field
+     */
+    static long parseTime(byte[] bytes, int start, int end) {
+        if (start == end)
+            return 0;
+        if (end - start < 19 || bytes[start + 4] != '-' || bytes[start + 7] != '-' || bytes[start + 10] != 'T'
+                || bytes[start + 13] != ':' || bytes[start + 16] != ':')
+            throw new NumberFormatException("Not a time: " + new String(bytes, start, end - start, UTF_8));
+
+        int year = digits(bytes, start, 4);
+        int month = digits(bytes, start + 5, 2);
+        int day = digits(bytes, start + 8, 2);
+        int hour = digits(bytes, start + 11, 2);
+        int minute = digits(bytes, start + 14, 2);
+        int second = digits(bytes, start + 17, 2);
+
+        int millis = 0;
+        int i = start + 19;
+        if (i < end && bytes[i] == '.') {
+            int scale = 100;
+            for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                millis += (bytes[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (i < end && bytes[i] == 'Z')
+            i++;
+        if (i != end || month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60)
+            throw new NumberFormatException("Not a time: " + new String(bytes, start, end - start, UTF_8));
+
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000L + millis;
+    }
+
+    private static int digits(byte[] bytes, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Not a digit at " + i);
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the days between 1970-01-01 and the given date of the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        // Count years from March, so the leap day is the last day of the year.
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+public class Earthquake {
+    private String id;
+    private Double magnitude;
+    private String place;
+    private long timeInMillisecond;
+    private String url;
+    private long updatedInMillisecond;
+    private double latitude = Double.NaN;
+    private double longitude = Double.NaN;
+    private double depthInKm = Double.NaN;
+
+
+    /**
+     * For subclasses that keep the fields somewhere else, e.g. the rows of an {@link EarthquakeTable}.
+     */
+    protected Earthquake() {
+    }
+
+    public Earthquake(Double magnitude, String place, long timeInMillisecond,String url) {
+        this(null, magnitude, place, timeInMillisecond, url, timeInMillisecond);
+    }
+
+    /**
+     * @param id                   the USGS event id, e.g. "us10004u1y"
+     * @param updatedInMillisecond when USGS last revised this event
+     */
+    public Earthquake(String id, Double magnitude, String place, long timeInMillisecond, String url, long updatedInMillisecond) {
+        this.id = id;
+        this.magnitude = magnitude;
+        this.place = place;
+        this.timeInMillisecond = timeInMillisecond;
+        this.url = url;
+        this.updatedInMillisecond = updatedInMillisecond;
+    }
+
+    /**
+     * @param latitude  of the epicenter in degrees, NaN if unknown
+     * @param longitude of the epicenter in degrees, NaN if unknown
+     * @param depthInKm of the hypocenter, NaN if unknown
+     */
+    public Earthquake(String id, Double magnitude, String place, long timeInMillisecond, String url, long updatedInMillisecond,
+                      double latitude, double longitude, double depthInKm) {
+        this(id, magnitude, place, timeInMillisecond, url, updatedInMillisecond);
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.depthInKm = depthInKm;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPlace() {
+        return place;
+    }
+
+    public void setPlace(String place) {
+        this.place = place;
+    }
+
+    public Double getMagnitude() {
+        return magnitude;
+    }
+
+    /**
+     * @return the magnitude without boxing it, NaN if there is none
+     */
+    public double getMagnitudeValue() {
+        return magnitude != null ? magnitude : Double.NaN;
+    }
+
+    public void setMagnitude(double magnitude) {
+        this.magnitude = magnitude;
+    }
+
+    public long getTimeInMillisecond() {
+        return timeInMillisecond;
+    }
+
+    public void setTimeInMillisecond(long timeInMillisecond) {
+        this.timeInMillisecond = timeInMillisecond;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public long getUpdatedInMillisecond() {
+        return updatedInMillisecond;
+    }
+
+    public void setUpdatedInMillisecond(long updatedInMillisecond) {
+        this.updatedInMillisecond = updatedInMillisecond;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getDepthInKm() {
+        return depthInKm;
+    }
+
+    /**
+     * @return false if the feed had no coordinates for this event
+     */
+    public boolean hasLocation() {
+        return !Double.isNaN(getLatitude()) && !Double.isNaN(getLongitude());
+    }
+}
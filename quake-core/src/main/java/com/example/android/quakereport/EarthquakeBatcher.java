@@ -0,0 +1,122 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Hands out the rows of a feed while it is still being parsed, so the first rows can be shown
+ * long before the whole response has been downloaded.
+ *
+ * The parser reports every row it adds to its {@link EarthquakeTable}. Once enough new rows came
+ * in, they are copied into a frozen table of their own and the listener gets every row parsed so
+ * far, as a list that is safe to read on another thread while the parse goes on. The first batch
+ * is small so it shows up quickly; every following one is twice as large, up to
+ * {@link #MAX_BATCH_SIZE}, so a large feed only causes a few deliveries.
+ *
+ * The copies are only kept until the complete table replaces them. Rows that come in after the
+ * last full batch are not handed out, the complete result covers them.
+ */
+public final class EarthquakeBatcher {
+
+    public static final int DEFAULT_FIRST_BATCH_SIZE = 20;
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * Called on the parsing thread.
+     */
+    public interface Listener {
+        /**
+         * @param rows every row parsed so far, immutable; see {@link #isPartial}
+         */
+        void onBatch(List<Earthquake> rows);
+    }
+
+    private final Listener mListener;
+    private int mBatchSize;
+    /** The rows handed out so far. Read by {@link #getPartial} once the parse is over, maybe on another thread. */
+    private volatile Partial mPartial = new Partial(new EarthquakeTable[0], new int[0]);
+
+    public EarthquakeBatcher(Listener listener) {
+        this(DEFAULT_FIRST_BATCH_SIZE, listener);
+    }
+
+    /**
+     * @param firstBatchSize number of rows in the first batch
+     */
+    public EarthquakeBatcher(int firstBatchSize, Listener listener) {
+        mBatchSize = Math.max(firstBatchSize, 1);
+        mListener = listener;
+    }
+
+    /**
+     * @return true if the rows are a batch handed out while the parse was still going on,
+     * rather than a complete result
+     */
+    public static boolean isPartial(List<Earthquake> rows) {
+        return rows instanceof Partial;
+    }
+
+    /**
+     * @return every row handed out so far, or null if no batch was. For a parse that failed
+     * halfway, this is what can still be shown; {@link #isPartial} is true for it.
+     */
+    public List<Earthquake> getPartial() {
+        Partial partial = mPartial;
+        return partial.isEmpty() ? null : partial;
+    }
+
+    /**
+     * Called by the parser after each row it added to the table.
+     */
+    public void onRowAdded(EarthquakeTable table) {
+        int published = mPartial.size();
+        if (table.size() - published < mBatchSize)
+            return;
+
+        mPartial = mPartial.append(table.copyRows(published, table.size()));
+        mBatchSize = Math.min(mBatchSize * 2, MAX_BATCH_SIZE);
+        mListener.onBatch(mPartial);
+    }
+
+    /**
+     * The batches handed out so far, one after the other. Each delivery is a new list that shares
+     * the batches of the one before it.
+     */
+    private static final class Partial extends AbstractList<Earthquake> implements RandomAccess {
+        private final EarthquakeTable[] mBatches;
+        /** The row after the last one of each batch. */
+        private final int[] mEnds;
+
+        Partial(EarthquakeTable[] batches, int[] ends) {
+            mBatches = batches;
+            mEnds = ends;
+        }
+
+        Partial append(EarthquakeTable batch) {
+            int count = mBatches.length;
+            EarthquakeTable[] batches = Arrays.copyOf(mBatches, count + 1);
+            int[] ends = Arrays.copyOf(mEnds, count + 1);
+            batches[count] = batch;
+            ends[count] = size() + batch.size();
+            return new Partial(batches, ends);
+        }
+
+        @Override
+        public Earthquake get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("Row " + index + ", size " + size());
+            // The batch whose end is the first one past the index.
+            int batch = Arrays.binarySearch(mEnds, index + 1);
+            batch = batch >= 0 ? batch : -batch - 1;
+            int start = batch == 0 ? 0 : mEnds[batch - 1];
+            return mBatches[batch].get(index - start);
+        }
+
+        @Override
+        public int size() {
+            return mEnds.length == 0 ? 0 : mEnds[mEnds.length - 1];
+        }
+    }
+}
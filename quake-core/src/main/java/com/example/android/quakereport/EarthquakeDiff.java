@@ -0,0 +1,190 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The list of inserts, removes, moves and changes that turns one earthquake list into another,
+ * matching rows by their USGS event id.
+ *
+ * {@link #calculate(List, List)} doesn't touch any view, so it can run on a background thread.
+ * The result is then replayed on the main thread with {@link #dispatchTo(Callback)}, in order,
+ * e.g. as RecyclerView notifyItem* calls.
+ *
+ * Rows without an id (including the null placeholders of dropped pages) can't be matched, they are
+ * compared by position instead.
+ */
+public final class EarthquakeDiff {
+
+    /**
+     * Receives the updates in the order they have to be applied.
+     */
+    public interface Callback {
+        void onInserted(int position);
+
+        void onRemoved(int position);
+
+        void onMoved(int fromPosition, int toPosition);
+
+        void onChanged(int position);
+    }
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    /** Packed (type, first position, second position) triples. */
+    private int[] mOps = new int[48];
+    private int mSize;
+
+    private EarthquakeDiff() {
+    }
+
+    /**
+     * Work out how to get from the old list to the new one. Neither list is modified.
+     */
+    public static EarthquakeDiff calculate(List<Earthquake> oldList, List<Earthquake> newList) {
+        EarthquakeDiff diff = new EarthquakeDiff();
+
+        Set<String> newIds = new HashSet<String>();
+        for (Earthquake earthquake : newList) {
+            String id = idOf(earthquake);
+            if (id != null)
+                newIds.add(id);
+        }
+
+        // Remove the events that are gone, from the end so the positions before them don't move.
+        List<Earthquake> working = new ArrayList<Earthquake>(oldList);
+        for (int i = working.size() - 1; i >= 0; i--) {
+            String id = idOf(working.get(i));
+            if (id != null && !newIds.contains(id)) {
+                working.remove(i);
+                diff.add(REMOVE, i, i);
+            }
+        }
+
+        // Every event still in the working list is somewhere in the new list.
+        // Walk the new list and make position j of the working list match it.
+        Set<String> pending = new HashSet<String>();
+        for (Earthquake earthquake : working) {
+            String id = idOf(earthquake);
+            if (id != null)
+                pending.add(id);
+        }
+
+        for (int j = 0; j < newList.size(); j++) {
+            Earthquake target = newList.get(j);
+            String targetId = idOf(target);
+            Earthquake current = j < working.size() ? working.get(j) : null;
+            String currentId = idOf(current);
+
+            if (targetId != null && targetId.equals(currentId)) {
+                // Already in place.
+                if (!sameContents(current, target))
+                    diff.add(CHANGE, j, j);
+            } else if (targetId != null && pending.contains(targetId)) {
+                // Further down in the working list, bring it up here.
+                int from = indexOf(working, targetId, j + 1);
+                working.add(j, working.remove(from));
+                diff.add(MOVE, from, j);
+                if (!sameContents(working.get(j), target))
+                    diff.add(CHANGE, j, j);
+            } else if (j < working.size() && (currentId == null || targetId == null)) {
+                // Nothing to match on, reuse the row at the same position. Two placeholders are the same row.
+                if (currentId != null)
+                    pending.remove(currentId);
+                working.set(j, target);
+                if (!sameContents(current, target))
+                    diff.add(CHANGE, j, j);
+            } else {
+                working.add(j, target);
+                diff.add(INSERT, j, j);
+            }
+
+            if (targetId != null)
+                pending.remove(targetId);
+        }
+
+        // Whatever is left past the end of the new list goes away.
+        for (int i = working.size() - 1; i >= newList.size(); i--) {
+            diff.add(REMOVE, i, i);
+        }
+
+        return diff;
+    }
+
+    /**
+     * Replay the updates in order.
+     */
+    public void dispatchTo(Callback callback) {
+        for (int i = 0; i < mSize; i += 3) {
+            switch (mOps[i]) {
+                case INSERT:
+                    callback.onInserted(mOps[i + 1]);
+                    break;
+                case REMOVE:
+                    callback.onRemoved(mOps[i + 1]);
+                    break;
+                case MOVE:
+                    callback.onMoved(mOps[i + 1], mOps[i + 2]);
+                    break;
+                default:
+                    callback.onChanged(mOps[i + 1]);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the number of updates in the diff
+     */
+    public int size() {
+        return mSize / 3;
+    }
+
+    private void add(int type, int first, int second) {
+        if (mSize + 3 > mOps.length) {
+            int[] ops = new int[mOps.length * 2];
+            System.arraycopy(mOps, 0, ops, 0, mSize);
+            mOps = ops;
+        }
+        mOps[mSize++] = type;
+        mOps[mSize++] = first;
+        mOps[mSize++] = second;
+    }
+
+    private static String idOf(Earthquake earthquake) {
+        return earthquake != null ? earthquake.getId() : null;
+    }
+
+    private static int indexOf(List<Earthquake> list, String id, int from) {
+        for (int i = from; i < list.size(); i++) {
+            if (id.equals(idOf(list.get(i))))
+                return i;
+        }
+        throw new IllegalStateException("Event " + id + " is not in the list");
+    }
+
+    /**
+     * @return true if both rows would be drawn the same way
+     */
+    static boolean sameContents(Earthquake a, Earthquake b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null)
+            return false;
+        return a.getUpdatedInMillisecond() == b.getUpdatedInMillisecond()
+                && a.getTimeInMillisecond() == b.getTimeInMillisecond()
+                // Not ==, an event without a magnitude (NaN) is drawn the same way every time.
+                && Double.compare(a.getMagnitudeValue(), b.getMagnitudeValue()) == 0
+                && equal(a.getPlace(), b.getPlace())
+                && equal(a.getUrl(), b.getUrl());
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
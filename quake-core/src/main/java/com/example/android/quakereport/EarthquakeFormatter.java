@@ -0,0 +1,165 @@
+package com.example.android.quakereport;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Formats the fields of a list row: the magnitude label, the date and the time, and the
+ * magnitude bucket that picks the color of the magnitude circle.
+ *
+ * Everything it needs is created once and reused, and repeated values come out of small caches,
+ * so formatting a row normally allocates nothing. Not thread safe: keep one per thread, e.g. one
+ * per adapter since binding always runs on the main thread.
+ */
+public final class EarthquakeFormatter {
+
+    /** Magnitudes 0-1, 2, ... 9 and 10+ each have their own bucket (and color). */
+    public static final int MAGNITUDE_BUCKETS = 11;
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    /** Number of cached date and time strings each, must be a power of two. */
+    private static final int BUCKET_CACHE_SIZE = 64;
+    /** Magnitudes 0.0 to 12.0 get a preformatted label. */
+    private static final int MAGNITUDE_LABELS = 121;
+    /** Far more than the error of magnitude * 10, far less than the precision of a magnitude. */
+    private static final double TIE_TOLERANCE = 1e-6;
+
+    private final DecimalFormat mMagnitudeFormat = new DecimalFormat("0.0");
+    private final String[] mMagnitudeLabels = formatMagnitudeLabels();
+    private final TimeZone mTimeZone;
+    private final BucketCache mDateCache;
+    private final BucketCache mTimeCache;
+
+    /**
+     * Dates and times in the default time zone.
+     */
+    public EarthquakeFormatter() {
+        this(TimeZone.getDefault());
+    }
+
+    public EarthquakeFormatter(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        SimpleDateFormat dateFormat = new SimpleDateFormat("LLL dd, yyyy");
+        dateFormat.setTimeZone(timeZone);
+        SimpleDateFormat timeFormat = new SimpleDateFormat("h:mm a");
+        timeFormat.setTimeZone(timeZone);
+        mDateCache = new BucketCache(dateFormat);
+        mTimeCache = new BucketCache(timeFormat);
+    }
+
+    /**
+     * @return the bucket of the magnitude, 0 to MAGNITUDE_BUCKETS - 1. Bucket i holds the magnitudes
+     * in [i, i+1), the last one everything at or above it, negative magnitudes go to bucket 0.
+     */
+    public static int getMagnitudeBucket(double magnitude) {
+        int magnitudeFloor = (int) Math.floor(magnitude);
+        if (magnitudeFloor < 0)
+            magnitudeFloor = 0;
+        return Math.min(magnitudeFloor, MAGNITUDE_BUCKETS - 1);
+    }
+
+    /**
+     * Magnitudes are shown with one decimal, so the common range is formatted once up front.
+     *
+     * A magnitude halfway between two labels, like 1.25, is left to the DecimalFormat: it rounds
+     * those half even, and decides on the exact value rather than on magnitude * 10, which has
+     * already been rounded (0.95 is really a little less, 0.95 * 10 is exactly 9.5).
+     */
+    public String formatMagnitude(double magnitude) {
+        double scaled = magnitude * 10;
+        if (Math.abs(scaled - Math.floor(scaled) - 0.5) > TIE_TOLERANCE) {
+            long tenths = Math.round(scaled);
+            if (tenths >= 0 && tenths < mMagnitudeLabels.length) {
+                return mMagnitudeLabels[(int) tenths];
+            }
+        }
+        return mMagnitudeFormat.format(magnitude);
+    }
+
+    /**
+     * The date only changes once a day, so it is formatted once per local day and cached.
+     */
+    public String formatDate(long timeInMillisecond) {
+        long day = floorDiv(timeInMillisecond + mTimeZone.getOffset(timeInMillisecond), MILLIS_PER_DAY);
+        return mDateCache.get(day, timeInMillisecond);
+    }
+
+    /**
+     * Same for the time, once per minute.
+     */
+    public String formatTime(long timeInMillisecond) {
+        long minute = floorDiv(timeInMillisecond, MILLIS_PER_MINUTE);
+        return mTimeCache.get(minute, timeInMillisecond);
+    }
+
+    /**
+     * One line for the summary over the list, e.g.
+     * "25 earthquakes, largest 7.3, median 6.4, 90% below 6.9; M6: 21 M7: 4; at most 5 a day, 2 an hour".
+     *
+     * @return the summary, or an empty string without events
+     */
+    public String formatSummary(EarthquakeStats stats) {
+        int count = stats.getCount();
+        if (count <= 0)
+            return "";
+
+        StringBuilder summary = new StringBuilder(128);
+        summary.append(count).append(count == 1 ? " earthquake" : " earthquakes")
+                .append(", largest ").append(formatMagnitude(stats.getMaxMagnitude()))
+                .append(", median ").append(formatMagnitude(stats.getMedianMagnitude()))
+                .append(", 90% below ").append(formatMagnitude(stats.getMagnitudePercentile(90)))
+                .append(";");
+        for (int band = 0; band < MAGNITUDE_BUCKETS; band++) {
+            int bandCount = stats.getBandCount(band);
+            if (bandCount > 0) {
+                summary.append(" M").append(band).append(band == MAGNITUDE_BUCKETS - 1 ? "+: " : ": ")
+                        .append(bandCount);
+            }
+        }
+        return summary.append("; at most ").append(stats.getBusiestDayCount()).append(" a day, ")
+                .append(stats.getBusiestHourCount()).append(" an hour").toString();
+    }
+
+    private String[] formatMagnitudeLabels() {
+        String[] labels = new String[MAGNITUDE_LABELS];
+        for (int tenths = 0; tenths < labels.length; tenths++) {
+            labels[tenths] = mMagnitudeFormat.format(tenths / 10.0);
+        }
+        return labels;
+    }
+
+    /**
+     * A small direct mapped cache from a time bucket (day, minute) to its formatted text.
+     * Looking up a bucket that is already cached allocates nothing.
+     */
+    private static final class BucketCache {
+        private final SimpleDateFormat mFormat;
+        private final Date mDate = new Date();
+        private final long[] mBuckets = new long[BUCKET_CACHE_SIZE];
+        private final String[] mValues = new String[BUCKET_CACHE_SIZE];
+
+        BucketCache(SimpleDateFormat format) {
+            mFormat = format;
+        }
+
+        String get(long bucket, long timeInMillisecond) {
+            int slot = (int) (bucket & (BUCKET_CACHE_SIZE - 1));
+            if (mValues[slot] == null || mBuckets[slot] != bucket) {
+                mDate.setTime(timeInMillisecond);
+                mValues[slot] = mFormat.format(mDate);
+                mBuckets[slot] = bucket;
+            }
+            return mValues[slot];
+        }
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        if ((value % divisor != 0) && ((value < 0) != (divisor < 0)))
+            quotient--;
+        return quotient;
+    }
+}
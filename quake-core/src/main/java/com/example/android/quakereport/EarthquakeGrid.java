@@ -0,0 +1,283 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index over the epicenters of an {@link EarthquakeTable}, so "near me" and map region
+ * queries can be answered locally instead of sending USGS a new latitude/longitude/maxradiuskm query.
+ *
+ * The globe is cut into a uniform grid of cellDegrees x cellDegrees cells. The events are counting
+ * sorted by cell into flat primitive arrays, with cellStart[c]..cellStart[c + 1] holding the
+ * events of cell c. A query only visits the cells overlapping its bounding box and checks the
+ * exact bounds or great circle distance for the events in them.
+ *
+ * Queries return row numbers of the table, in no particular order. Events without coordinates are
+ * never returned. The grid is a snapshot: rows added to the table afterwards are not indexed.
+ */
+public final class EarthquakeGrid {
+
+    /** Mean earth radius. */
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    public static final double DEFAULT_CELL_DEGREES = 1.0;
+
+    private final double mCellDegrees;
+    private final int mLatitudeCells;
+    private final int mLongitudeCells;
+
+    /** Where each cell's events start in the arrays below, one extra entry for the end. */
+    private final int[] mCellStart;
+    /** Per event, grouped by cell: its row in the table and its position. */
+    private final int[] mRows;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final double[] mCosLatitudes;
+
+    private EarthquakeGrid(double cellDegrees, int[] cellStart, int[] rows, double[] latitudes,
+                           double[] longitudes, double[] cosLatitudes) {
+        mCellDegrees = cellDegrees;
+        mLatitudeCells = latitudeCells(cellDegrees);
+        mLongitudeCells = longitudeCells(cellDegrees);
+        mCellStart = cellStart;
+        mRows = rows;
+        mLatitudes = latitudes;
+        mLongitudes = longitudes;
+        mCosLatitudes = cosLatitudes;
+    }
+
+    public static EarthquakeGrid build(EarthquakeTable table) {
+        return build(table, DEFAULT_CELL_DEGREES);
+    }
+
+    /**
+     * Index every row of the table that has coordinates.
+     *
+     * @param cellDegrees the cell size, smaller cells mean fewer events to check per query but more empty cells to skip
+     */
+    public static EarthquakeGrid build(EarthquakeTable table, double cellDegrees) {
+        if (!(cellDegrees > 0 && cellDegrees <= 180))
+            throw new IllegalArgumentException("cellDegrees " + cellDegrees);
+
+        int latitudeCells = latitudeCells(cellDegrees);
+        int longitudeCells = longitudeCells(cellDegrees);
+        int size = table.size();
+
+        // First pass: which cell each row goes to, and how many rows every cell gets.
+        int[] cells = new int[size];
+        int[] cellStart = new int[latitudeCells * longitudeCells + 1];
+        int indexed = 0;
+        for (int row = 0; row < size; row++) {
+            double latitude = table.getLatitude(row);
+            double longitude = table.getLongitude(row);
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                cells[row] = -1;
+                continue;
+            }
+            // The cell of the longitude as it is stored below, e.g. 190 goes with -170.
+            int cell = latitudeCell(latitude, cellDegrees, latitudeCells) * longitudeCells
+                    + longitudeCell(normalizeLongitude(longitude), cellDegrees, longitudeCells);
+            cells[row] = cell;
+            cellStart[cell + 1]++;
+            indexed++;
+        }
+        for (int cell = 0; cell < cellStart.length - 1; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        // Second pass: drop every row into its cell's slots.
+        int[] rows = new int[indexed];
+        double[] latitudes = new double[indexed];
+        double[] longitudes = new double[indexed];
+        double[] cosLatitudes = new double[indexed];
+        int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int row = 0; row < size; row++) {
+            int cell = cells[row];
+            if (cell == -1)
+                continue;
+            int slot = next[cell]++;
+            rows[slot] = row;
+            latitudes[slot] = table.getLatitude(row);
+            longitudes[slot] = normalizeLongitude(table.getLongitude(row));
+            cosLatitudes[slot] = Math.cos(Math.toRadians(latitudes[slot]));
+        }
+
+        return new EarthquakeGrid(cellDegrees, cellStart, rows, latitudes, longitudes, cosLatitudes);
+    }
+
+    /**
+     * @return the number of indexed events, i.e. the rows with coordinates
+     */
+    public int size() {
+        return mRows.length;
+    }
+
+    /**
+     * Events inside a latitude/longitude box, edges included.
+     * A box crossing the antimeridian is given with west > east, e.g. west 170, east -170.
+     *
+     * @return the table rows of the events in the box
+     */
+    public int[] withinBox(double south, double west, double north, double east) {
+        IntBuffer result = new IntBuffer();
+        if (south > north)
+            return result.toArray();
+
+        boolean allLongitudes = east - west >= 360;
+        west = normalizeLongitude(west);
+        east = normalizeLongitude(east);
+        boolean wraps = west > east;
+        int firstRow = latitudeCell(south, mCellDegrees, mLatitudeCells);
+        int lastRow = latitudeCell(north, mCellDegrees, mLatitudeCells);
+        int firstColumn = allLongitudes ? 0 : longitudeCell(west, mCellDegrees, mLongitudeCells);
+        int lastColumn = allLongitudes ? mLongitudeCells - 1 : longitudeCell(east, mCellDegrees, mLongitudeCells);
+        if (wraps && firstColumn == lastColumn) {
+            // Both edges in one cell, but the box goes once around the globe, e.g. west 10.5, east 10.2.
+            firstColumn = 0;
+            lastColumn = mLongitudeCells - 1;
+        }
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int column = firstColumn;
+            while (true) {
+                int cell = row * mLongitudeCells + column;
+                for (int slot = mCellStart[cell]; slot < mCellStart[cell + 1]; slot++) {
+                    double latitude = mLatitudes[slot];
+                    double longitude = mLongitudes[slot];
+                    boolean inLongitude = allLongitudes
+                            || (wraps ? longitude >= west || longitude <= east : longitude >= west && longitude <= east);
+                    if (inLongitude && latitude >= south && latitude <= north)
+                        result.add(mRows[slot]);
+                }
+                if (column == lastColumn)
+                    break;
+                column = (column + 1) % mLongitudeCells;
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Events whose epicenter is at most radiusKm away (great circle distance) from the given point.
+     *
+     * @return the table rows of the events in the circle
+     */
+    public int[] withinRadius(double latitude, double longitude, double radiusKm) {
+        IntBuffer result = new IntBuffer();
+        if (!(radiusKm >= 0))
+            return result.toArray();
+
+        double angularRadius = radiusKm / EARTH_RADIUS_KM;
+        if (angularRadius >= Math.PI) {
+            // Covers the whole globe.
+            return Arrays.copyOf(mRows, mRows.length);
+        }
+
+        // The smallest latitude/longitude box around the circle.
+        double latitudeDelta = radiusKm / KM_PER_DEGREE;
+        double south = latitude - latitudeDelta;
+        double north = latitude + latitudeDelta;
+        int firstColumn;
+        int lastColumn;
+        if (south <= -90 || north >= 90) {
+            // The circle contains a pole, so every longitude.
+            firstColumn = 0;
+            lastColumn = mLongitudeCells - 1;
+        } else {
+            double longitudeDelta = Math.toDegrees(Math.asin(Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude))));
+            if (Double.isNaN(longitudeDelta) || longitudeDelta >= 180) {
+                firstColumn = 0;
+                lastColumn = mLongitudeCells - 1;
+            } else {
+                firstColumn = longitudeCell(normalizeLongitude(longitude - longitudeDelta), mCellDegrees, mLongitudeCells);
+                lastColumn = longitudeCell(normalizeLongitude(longitude + longitudeDelta), mCellDegrees, mLongitudeCells);
+            }
+        }
+        int firstRow = latitudeCell(Math.max(south, -90), mCellDegrees, mLatitudeCells);
+        int lastRow = latitudeCell(Math.min(north, 90), mCellDegrees, mLatitudeCells);
+
+        // Haversine, compared without the final asin/sqrt: hav(d) <= hav(radius).
+        double maxHaversine = haversine(angularRadius);
+        double cosLatitude = Math.cos(Math.toRadians(latitude));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int column = firstColumn;
+            while (true) {
+                int cell = row * mLongitudeCells + column;
+                for (int slot = mCellStart[cell]; slot < mCellStart[cell + 1]; slot++) {
+                    double h = haversine(Math.toRadians(mLatitudes[slot] - latitude))
+                            + cosLatitude * mCosLatitudes[slot] * haversine(Math.toRadians(mLongitudes[slot] - longitude));
+                    if (h <= maxHaversine)
+                        result.add(mRows[slot]);
+                }
+                if (column == lastColumn)
+                    break;
+                column = (column + 1) % mLongitudeCells;
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * @return the great circle distance between two points in km
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double h = haversine(Math.toRadians(latitude2 - latitude1))
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * haversine(Math.toRadians(longitude2 - longitude1));
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1, h)));
+    }
+
+    private static double haversine(double angle) {
+        double s = Math.sin(angle / 2);
+        return s * s;
+    }
+
+    private static int latitudeCells(double cellDegrees) {
+        return (int) Math.ceil(180 / cellDegrees);
+    }
+
+    private static int longitudeCells(double cellDegrees) {
+        return (int) Math.ceil(360 / cellDegrees);
+    }
+
+    private static int latitudeCell(double latitude, double cellDegrees, int cells) {
+        int cell = (int) Math.floor((latitude + 90) / cellDegrees);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    private static int longitudeCell(double longitude, double cellDegrees, int cells) {
+        int cell = (int) Math.floor((longitude + 180) / cellDegrees);
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    /**
+     * @return the same longitude in [-180, 180)
+     */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude < 180)
+            return longitude;
+        double normalized = (longitude + 180) % 360;
+        if (normalized < 0)
+            normalized += 360;
+        return normalized - 180;
+    }
+
+    /**
+     * Growable int array for the query results.
+     */
+    private static final class IntBuffer {
+        private int[] mValues = new int[16];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length)
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
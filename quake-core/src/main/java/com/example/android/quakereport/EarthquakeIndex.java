@@ -0,0 +1,215 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The events of a live query, kept in memory and merged poll by poll.
+ *
+ * Every event is indexed by its USGS id, and a sorted set keeps them newest first for the list.
+ * A poll is applied as upserts: unknown ids are added, known ids are replaced only if the poll has
+ * a newer "updated" revision, and everything else is left alone. A hash lookup per polled event
+ * plus a log(n) re-sort per actual change, so applying a poll costs what changed, not what is held.
+ *
+ * With a capacity set, the oldest events are dropped once there are more than that.
+ *
+ * The {@link EarthquakeStats} of the held events are updated with every change as well, so they
+ * too cost what changed to keep current.
+ *
+ * Not thread safe, use it from one thread (e.g. a loader's background thread) at a time.
+ */
+public final class EarthquakeIndex {
+
+    /**
+     * What one {@link #apply(List)} or {@link #remove(String)} changed.
+     */
+    public static final class ChangeSet {
+        private final List<Earthquake> mAdded = new ArrayList<Earthquake>();
+        private final List<Earthquake> mUpdated = new ArrayList<Earthquake>();
+        private final List<Earthquake> mRemoved = new ArrayList<Earthquake>();
+
+        public List<Earthquake> getAdded() {
+            return Collections.unmodifiableList(mAdded);
+        }
+
+        /**
+         * @return the new revisions of the events that were replaced
+         */
+        public List<Earthquake> getUpdated() {
+            return Collections.unmodifiableList(mUpdated);
+        }
+
+        public List<Earthquake> getRemoved() {
+            return Collections.unmodifiableList(mRemoved);
+        }
+
+        public boolean isEmpty() {
+            return mAdded.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return mAdded.size() + " added, " + mUpdated.size() + " updated, " + mRemoved.size() + " removed";
+        }
+    }
+
+    /**
+     * Where an event sits in the time order. The time and magnitude are copied in, so changing the
+     * event afterwards can't corrupt the sorted set or the stats.
+     */
+    private static final class Entry {
+        final String mId;
+        final long mTime;
+        final long mUpdated;
+        final double mMagnitude;
+        final Earthquake mEarthquake;
+
+        Entry(Earthquake earthquake) {
+            mId = earthquake.getId();
+            mTime = earthquake.getTimeInMillisecond();
+            mUpdated = earthquake.getUpdatedInMillisecond();
+            mMagnitude = earthquake.getMagnitudeValue();
+            mEarthquake = earthquake;
+        }
+    }
+
+    /** Newest first, the id breaks ties between events at the same millisecond. */
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.mTime != b.mTime)
+                return a.mTime > b.mTime ? -1 : 1;
+            return a.mId.compareTo(b.mId);
+        }
+    };
+
+    private final Map<String, Entry> mById = new HashMap<String, Entry>();
+    private final TreeSet<Entry> mByTime = new TreeSet<Entry>(NEWEST_FIRST);
+    private final EarthquakeStats mStats = new EarthquakeStats();
+    private final int mCapacity;
+
+    public EarthquakeIndex() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param capacity the most events to hold, the oldest ones are dropped past that
+     */
+    public EarthquakeIndex(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Merge a poll into the index. Events without an id can't be matched and are skipped.
+     *
+     * @return what changed
+     */
+    public ChangeSet apply(List<Earthquake> earthquakes) {
+        ChangeSet changes = new ChangeSet();
+
+        for (Earthquake earthquake : earthquakes) {
+            String id = earthquake.getId();
+            if (id == null)
+                continue;
+
+            Entry current = mById.get(id);
+            if (current == null) {
+                Entry entry = new Entry(earthquake);
+                mById.put(id, entry);
+                mByTime.add(entry);
+                mStats.add(entry.mMagnitude, entry.mTime);
+                changes.mAdded.add(earthquake);
+            } else if (earthquake.getUpdatedInMillisecond() > current.mUpdated) {
+                // A newer revision, its time may have been corrected too, so sort it in again.
+                Entry entry = new Entry(earthquake);
+                mByTime.remove(current);
+                mById.put(id, entry);
+                mByTime.add(entry);
+                mStats.remove(current.mMagnitude, current.mTime);
+                mStats.add(entry.mMagnitude, entry.mTime);
+                changes.mUpdated.add(earthquake);
+            }
+        }
+
+        while (mByTime.size() > mCapacity) {
+            Entry oldest = mByTime.pollLast();
+            mById.remove(oldest.mId);
+            mStats.remove(oldest.mMagnitude, oldest.mTime);
+            changes.mRemoved.add(oldest.mEarthquake);
+        }
+
+        // Something added and then pushed out again by the same poll never really showed up.
+        if (!changes.mRemoved.isEmpty() && !changes.mAdded.isEmpty()) {
+            Set<Earthquake> addedAndRemoved = Collections.newSetFromMap(new IdentityHashMap<Earthquake, Boolean>());
+            addedAndRemoved.addAll(changes.mRemoved);
+            addedAndRemoved.retainAll(changes.mAdded);
+            if (!addedAndRemoved.isEmpty()) {
+                changes.mAdded.removeAll(addedAndRemoved);
+                changes.mRemoved.removeAll(addedAndRemoved);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Drop one event, e.g. one USGS deleted.
+     *
+     * @return what changed, empty if the event wasn't held
+     */
+    public ChangeSet remove(String id) {
+        ChangeSet changes = new ChangeSet();
+        Entry entry = mById.remove(id);
+        if (entry != null) {
+            mByTime.remove(entry);
+            mStats.remove(entry.mMagnitude, entry.mTime);
+            changes.mRemoved.add(entry.mEarthquake);
+        }
+        return changes;
+    }
+
+    /**
+     * @return the current revision of the event, or null
+     */
+    public Earthquake get(String id) {
+        Entry entry = mById.get(id);
+        return entry != null ? entry.mEarthquake : null;
+    }
+
+    public int size() {
+        return mById.size();
+    }
+
+    public void clear() {
+        mById.clear();
+        mByTime.clear();
+        mStats.clear();
+    }
+
+    /**
+     * @return the stats of the events held, which follow every change to the index;
+     * {@link EarthquakeStats#copy() copy} them to hand them to another thread
+     */
+    public EarthquakeStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return the events newest first, as a copy that later polls don't change, so it
+     * can be handed to the UI thread
+     */
+    public List<Earthquake> snapshot() {
+        List<Earthquake> earthquakes = new ArrayList<Earthquake>(mByTime.size());
+        for (Entry entry : mByTime) {
+            earthquakes.add(entry.mEarthquake);
+        }
+        return earthquakes;
+    }
+}
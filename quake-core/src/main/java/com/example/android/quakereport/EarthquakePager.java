@@ -0,0 +1,289 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Keeps the earthquake list in fixed size pages so that only the part of the result set
+ * around the viewport is in memory.
+ *
+ * The list tells the pager which rows are on screen with {@link #onVisibleRangeChanged(int, int)}.
+ * The pager then asks its {@link PageRequester} for the pages covering the viewport plus
+ * {@code prefetchPages} ahead of it, and drops the pages that are more than {@code retainPages}
+ * away. A dropped page keeps its rows counted, so positions stay stable, and
+ * {@link #getItem(int)} returns null for them until the page is loaded again.
+ *
+ * The list is handed to the adapter as a {@link Snapshot}, a view over the pages rather than a
+ * copy of the rows, which knows which rows changed since the snapshot before it. A page load then
+ * costs the adapter a diff of that page, not of every row held.
+ */
+public class EarthquakePager {
+
+    /**
+     * Does the actual loading, e.g. by starting a loader for the page.
+     * Results come back through {@link #onPageLoaded(int, List)} or {@link #onPageFailed(int)}.
+     */
+    public interface PageRequester {
+        void requestPage(int page);
+
+        void dropPage(int page);
+    }
+
+    private final int mPageSize;
+    private final int mPrefetchPages;
+    private final int mRetainPages;
+    private final PageRequester mRequester;
+
+    private final Map<Integer, List<Earthquake>> mPages = new HashMap<Integer, List<Earthquake>>();
+    private final Set<Integer> mRequested = new HashSet<Integer>();
+
+    /** Number of pages we know the size of, they are always 0..mKnownPages-1. */
+    private int mKnownPages;
+    /** Size of the last known page, every page before it is full. */
+    private int mLastPageSize;
+    /** Set once a page comes back short, there is nothing after it. */
+    private boolean mEndReached;
+    /** False while the last known page only has the rows of a load that is still going on. */
+    private boolean mLastPageComplete = true;
+
+    /** Last viewport reported by the list, so loaded pages can continue the prefetch. */
+    private int mFirstVisible;
+    private int mVisibleCount = 1;
+
+    /**
+     * Since the last snapshot: the first row that changed, and the last page that did; the rows of
+     * the pages after it haven't. Integer.MAX_VALUE and -1 when nothing changed.
+     */
+    private int mChangedFrom = Integer.MAX_VALUE;
+    private int mChangedToPage = -1;
+
+    /**
+     * @param pageSize      number of rows per request
+     * @param prefetchPages how many pages past the last visible row are loaded ahead of time
+     * @param retainPages   how many pages outside of the prefetch window are kept before being dropped
+     */
+    public EarthquakePager(int pageSize, int prefetchPages, int retainPages, PageRequester requester) {
+        mPageSize = pageSize;
+        mPrefetchPages = prefetchPages;
+        mRetainPages = retainPages;
+        mRequester = requester;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * @return the number of rows in the list, including the rows of dropped pages
+     */
+    public int getCount() {
+        if (mKnownPages == 0)
+            return 0;
+        return (mKnownPages - 1) * mPageSize + mLastPageSize;
+    }
+
+    /**
+     * @return the earthquake at the position, or null if its page is not in memory right now
+     */
+    public Earthquake getItem(int position) {
+        List<Earthquake> page = mPages.get(position / mPageSize);
+        if (page == null)
+            return null;
+
+        int index = position % mPageSize;
+        return index < page.size() ? page.get(index) : null;
+    }
+
+    /**
+     * @return the rows as they are now, with null for the rows of dropped pages. Pages loaded or
+     * dropped afterwards don't change it.
+     */
+    public Snapshot snapshot() {
+        @SuppressWarnings("unchecked")
+        List<Earthquake>[] pages = new List[mKnownPages];
+        for (Map.Entry<Integer, List<Earthquake>> page : mPages.entrySet()) {
+            if (page.getKey() < pages.length)
+                pages[page.getKey()] = page.getValue();
+        }
+        int count = getCount();
+        int unchangedHead = Math.min(mChangedFrom, count);
+        int unchangedTail = Math.max(0, count - Math.max(unchangedHead, (mChangedToPage + 1) * mPageSize));
+        mChangedFrom = Integer.MAX_VALUE;
+        mChangedToPage = -1;
+        return new Snapshot(pages, mPageSize, count, unchangedHead, unchangedTail);
+    }
+
+    /**
+     * Start loading from the top of the list.
+     */
+    public void start() {
+        onVisibleRangeChanged(0, 1);
+    }
+
+    /**
+     * Called by the list whenever it scrolls.
+     *
+     * @param firstVisible position of the first visible row
+     * @param visibleCount number of visible rows
+     */
+    public void onVisibleRangeChanged(int firstVisible, int visibleCount) {
+        mFirstVisible = firstVisible;
+        mVisibleCount = visibleCount;
+
+        int firstPage = firstVisible / mPageSize;
+        int lastPage = (firstVisible + Math.max(visibleCount, 1) - 1) / mPageSize + mPrefetchPages;
+
+        // Load the viewport and the prefetch window. Pages are requested in order because we only
+        // know where page n starts once page n-1 came back full.
+        for (int page = firstPage; page <= lastPage && page <= mKnownPages; page++) {
+            if ((mEndReached || !mLastPageComplete) && page >= mKnownPages)
+                break;
+            if (!mPages.containsKey(page) && mRequested.add(page)) {
+                mRequester.requestPage(page);
+            }
+        }
+
+        // Let go of the pages that are far away from what is on screen.
+        int keepFrom = firstPage - mRetainPages;
+        int keepTo = lastPage + mRetainPages;
+        Iterator<Integer> iterator = mPages.keySet().iterator();
+        while (iterator.hasNext()) {
+            int page = iterator.next();
+            if (page < keepFrom || page > keepTo) {
+                iterator.remove();
+                mRequested.remove(page);
+                mRequester.dropPage(page);
+                changed(page * mPageSize, page);
+            }
+        }
+    }
+
+    /**
+     * A requested page has been loaded. The same page may be delivered more than once,
+     * e.g. stored rows first and the synced rows afterwards.
+     */
+    public void onPageLoaded(int page, List<Earthquake> earthquakes) {
+        onPageLoaded(page, earthquakes, true);
+    }
+
+    /**
+     * Some or all of the rows of a requested page have been loaded.
+     *
+     * @param complete false for the first rows of a page that is still being loaded, which will be
+     *                 delivered again with more rows. A short incomplete page doesn't end the list,
+     *                 and the next page is only requested once it is complete.
+     * @return true if the rows were only added at the end of the list and every row before them is
+     * still the same, assuming that an incomplete page is delivered again with the rows it had first
+     */
+    public boolean onPageLoaded(int page, List<Earthquake> earthquakes, boolean complete) {
+        List<Earthquake> previous = mPages.put(page, earthquakes);
+
+        boolean appended = false;
+        if (page >= mKnownPages - 1) {
+            // A new last page, or more rows of the last page while it is being loaded.
+            appended = previous == null ? page == mKnownPages
+                    : !mLastPageComplete && earthquakes.size() >= previous.size();
+            int count = getCount();
+            // Rows from the old last page on may have moved in or out.
+            changed(appended ? count : Math.max(mKnownPages - 1, 0) * mPageSize, page);
+            mKnownPages = page + 1;
+            mLastPageSize = earthquakes.size();
+            mLastPageComplete = complete;
+            mEndReached = complete && earthquakes.size() < mPageSize;
+        } else {
+            changed(page * mPageSize, page);
+        }
+
+        // Now that we know where the next page starts, keep the prefetch window filled.
+        onVisibleRangeChanged(mFirstVisible, mVisibleCount);
+        return appended;
+    }
+
+    /**
+     * A requested page could not be loaded, it is requested again on the next scroll.
+     */
+    public void onPageFailed(int page) {
+        mRequested.remove(page);
+    }
+
+    /**
+     * Forget every page, e.g. when the query changes.
+     */
+    public void clear() {
+        for (int page : mPages.keySet()) {
+            mRequester.dropPage(page);
+        }
+        changed(0, mKnownPages - 1);
+        mPages.clear();
+        mRequested.clear();
+        mKnownPages = 0;
+        mLastPageSize = 0;
+        mEndReached = false;
+        mLastPageComplete = true;
+        mFirstVisible = 0;
+        mVisibleCount = 1;
+    }
+
+    /**
+     * Remember that the rows from {@code from} on, up to the end of {@code toPage}, changed.
+     */
+    private void changed(int from, int toPage) {
+        mChangedFrom = Math.min(mChangedFrom, from);
+        mChangedToPage = Math.max(mChangedToPage, toPage);
+    }
+
+    /**
+     * The rows of the pages held at one point in time, read through to the pages.
+     */
+    public static final class Snapshot extends AbstractList<Earthquake> implements RandomAccess {
+        private final List<Earthquake>[] mPages;
+        private final int mPageSize;
+        private final int mCount;
+        private final int mUnchangedHead;
+        private final int mUnchangedTail;
+
+        Snapshot(List<Earthquake>[] pages, int pageSize, int count, int unchangedHead, int unchangedTail) {
+            mPages = pages;
+            mPageSize = pageSize;
+            mCount = count;
+            mUnchangedHead = unchangedHead;
+            mUnchangedTail = unchangedTail;
+        }
+
+        @Override
+        public Earthquake get(int position) {
+            if (position < 0 || position >= mCount)
+                throw new IndexOutOfBoundsException("Row " + position + ", size " + mCount);
+            List<Earthquake> page = mPages[position / mPageSize];
+            if (page == null)
+                return null;
+            int index = position % mPageSize;
+            return index < page.size() ? page.get(index) : null;
+        }
+
+        @Override
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * @return how many rows at the start are the same as in the snapshot before this one
+         */
+        public int getUnchangedHead() {
+            return mUnchangedHead;
+        }
+
+        /**
+         * @return how many rows at the end are the same as in the snapshot before this one
+         */
+        public int getUnchangedTail() {
+            return mUnchangedTail;
+        }
+    }
+}
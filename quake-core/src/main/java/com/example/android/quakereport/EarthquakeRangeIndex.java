@@ -0,0 +1,331 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Magnitude and time indexes over an {@link EarthquakeTable}, so the list can be filtered and
+ * re-sorted locally instead of downloading the query again with other minmag/starttime/endtime
+ * or orderby parameters.
+ *
+ * Built once per loaded table: the rows sorted by magnitude and by time, as int arrays next to the
+ * sorted keys, plus each row's rank in both orders. A filter is two binary searches per range.
+ * The result is walked along whichever range is cheaper: the range in the sort order, checking the
+ * other bound per row, or the other range, sorting its ranks. Either way it is returned as a
+ * {@link List} view reading through to the table, no {@link Earthquake} is copied.
+ *
+ * The index is a snapshot of the table when it was built and is only read afterwards, so it can
+ * be shared between threads.
+ */
+public final class EarthquakeRangeIndex {
+
+    /**
+     * The order of a filtered view.
+     */
+    public enum SortOrder {
+        TIME_DESCENDING, TIME_ASCENDING, MAGNITUDE_DESCENDING, MAGNITUDE_ASCENDING
+    }
+
+    private final EarthquakeTable mTable;
+
+    /** Rows in ascending magnitude order, and the magnitudes in that order. */
+    private final int[] mByMagnitude;
+    private final double[] mSortedMagnitudes;
+    /** Rows in ascending time order, and the times in that order. */
+    private final int[] mByTime;
+    private final long[] mSortedTimes;
+    /** Where every row sits in the two orders. */
+    private final int[] mMagnitudeRank;
+    private final int[] mTimeRank;
+
+    private EarthquakeRangeIndex(EarthquakeTable table) {
+        mTable = table;
+        int size = table.size();
+
+        mSortedMagnitudes = new double[size];
+        mSortedTimes = new long[size];
+        long[] magnitudeKeys = new long[size];
+        for (int row = 0; row < size; row++) {
+            magnitudeKeys[row] = pack(sortableBits(table.getMagnitude(row)), row);
+        }
+        // Sort the primitive keys with the row packed in, no boxing and no comparator.
+        Arrays.sort(magnitudeKeys);
+
+        mByMagnitude = new int[size];
+        mMagnitudeRank = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            int row = (int) magnitudeKeys[rank];
+            mByMagnitude[rank] = row;
+            mSortedMagnitudes[rank] = table.getMagnitude(row);
+        }
+        // Distinct magnitudes that round to the same float may still be out of order, put them right.
+        for (int rank = 1; rank < size; rank++) {
+            double magnitude = mSortedMagnitudes[rank];
+            int row = mByMagnitude[rank];
+            int to = rank;
+            while (to > 0 && mSortedMagnitudes[to - 1] > magnitude) {
+                mSortedMagnitudes[to] = mSortedMagnitudes[to - 1];
+                mByMagnitude[to] = mByMagnitude[to - 1];
+                to--;
+            }
+            mSortedMagnitudes[to] = magnitude;
+            mByMagnitude[to] = row;
+        }
+        for (int rank = 0; rank < size; rank++) {
+            mMagnitudeRank[mByMagnitude[rank]] = rank;
+        }
+
+        // Times don't fit next to the row in a long, sort the rows by time instead.
+        mByTime = sortRowsByTime(table, size);
+        mTimeRank = new int[size];
+        for (int rank = 0; rank < size; rank++) {
+            int row = mByTime[rank];
+            mTimeRank[row] = rank;
+            mSortedTimes[rank] = table.getTimeInMillisecond(row);
+        }
+    }
+
+    /**
+     * Index a table. The table must not change afterwards.
+     */
+    public static EarthquakeRangeIndex build(EarthquakeTable table) {
+        return new EarthquakeRangeIndex(table);
+    }
+
+    public int size() {
+        return mByMagnitude.length;
+    }
+
+    /**
+     * The events with minMagnitude <= magnitude <= maxMagnitude and fromTime <= time <= toTime.
+     * Pass infinities / Long.MIN_VALUE and Long.MAX_VALUE to leave a bound open.
+     *
+     * @return a read only view over the table in the given order
+     */
+    public List<Earthquake> filter(double minMagnitude, double maxMagnitude, long fromTime, long toTime, SortOrder order) {
+        int magnitudeFrom = lowerBound(mSortedMagnitudes, minMagnitude);
+        int magnitudeTo = upperBound(mSortedMagnitudes, maxMagnitude);
+        int timeFrom = lowerBound(mSortedTimes, fromTime);
+        int timeTo = upperBound(mSortedTimes, toTime);
+        int magnitudeCount = Math.max(0, magnitudeTo - magnitudeFrom);
+        int timeCount = Math.max(0, timeTo - timeFrom);
+
+        boolean byTime = order == SortOrder.TIME_ASCENDING || order == SortOrder.TIME_DESCENDING;
+        boolean descending = order == SortOrder.TIME_DESCENDING || order == SortOrder.MAGNITUDE_DESCENDING;
+
+        if (magnitudeCount == 0 || timeCount == 0)
+            return new RowView(mTable, new int[0], 0, 0, false);
+
+        // Only the sort dimension is restricted: the view is a slice of its order, nothing to copy at all.
+        if (byTime && magnitudeCount == size())
+            return new RowView(mTable, mByTime, timeFrom, timeTo, descending);
+        if (!byTime && timeCount == size())
+            return new RowView(mTable, mByMagnitude, magnitudeFrom, magnitudeTo, descending);
+
+        int[] sortOrder = byTime ? mByTime : mByMagnitude;
+        int sortFrom = byTime ? timeFrom : magnitudeFrom;
+        int sortCount = byTime ? timeCount : magnitudeCount;
+        int[] otherOrder = byTime ? mByMagnitude : mByTime;
+        int otherFrom = byTime ? magnitudeFrom : timeFrom;
+        int otherCount = byTime ? magnitudeCount : timeCount;
+
+        int[] rows;
+        int count = 0;
+        if (sortCount <= otherCount * log2(otherCount)) {
+            // Walk the sort range, it comes out in order, and keep the rows inside the other range.
+            int[] otherRank = byTime ? mMagnitudeRank : mTimeRank;
+            int otherTo = otherFrom + otherCount;
+            rows = new int[Math.min(sortCount, otherCount)];
+            for (int i = sortFrom; i < sortFrom + sortCount; i++) {
+                int row = sortOrder[i];
+                int rank = otherRank[row];
+                if (rank >= otherFrom && rank < otherTo)
+                    rows[count++] = row;
+            }
+        } else {
+            // The other range is much narrower: take it, keep the rows inside the sort range and
+            // put them in order by sorting their ranks.
+            int[] sortRank = byTime ? mTimeRank : mMagnitudeRank;
+            int sortTo = sortFrom + sortCount;
+            int[] ranks = new int[Math.min(sortCount, otherCount)];
+            for (int i = otherFrom; i < otherFrom + otherCount; i++) {
+                int rank = sortRank[otherOrder[i]];
+                if (rank >= sortFrom && rank < sortTo)
+                    ranks[count++] = rank;
+            }
+            Arrays.sort(ranks, 0, count);
+            rows = ranks;
+            for (int i = 0; i < count; i++) {
+                rows[i] = sortOrder[ranks[i]];
+            }
+        }
+
+        return new RowView(mTable, rows, 0, count, descending);
+    }
+
+    /**
+     * @return the first index whose value is >= key
+     */
+    private static int lowerBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the first index whose value is > key
+     */
+    private static int upperBound(double[] values, double key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static int upperBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+
+    /**
+     * A float's bits can be made to sort like the float itself, which leaves the low 32 bits of a
+     * long for the row. Rounding to float keeps the order except between nearly equal magnitudes.
+     */
+    private static long pack(int sortableBits, int row) {
+        return ((long) sortableBits << 32) | (row & 0xffffffffL);
+    }
+
+    private static int sortableBits(double value) {
+        int bits = Float.floatToIntBits((float) value);
+        // Negative floats sort backwards as ints, flip everything but the sign bit for them.
+        return bits < 0 ? bits ^ 0x7fffffff : bits;
+    }
+
+    /**
+     * Rows ordered by time. Tables loaded with orderby=time are already sorted one way or the other,
+     * which is checked first, otherwise they are sorted by a primitive merge sort.
+     */
+    private static int[] sortRowsByTime(EarthquakeTable table, int size) {
+        int[] rows = new int[size];
+        boolean ascending = true;
+        boolean descending = true;
+        for (int row = 0; row < size; row++) {
+            rows[row] = row;
+            if (row > 0) {
+                long previous = table.getTimeInMillisecond(row - 1);
+                long current = table.getTimeInMillisecond(row);
+                ascending &= previous <= current;
+                descending &= previous >= current;
+            }
+        }
+        if (ascending)
+            return rows;
+        if (descending) {
+            for (int i = 0; i < size; i++) {
+                rows[i] = size - 1 - i;
+            }
+            return rows;
+        }
+
+        long[] times = new long[size];
+        for (int row = 0; row < size; row++) {
+            times[row] = table.getTimeInMillisecond(row);
+        }
+        mergeSort(rows, new int[size], times, 0, size);
+        return rows;
+    }
+
+    /**
+     * Stable sort of rows[from, to) by times[row].
+     */
+    private static void mergeSort(int[] rows, int[] scratch, long[] times, int from, int to) {
+        if (to - from < 2)
+            return;
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, scratch, times, from, middle);
+        mergeSort(rows, scratch, times, middle, to);
+        if (times[rows[middle - 1]] <= times[rows[middle]])
+            return;
+
+        System.arraycopy(rows, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && times[scratch[left]] <= times[scratch[right]]))
+                rows[i] = scratch[left++];
+            else
+                rows[i] = scratch[right++];
+        }
+    }
+
+    /**
+     * Read only list over rows[from, to) of a table, optionally back to front.
+     */
+    private static final class RowView extends AbstractList<Earthquake> implements RandomAccess {
+        private final EarthquakeTable mTable;
+        private final int[] mRows;
+        private final int mFrom;
+        private final int mTo;
+        private final boolean mReversed;
+
+        RowView(EarthquakeTable table, int[] rows, int from, int to, boolean reversed) {
+            mTable = table;
+            mRows = rows;
+            mFrom = from;
+            mTo = to;
+            mReversed = reversed;
+        }
+
+        @Override
+        public Earthquake get(int index) {
+            if (index < 0 || index >= size())
+                throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+            return mTable.get(mRows[mReversed ? mTo - 1 - index : mFrom + index]);
+        }
+
+        @Override
+        public int size() {
+            return mTo - mFrom;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.quakereport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of a loaded result set, so a cold start can show the last result before
+ * the store or the network have answered.
+ *
+ * The file is a header, a table of the distinct strings (ids, places, urls) and one fixed width
+ * column per field, all big endian, followed by a CRC32 of everything before it:
+ *
+ * <pre>
+ * int    magic "QKSN"
+ * int    version
+ * long   written at, ms since the epoch
+ * string the query the rows are the result of
+ * int    rows
+ * int    strings, then each one as an int byte length and its UTF-8 bytes (code 0 is null, not stored)
+ * int[]  id codes, double[] magnitudes, long[] times, long[] updated, int[] place codes,
+ *        int[] url codes, double[] latitudes, double[] longitudes, double[] depths
+ * int    CRC32
+ * </pre>
+ *
+ * It is written to a temporary file which is synced and then renamed over the old one, so a
+ * reader only ever sees a complete snapshot. A file with another magic or version, or written
+ * for another query, is simply not used; bump {@link #VERSION} whenever the layout changes.
+ */
+public final class EarthquakeSnapshot {
+
+    private static final int MAGIC = 0x514B534E;
+    public static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int CRC_CHUNK_SIZE = 8192;
+
+    private EarthquakeSnapshot() {
+    }
+
+    /**
+     * Atomically replace the snapshot in {@code file} with the given rows.
+     *
+     * @param query the query the rows answer, a later {@link #read} only accepts the same one
+     */
+    public static void write(File file, String query, List<Earthquake> earthquakes) throws IOException {
+        int rows = earthquakes.size();
+
+        Map<String, Integer> codes = new HashMap<String, Integer>();
+        List<byte[]> strings = new ArrayList<byte[]>();
+        int[] idCodes = new int[rows];
+        int[] placeCodes = new int[rows];
+        int[] urlCodes = new int[rows];
+        // Each row is read once, a table hands out a new view on every get().
+        double[] magnitudes = new double[rows];
+        long[] times = new long[rows];
+        long[] updated = new long[rows];
+        double[] latitudes = new double[rows];
+        double[] longitudes = new double[rows];
+        double[] depths = new double[rows];
+        int stringBytes = 0;
+        for (int row = 0; row < rows; row++) {
+            Earthquake earthquake = earthquakes.get(row);
+            idCodes[row] = encode(earthquake.getId(), codes, strings);
+            placeCodes[row] = encode(earthquake.getPlace(), codes, strings);
+            urlCodes[row] = encode(earthquake.getUrl(), codes, strings);
+            magnitudes[row] = earthquake.getMagnitudeValue();
+            times[row] = earthquake.getTimeInMillisecond();
+            updated[row] = earthquake.getUpdatedInMillisecond();
+            latitudes[row] = earthquake.getLatitude();
+            longitudes[row] = earthquake.getLongitude();
+            depths[row] = earthquake.getDepthInKm();
+        }
+        for (byte[] string : strings) {
+            stringBytes += 4 + string.length;
+        }
+
+        byte[] queryBytes = query.getBytes(UTF_8);
+        int size = 4 + 4 + 8 + 4 + queryBytes.length + 4 + 4 + stringBytes
+                + rows * (4 + 8 + 8 + 8 + 4 + 4 + 8 + 8 + 8) + 4;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        buffer.putInt(queryBytes.length).put(queryBytes);
+        buffer.putInt(rows);
+        buffer.putInt(strings.size());
+        for (byte[] string : strings) {
+            buffer.putInt(string.length).put(string);
+        }
+        buffer.asIntBuffer().put(idCodes);
+        buffer.position(buffer.position() + rows * 4);
+        buffer.asDoubleBuffer().put(magnitudes);
+        buffer.position(buffer.position() + rows * 8);
+        buffer.asLongBuffer().put(times);
+        buffer.position(buffer.position() + rows * 8);
+        buffer.asLongBuffer().put(updated);
+        buffer.position(buffer.position() + rows * 8);
+        buffer.asIntBuffer().put(placeCodes);
+        buffer.position(buffer.position() + rows * 4);
+        buffer.asIntBuffer().put(urlCodes);
+        buffer.position(buffer.position() + rows * 4);
+        buffer.asDoubleBuffer().put(latitudes);
+        buffer.position(buffer.position() + rows * 8);
+        buffer.asDoubleBuffer().put(longitudes);
+        buffer.position(buffer.position() + rows * 8);
+        buffer.asDoubleBuffer().put(depths);
+        buffer.position(buffer.position() + rows * 8);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(buffer.array());
+            // On disk before the rename, or a crash could leave a renamed but empty file behind.
+            out.getFD().sync();
+        } catch (IOException e) {
+            out.close();
+            tempFile.delete();
+            throw e;
+        }
+        out.close();
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot move " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Read a snapshot back. The file is memory mapped and each column is copied out in bulk.
+     *
+     * @param query the query the rows should answer
+     * @return the rows as a frozen table, or null if there is no snapshot for this query in this version
+     * @throws IOException if the file can't be read or is damaged
+     */
+    public static EarthquakeTable read(File file, String query) throws IOException {
+        if (!file.exists())
+            return null;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = channel.size();
+            if (length < 8 || length > Integer.MAX_VALUE)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            checkCrc(buffer, (int) length);
+            // Skip the time it was written, showing the rows doesn't need it.
+            buffer.position(16);
+
+            if (!query.equals(readString(buffer)))
+                return null;
+
+            int rows = buffer.getInt();
+            String[] strings = new String[buffer.getInt() + 1];
+            for (int code = 1; code < strings.length; code++) {
+                strings[code] = readString(buffer);
+            }
+
+            int[] idCodes = new int[rows];
+            double[] magnitudes = new double[rows];
+            long[] times = new long[rows];
+            long[] updated = new long[rows];
+            int[] placeCodes = new int[rows];
+            int[] urlCodes = new int[rows];
+            double[] latitudes = new double[rows];
+            double[] longitudes = new double[rows];
+            double[] depths = new double[rows];
+            readColumn(buffer, idCodes);
+            readColumn(buffer, magnitudes);
+            readColumn(buffer, times);
+            readColumn(buffer, updated);
+            readColumn(buffer, placeCodes);
+            readColumn(buffer, urlCodes);
+            readColumn(buffer, latitudes);
+            readColumn(buffer, longitudes);
+            readColumn(buffer, depths);
+
+            EarthquakeTable table = new EarthquakeTable(rows);
+            for (int row = 0; row < rows; row++) {
+                table.add(strings[idCodes[row]], magnitudes[row], strings[placeCodes[row]], times[row],
+                        strings[urlCodes[row]], updated[row], latitudes[row], longitudes[row], depths[row]);
+            }
+            return table.freeze();
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new IOException("Damaged snapshot " + file, e);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static int encode(String value, Map<String, Integer> codes, List<byte[]> strings) {
+        if (value == null)
+            return 0;
+        Integer code = codes.get(value);
+        if (code == null) {
+            strings.add(value.getBytes(UTF_8));
+            code = strings.size();
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    private static void checkCrc(ByteBuffer buffer, int length) throws IOException {
+        ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(length - 4);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CRC_CHUNK_SIZE];
+        while (content.hasRemaining()) {
+            int count = Math.min(chunk.length, content.remaining());
+            content.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        if ((int) crc.getValue() != buffer.getInt(length - 4))
+            throw new IOException("Snapshot checksum mismatch");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void readColumn(ByteBuffer buffer, int[] column) {
+        buffer.asIntBuffer().get(column);
+        buffer.position(buffer.position() + column.length * 4);
+    }
+
+    private static void readColumn(ByteBuffer buffer, long[] column) {
+        buffer.asLongBuffer().get(column);
+        buffer.position(buffer.position() + column.length * 8);
+    }
+
+    private static void readColumn(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().get(column);
+        buffer.position(buffer.position() + column.length * 8);
+    }
+}
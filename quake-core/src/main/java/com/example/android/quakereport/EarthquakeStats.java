@@ -0,0 +1,367 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Summary numbers of a set of earthquakes, kept up to date one event at a time: the count per
+ * magnitude band (the buckets of {@link EarthquakeFormatter#getMagnitudeBucket}), the count per
+ * hour and per day, the largest magnitude and magnitude percentiles.
+ *
+ * Everything is held in plain counters, so adding or removing an event costs the same whatever
+ * the size of the set, and the stats of two sets are merged (or one taken out of the other) by
+ * adding up their counters, e.g. those of time windows fetched in parallel. Magnitudes are
+ * counted in steps of {@link #MAGNITUDE_RESOLUTION}, the precision they are shown with, which
+ * makes the percentiles exact at that precision and lets a removal undo an add exactly.
+ *
+ * Hours and days are counted in UTC.
+ *
+ * Not thread safe. Stats handed to another thread must not be changed afterwards, {@link #copy()} them.
+ */
+public final class EarthquakeStats {
+
+    /** Magnitudes are counted rounded to this, the precision we show them with. */
+    public static final double MAGNITUDE_RESOLUTION = 0.1;
+    /** Smaller magnitudes are counted as this one, USGS reports small negative ones. */
+    public static final double MIN_MAGNITUDE = -2.0;
+    /** Larger magnitudes are counted as this one. */
+    public static final double MAX_MAGNITUDE = 12.0;
+
+    private static final int STEPS = (int) Math.round((MAX_MAGNITUDE - MIN_MAGNITUDE) / MAGNITUDE_RESOLUTION) + 1;
+
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private int mCount;
+    private final int[] mBands = new int[EarthquakeFormatter.MAGNITUDE_BUCKETS];
+    /** Count per magnitude step, the quantile sketch. */
+    private final int[] mSteps = new int[STEPS];
+    private final TimeCounts mHours = new TimeCounts(MILLIS_PER_HOUR);
+    private final TimeCounts mDays = new TimeCounts(MILLIS_PER_DAY);
+
+    public EarthquakeStats() {
+    }
+
+    /**
+     * @return the stats of the earthquakes, e.g. of a result that didn't come through a parse
+     */
+    public static EarthquakeStats of(List<Earthquake> earthquakes) {
+        EarthquakeStats stats = new EarthquakeStats();
+        for (int i = 0; i < earthquakes.size(); i++) {
+            stats.add(earthquakes.get(i));
+        }
+        return stats;
+    }
+
+    public void add(Earthquake earthquake) {
+        add(earthquake.getMagnitudeValue(), earthquake.getTimeInMillisecond());
+    }
+
+    public void add(double magnitude, long timeInMillisecond) {
+        update(magnitude, timeInMillisecond, 1);
+    }
+
+    /**
+     * Take out an event that was added before, with the magnitude and time it was added with.
+     */
+    public void remove(Earthquake earthquake) {
+        remove(earthquake.getMagnitudeValue(), earthquake.getTimeInMillisecond());
+    }
+
+    public void remove(double magnitude, long timeInMillisecond) {
+        update(magnitude, timeInMillisecond, -1);
+    }
+
+    private void update(double magnitude, long timeInMillisecond, int delta) {
+        mCount += delta;
+        mBands[EarthquakeFormatter.getMagnitudeBucket(magnitude)] += delta;
+        mSteps[getStep(magnitude)] += delta;
+        mHours.add(timeInMillisecond, delta);
+        mDays.add(timeInMillisecond, delta);
+    }
+
+    /**
+     * Add the events counted by other, which is not changed.
+     */
+    public void merge(EarthquakeStats other) {
+        combine(other, 1);
+    }
+
+    /**
+     * Take out the events counted by other, which must all have been added (or merged) here before.
+     */
+    public void subtract(EarthquakeStats other) {
+        combine(other, -1);
+    }
+
+    private void combine(EarthquakeStats other, int sign) {
+        mCount += sign * other.mCount;
+        for (int i = 0; i < mBands.length; i++) {
+            mBands[i] += sign * other.mBands[i];
+        }
+        for (int i = 0; i < mSteps.length; i++) {
+            mSteps[i] += sign * other.mSteps[i];
+        }
+        mHours.combine(other.mHours, sign);
+        mDays.combine(other.mDays, sign);
+    }
+
+    /**
+     * @return stats with the same counts, which later changes to these don't affect
+     */
+    public EarthquakeStats copy() {
+        EarthquakeStats copy = new EarthquakeStats();
+        copy.merge(this);
+        return copy;
+    }
+
+    public void clear() {
+        mCount = 0;
+        Arrays.fill(mBands, 0);
+        Arrays.fill(mSteps, 0);
+        mHours.clear();
+        mDays.clear();
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @param band a {@link EarthquakeFormatter#getMagnitudeBucket magnitude bucket}
+     * @return the number of events in that band
+     */
+    public int getBandCount(int band) {
+        return mBands[band];
+    }
+
+    /**
+     * @return the largest magnitude, rounded to {@link #MAGNITUDE_RESOLUTION}, or NaN without events
+     */
+    public double getMaxMagnitude() {
+        for (int i = mSteps.length - 1; i >= 0; i--) {
+            if (mSteps[i] > 0)
+                return getMagnitude(i);
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the smallest magnitude that at least that percentage of the events don't exceed
+     * (nearest rank), rounded to {@link #MAGNITUDE_RESOLUTION}, or NaN without events
+     */
+    public double getMagnitudePercentile(double percentile) {
+        if (mCount <= 0)
+            return Double.NaN;
+
+        // Divided last, percentile / 100 isn't exact and would round some ranks up one too many.
+        long rank = Math.max(1, (long) Math.ceil(percentile * mCount / 100));
+        long seen = 0;
+        for (int i = 0; i < mSteps.length; i++) {
+            seen += mSteps[i];
+            if (seen >= rank)
+                return getMagnitude(i);
+        }
+        return getMaxMagnitude();
+    }
+
+    public double getMedianMagnitude() {
+        return getMagnitudePercentile(50);
+    }
+
+    /**
+     * @return the number of events in the UTC hour of that time
+     */
+    public int getHourCount(long timeInMillisecond) {
+        return mHours.get(timeInMillisecond);
+    }
+
+    /**
+     * @return the number of events on the UTC day of that time
+     */
+    public int getDayCount(long timeInMillisecond) {
+        return mDays.get(timeInMillisecond);
+    }
+
+    /**
+     * @return the number of hours with at least one event
+     */
+    public int getActiveHours() {
+        return mHours.getActiveCount();
+    }
+
+    /**
+     * @return the number of days with at least one event
+     */
+    public int getActiveDays() {
+        return mDays.getActiveCount();
+    }
+
+    /**
+     * @return the most events in any one hour
+     */
+    public int getBusiestHourCount() {
+        return mHours.getMaxCount();
+    }
+
+    /**
+     * @return the most events on any one day
+     */
+    public int getBusiestDayCount() {
+        return mDays.getMaxCount();
+    }
+
+    /**
+     * Rough number of bytes retained, e.g. to weigh them in a {@link ResultCache}.
+     */
+    public long estimateSizeInBytes() {
+        // Two arrays with their headers, plus both hour and day tables.
+        return 16 + 4L * mBands.length + 16 + 4L * mSteps.length + mHours.estimateSizeInBytes()
+                + mDays.estimateSizeInBytes();
+    }
+
+    private static int getStep(double magnitude) {
+        if (!(magnitude > MIN_MAGNITUDE))
+            return 0;
+        if (magnitude >= MAX_MAGNITUDE)
+            return STEPS - 1;
+        return (int) Math.round((magnitude - MIN_MAGNITUDE) / MAGNITUDE_RESOLUTION);
+    }
+
+    private static double getMagnitude(int step) {
+        // Rounded again so that e.g. step 82 comes out as 6.2 and not 6.199999999999999.
+        return Math.round((MIN_MAGNITUDE + step * MAGNITUDE_RESOLUTION) * 10) / 10.0;
+    }
+
+    /**
+     * Counts per time bucket, in an open addressing hash map from bucket to count. A bucket whose
+     * count drops back to 0 keeps its slot until the next resize, so removing needs no tombstones.
+     */
+    private static final class TimeCounts {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final long mBucketMillis;
+        private long[] mKeys = new long[INITIAL_CAPACITY];
+        private int[] mCounts = new int[INITIAL_CAPACITY];
+        private boolean[] mUsed = new boolean[INITIAL_CAPACITY];
+        /** Slots in use, including those counting 0. */
+        private int mSize;
+
+        TimeCounts(long bucketMillis) {
+            mBucketMillis = bucketMillis;
+        }
+
+        int get(long timeInMillisecond) {
+            int slot = find(bucketOf(timeInMillisecond));
+            return mUsed[slot] ? mCounts[slot] : 0;
+        }
+
+        void add(long timeInMillisecond, int delta) {
+            addToBucket(bucketOf(timeInMillisecond), delta);
+        }
+
+        void combine(TimeCounts other, int sign) {
+            for (int i = 0; i < other.mKeys.length; i++) {
+                if (other.mUsed[i] && other.mCounts[i] != 0)
+                    addToBucket(other.mKeys[i], sign * other.mCounts[i]);
+            }
+        }
+
+        int getActiveCount() {
+            int active = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                if (mCounts[i] > 0)
+                    active++;
+            }
+            return active;
+        }
+
+        int getMaxCount() {
+            int max = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                max = Math.max(max, mCounts[i]);
+            }
+            return max;
+        }
+
+        long estimateSizeInBytes() {
+            // Key, count and used flag per slot, three array headers.
+            return 48 + 13L * mKeys.length;
+        }
+
+        void clear() {
+            Arrays.fill(mUsed, false);
+            Arrays.fill(mCounts, 0);
+            mSize = 0;
+        }
+
+        private long bucketOf(long timeInMillisecond) {
+            // Rounds down for times before 1970 too.
+            long bucket = timeInMillisecond / mBucketMillis;
+            return timeInMillisecond % mBucketMillis < 0 ? bucket - 1 : bucket;
+        }
+
+        private void addToBucket(long bucket, int delta) {
+            int slot = find(bucket);
+            if (!mUsed[slot]) {
+                // Keep the table at most half full.
+                if ((mSize + 1) * 2 > mKeys.length) {
+                    resize();
+                    slot = find(bucket);
+                }
+                mUsed[slot] = true;
+                mKeys[slot] = bucket;
+                mSize++;
+            }
+            mCounts[slot] += delta;
+        }
+
+        private int find(long bucket) {
+            int mask = mKeys.length - 1;
+            int slot = mix(bucket) & mask;
+            while (mUsed[slot] && mKeys[slot] != bucket) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Rehash the buckets that still count something, growing only if those need the room.
+         */
+        private void resize() {
+            long[] keys = mKeys;
+            int[] counts = mCounts;
+            boolean[] used = mUsed;
+
+            int live = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && counts[i] != 0)
+                    live++;
+            }
+            int capacity = INITIAL_CAPACITY;
+            while ((live + 1) * 4 > capacity) {
+                capacity *= 2;
+            }
+
+            mKeys = new long[capacity];
+            mCounts = new int[capacity];
+            mUsed = new boolean[capacity];
+            mSize = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && counts[i] != 0) {
+                    int slot = find(keys[i]);
+                    mUsed[slot] = true;
+                    mKeys[slot] = keys[i];
+                    mCounts[slot] = counts[i];
+                    mSize++;
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
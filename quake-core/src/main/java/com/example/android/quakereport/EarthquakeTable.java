@@ -0,0 +1,517 @@
+package com.example.android.quakereport;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Column oriented storage for a list of earthquakes.
+ *
+ * Instead of one {@link Earthquake} object (with a boxed magnitude and its own Strings) per event,
+ * every field is kept in a primitive array indexed by row. Places and urls are split up so that
+ * the parts that repeat are only stored once:
+ * <ul>
+ * <li>a place like "12km SSW of Volcano, Hawaii" becomes the distance and direction, packed into
+ * an int, and the code of the region ("Volcano, Hawaii") in a dictionary of the distinct regions.
+ * Places that don't follow that pattern are stored whole, as a region.</li>
+ * <li>a url is the code of its prefix (up to the last '/') in a dictionary, and its suffix, which
+ * isn't stored at all when it is the event id, as it is for USGS event pages.</li>
+ * </ul>
+ * The full strings are only put back together when they are asked for, e.g. when a row is bound.
+ *
+ * Rows can be read by index with the column getters, or through {@link #get(int)} / {@link #asList()}
+ * which return light {@link Earthquake} views over a row, so code written against
+ * {@code List<Earthquake>} keeps working.
+ *
+ * A table is not thread safe; it is filled on a loader thread and then only read.
+ * Once {@link #freeze() frozen} it can't be changed anymore and can be shared between threads.
+ */
+public final class EarthquakeTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int mSize;
+    private String[] mIds;
+    private double[] mMagnitudes;
+    private long[] mTimes;
+    private long[] mUpdated;
+    /** The distance and direction of each place, see {@link #encodePlacePrefix}; 0 when it has none. */
+    private int[] mPlacePrefixes;
+    /** The region of each place, or the whole place when it has no prefix. */
+    private int[] mRegionCodes;
+    /** 0 for a null url. */
+    private int[] mUrlPrefixCodes;
+    /** The rest of each url, null when it is the id. */
+    private String[] mUrlSuffixes;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private double[] mDepths;
+
+    private final StringDictionary mRegions = new StringDictionary();
+    private final StringDictionary mUrlPrefixes = new StringDictionary();
+
+    /** The compass points USGS describes the direction from the region with. */
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+    /** Longer distances are not packed, the place is stored whole. */
+    private static final int MAX_PACKED_DISTANCE = 999999;
+
+    private volatile boolean mFrozen;
+
+    public EarthquakeTable() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public EarthquakeTable(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        mIds = new String[capacity];
+        mMagnitudes = new double[capacity];
+        mTimes = new long[capacity];
+        mUpdated = new long[capacity];
+        mPlacePrefixes = new int[capacity];
+        mRegionCodes = new int[capacity];
+        mUrlPrefixCodes = new int[capacity];
+        mUrlSuffixes = new String[capacity];
+        mLatitudes = new double[capacity];
+        mLongitudes = new double[capacity];
+        mDepths = new double[capacity];
+    }
+
+    /**
+     * Copy a list of earthquakes into a new table.
+     */
+    public static EarthquakeTable from(List<Earthquake> earthquakes) {
+        EarthquakeTable table = new EarthquakeTable(earthquakes.size());
+        for (Earthquake earthquake : earthquakes) {
+            table.add(earthquake);
+        }
+        return table;
+    }
+
+    /**
+     * Append a row. Unknown coordinates are passed as NaN.
+     *
+     * @return the index of the new row
+     */
+    public int add(String id, double magnitude, String place, long timeInMillisecond, String url,
+                   long updatedInMillisecond, double latitude, double longitude, double depthInKm) {
+        checkWritable();
+        if (mSize == mMagnitudes.length) {
+            grow();
+        }
+
+        int row = mSize++;
+        mIds[row] = id;
+        mMagnitudes[row] = magnitude;
+        mTimes[row] = timeInMillisecond;
+        mUpdated[row] = updatedInMillisecond;
+        setPlace(row, place);
+        setUrl(row, url);
+        mLatitudes[row] = latitude;
+        mLongitudes[row] = longitude;
+        mDepths[row] = depthInKm;
+        return row;
+    }
+
+    public int add(Earthquake earthquake) {
+        return add(earthquake.getId(), earthquake.getMagnitudeValue(), earthquake.getPlace(),
+                earthquake.getTimeInMillisecond(), earthquake.getUrl(), earthquake.getUpdatedInMillisecond(),
+                earthquake.getLatitude(), earthquake.getLongitude(), earthquake.getDepthInKm());
+    }
+
+    /**
+     * Make the table read only: adding rows or setting fields through its {@link Earthquake} views
+     * throws an {@link IllegalStateException} from now on. The columns are trimmed to the number
+     * of rows and the lookups only needed to add strings are dropped, so a frozen table takes
+     * less memory.
+     *
+     * @return this table
+     */
+    public EarthquakeTable freeze() {
+        if (mFrozen)
+            return this;
+        resize(mSize);
+        mRegions.freeze();
+        mUrlPrefixes.freeze();
+        mFrozen = true;
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public String getId(int row) {
+        checkRow(row);
+        return mIds[row];
+    }
+
+    public double getMagnitude(int row) {
+        checkRow(row);
+        return mMagnitudes[row];
+    }
+
+    public String getPlace(int row) {
+        checkRow(row);
+        String region = mRegions.decode(mRegionCodes[row]);
+        int prefix = mPlacePrefixes[row];
+        if (prefix == 0)
+            return region;
+        // Unpack what encodePlacePrefix packed.
+        return new StringBuilder(region.length() + 16)
+                .append(prefix >>> 6)
+                .append((prefix & 0x20) != 0 ? " km " : "km ")
+                .append(DIRECTIONS[(prefix & 0x1F) - 1])
+                .append(" of ")
+                .append(region)
+                .toString();
+    }
+
+    public long getTimeInMillisecond(int row) {
+        checkRow(row);
+        return mTimes[row];
+    }
+
+    public String getUrl(int row) {
+        checkRow(row);
+        String prefix = mUrlPrefixes.decode(mUrlPrefixCodes[row]);
+        if (prefix == null)
+            return null;
+        String suffix = mUrlSuffixes[row];
+        return prefix.concat(suffix != null ? suffix : mIds[row]);
+    }
+
+    public long getUpdatedInMillisecond(int row) {
+        checkRow(row);
+        return mUpdated[row];
+    }
+
+    public double getLatitude(int row) {
+        checkRow(row);
+        return mLatitudes[row];
+    }
+
+    public double getLongitude(int row) {
+        checkRow(row);
+        return mLongitudes[row];
+    }
+
+    public double getDepthInKm(int row) {
+        checkRow(row);
+        return mDepths[row];
+    }
+
+    /**
+     * @return an {@link Earthquake} that reads and writes through to the given row
+     */
+    public Earthquake get(int row) {
+        checkRow(row);
+        return new Row(row);
+    }
+
+    /**
+     * @return a frozen copy of the rows from {@code from} (inclusive) to {@code to} (exclusive),
+     * which can be handed to another thread while this table is still being filled
+     */
+    public EarthquakeTable copyRows(int from, int to) {
+        if (from < 0 || to > mSize || from > to)
+            throw new IndexOutOfBoundsException("Rows " + from + " to " + to + ", size " + mSize);
+        EarthquakeTable copy = new EarthquakeTable(to - from);
+        for (int row = from; row < to; row++) {
+            copy.add(mIds[row], mMagnitudes[row], getPlace(row), mTimes[row], getUrl(row), mUpdated[row],
+                    mLatitudes[row], mLongitudes[row], mDepths[row]);
+        }
+        return copy.freeze();
+    }
+
+    /**
+     * @return a list view of the table, read/write unless the table is frozen. Its elements are created on access
+     */
+    public List<Earthquake> asList() {
+        return new RowList();
+    }
+
+    /**
+     * Rough number of bytes retained by the table: the column arrays plus the distinct strings.
+     * Used to compare against the same data held as a {@code List<Earthquake>}.
+     */
+    public long estimateSizeInBytes() {
+        long capacity = mMagnitudes.length;
+        // magnitude, time, updated, place prefix, region, url prefix, id and url suffix references, position
+        long columns = capacity * (8 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 3 * 8);
+        long strings = 0;
+        for (int row = 0; row < mSize; row++) {
+            strings += estimateStringSize(mIds[row]) + estimateStringSize(mUrlSuffixes[row]);
+        }
+        return columns + strings + mRegions.estimateSizeInBytes() + mUrlPrefixes.estimateSizeInBytes();
+    }
+
+    static long estimateStringSize(String value) {
+        // Object header, hash, length and the char array with its own header.
+        return value == null ? 0 : 40 + 2L * value.length();
+    }
+
+    private void grow() {
+        resize(mMagnitudes.length * 2);
+    }
+
+    private void resize(int capacity) {
+        capacity = Math.max(capacity, 1);
+        if (capacity == mMagnitudes.length)
+            return;
+        mIds = Arrays.copyOf(mIds, capacity);
+        mMagnitudes = Arrays.copyOf(mMagnitudes, capacity);
+        mTimes = Arrays.copyOf(mTimes, capacity);
+        mUpdated = Arrays.copyOf(mUpdated, capacity);
+        mPlacePrefixes = Arrays.copyOf(mPlacePrefixes, capacity);
+        mRegionCodes = Arrays.copyOf(mRegionCodes, capacity);
+        mUrlPrefixCodes = Arrays.copyOf(mUrlPrefixCodes, capacity);
+        mUrlSuffixes = Arrays.copyOf(mUrlSuffixes, capacity);
+        mLatitudes = Arrays.copyOf(mLatitudes, capacity);
+        mLongitudes = Arrays.copyOf(mLongitudes, capacity);
+        mDepths = Arrays.copyOf(mDepths, capacity);
+    }
+
+    private void setPlace(int row, String place) {
+        int prefix = encodePlacePrefix(place);
+        mPlacePrefixes[row] = prefix;
+        mRegionCodes[row] = mRegions.encode(prefix == 0 ? place : place.substring(place.indexOf(" of ") + 4));
+    }
+
+    private void setUrl(int row, String url) {
+        if (url == null) {
+            mUrlPrefixCodes[row] = 0;
+            mUrlSuffixes[row] = null;
+            return;
+        }
+        int split = url.lastIndexOf('/') + 1;
+        mUrlPrefixCodes[row] = mUrlPrefixes.encode(url.substring(0, split));
+        String id = mIds[row];
+        boolean suffixIsId = id != null && url.length() - split == id.length() && url.startsWith(id, split);
+        mUrlSuffixes[row] = suffixIsId ? null : url.substring(split);
+    }
+
+    /**
+     * Pack the "12km SSW of " part of a USGS place: the distance in the bits from 6 up, whether
+     * there is a space before "km" in bit 5 and the direction + 1 in bits 0-4.
+     *
+     * @return the packed prefix, or 0 if the place doesn't have exactly that form, so that
+     * {@link #getPlace} puts back the same string
+     */
+    static int encodePlacePrefix(String place) {
+        if (place == null)
+            return 0;
+
+        int length = place.length();
+        int digits = 0;
+        int distance = 0;
+        while (digits < length && place.charAt(digits) >= '0' && place.charAt(digits) <= '9') {
+            distance = distance * 10 + (place.charAt(digits) - '0');
+            digits++;
+            if (distance > MAX_PACKED_DISTANCE)
+                return 0;
+        }
+        // A leading zero wouldn't come back.
+        if (digits == 0 || (digits > 1 && place.charAt(0) == '0'))
+            return 0;
+
+        int position = digits;
+        boolean spaced = place.startsWith(" km ", position);
+        if (spaced) {
+            position += 4;
+        } else if (place.startsWith("km ", position)) {
+            position += 3;
+        } else {
+            return 0;
+        }
+
+        for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+            String name = DIRECTIONS[direction];
+            int regionStart = position + name.length() + 4;
+            if (place.startsWith(name, position) && place.startsWith(" of ", position + name.length())
+                    && regionStart < length) {
+                return distance << 6 | (spaced ? 0x20 : 0) | (direction + 1);
+            }
+        }
+        return 0;
+    }
+
+    private void checkWritable() {
+        if (mFrozen) {
+            throw new IllegalStateException("The table is frozen");
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= mSize) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + mSize);
+        }
+    }
+
+    /**
+     * Flyweight {@link Earthquake} over one row of the table.
+     *
+     * It still has the fields it inherits, unused, so each view costs about as much as a small
+     * Earthquake while it is reachable, and {@link #getMagnitude()} boxes. That is fine for the
+     * rows on screen; code that walks many rows reads the column getters or
+     * {@link #getMagnitudeValue()} instead.
+     */
+    private final class Row extends Earthquake {
+        private final int mRow;
+
+        Row(int row) {
+            mRow = row;
+        }
+
+        @Override
+        public String getId() {
+            return mIds[mRow];
+        }
+
+        @Override
+        public Double getMagnitude() {
+            return mMagnitudes[mRow];
+        }
+
+        @Override
+        public double getMagnitudeValue() {
+            return mMagnitudes[mRow];
+        }
+
+        @Override
+        public void setMagnitude(double magnitude) {
+            checkWritable();
+            mMagnitudes[mRow] = magnitude;
+        }
+
+        @Override
+        public String getPlace() {
+            return EarthquakeTable.this.getPlace(mRow);
+        }
+
+        @Override
+        public void setPlace(String place) {
+            checkWritable();
+            EarthquakeTable.this.setPlace(mRow, place);
+        }
+
+        @Override
+        public long getTimeInMillisecond() {
+            return mTimes[mRow];
+        }
+
+        @Override
+        public void setTimeInMillisecond(long timeInMillisecond) {
+            checkWritable();
+            mTimes[mRow] = timeInMillisecond;
+        }
+
+        @Override
+        public String getUrl() {
+            return EarthquakeTable.this.getUrl(mRow);
+        }
+
+        @Override
+        public void setUrl(String url) {
+            checkWritable();
+            EarthquakeTable.this.setUrl(mRow, url);
+        }
+
+        @Override
+        public long getUpdatedInMillisecond() {
+            return mUpdated[mRow];
+        }
+
+        @Override
+        public void setUpdatedInMillisecond(long updatedInMillisecond) {
+            checkWritable();
+            mUpdated[mRow] = updatedInMillisecond;
+        }
+
+        @Override
+        public double getLatitude() {
+            return mLatitudes[mRow];
+        }
+
+        @Override
+        public double getLongitude() {
+            return mLongitudes[mRow];
+        }
+
+        @Override
+        public double getDepthInKm() {
+            return mDepths[mRow];
+        }
+    }
+
+    private final class RowList extends AbstractList<Earthquake> implements RandomAccess {
+        @Override
+        public Earthquake get(int index) {
+            return EarthquakeTable.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public boolean add(Earthquake earthquake) {
+            EarthquakeTable.this.add(earthquake);
+            modCount++;
+            return true;
+        }
+    }
+
+    /**
+     * Maps each distinct string to a small int code. Code 0 is reserved for null.
+     */
+    private static final class StringDictionary {
+        /** From string to code, only needed to add strings; dropped once the table is frozen. */
+        private Map<String, Integer> mCodes = new HashMap<String, Integer>();
+        private final ArrayList<String> mValues = new ArrayList<String>();
+
+        StringDictionary() {
+            mValues.add(null);
+        }
+
+        int encode(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return mValues.get(code);
+        }
+
+        void freeze() {
+            mCodes = null;
+            mValues.trimToSize();
+        }
+
+        long estimateSizeInBytes() {
+            long size = 0;
+            for (String value : mValues) {
+                // The string itself plus its slot in the list and its hash map entry, if it still has one.
+                size += estimateStringSize(value) + 4 + (mCodes != null ? 32 : 0);
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Decodes a response body in one of the formats the USGS API serves, one event at a time.
+ * {@link FeedDecoders#forQuery} picks the decoder that matches a query's "format" parameter.
+ */
+public interface FeedDecoder {
+
+    /**
+     * Receives the fields of each decoded event as plain values, so that callers which store them
+     * in columns don't have to go through an {@link Earthquake} object.
+     */
+    interface Sink {
+        void onEvent(String id, double magnitude, String place, long timeInMillisecond, String url,
+                     long updatedInMillisecond, double latitude, double longitude, double depthInKm);
+    }
+
+    /**
+     * The feed did not have the shape we expect. Whatever was decoded before the problem has
+     * already been handed out.
+     */
+    class MalformedFeedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int mParsedCount;
+
+        MalformedFeedException(int parsedCount, String message, Throwable cause) {
+            super(message, cause);
+            mParsedCount = parsedCount;
+        }
+
+        /**
+         * @return the number of earthquakes handed out before the problem
+         */
+        public int getParsedCount() {
+            return mParsedCount;
+        }
+    }
+
+    /**
+     * @return the value of the "format" query parameter this decoder reads
+     */
+    String getFormat();
+
+    /**
+     * Events without a magnitude are skipped, we can't show them.
+     *
+     * @param cancellation checked before each event, may be null
+     * @return the number of events handed to the sink
+     * @throws MalformedFeedException if the body isn't in this format
+     * @throws InterruptedIOException if the token was canceled
+     */
+    int decode(InputStream inputStream, Sink sink, CancellationToken cancellation) throws IOException;
+}
@@ -0,0 +1,108 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * The {@link FeedDecoder}s for the formats we can read, and the sinks that hand their events on.
+ */
+public final class FeedDecoders {
+
+    /** The verbose default, see {@link GeoJsonParser}. */
+    public static final FeedDecoder GEOJSON = new FeedDecoder() {
+        @Override
+        public String getFormat() {
+            return "geojson";
+        }
+
+        @Override
+        public int decode(InputStream inputStream, Sink sink, CancellationToken cancellation) throws IOException {
+            return GeoJsonParser.parse(inputStream, sink, cancellation);
+        }
+    };
+
+    /** About a quarter of the size of the same events in GeoJSON, see {@link CsvFeedDecoder}. */
+    public static final FeedDecoder CSV = new CsvFeedDecoder();
+
+    private static final FeedDecoder[] DECODERS = {GEOJSON, CSV};
+
+    private FeedDecoders() {
+    }
+
+    /**
+     * @return the decoder for the value of a "format" parameter, or null if we can't read that format
+     */
+    public static FeedDecoder forFormat(String format) {
+        for (FeedDecoder decoder : DECODERS) {
+            if (decoder.getFormat().equalsIgnoreCase(format))
+                return decoder;
+        }
+        return null;
+    }
+
+    /**
+     * @return the decoder for the "format" parameter of a query URL, or null if we can't read that
+     * format. A query without one is read as GeoJSON, the only format this app used to ask for.
+     */
+    public static FeedDecoder forQuery(String url) {
+        String query;
+        try {
+            query = new URI(url).getRawQuery();
+        } catch (URISyntaxException e) {
+            return GEOJSON;
+        }
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals != -1 && parameter.substring(0, equals).toLowerCase(Locale.US).equals("format"))
+                    return forFormat(parameter.substring(equals + 1));
+            }
+        }
+        return GEOJSON;
+    }
+
+    /**
+     * @return a sink that hands every event to the listener as an {@link Earthquake}
+     */
+    public static FeedDecoder.Sink toSink(final GeoJsonParser.Listener listener) {
+        return new FeedDecoder.Sink() {
+            @Override
+            public void onEvent(String id, double magnitude, String place, long time, String url, long updated,
+                                double latitude, double longitude, double depth) {
+                listener.onEarthquakeParsed(new Earthquake(id, magnitude, place, time, url, updated,
+                        latitude, longitude, depth));
+            }
+        };
+    }
+
+    /**
+     * @param batcher told about every row added, may be null
+     * @return a sink that adds every event as a row of the table
+     */
+    public static FeedDecoder.Sink toSink(EarthquakeTable table, EarthquakeBatcher batcher) {
+        return toSink(table, batcher, null);
+    }
+
+    /**
+     * @param batcher told about every row added, may be null
+     * @param stats   counts every row added, may be null
+     * @return a sink that adds every event as a row of the table
+     */
+    public static FeedDecoder.Sink toSink(final EarthquakeTable table, final EarthquakeBatcher batcher,
+                                          final EarthquakeStats stats) {
+        return new FeedDecoder.Sink() {
+            @Override
+            public void onEvent(String id, double magnitude, String place, long time, String url, long updated,
+                                double latitude, double longitude, double depth) {
+                table.add(id, magnitude, place, time, url, updated, latitude, longitude, depth);
+                if (stats != null)
+                    stats.add(magnitude, time);
+                if (batcher != null)
+                    batcher.onRowAdded(table);
+            }
+        };
+    }
+}
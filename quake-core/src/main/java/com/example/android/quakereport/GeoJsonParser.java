@@ -0,0 +1,271 @@
+package com.example.android.quakereport;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for the USGS GeoJSON feed, one feature at a time.
+ *
+ * Only the feature "id", the "geometry" coordinates and "mag", "place", "time", "updated" and "url"
+ * out of its "properties" are read, everything else (the other properties, metadata) is skipped
+ * without being materialized. Features without a magnitude are skipped, we can't show them.
+ *
+ * A parse can be stopped between two features with a {@link CancellationToken}, it then throws an
+ * {@link InterruptedIOException}.
+ *
+ * Plain Java, so it can run (and be benchmarked) off the device.
+ */
+public final class GeoJsonParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives each {@link Earthquake} as soon as it has been parsed from the feed.
+     */
+    public interface Listener {
+        void onEarthquakeParsed(Earthquake earthquake);
+    }
+
+    /**
+     * The feed did not have the shape we expect. Whatever was parsed before the problem has
+     * already been handed out.
+     */
+    public static final class MalformedFeedException extends FeedDecoder.MalformedFeedException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedFeedException(int parsedCount, Throwable cause) {
+            super(parsedCount, "Problem parsing the earthquake JSON results", cause);
+        }
+    }
+
+    private GeoJsonParser() {
+    }
+
+    /**
+     * Parse a whole response held in a String.
+     */
+    public static List<Earthquake> parse(String json) throws IOException {
+        final List<Earthquake> earthquakes = new ArrayList<Earthquake>();
+        parse(new StringReader(json), new Listener() {
+            @Override
+            public void onEarthquakeParsed(Earthquake earthquake) {
+                earthquakes.add(earthquake);
+            }
+        });
+        return earthquakes;
+    }
+
+    /**
+     * @return the number of earthquakes handed to the listener
+     */
+    public static int parse(InputStream inputStream, Listener listener) throws IOException {
+        return parse(inputStream, listener, null);
+    }
+
+    /**
+     * @param cancellation checked before each feature, may be null
+     * @return the number of earthquakes handed to the listener
+     * @throws InterruptedIOException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, Listener listener, CancellationToken cancellation)
+            throws IOException {
+        return parse(new InputStreamReader(inputStream, UTF_8), FeedDecoders.toSink(listener), cancellation);
+    }
+
+    /**
+     * Parse straight into the rows of the given table.
+     *
+     * @return the number of rows added
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table) throws IOException {
+        return parse(inputStream, table, null);
+    }
+
+    /**
+     * @param cancellation checked before each feature, may be null
+     * @return the number of rows added
+     * @throws InterruptedIOException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table, CancellationToken cancellation)
+            throws IOException {
+        return parse(inputStream, table, cancellation, null);
+    }
+
+    /**
+     * @param batcher told about every row added, so it can hand the rows out while the parse goes on; may be null
+     * @return the number of rows added
+     * @throws InterruptedIOException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, EarthquakeTable table, CancellationToken cancellation,
+                            EarthquakeBatcher batcher) throws IOException {
+        return parse(new InputStreamReader(inputStream, UTF_8), FeedDecoders.toSink(table, batcher), cancellation);
+    }
+
+    /**
+     * @param cancellation checked before each feature, may be null
+     * @return the number of events handed to the sink
+     * @throws InterruptedIOException if the token was canceled
+     */
+    public static int parse(InputStream inputStream, FeedDecoder.Sink sink, CancellationToken cancellation)
+            throws IOException {
+        return parse(new InputStreamReader(inputStream, UTF_8), sink, cancellation);
+    }
+
+    public static int parse(Reader reader, Listener listener) throws IOException {
+        return parse(reader, FeedDecoders.toSink(listener), null);
+    }
+
+    private static int parse(Reader in, FeedDecoder.Sink sink, CancellationToken cancellation) throws IOException {
+
+        int count = 0;
+        Feature feature = new Feature();
+
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("features") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (cancellation != null && cancellation.isCanceled())
+                            throw new InterruptedIOException("Parse canceled after " + count + " earthquakes");
+                        if (readFeature(reader, feature)) {
+                            sink.onEvent(feature.id, feature.magnitude, feature.place, feature.time, feature.url,
+                                    feature.updated, feature.latitude, feature.longitude, feature.depth);
+                            count++;
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException | EOFException e) {
+            // Not JSON at all, e.g. an error page, or a body that ends halfway through the feed.
+            throw new MalformedFeedException(count, e);
+        }
+
+        return count;
+    }
+
+    /**
+     * Read a single element of the "features" array into the given (reused) holder.
+     * Returns false when the feature has no magnitude.
+     */
+    private static boolean readFeature(JsonReader reader, Feature feature) throws IOException {
+
+        String id = null;
+        boolean hasMagnitude = false;
+        double magnitude = 0;
+        String place = null;
+        long time = 0;
+        String url = null;
+        long updated = 0;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        double depth = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String featureName = reader.nextName();
+            if (featureName.equals("id") && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+                continue;
+            }
+            if (featureName.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // A GeoJSON point, its coordinates are [longitude, latitude, depth]
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        reader.beginArray();
+                        for (int i = 0; reader.hasNext(); i++) {
+                            if (i > 2 || reader.peek() != JsonToken.NUMBER) {
+                                reader.skipValue();
+                            } else if (i == 0) {
+                                longitude = reader.nextDouble();
+                            } else if (i == 1) {
+                                latitude = reader.nextDouble();
+                            } else {
+                                depth = reader.nextDouble();
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                continue;
+            }
+            if (!featureName.equals("properties")) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                } else if (name.equals("mag")) {
+                    magnitude = reader.nextDouble();
+                    hasMagnitude = true;
+                } else if (name.equals("place")) {
+                    place = reader.nextString();
+                } else if (name.equals("time")) {
+                    time = reader.nextLong();
+                } else if (name.equals("updated")) {
+                    updated = reader.nextLong();
+                } else if (name.equals("url")) {
+                    url = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+
+        if (!hasMagnitude)
+            return false;
+
+        feature.id = id;
+        feature.magnitude = magnitude;
+        feature.place = place;
+        feature.time = time;
+        feature.url = url;
+        feature.updated = updated != 0 ? updated : time;
+        feature.latitude = latitude;
+        feature.longitude = longitude;
+        feature.depth = depth;
+        return true;
+    }
+
+    /**
+     * The fields of the feature being parsed. One instance is reused for the whole feed.
+     */
+    private static final class Feature {
+        String id;
+        double magnitude;
+        String place;
+        long time;
+        String url;
+        long updated;
+        double latitude;
+        double longitude;
+        double depth;
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+
+/**
+ * Where the time of a load goes: how long each phase, from opening the connection to binding
+ * the rows, took over the last loads, and how many bytes and features they moved.
+ *
+ * Off by default. While it is off {@link #start()} returns 0 and everything that is handed a 0
+ * (or a null {@link Transfer}) returns straight away, so the instrumented code paths only pay for
+ * reading one volatile field. Times come from {@link System#nanoTime()}, which is monotonic.
+ *
+ * <pre>
+ * long start = LoadTrace.start();
+ * ...
+ * LoadTrace.end(LoadTrace.Phase.PARSE, start);
+ * </pre>
+ */
+public final class LoadTrace {
+
+    /**
+     * The phases of a load, in the order they happen.
+     */
+    public enum Phase {
+        /** Reading the {@link EarthquakeSnapshot} of the last result on a cold start. */
+        SNAPSHOT_READ("snapshot read"),
+        /** Reading the stored events back from the local store. */
+        STORE_QUERY("store query"),
+        /** DNS, TCP and TLS, until the request is sent. */
+        CONNECT("connect"),
+        /** From the request to the status line, i.e. the server's time to first byte. */
+        FIRST_BYTE("first byte"),
+        /** Time spent waiting for the body on the socket, the parse runs while it comes in. */
+        DOWNLOAD("download"),
+        /** Decoding the body into rows, without the time spent waiting for the network. */
+        PARSE("parse"),
+        /** From the start of a progressive load until its first batch reaches the main thread. */
+        FIRST_ROWS("first rows"),
+        /** The whole background part of a load. */
+        LOAD("load"),
+        /** From the end of the background work until the result reaches the main thread. */
+        DELIVER("deliver"),
+        /** The onLoadFinished callback, handing the rows to the pager and the adapter. */
+        ON_LOAD_FINISHED("onLoadFinished"),
+        /** Binding one row. */
+        BIND("bind row");
+
+        final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+    }
+
+    /**
+     * Sizes recorded once per request or load.
+     */
+    public enum Counter {
+        BYTES_ON_WIRE("wire bytes"),
+        BYTES_DECODED("decoded bytes"),
+        FEATURES("features"),
+        /**
+         * Growth of the used heap over a load, an estimate of what it allocated. A collection during
+         * the load makes it read low, loads where the heap shrank are not recorded.
+         */
+        HEAP_GROWTH("heap growth");
+
+        final String mLabel;
+
+        Counter(String label) {
+            mLabel = label;
+        }
+    }
+
+    private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+    private static volatile boolean sEnabled;
+
+    private static final RollingHistogram[] sPhases = newHistograms(Phase.values().length);
+    private static final RollingHistogram[] sCounters = newHistograms(Counter.values().length);
+
+    private LoadTrace() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #end}, or 0 when tracing is off
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a phase that began at {@code startNanos}.
+     *
+     * @return the current time, so a following phase can start where this one ended,
+     * or 0 when the phase wasn't traced
+     */
+    public static long end(Phase phase, long startNanos) {
+        if (startNanos == 0)
+            return 0;
+        long now = System.nanoTime();
+        sPhases[phase.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    public static void record(Phase phase, long nanos) {
+        if (sEnabled)
+            sPhases[phase.ordinal()].record(nanos);
+    }
+
+    public static void count(Counter counter, long value) {
+        if (sEnabled)
+            sCounters[counter.ordinal()].record(value);
+    }
+
+    /**
+     * @return the bytes currently used on the heap, or 0 when tracing is off.
+     * Pass it to {@link #endHeapGrowth} at the end of the work to estimate what it allocated.
+     */
+    public static long startHeapGrowth() {
+        if (!sEnabled)
+            return 0;
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void endHeapGrowth(long usedAtStart) {
+        if (usedAtStart == 0)
+            return;
+        long growth = startHeapGrowth() - usedAtStart;
+        if (growth >= 0)
+            count(Counter.HEAP_GROWTH, growth);
+    }
+
+    /**
+     * @return a transfer to account the reads of one response body to, or null when tracing is off
+     */
+    public static Transfer startTransfer() {
+        return sEnabled ? new Transfer(System.nanoTime()) : null;
+    }
+
+    /**
+     * Split the time of reading and parsing one response body into waiting for the network and
+     * parsing. The streams the body is read through report every read, the parse only runs on the
+     * thread doing the reads, so the rest of the elapsed time is the parse.
+     *
+     * Only used from the thread reading the body.
+     */
+    public static final class Transfer {
+        private final long mStartNanos;
+        private long mReadNanos;
+        private long mWireBytes;
+        private long mDecodedBytes;
+
+        Transfer(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        /**
+         * A read from the network that blocked for {@code nanos} and returned {@code bytes}.
+         */
+        public void onWireRead(long nanos, long bytes) {
+            mReadNanos += nanos;
+            mWireBytes += bytes;
+        }
+
+        public void onDecodedRead(long bytes) {
+            mDecodedBytes += bytes;
+        }
+
+        /**
+         * Record the phases and sizes of the transfer. A body read from the cache has no download,
+         * its parse includes reading the file.
+         */
+        public void finish(int features) {
+            long elapsed = System.nanoTime() - mStartNanos;
+            if (mWireBytes > 0) {
+                record(Phase.DOWNLOAD, mReadNanos);
+                count(Counter.BYTES_ON_WIRE, mWireBytes);
+                count(Counter.BYTES_DECODED, mDecodedBytes);
+            }
+            record(Phase.PARSE, Math.max(0, elapsed - mReadNanos));
+            count(Counter.FEATURES, features);
+        }
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public static void reset() {
+        for (RollingHistogram histogram : sPhases)
+            histogram.clear();
+        for (RollingHistogram histogram : sCounters)
+            histogram.clear();
+    }
+
+    /**
+     * @return a table of the p50/p95/p99 and max of every phase and counter, in milliseconds and units
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.US, "Load trace, last %d samples each (%s)%n",
+                RollingHistogram.DEFAULT_WINDOW, sEnabled ? "on" : "off"));
+        dump.append(String.format(Locale.US, "%-16s %8s %10s %10s %10s %10s%n",
+                "phase (ms)", "count", "p50", "p95", "p99", "max"));
+        for (Phase phase : Phase.values()) {
+            RollingHistogram.Snapshot s = sPhases[phase.ordinal()].snapshot();
+            dump.append(String.format(Locale.US, "%-16s %8d %10.1f %10.1f %10.1f %10.1f%n", phase.mLabel,
+                    s.getCount(), millis(s.getMedian()), millis(s.getPercentile(95)), millis(s.getPercentile(99)),
+                    millis(s.getMax())));
+        }
+        dump.append(String.format(Locale.US, "%-16s %8s %10s %10s %10s %10s%n",
+                "per request", "count", "p50", "p95", "p99", "max"));
+        for (Counter counter : Counter.values()) {
+            RollingHistogram.Snapshot s = sCounters[counter.ordinal()].snapshot();
+            dump.append(String.format(Locale.US, "%-16s %8d %10d %10d %10d %10d%n", counter.mLabel,
+                    s.getCount(), s.getMedian(), s.getPercentile(95), s.getPercentile(99), s.getMax()));
+        }
+        return dump.toString();
+    }
+
+    /**
+     * @return one line per phase with its median and p95, short enough for an on-screen overlay
+     */
+    public static String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            RollingHistogram.Snapshot s = sPhases[phase.ordinal()].snapshot();
+            if (s.size() == 0)
+                continue;
+            if (summary.length() > 0)
+                summary.append('\n');
+            summary.append(String.format(Locale.US, "%s %.1f / %.1f ms", phase.mLabel,
+                    millis(s.getMedian()), millis(s.getPercentile(95))));
+        }
+        return summary.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) NANOS_PER_MILLI;
+    }
+
+    private static RollingHistogram[] newHistograms(int count) {
+        RollingHistogram[] histograms = new RollingHistogram[count];
+        for (int i = 0; i < count; i++)
+            histograms[i] = new RollingHistogram();
+        return histograms;
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed number of threads working through a queue ordered by priority: a task with a higher
+ * priority runs before every task with a lower one still waiting, tasks of the same priority run
+ * in the order they came in. A waiting task can still be given another priority, or be canceled.
+ *
+ * Keeps count of how long tasks wait in the queue and how long they run, in nanoseconds, and of
+ * how deep the queue gets, see {@link #dump()}.
+ */
+public final class PriorityExecutor implements Executor {
+
+    /** The priority of tasks handed to {@link #execute(Runnable)}. */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String mName;
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<Runnable>();
+    private final ThreadPoolExecutor mPool;
+
+    private final AtomicLong mSequence = new AtomicLong();
+    private final AtomicInteger mMaxQueueDepth = new AtomicInteger();
+    private final RollingHistogram mWaitTimes = new RollingHistogram();
+    private final RollingHistogram mRunTimes = new RollingHistogram();
+
+    /**
+     * A task submitted to the executor, while it waits it can be reprioritized or canceled.
+     */
+    public final class Task implements Runnable, Comparable<Task> {
+        private final Runnable mRunnable;
+        private final long mSequence;
+        private final long mQueuedAt;
+        private volatile int mPriority;
+
+        Task(Runnable runnable, int priority) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = PriorityExecutor.this.mSequence.getAndIncrement();
+            mQueuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            mWaitTimes.record(start - mQueuedAt);
+            try {
+                mRunnable.run();
+            } finally {
+                mRunTimes.record(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Higher priorities first, then first come first served.
+         */
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority)
+                return mPriority > other.mPriority ? -1 : 1;
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        /**
+         * Move the task in the queue. It keeps its place among the tasks of its new priority by
+         * when it was submitted. No effect once it has started.
+         */
+        public void setPriority(int priority) {
+            synchronized (PriorityExecutor.this) {
+                if (priority == mPriority)
+                    return;
+                // The queue only orders a task when it goes in, so it has to go in again.
+                if (mQueue.remove(this)) {
+                    mPriority = priority;
+                    mPool.execute(this);
+                } else {
+                    mPriority = priority;
+                }
+            }
+        }
+
+        /**
+         * @return true if the task was still waiting and will never run, false if it has
+         * already started (or was canceled before)
+         */
+        public boolean cancel() {
+            synchronized (PriorityExecutor.this) {
+                return mQueue.remove(this);
+            }
+        }
+    }
+
+    /**
+     * @param name          shows up in the {@link #dump()}
+     * @param threads       the most tasks running at the same time; idle threads go away after a while
+     * @param threadFactory creates the threads, e.g. to name them and set their priority
+     */
+    public PriorityExecutor(String name, int threads, ThreadFactory threadFactory) {
+        mName = name;
+        mPool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, mQueue, threadFactory);
+        mPool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        submit(runnable, DEFAULT_PRIORITY);
+    }
+
+    /**
+     * @param priority higher runs first
+     * @return the task, to reprioritize or cancel it while it waits
+     */
+    public Task submit(Runnable runnable, int priority) {
+        Task task = new Task(runnable, priority);
+        synchronized (this) {
+            mPool.execute(task);
+        }
+
+        int depth = mQueue.size();
+        int max = mMaxQueueDepth.get();
+        while (depth > max && !mMaxQueueDepth.compareAndSet(max, depth)) {
+            max = mMaxQueueDepth.get();
+        }
+        return task;
+    }
+
+    public int getThreadCount() {
+        return mPool.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return the most tasks that were ever waiting at the same time
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth.get();
+    }
+
+    /**
+     * @return the number of tasks running right now
+     */
+    public int getActiveCount() {
+        return mPool.getActiveCount();
+    }
+
+    /**
+     * @return how long the recent tasks waited before they started, in nanoseconds
+     */
+    public RollingHistogram.Snapshot getWaitTimes() {
+        return mWaitTimes.snapshot();
+    }
+
+    /**
+     * @return how long the recent tasks ran, in nanoseconds
+     */
+    public RollingHistogram.Snapshot getRunTimes() {
+        return mRunTimes.snapshot();
+    }
+
+    /**
+     * @return the queue and the wait and run times, in the format of {@link LoadTrace#dump()}
+     */
+    public String dump() {
+        StringBuilder dump = new StringBuilder();
+        dump.append(String.format(Locale.US, "%s: %d threads, %d running, %d queued (at most %d)%n",
+                mName, getThreadCount(), getActiveCount(), getQueueDepth(), getMaxQueueDepth()));
+        dump.append(String.format(Locale.US, "%-16s %8s %10s %10s %10s %10s%n",
+                "task (ms)", "count", "p50", "p95", "p99", "max"));
+        appendTimes(dump, "queue wait", mWaitTimes.snapshot());
+        appendTimes(dump, "run", mRunTimes.snapshot());
+        return dump.toString();
+    }
+
+    private static void appendTimes(StringBuilder dump, String label, RollingHistogram.Snapshot s) {
+        dump.append(String.format(Locale.US, "%-16s %8d %10.1f %10.1f %10.1f %10.1f%n", label, s.getCount(),
+                s.getMedian() / 1e6, s.getPercentile(95) / 1e6, s.getPercentile(99) / 1e6, s.getMax() / 1e6));
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.quakereport;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns a USGS query URL into a key that is the same for every spelling of the same query, so
+ * work keyed by it (coalescing, caching) matches up no matter how the URL was built.
+ */
+public final class QueryKey {
+
+    /** The parameters USGS documents a default for, with that default. */
+    private static final Map<String, String> DEFAULTS = new HashMap<String, String>();
+
+    static {
+        DEFAULTS.put("orderby", "time");
+        DEFAULTS.put("offset", "1");
+        DEFAULTS.put("reviewstatus", "all");
+        DEFAULTS.put("includeallmagnitudes", "false");
+        DEFAULTS.put("includeallorigins", "false");
+        DEFAULTS.put("includedeleted", "false");
+        DEFAULTS.put("includesuperseded", "false");
+        DEFAULTS.put("jsonerror", "false");
+        DEFAULTS.put("mindepth", "-100");
+        DEFAULTS.put("maxdepth", "1000");
+    }
+
+    private QueryKey() {
+    }
+
+    /**
+     * Lower case the scheme, host and parameter names, drop the default port and the fragment,
+     * spell "minmag"/"maxmag" out the way USGS documents them, drop parameters set to their
+     * default value, encode the parameter values the same way and sort the parameters.
+     *
+     * @return the normalized URL, or the URL as it is if it can't be parsed
+     */
+    public static String normalize(String url) {
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return url;
+        }
+        if (uri.getScheme() == null || uri.getHost() == null)
+            return url;
+
+        String scheme = uri.getScheme().toLowerCase(Locale.US);
+        StringBuilder key = new StringBuilder(url.length());
+        key.append(scheme).append("://").append(uri.getHost().toLowerCase(Locale.US));
+        int port = uri.getPort();
+        if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https")))
+            key.append(':').append(port);
+        String path = uri.getRawPath();
+        key.append(path == null || path.isEmpty() ? "/" : path);
+
+        List<String> parameters = new ArrayList<String>();
+        String query = uri.getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.isEmpty())
+                    continue;
+                int equals = parameter.indexOf('=');
+                String name = decode(equals == -1 ? parameter : parameter.substring(0, equals)).toLowerCase(Locale.US);
+                String value = equals == -1 ? "" : decode(parameter.substring(equals + 1));
+                name = canonicalName(name);
+                if (isDefault(name, value))
+                    continue;
+                parameters.add(encode(name) + '=' + encode(value));
+            }
+        }
+        Collections.sort(parameters);
+        for (int i = 0; i < parameters.size(); i++) {
+            key.append(i == 0 ? '?' : '&').append(parameters.get(i));
+        }
+        return key.toString();
+    }
+
+    private static String canonicalName(String name) {
+        if (name.equals("minmag"))
+            return "minmagnitude";
+        if (name.equals("maxmag"))
+            return "maxmagnitude";
+        return name;
+    }
+
+    /**
+     * Numbers are compared by value, so "offset=1.0" or "mindepth=-100.0" match too.
+     */
+    private static boolean isDefault(String name, String value) {
+        String defaultValue = DEFAULTS.get(name);
+        if (defaultValue == null)
+            return false;
+        if (defaultValue.equalsIgnoreCase(value))
+            return true;
+        try {
+            return Double.parseDouble(value) == Double.parseDouble(defaultValue);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            // Not valid percent encoding, keep it as it is.
+            return value;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory cache bounded by the estimated bytes its values retain rather than by their number.
+ * Once it holds more than that, the least recently used entries are evicted. Every entry has its
+ * own time to live, after which it is no longer handed out.
+ *
+ * Reads don't lock: a lookup is a {@link ConcurrentHashMap} get plus a write of the entry's access
+ * time, so loaders on several threads can read at the same time. Only writes and evictions lock,
+ * and an eviction scans the entries for the oldest access, which is fine for the tens of entries
+ * this is meant for (a handful of queries times their pages).
+ *
+ * The values are shared between readers, so they should be immutable.
+ */
+public final class ResultCache<K, V> {
+
+    /**
+     * Works out how many bytes a value keeps alive.
+     */
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    private static final class Node<V> {
+        final V mValue;
+        final long mWeight;
+        /** In {@link System#nanoTime()} time. */
+        final long mExpiresAt;
+        volatile long mAccessedAt;
+
+        Node(V value, long weight, long expiresAt, long now) {
+            mValue = value;
+            mWeight = weight;
+            mExpiresAt = expiresAt;
+            mAccessedAt = now;
+        }
+    }
+
+    private final ConcurrentMap<K, Node<V>> mNodes = new ConcurrentHashMap<K, Node<V>>();
+    private final Weigher<V> mWeigher;
+    private final long mMaxBytes;
+    /** The weight of the nodes in the map, changed only by whoever took a node in or out of it. */
+    private final AtomicLong mSize = new AtomicLong();
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+    private final AtomicLong mExpiredCount = new AtomicLong();
+
+    /**
+     * @param maxBytes the most bytes the values may retain together
+     */
+    public ResultCache(long maxBytes, Weigher<V> weigher) {
+        mMaxBytes = maxBytes;
+        mWeigher = weigher;
+    }
+
+    /**
+     * @return the value, or null if there is none or it has expired
+     */
+    public V get(K key) {
+        Node<V> node = mNodes.get(key);
+        if (node == null) {
+            mMissCount.incrementAndGet();
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (now - node.mExpiresAt >= 0) {
+            if (removeNode(key, node))
+                mExpiredCount.incrementAndGet();
+            mMissCount.incrementAndGet();
+            return null;
+        }
+
+        node.mAccessedAt = now;
+        mHitCount.incrementAndGet();
+        return node.mValue;
+    }
+
+    /**
+     * Add or replace the value of a key, then evict whatever doesn't fit anymore. A value larger than
+     * the whole cache isn't kept, nor is one with a time to live of 0 or less.
+     */
+    public void put(K key, V value, long timeToLiveMillis) {
+        long weight = mWeigher.weigh(value);
+        if (timeToLiveMillis <= 0 || weight > mMaxBytes) {
+            remove(key);
+            return;
+        }
+
+        long now = System.nanoTime();
+        Node<V> node = new Node<V>(value, weight, now + timeToLiveMillis * 1000000, now);
+        synchronized (this) {
+            Node<V> previous = mNodes.put(key, node);
+            mSize.addAndGet(weight - (previous != null ? previous.mWeight : 0));
+            trimToSizeLocked(mMaxBytes, now);
+        }
+    }
+
+    public void remove(K key) {
+        Node<V> node = mNodes.get(key);
+        if (node != null)
+            removeNode(key, node);
+    }
+
+    /**
+     * Evict the least recently used entries, and everything that expired, until the values retain
+     * at most that many bytes, e.g. when the system is low on memory.
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        trimToSizeLocked(maxBytes, System.nanoTime());
+    }
+
+    public void clear() {
+        trimToSize(-1);
+    }
+
+    private void trimToSizeLocked(long maxBytes, long now) {
+        // Expired entries go first, they can't be handed out anymore anyway.
+        for (Map.Entry<K, Node<V>> entry : mNodes.entrySet()) {
+            Node<V> node = entry.getValue();
+            if (now - node.mExpiresAt >= 0 && removeNode(entry.getKey(), node))
+                mExpiredCount.incrementAndGet();
+        }
+
+        while (mSize.get() > maxBytes) {
+            K eldestKey = null;
+            Node<V> eldest = null;
+            for (Map.Entry<K, Node<V>> entry : mNodes.entrySet()) {
+                Node<V> node = entry.getValue();
+                if (eldest == null || node.mAccessedAt - eldest.mAccessedAt < 0) {
+                    eldestKey = entry.getKey();
+                    eldest = node;
+                }
+            }
+            if (eldest == null)
+                break;
+            if (removeNode(eldestKey, eldest))
+                mEvictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if this call took the node out of the map
+     */
+    private boolean removeNode(K key, Node<V> node) {
+        if (!mNodes.remove(key, node))
+            return false;
+        mSize.addAndGet(-node.mWeight);
+        return true;
+    }
+
+    /**
+     * @return the estimated bytes retained by the values held
+     */
+    public long size() {
+        return mSize.get();
+    }
+
+    public long maxSize() {
+        return mMaxBytes;
+    }
+
+    public int getEntryCount() {
+        return mNodes.size();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * @return the lookups that found nothing, expired entries included
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * @return the entries evicted to make room or to trim memory
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    public long getExpiredCount() {
+        return mExpiredCount.get();
+    }
+
+    /**
+     * @return hits per lookup, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hits = mHitCount.get();
+        long lookups = hits + mMissCount.get();
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d entries, %d of %d bytes, %d hits, %d misses (%.0f%%), "
+                        + "%d evicted, %d expired", getEntryCount(), size(), maxSize(), getHitCount(),
+                getMissCount(), getHitRate() * 100, getEvictionCount(), getExpiredCount());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Percentiles over the most recent samples of a value, e.g. the last few hundred durations of one
+ * load phase. Older samples fall out of the window, so the numbers follow how the app behaves now
+ * rather than averaging over the whole process lifetime.
+ *
+ * Recording is a couple of array writes under a lock. Sorting only happens when a
+ * {@link Snapshot} is taken, which is meant to be rare (a dump, an overlay refresh).
+ */
+public final class RollingHistogram {
+
+    /** Samples kept by default. */
+    public static final int DEFAULT_WINDOW = 512;
+
+    private final long[] mSamples;
+    private int mNext;
+    private int mSize;
+    /** All samples ever recorded, including the ones that left the window. */
+    private long mCount;
+
+    public RollingHistogram() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public RollingHistogram(int window) {
+        if (window <= 0)
+            throw new IllegalArgumentException("window must be positive: " + window);
+        mSamples = new long[window];
+    }
+
+    public synchronized void record(long value) {
+        mSamples[mNext] = value;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mSize < mSamples.length)
+            mSize++;
+        mCount++;
+    }
+
+    public synchronized void clear() {
+        mNext = 0;
+        mSize = 0;
+        mCount = 0;
+    }
+
+    /**
+     * @return the percentiles of the samples currently in the window
+     */
+    public Snapshot snapshot() {
+        long[] values;
+        long count;
+        synchronized (this) {
+            values = Arrays.copyOf(mSamples, mSize);
+            count = mCount;
+        }
+        Arrays.sort(values);
+        return new Snapshot(values, count);
+    }
+
+    /**
+     * The sorted samples of a window at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] mSorted;
+        private final long mCount;
+
+        Snapshot(long[] sorted, long count) {
+            mSorted = sorted;
+            mCount = count;
+        }
+
+        /**
+         * @return the number of samples in the window
+         */
+        public int size() {
+            return mSorted.length;
+        }
+
+        /**
+         * @return the number of samples ever recorded
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @param percentile 0 to 100
+         * @return the nearest-rank percentile, 0 when there are no samples
+         */
+        public long getPercentile(double percentile) {
+            if (mSorted.length == 0)
+                return 0;
+            // Divided last: percentile / 100 isn't exact, and e.g. p7 of 100 samples came out as rank 8.
+            int rank = (int) Math.ceil(percentile * mSorted.length / 100);
+            return mSorted[Math.min(Math.max(rank, 1), mSorted.length) - 1];
+        }
+
+        public long getMedian() {
+            return getPercentile(50);
+        }
+
+        public long getMax() {
+            return mSorted.length == 0 ? 0 : mSorted[mSorted.length - 1];
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the work for a key once, however many callers ask for it at the same time.
+ *
+ * The first caller for a key starts a flight on the executor, callers arriving while it is still
+ * running wait for that same flight, and all of them get the same result. A finished flight is
+ * forgotten straight away: nothing is cached, and a failure is reported to the callers of that
+ * flight only, the next caller starts over.
+ *
+ * Each caller can give up on its own through its {@link CancellationToken}, which only detaches
+ * that caller, and returns it right away. The flight itself is only canceled (through the token its
+ * {@link Call} is handed) once every caller has given up. That can be delayed a little, so that a
+ * caller which gives up and asks again straight away, like a loader restarted after a rotation,
+ * picks the same flight up again instead of throwing it away and starting over.
+ *
+ * Since callers share one result, it should be immutable.
+ */
+public final class SingleFlight<K, V> {
+
+    /**
+     * The shared work of a flight.
+     */
+    public interface Call<V> {
+        /**
+         * @param cancellation canceled once no caller wants the result anymore
+         */
+        V call(CancellationToken cancellation) throws Exception;
+    }
+
+    private final Executor mExecutor;
+    private final ScheduledExecutorService mScheduler;
+    private final long mAbandonDelayMillis;
+    private final Map<K, Flight<V>> mFlights = new HashMap<K, Flight<V>>();
+
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mJoined = new AtomicLong();
+
+    /**
+     * @param executor runs the flights; it needs a thread for every key in flight at the same time
+     */
+    public SingleFlight(Executor executor) {
+        this(executor, null, 0);
+    }
+
+    /**
+     * @param executor           runs the flights; it needs a thread for every key in flight at the same time
+     * @param scheduler          runs the delayed cancellations
+     * @param abandonDelayMillis how long a flight nobody waits for anymore keeps running before it is
+     *                           canceled; a caller asking for the key meanwhile attaches to it again
+     */
+    public SingleFlight(Executor executor, ScheduledExecutorService scheduler, long abandonDelayMillis) {
+        mExecutor = executor;
+        mScheduler = scheduler;
+        mAbandonDelayMillis = abandonDelayMillis;
+    }
+
+    /**
+     * Get the result for the key, starting {@code call} unless a flight for the key is already running.
+     * Blocks until the result is there or the caller gives up.
+     *
+     * @param cancellation the caller's token, or null if it never gives up
+     * @throws CancellationException if the caller's token was canceled first
+     * @throws ExecutionException    wrapping what the call threw
+     * @throws InterruptedException  if the caller's thread was interrupted while waiting; it is detached as well
+     */
+    public V get(K key, final Call<V> call, CancellationToken cancellation)
+            throws InterruptedException, ExecutionException {
+
+        final Flight<V> flight;
+        boolean start = false;
+        synchronized (mFlights) {
+            Flight<V> running = mFlights.get(key);
+            if (running == null) {
+                running = new Flight<V>(key);
+                mFlights.put(key, running);
+                start = true;
+            }
+            running.mCallers++;
+            flight = running;
+        }
+
+        if (start) {
+            mStarted.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runFlight(flight, call);
+                }
+            });
+        } else {
+            mJoined.incrementAndGet();
+        }
+
+        return await(flight, cancellation);
+    }
+
+    /**
+     * @return the number of flights started
+     */
+    public long getStartedCount() {
+        return mStarted.get();
+    }
+
+    /**
+     * @return the number of callers that attached to a flight somebody else had started
+     */
+    public long getJoinedCount() {
+        return mJoined.get();
+    }
+
+    private void runFlight(Flight<V> flight, Call<V> call) {
+        V value = null;
+        Throwable failure = null;
+        try {
+            value = call.call(flight.mCancellation);
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            // Callers arriving from now on start a new flight.
+            synchronized (mFlights) {
+                if (mFlights.get(flight.mKey) == flight)
+                    mFlights.remove(flight.mKey);
+            }
+        }
+        flight.finish(value, failure);
+    }
+
+    private V await(final Flight<V> flight, CancellationToken cancellation)
+            throws InterruptedException, ExecutionException {
+
+        CancellationToken.OnCancelListener wakeUp = null;
+        if (cancellation != null) {
+            wakeUp = new CancellationToken.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    synchronized (flight) {
+                        flight.notifyAll();
+                    }
+                }
+            };
+            cancellation.addListener(wakeUp);
+        }
+
+        boolean done = false;
+        try {
+            synchronized (flight) {
+                while (!flight.mDone && (cancellation == null || !cancellation.isCanceled()))
+                    flight.wait();
+                done = flight.mDone;
+            }
+        } finally {
+            if (cancellation != null)
+                cancellation.removeListener(wakeUp);
+            if (!done)
+                detach(flight);
+        }
+
+        if (!done)
+            throw new CancellationException();
+        if (flight.mFailure != null)
+            throw new ExecutionException(flight.mFailure);
+        return flight.mValue;
+    }
+
+    /**
+     * A caller gave up. When it was the last one the flight is canceled (now, or after the abandon
+     * delay unless somebody attached again), and forgotten so that the next caller doesn't attach
+     * to work that is being abandoned.
+     */
+    private void detach(final Flight<V> flight) {
+        final int abandoned;
+        synchronized (mFlights) {
+            if (--flight.mCallers > 0)
+                return;
+            abandoned = ++flight.mAbandoned;
+        }
+
+        if (mScheduler == null || mAbandonDelayMillis <= 0) {
+            abandon(flight, abandoned);
+            return;
+        }
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                abandon(flight, abandoned);
+            }
+        }, mAbandonDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param abandoned the count of times the flight was abandoned when this cancellation was decided,
+     *                  if a caller attached since, or it was abandoned again later, this one is stale
+     */
+    private void abandon(Flight<V> flight, int abandoned) {
+        synchronized (mFlights) {
+            if (flight.mCallers > 0 || flight.mAbandoned != abandoned)
+                return;
+            if (mFlights.get(flight.mKey) == flight)
+                mFlights.remove(flight.mKey);
+        }
+        flight.mCancellation.cancel();
+    }
+
+    private static final class Flight<V> {
+        final Object mKey;
+        final CancellationToken mCancellation = new CancellationToken();
+        // Guarded by the flights map.
+        int mCallers;
+        int mAbandoned;
+
+        // Guarded by this flight.
+        boolean mDone;
+        V mValue;
+        Throwable mFailure;
+
+        Flight(Object key) {
+            mKey = key;
+        }
+
+        synchronized void finish(V value, Throwable failure) {
+            mValue = value;
+            mFailure = failure;
+            mDone = true;
+            notifyAll();
+        }
+    }
+}
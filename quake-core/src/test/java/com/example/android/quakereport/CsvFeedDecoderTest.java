@@ -0,0 +1,154 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CsvFeedDecoderTest {
+
+    private static final String HEADER =
+            "time,latitude,longitude,depth,mag,magType,nst,gap,dmin,rms,net,id,updated,place,type\n";
+    private static final String ROW = "2016-04-07T03:33:20.120Z,-6.05,147.2,35.0,5.1,mb,,54,3.1,0.86,us,us20005dbv,"
+            + "2016-04-07T03:50:00.040Z,\"120km SSE of Lae, Papua New Guinea\",earthquake\n";
+
+    @Test
+    public void decodesTheColumnsWeShow() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        int count = new CsvFeedDecoder().decode(stream(HEADER + ROW), FeedDecoders.toSink(table, null), null);
+
+        assertEquals(1, count);
+        assertEquals("us20005dbv", table.getId(0));
+        assertEquals(5.1, table.getMagnitude(0), 0);
+        assertEquals("120km SSE of Lae, Papua New Guinea", table.getPlace(0));
+        assertEquals(1460000000120L, table.getTimeInMillisecond(0));
+        assertEquals(1460001000040L, table.getUpdatedInMillisecond(0));
+        assertEquals(CsvFeedDecoder.EVENT_PAGE_URL + "us20005dbv", table.getUrl(0));
+        assertEquals(-6.05, table.getLatitude(0), 0);
+        assertEquals(147.2, table.getLongitude(0), 0);
+        assertEquals(35.0, table.getDepthInKm(0), 0);
+    }
+
+    @Test
+    public void quotedHeaderAfterAByteOrderMarkIsRead() throws IOException {
+        String header = "\uFEFF\"time\",\"latitude\",\"longitude\",\"depth\",\"mag\",\"magType\",\"nst\",\"gap\","
+                + "\"dmin\",\"rms\",\"net\",\"id\",\"updated\",\"place\",\"type\"\n";
+        EarthquakeTable table = new EarthquakeTable();
+
+        assertEquals(1, new CsvFeedDecoder().decode(stream(header + ROW), FeedDecoders.toSink(table, null), null));
+        assertEquals("us20005dbv", table.getId(0));
+        assertEquals(5.1, table.getMagnitude(0), 0);
+    }
+
+    @Test
+    public void bodiesThatArentAFeedAreMalformed() throws IOException {
+        String[] bodies = {
+                "<!DOCTYPE html>\n<html><head><title>502 Bad Gateway</title></head></html>\n",
+                // A header that lost a column we need.
+                "time,latitude,longitude,depth,magnitude,id\n" + ROW,
+                "",
+        };
+        for (String body : bodies) {
+            EarthquakeTable table = new EarthquakeTable();
+            try {
+                new CsvFeedDecoder().decode(stream(body), FeedDecoders.toSink(table, null), null);
+                fail("decoded " + body);
+            } catch (FeedDecoder.MalformedFeedException e) {
+                assertEquals(0, e.getParsedCount());
+                assertEquals(0, table.size());
+            }
+        }
+    }
+
+    @Test
+    public void malformedRowKeepsTheRowsBeforeIt() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        try {
+            new CsvFeedDecoder().decode(stream(HEADER + ROW + ROW.replace("2016-04-07T", "yesterday ")),
+                    FeedDecoders.toSink(table, null), null);
+            fail();
+        } catch (FeedDecoder.MalformedFeedException e) {
+            assertEquals(1, e.getParsedCount());
+            assertEquals(1, table.size());
+        }
+    }
+
+    @Test
+    public void cancelUnblocksADecodeStalledOnTheConnection() throws Exception {
+        final StalledConnection connection = new StalledConnection(HEADER + ROW + ROW);
+        final CancellationToken cancellation = new CancellationToken();
+        connection.closeOnCancel(cancellation);
+        final CountingSink sink = new CountingSink(2);
+
+        StalledConnection.Worker worker = new StalledConnection.Worker(new StalledConnection.Worker.Work() {
+            @Override
+            public void run() throws Exception {
+                new CsvFeedDecoder().decode(connection.getInputStream(), sink, cancellation);
+            }
+        });
+        assertTrue(sink.await());
+        StalledConnection.awaitStall();
+
+        cancellation.cancel();
+        long millis = worker.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", worker.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertTrue(String.valueOf(worker.mFailure), worker.mFailure instanceof IOException);
+        assertEquals(2, sink.mCount.get());
+        connection.close();
+    }
+
+    @Test
+    public void cancelStopsADecodeBetweenLines() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final CountingSink sink = new CountingSink(1000);
+
+        StalledConnection.Worker worker = new StalledConnection.Worker(new StalledConnection.Worker.Work() {
+            @Override
+            public void run() throws Exception {
+                new CsvFeedDecoder().decode(new EndlessInputStream(HEADER, ROW), sink, cancellation);
+            }
+        });
+        assertTrue(sink.await());
+
+        cancellation.cancel();
+        long millis = worker.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", worker.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertTrue(String.valueOf(worker.mFailure), worker.mFailure instanceof InterruptedIOException);
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Counts the events, and lets the test wait for the first few.
+     */
+    static final class CountingSink implements FeedDecoder.Sink {
+        final AtomicInteger mCount = new AtomicInteger();
+        private final CountDownLatch mLatch;
+
+        CountingSink(int awaited) {
+            mLatch = new CountDownLatch(awaited);
+        }
+
+        @Override
+        public void onEvent(String id, double magnitude, String place, long timeInMillisecond, String url,
+                            long updatedInMillisecond, double latitude, double longitude, double depthInKm) {
+            mCount.incrementAndGet();
+            mLatch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mLatch.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EarthquakeBatcherTest {
+
+    @Test
+    public void batchesDoubleUpToTheMaximum() {
+        RecordingListener listener = new RecordingListener();
+        EarthquakeBatcher batcher = new EarthquakeBatcher(300, listener);
+        EarthquakeTable table = parse(batcher, 4000);
+
+        // 300, then 600, then 1000 at most. The 100 rows after the last batch aren't handed out.
+        assertEquals(sizes(300, 900, 1900, 2900, 3900), listener.mSizes);
+        assertEquals(3900, batcher.getPartial().size());
+        assertTrue(EarthquakeBatcher.isPartial(batcher.getPartial()));
+        assertFalse(EarthquakeBatcher.isPartial(table.asList()));
+    }
+
+    @Test
+    public void firstBatchIsSmall() {
+        RecordingListener listener = new RecordingListener();
+        EarthquakeBatcher batcher = new EarthquakeBatcher(listener);
+        parse(batcher, 19);
+        assertNull(batcher.getPartial());
+        assertTrue(listener.mSizes.isEmpty());
+
+        parse(batcher, 100);
+        assertEquals(sizes(EarthquakeBatcher.DEFAULT_FIRST_BATCH_SIZE, 60), listener.mSizes);
+
+        // A size of 0 or less is taken as 1.
+        listener = new RecordingListener();
+        parse(new EarthquakeBatcher(0, listener), 3);
+        assertEquals(sizes(1, 3), listener.mSizes);
+    }
+
+    @Test
+    public void rowsAreFoundAcrossBatches() {
+        RecordingListener listener = new RecordingListener();
+        EarthquakeBatcher batcher = new EarthquakeBatcher(1, listener);
+        EarthquakeTable table = parse(batcher, 2000);
+
+        // Batches of 1, 2, 4, ... end at 1, 3, 7, ..., 1023, then 1000 at a time.
+        List<Earthquake> partial = batcher.getPartial();
+        assertEquals(2023 - 1000, partial.size());
+        for (int row = 0; row < partial.size(); row++) {
+            assertEquals(table.getId(row), partial.get(row).getId());
+        }
+        // Every delivery is a prefix of the next, and stays the same while the parse goes on.
+        for (int i = 1; i < listener.mBatches.size(); i++) {
+            List<Earthquake> earlier = listener.mBatches.get(i - 1);
+            List<Earthquake> later = listener.mBatches.get(i);
+            assertEquals(listener.mSizes.get(i - 1).intValue(), earlier.size());
+            assertSame(earlier.get(earlier.size() - 1).getId(), later.get(earlier.size() - 1).getId());
+            assertEquals(table.getId(earlier.size()), later.get(earlier.size()).getId());
+        }
+        assertOutOfBounds(partial, -1);
+        assertOutOfBounds(partial, partial.size());
+    }
+
+    private static EarthquakeTable parse(EarthquakeBatcher batcher, int rows) {
+        EarthquakeTable table = new EarthquakeTable();
+        for (int row = 0; row < rows; row++) {
+            table.add("us" + row, 4.5, "Anza, CA", 1460000000000L + row, null, 0, Double.NaN, Double.NaN, Double.NaN);
+            batcher.onRowAdded(table);
+        }
+        return table;
+    }
+
+    private static List<Integer> sizes(int... sizes) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int size : sizes) {
+            list.add(size);
+        }
+        return list;
+    }
+
+    private static void assertOutOfBounds(List<Earthquake> rows, int index) {
+        try {
+            rows.get(index);
+            fail("row " + index);
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static final class RecordingListener implements EarthquakeBatcher.Listener {
+        final List<List<Earthquake>> mBatches = new ArrayList<List<Earthquake>>();
+        final List<Integer> mSizes = new ArrayList<Integer>();
+
+        @Override
+        public void onBatch(List<Earthquake> rows) {
+            assertTrue(EarthquakeBatcher.isPartial(rows));
+            mBatches.add(rows);
+            mSizes.add(rows.size());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeDiffTest {
+
+    @Test
+    public void insertsAreJustInserts() {
+        List<Earthquake> oldList = rows(500);
+        List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+        newList.add(300, row("new1", 0));
+        newList.add(100, row("new2", 0));
+
+        RecordingCallback callback = replay(oldList, newList);
+        assertEquals(2, callback.mInserted);
+        assertEquals(2, callback.count());
+    }
+
+    @Test
+    public void removesAreJustRemoves() {
+        List<Earthquake> oldList = rows(500);
+        List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+        newList.remove(499);
+        newList.remove(250);
+        newList.remove(0);
+
+        RecordingCallback callback = replay(oldList, newList);
+        assertEquals(3, callback.mRemoved);
+        assertEquals(3, callback.count());
+    }
+
+    @Test
+    public void movedRowIsOneMove() {
+        List<Earthquake> oldList = rows(500);
+        List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+        newList.add(10, newList.remove(400));
+
+        RecordingCallback callback = replay(oldList, newList);
+        assertEquals(1, callback.mMoved);
+        assertEquals(1, callback.count());
+    }
+
+    @Test
+    public void revisedRowsAreChanges() {
+        List<Earthquake> oldList = rows(500);
+        List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+        newList.set(7, row("us7", 1));
+        newList.set(420, row("us420", 1));
+        // Same contents in another object, e.g. parsed again, is no change. Neither is a missing magnitude.
+        newList.set(8, row("us8", 0));
+        oldList.set(9, new Earthquake("us9", Double.NaN, null, 0, null, 0, Double.NaN, Double.NaN, Double.NaN));
+        newList.set(9, new Earthquake("us9", Double.NaN, null, 0, null, 0, Double.NaN, Double.NaN, Double.NaN));
+
+        RecordingCallback callback = replay(oldList, newList);
+        assertEquals(2, callback.mChanged);
+        assertEquals(2, callback.count());
+    }
+
+    @Test
+    public void placeholdersStayPlaceholders() {
+        List<Earthquake> oldList = rows(30);
+        for (int i = 10; i < 20; i++) {
+            oldList.set(i, null);
+        }
+        List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+
+        assertEquals(0, replay(oldList, newList).count());
+
+        // The page is loaded again: its rows change, the ones around it don't.
+        newList = rows(30);
+        RecordingCallback callback = replay(oldList, newList);
+        assertEquals(10, callback.mChanged);
+        assertEquals(10, callback.count());
+
+        // And dropped again.
+        assertEquals(10, replay(newList, oldList).mChanged);
+    }
+
+    @Test
+    public void randomEditsReplayToTheNewList() {
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            List<Earthquake> oldList = rows(random.nextInt(60));
+            List<Earthquake> newList = new ArrayList<Earthquake>(oldList);
+            int edits = random.nextInt(10);
+            for (int edit = 0; edit < edits; edit++) {
+                int position = newList.isEmpty() ? 0 : random.nextInt(newList.size());
+                switch (random.nextInt(6)) {
+                    case 0:
+                        newList.add(position, row("new" + round + "-" + edit, 0));
+                        break;
+                    case 1:
+                        if (!newList.isEmpty())
+                            newList.remove(position);
+                        break;
+                    case 2:
+                        if (!newList.isEmpty())
+                            newList.add(random.nextInt(newList.size()), newList.remove(position));
+                        break;
+                    case 3:
+                        if (!newList.isEmpty() && newList.get(position) != null)
+                            newList.set(position, row(newList.get(position).getId(), edit + 1));
+                        break;
+                    case 4:
+                        if (!newList.isEmpty())
+                            newList.set(position, null);
+                        break;
+                    default:
+                        if (!newList.isEmpty())
+                            Collections.swap(newList, position, random.nextInt(newList.size()));
+                }
+            }
+            replay(oldList, newList);
+        }
+    }
+
+    /**
+     * Apply the diff of the two lists to a copy of the old one, and check it comes out as the new one.
+     */
+    private static RecordingCallback replay(List<Earthquake> oldList, List<Earthquake> newList) {
+        RecordingCallback callback = new RecordingCallback(oldList, newList);
+        EarthquakeDiff diff = EarthquakeDiff.calculate(oldList, newList);
+        diff.dispatchTo(callback);
+        assertEquals(callback.count(), diff.size());
+
+        assertEquals(newList.size(), callback.mRows.size());
+        for (int i = 0; i < newList.size(); i++) {
+            Earthquake row = callback.mRows.get(i);
+            assertTrue("row " + i + " is " + row + ", should be " + newList.get(i),
+                    row == RecordingCallback.UPDATED || EarthquakeDiff.sameContents(row, newList.get(i)));
+        }
+        return callback;
+    }
+
+    private static List<Earthquake> rows(int count) {
+        List<Earthquake> rows = new ArrayList<Earthquake>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(row("us" + i, 0));
+        }
+        return rows;
+    }
+
+    private static Earthquake row(String id, long revision) {
+        return new Earthquake(id, 4.5, "Anza, CA", 1460000000000L, null, revision, 33.5, -116.6, 10);
+    }
+
+    /**
+     * Applies the updates to a copy of the old list, with a marker for every row that was inserted or changed.
+     */
+    private static final class RecordingCallback implements EarthquakeDiff.Callback {
+        static final Earthquake UPDATED = new Earthquake("updated", 0.0, null, 0, null, 0, 0, 0, 0);
+
+        final List<Earthquake> mRows;
+        int mInserted;
+        int mRemoved;
+        int mMoved;
+        int mChanged;
+
+        RecordingCallback(List<Earthquake> oldList, List<Earthquake> newList) {
+            mRows = new ArrayList<Earthquake>(oldList);
+        }
+
+        @Override
+        public void onInserted(int position) {
+            mRows.add(position, UPDATED);
+            mInserted++;
+        }
+
+        @Override
+        public void onRemoved(int position) {
+            mRows.remove(position);
+            mRemoved++;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mRows.add(toPosition, mRows.remove(fromPosition));
+            mMoved++;
+        }
+
+        @Override
+        public void onChanged(int position) {
+            mRows.set(position, UPDATED);
+            mChanged++;
+        }
+
+        int count() {
+            return mInserted + mRemoved + mMoved + mChanged;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.text.DecimalFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeFormatterTest {
+
+    private final EarthquakeFormatter mFormatter = new EarthquakeFormatter(TimeZone.getTimeZone("UTC"));
+    private final DecimalFormat mDecimalFormat = new DecimalFormat("0.0");
+
+    @Test
+    public void magnitudeLabelsMatchDecimalFormat() {
+        // Every two decimal magnitude the labels cover, the halfway ones like 1.25 and 0.95 included.
+        for (int hundredths = 0; hundredths <= 1200; hundredths++) {
+            double magnitude = hundredths / 100.0;
+            assertEquals("magnitude " + magnitude, mDecimalFormat.format(magnitude),
+                    mFormatter.formatMagnitude(magnitude));
+        }
+    }
+
+    @Test
+    public void magnitudesOutsideTheLabelsMatchDecimalFormat() {
+        double[] magnitudes = {-0.96, -0.15, 12.04, 12.05, 12.25, 13.45};
+        for (double magnitude : magnitudes) {
+            assertEquals("magnitude " + magnitude, mDecimalFormat.format(magnitude),
+                    mFormatter.formatMagnitude(magnitude));
+        }
+    }
+
+    @Test
+    public void magnitudeBuckets() {
+        assertEquals(0, EarthquakeFormatter.getMagnitudeBucket(-0.5));
+        assertEquals(0, EarthquakeFormatter.getMagnitudeBucket(0.99));
+        assertEquals(1, EarthquakeFormatter.getMagnitudeBucket(1.99));
+        assertEquals(2, EarthquakeFormatter.getMagnitudeBucket(2.0));
+        assertEquals(EarthquakeFormatter.MAGNITUDE_BUCKETS - 1, EarthquakeFormatter.getMagnitudeBucket(12.5));
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every query checked against a scan of the whole table.
+ */
+public class EarthquakeGridTest {
+
+    private static final double[] CELL_DEGREES = {EarthquakeGrid.DEFAULT_CELL_DEGREES, 0.5, 7.3, 180};
+
+    @Test
+    public void boxesMatchAScan() {
+        Random random = new Random(13);
+        EarthquakeTable table = newTable(random, 3000);
+        double[][] boxes = {
+                // south, west, north, east
+                {-10, -20, 10, 20},
+                // Across the antimeridian.
+                {-30, 170, 30, -170},
+                {-90, 179.5, 90, -179.5},
+                // Once around but a sliver, both edges in the same cell.
+                {-90, 10.5, 90, 10.2},
+                {-45, -179.9, 45, -180},
+                // Every longitude, given either way.
+                {-5, -180, 5, 180},
+                {-5, -200, 5, 200},
+                // Longitudes outside [-180, 180).
+                {0, 190, 60, 200},
+                {0, -540, 60, -530},
+                // The poles, a line and an empty box.
+                {89, -180, 90, 180},
+                {-90, 0, -89, 90},
+                {20, 30, 20, 30},
+                {10, 0, -10, 20},
+        };
+        for (double cellDegrees : CELL_DEGREES) {
+            EarthquakeGrid grid = EarthquakeGrid.build(table, cellDegrees);
+            for (double[] box : boxes) {
+                assertBox(table, grid, box[0], box[1], box[2], box[3]);
+            }
+            for (int i = 0; i < 200; i++) {
+                double south = random.nextDouble() * 180 - 90;
+                double north = south + random.nextDouble() * (90 - south);
+                assertBox(table, grid, south, random.nextDouble() * 400 - 200, north, random.nextDouble() * 400 - 200);
+            }
+        }
+    }
+
+    @Test
+    public void circlesMatchAScan() {
+        Random random = new Random(17);
+        EarthquakeTable table = newTable(random, 3000);
+        double[][] circles = {
+                // latitude, longitude, radius
+                {35.0, -118.0, 500},
+                // Across the antimeridian.
+                {-15.0, 179.8, 800},
+                {52.0, -179.9, 2000},
+                // Around and near the poles.
+                {90, 0, 300},
+                {-90, 45, 1000},
+                {88.5, 120, 400},
+                {-80, -170, 3000},
+                // Nearly, exactly and more than the whole globe.
+                {0.5, 0.5, 19900},
+                {10, 10.7, 20010},
+                {0, 0, 20015.1},
+                {45, 90, 50000},
+                {0, 0, 0},
+                {0, 0, -1},
+        };
+        for (double cellDegrees : CELL_DEGREES) {
+            EarthquakeGrid grid = EarthquakeGrid.build(table, cellDegrees);
+            for (double[] circle : circles) {
+                assertCircle(table, grid, circle[0], circle[1], circle[2]);
+            }
+            for (int i = 0; i < 200; i++) {
+                assertCircle(table, grid, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180,
+                        random.nextDouble() * random.nextDouble() * 21000);
+            }
+        }
+    }
+
+    @Test
+    public void rowsWithoutCoordinatesAreNotIndexed() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us1", 4.5, null, 0, null, 0, 10, 20, 5);
+        table.add("us2", 4.5, null, 0, null, 0, Double.NaN, 20, 5);
+        table.add("us3", 4.5, null, 0, null, 0, 10, Double.NaN, 5);
+        EarthquakeGrid grid = EarthquakeGrid.build(table);
+
+        assertEquals(1, grid.size());
+        assertArrayEquals(new int[]{0}, grid.withinBox(-90, -180, 90, 180));
+        assertArrayEquals(new int[]{0}, grid.withinRadius(0, 0, 100000));
+    }
+
+    private static void assertBox(EarthquakeTable table, EarthquakeGrid grid,
+                                  double south, double west, double north, double east) {
+        boolean allLongitudes = east - west >= 360;
+        double normalizedWest = normalize(west);
+        double normalizedEast = normalize(east);
+        int[] expected = new int[table.size()];
+        int count = 0;
+        for (int row = 0; row < table.size(); row++) {
+            double latitude = table.getLatitude(row);
+            double longitude = normalize(table.getLongitude(row));
+            boolean inLongitude = allLongitudes || (normalizedWest <= normalizedEast
+                    ? longitude >= normalizedWest && longitude <= normalizedEast
+                    : longitude >= normalizedWest || longitude <= normalizedEast);
+            if (inLongitude && latitude >= south && latitude <= north)
+                expected[count++] = row;
+        }
+        int[] actual = grid.withinBox(south, west, north, east);
+        Arrays.sort(actual);
+        assertArrayEquals("box " + south + ", " + west + ", " + north + ", " + east,
+                Arrays.copyOf(expected, count), actual);
+    }
+
+    private static void assertCircle(EarthquakeTable table, EarthquakeGrid grid,
+                                     double latitude, double longitude, double radiusKm) {
+        int[] actual = grid.withinRadius(latitude, longitude, radiusKm);
+        Arrays.sort(actual);
+        String circle = "circle " + latitude + ", " + longitude + ", " + radiusKm;
+        int found = 0;
+        for (int row = 0; row < table.size(); row++) {
+            double distance = EarthquakeGrid.distanceKm(latitude, longitude, table.getLatitude(row),
+                    table.getLongitude(row));
+            boolean returned = Arrays.binarySearch(actual, row) >= 0;
+            if (returned)
+                found++;
+            // The grid compares haversines instead of distances, which may round the other way
+            // right on the edge.
+            if (Math.abs(distance - radiusKm) > 1e-6)
+                assertEquals(circle + ", row " + row + " at " + distance + " km", distance <= radiusKm, returned);
+        }
+        assertEquals(circle, found, actual.length);
+        for (int i = 1; i < actual.length; i++) {
+            assertTrue(circle, actual[i - 1] < actual[i]);
+        }
+    }
+
+    /**
+     * Random epicenters, with some on the poles and the antimeridian and some outside [-180, 180).
+     */
+    private static EarthquakeTable newTable(Random random, int rows) {
+        EarthquakeTable table = new EarthquakeTable(rows);
+        for (int row = 0; row < rows; row++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            switch (random.nextInt(20)) {
+                case 0:
+                    latitude = random.nextBoolean() ? 90 : -90;
+                    break;
+                case 1:
+                    longitude = random.nextBoolean() ? 180 : -180;
+                    break;
+                case 2:
+                    longitude += random.nextBoolean() ? 360 : -360;
+                    break;
+                case 3:
+                    // Near the cell edges of the 1 degree grid.
+                    longitude = Math.round(longitude) + (random.nextBoolean() ? 1e-9 : -1e-9);
+                    break;
+                default:
+            }
+            table.add("us" + row, 4.5, null, 0, null, 0, latitude, longitude, 10);
+        }
+        return table;
+    }
+
+    private static double normalize(double longitude) {
+        double normalized = ((longitude + 180) % 360 + 360) % 360;
+        return normalized - 180;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakePagerTest {
+
+    private static final int PAGE_SIZE = 10;
+
+    private final List<Integer> mRequested = new ArrayList<Integer>();
+    private final List<Integer> mDropped = new ArrayList<Integer>();
+    private EarthquakePager mPager;
+
+    @Before
+    public void setUp() {
+        mPager = new EarthquakePager(PAGE_SIZE, 1, 1, new EarthquakePager.PageRequester() {
+            @Override
+            public void requestPage(int page) {
+                mRequested.add(page);
+            }
+
+            @Override
+            public void dropPage(int page) {
+                mDropped.add(page);
+            }
+        });
+    }
+
+    @Test
+    public void rowsOfTheLastPageAreAppendedWhileItLoads() {
+        mPager.start();
+        assertTrue(mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true));
+        assertEquals(Arrays.asList(0, 1), mRequested);
+
+        // A short page that is still loading doesn't end the list.
+        assertTrue(mPager.onPageLoaded(1, rows(10, 3), false));
+        assertEquals(13, mPager.getCount());
+        mPager.onVisibleRangeChanged(10, 3);
+        // Where page 2 starts is only known once page 1 is complete.
+        assertEquals(Arrays.asList(0, 1), mRequested);
+
+        assertTrue(mPager.onPageLoaded(1, rows(10, 7), false));
+        assertEquals(17, mPager.getCount());
+        // Fewer rows than before, something changed.
+        assertFalse(mPager.onPageLoaded(1, rows(10, 5), false));
+        assertEquals(15, mPager.getCount());
+        assertTrue(mPager.onPageLoaded(1, rows(10, PAGE_SIZE), true));
+        assertEquals(Arrays.asList(0, 1, 2), mRequested);
+
+        // A page before the last one, e.g. synced rows replacing stored ones.
+        assertFalse(mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true));
+        // A complete page delivered again.
+        assertFalse(mPager.onPageLoaded(1, rows(10, PAGE_SIZE), true));
+        assertEquals(20, mPager.getCount());
+        assertEquals("us15", mPager.getItem(15).getId());
+    }
+
+    @Test
+    public void shortPageEndsTheListOnceComplete() {
+        mPager.start();
+        mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true);
+        assertTrue(mPager.onPageLoaded(1, rows(10, 4), false));
+        assertTrue(mPager.onPageLoaded(1, rows(10, 4), true));
+        assertEquals(14, mPager.getCount());
+
+        mPager.onVisibleRangeChanged(10, 4);
+        assertEquals(Arrays.asList(0, 1), mRequested);
+        assertNull(mPager.getItem(14));
+    }
+
+    @Test
+    public void pageOutOfOrderIsNotAppended() {
+        mPager.start();
+        // Page 1 can't have been requested before page 0 came back, so it isn't the next one, and
+        // page 0 after it goes in front of its rows.
+        assertFalse(mPager.onPageLoaded(1, rows(10, PAGE_SIZE), true));
+        assertFalse(mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true));
+        assertEquals(20, mPager.getCount());
+    }
+
+    @Test
+    public void nextPageIsPrefetchedOnceThePageBeforeIsFull() {
+        mPager.start();
+        assertEquals(Arrays.asList(0), mRequested);
+        mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true);
+        // One page ahead of the viewport.
+        assertEquals(Arrays.asList(0, 1), mRequested);
+
+        mPager.onPageLoaded(1, rows(10, PAGE_SIZE), true);
+        assertEquals(Arrays.asList(0, 1), mRequested);
+        mPager.onVisibleRangeChanged(8, 5);
+        assertEquals(Arrays.asList(0, 1, 2), mRequested);
+        // Asked for once, however often the list scrolls.
+        mPager.onVisibleRangeChanged(9, 5);
+        assertEquals(Arrays.asList(0, 1, 2), mRequested);
+
+        // A failed page is asked for again on the next scroll.
+        mPager.onPageFailed(2);
+        mPager.onVisibleRangeChanged(9, 5);
+        assertEquals(Arrays.asList(0, 1, 2, 2), mRequested);
+    }
+
+    @Test
+    public void farPagesAreDroppedAndLoadedAgain() {
+        mPager.start();
+        for (int page = 0; page < 6; page++) {
+            mPager.onVisibleRangeChanged(page * PAGE_SIZE, 5);
+            mPager.onPageLoaded(page, rows(page * PAGE_SIZE, PAGE_SIZE), true);
+        }
+        // On page 5, prefetching 6, keeping one page either side: 4 to 7.
+        assertEquals(Arrays.asList(0, 1, 2, 3), mDropped);
+        assertEquals(60, mPager.getCount());
+        assertNull(mPager.getItem(39));
+        assertEquals("us40", mPager.getItem(40).getId());
+
+        List<Earthquake> rows = mPager.snapshot();
+        assertEquals(60, rows.size());
+        assertNull(rows.get(0));
+        assertEquals("us59", rows.get(59).getId());
+
+        mRequested.clear();
+        mPager.onVisibleRangeChanged(15, 5);
+        assertEquals(Arrays.asList(1, 2), mRequested);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), mDropped);
+        mPager.onPageLoaded(1, rows(10, PAGE_SIZE), true);
+        assertEquals("us15", mPager.getItem(15).getId());
+        assertEquals(60, mPager.getCount());
+    }
+
+    @Test
+    public void endPageThatComesBackShortEndsTheList() {
+        mPager.start();
+        mPager.onPageLoaded(0, rows(0, PAGE_SIZE), true);
+        mPager.onPageLoaded(1, rows(10, 6), true);
+        assertEquals(16, mPager.getCount());
+
+        mPager.onVisibleRangeChanged(10, 6);
+        mPager.onVisibleRangeChanged(15, 10);
+        assertEquals(Arrays.asList(0, 1), mRequested);
+
+        // Until the list starts over.
+        mPager.clear();
+        assertEquals(0, mPager.getCount());
+        assertEquals(Arrays.asList(0, 1), mDropped);
+        mPager.start();
+        assertEquals(Arrays.asList(0, 1, 0), mRequested);
+    }
+
+    @Test
+    public void snapshotsKnowWhichRowsChanged() {
+        mPager.start();
+        EarthquakePager.Snapshot first = loadAndSnapshot(0, rows(0, 4), false);
+        assertUnchanged(first, 0, 0);
+
+        // More rows of the page that is loading, and the rest of it.
+        assertUnchanged(loadAndSnapshot(0, rows(0, 8), false), 4, 0);
+        assertUnchanged(loadAndSnapshot(0, rows(0, PAGE_SIZE), true), 8, 0);
+        assertUnchanged(loadAndSnapshot(1, rows(10, PAGE_SIZE), true), 10, 0);
+        assertUnchanged(loadAndSnapshot(2, rows(20, PAGE_SIZE), true), 20, 0);
+
+        // A page in the middle comes back with other rows, only its rows are diffed.
+        EarthquakePager.Snapshot middle = loadAndSnapshot(1, rows(110, PAGE_SIZE), true);
+        assertUnchanged(middle, 10, 10);
+        // Nothing happened since.
+        assertUnchanged(mPager.snapshot(), 30, 0);
+
+        // The last page shrinks.
+        assertUnchanged(loadAndSnapshot(2, rows(20, 3), true), 20, 0);
+
+        // A page dropped on scroll counts as changed in the next snapshot, with the page loaded then.
+        mPager.onVisibleRangeChanged(20, 1);
+        EarthquakePager.Snapshot dropped = loadAndSnapshot(1, rows(10, PAGE_SIZE), true);
+        assertUnchanged(dropped, 0, 3);
+        assertNull(dropped.get(0));
+
+        // Snapshots don't change with the pages.
+        assertEquals(4, first.size());
+        assertEquals("us3", first.get(3).getId());
+        assertEquals("us110", middle.get(10).getId());
+        assertEquals("us29", middle.get(29).getId());
+    }
+
+    private EarthquakePager.Snapshot loadAndSnapshot(int page, List<Earthquake> rows, boolean complete) {
+        mPager.onPageLoaded(page, rows, complete);
+        return mPager.snapshot();
+    }
+
+    private static void assertUnchanged(EarthquakePager.Snapshot snapshot, int head, int tail) {
+        assertEquals("head", head, snapshot.getUnchangedHead());
+        assertEquals("tail", tail, snapshot.getUnchangedTail());
+    }
+
+    /**
+     * Rows with the ids "us" + position.
+     */
+    static List<Earthquake> rows(int first, int count) {
+        List<Earthquake> rows = new ArrayList<Earthquake>(count);
+        for (int position = first; position < first + count; position++) {
+            rows.add(new Earthquake("us" + position, 4.5, "Anza, CA", 1460000000000L - position, null, 0,
+                    Double.NaN, Double.NaN, Double.NaN));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Every filter checked against a linear scan of the table. Rows with equal keys may come in any
+ * order, so the result is compared as a set and checked to be sorted.
+ */
+public class EarthquakeRangeIndexTest {
+
+    private static final long START = 1460000000000L;
+
+    @Test
+    public void randomFiltersMatchAScan() {
+        Random random = new Random(31);
+        for (int tableNumber = 0; tableNumber < 12; tableNumber++) {
+            EarthquakeTable table = newTable(random, random.nextInt(1500), tableNumber % 3);
+            EarthquakeRangeIndex index = EarthquakeRangeIndex.build(table);
+            assertEquals(table.size(), index.size());
+
+            for (int i = 0; i < 150; i++) {
+                double minMagnitude = randomMagnitudeBound(random, Double.NEGATIVE_INFINITY);
+                double maxMagnitude = randomMagnitudeBound(random, Double.POSITIVE_INFINITY);
+                long fromTime = randomTimeBound(random, Long.MIN_VALUE);
+                long toTime = randomTimeBound(random, Long.MAX_VALUE);
+                for (EarthquakeRangeIndex.SortOrder order : EarthquakeRangeIndex.SortOrder.values()) {
+                    assertFilter(table, index, minMagnitude, maxMagnitude, fromTime, toTime, order);
+                }
+            }
+        }
+    }
+
+    /**
+     * One range much narrower than the other, so the rows are found by walking the sort range
+     * in one case and by sorting the other range in the other.
+     */
+    @Test
+    public void bothWalksMatchAScan() {
+        EarthquakeTable table = newTable(new Random(37), 2000, 0);
+        EarthquakeRangeIndex index = EarthquakeRangeIndex.build(table);
+        for (EarthquakeRangeIndex.SortOrder order : EarthquakeRangeIndex.SortOrder.values()) {
+            // A single magnitude, all but a few times.
+            assertFilter(table, index, 4.5, 4.5, START + 10 * 60000L, Long.MAX_VALUE, order);
+            // A single minute, all but a few magnitudes.
+            assertFilter(table, index, -0.5, Double.POSITIVE_INFINITY, START + 300 * 60000L,
+                    START + 300 * 60000L, order);
+            // Only one of the bounds restricted, the other one open.
+            assertFilter(table, index, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                    START, START + 100 * 60000L, order);
+            assertFilter(table, index, 3.0, 5.0, Long.MIN_VALUE, Long.MAX_VALUE, order);
+            // Nothing, and an empty range.
+            assertFilter(table, index, 20, 30, Long.MIN_VALUE, Long.MAX_VALUE, order);
+            assertFilter(table, index, 5, 4, Long.MIN_VALUE, Long.MAX_VALUE, order);
+            assertFilter(table, index, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, START + 1, START, order);
+        }
+    }
+
+    @Test
+    public void magnitudesOnlyAFloatApartAreInOrder() {
+        EarthquakeTable table = new EarthquakeTable();
+        double[] magnitudes = {4.5 + 1e-12, 4.5, 4.5 - 1e-12, 4.5 + 2e-12, -1e-300, 0, 1e-300};
+        for (int row = 0; row < magnitudes.length; row++) {
+            table.add("us" + row, magnitudes[row], null, START, null, 0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        EarthquakeRangeIndex index = EarthquakeRangeIndex.build(table);
+        List<Earthquake> rows = index.filter(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Long.MIN_VALUE, Long.MAX_VALUE, EarthquakeRangeIndex.SortOrder.MAGNITUDE_ASCENDING);
+        assertEquals(ids(4, 5, 6, 2, 1, 0, 3), ids(rows));
+        assertFilter(table, index, 4.5, 4.5 + 1e-12, Long.MIN_VALUE, Long.MAX_VALUE,
+                EarthquakeRangeIndex.SortOrder.MAGNITUDE_DESCENDING);
+    }
+
+    private static void assertFilter(EarthquakeTable table, EarthquakeRangeIndex index, double minMagnitude,
+                                     double maxMagnitude, long fromTime, long toTime,
+                                     EarthquakeRangeIndex.SortOrder order) {
+        String filter = minMagnitude + ".." + maxMagnitude + ", " + fromTime + ".." + toTime + ", " + order;
+        List<String> expected = new ArrayList<String>();
+        for (int row = 0; row < table.size(); row++) {
+            double magnitude = table.getMagnitude(row);
+            long time = table.getTimeInMillisecond(row);
+            // NaN is outside every magnitude range, open ones too.
+            if (magnitude >= minMagnitude && magnitude <= maxMagnitude && time >= fromTime && time <= toTime)
+                expected.add(table.getId(row));
+        }
+
+        List<Earthquake> rows = index.filter(minMagnitude, maxMagnitude, fromTime, toTime, order);
+        List<String> actual = ids(rows);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(filter, expected, actual);
+
+        for (int i = 1; i < rows.size(); i++) {
+            Earthquake previous = rows.get(i - 1);
+            Earthquake current = rows.get(i);
+            int comparison;
+            switch (order) {
+                case TIME_ASCENDING:
+                    comparison = compare(previous.getTimeInMillisecond(), current.getTimeInMillisecond());
+                    break;
+                case TIME_DESCENDING:
+                    comparison = compare(current.getTimeInMillisecond(), previous.getTimeInMillisecond());
+                    break;
+                case MAGNITUDE_ASCENDING:
+                    comparison = Double.compare(previous.getMagnitude(), current.getMagnitude());
+                    break;
+                default:
+                    comparison = Double.compare(current.getMagnitude(), previous.getMagnitude());
+            }
+            assertTrue(filter + ", rows " + (i - 1) + " and " + i, comparison <= 0);
+        }
+    }
+
+    /**
+     * @param timeOrder 0 for random times, 1 for ascending and 2 for descending, as an orderby query loads them
+     */
+    private static EarthquakeTable newTable(Random random, int rows, int timeOrder) {
+        long[] times = new long[rows];
+        for (int row = 0; row < rows; row++) {
+            // Few distinct minutes, so there are ties.
+            times[row] = START + random.nextInt(Math.max(rows / 3, 1)) * 60000L;
+        }
+        if (timeOrder != 0) {
+            Arrays.sort(times);
+            if (timeOrder == 2) {
+                for (int i = 0; i < rows / 2; i++) {
+                    long time = times[i];
+                    times[i] = times[rows - 1 - i];
+                    times[rows - 1 - i] = time;
+                }
+            }
+        }
+
+        EarthquakeTable table = new EarthquakeTable(rows);
+        for (int row = 0; row < rows; row++) {
+            double magnitude;
+            switch (random.nextInt(25)) {
+                case 0:
+                    magnitude = Double.NaN;
+                    break;
+                case 1:
+                    // Distinct, but the same as a float.
+                    magnitude = 4.5 + (random.nextInt(5) - 2) * 1e-12;
+                    break;
+                default:
+                    // One decimal, so there are ties.
+                    magnitude = random.nextInt(100) / 10.0 - 1;
+            }
+            table.add("us" + row, magnitude, null, times[row], null, 0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        return table;
+    }
+
+    private static double randomMagnitudeBound(Random random, double open) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return open;
+            case 1:
+                // On a magnitude that is in the table.
+                return random.nextInt(100) / 10.0 - 1;
+            default:
+                return random.nextDouble() * 12 - 2;
+        }
+    }
+
+    private static long randomTimeBound(Random random, long open) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return open;
+            case 1:
+                return START + random.nextInt(500) * 60000L;
+            default:
+                return START - 60000L + (long) (random.nextDouble() * 520 * 60000L);
+        }
+    }
+
+    private static int compare(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static List<String> ids(List<Earthquake> rows) {
+        List<String> ids = new ArrayList<String>(rows.size());
+        for (Earthquake earthquake : rows) {
+            ids.add(earthquake.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> ids(int... rows) {
+        List<String> ids = new ArrayList<String>(rows.length);
+        for (int row : rows) {
+            ids.add("us" + row);
+        }
+        return ids;
+    }
+}
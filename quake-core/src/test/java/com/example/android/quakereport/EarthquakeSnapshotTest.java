@@ -0,0 +1,160 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EarthquakeSnapshotTest {
+
+    private static final String QUERY = "https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson&limit=20";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+    private final List<Earthquake> mEarthquakes = new ArrayList<Earthquake>();
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "snapshot");
+        mEarthquakes.add(new Earthquake("us20005dbv", 5.1, "120km SSE of Lae, Papua New Guinea", 1460000000120L,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/us20005dbv", 1460001000040L, -6.05, 147.2, 35.0));
+        // No place, no url, no location, as some feeds send them.
+        mEarthquakes.add(new Earthquake("ci37580063", Double.NaN, null, -1L, null, 0L,
+                Double.NaN, Double.NaN, Double.NaN));
+        // Repeats a place, strings are stored once.
+        mEarthquakes.add(new Earthquake("nc72628461", -0.5, "120km SSE of Lae, Papua New Guinea", Long.MAX_VALUE,
+                "https://example.com/\u00e9v\u00e9nement", Long.MIN_VALUE, 90.0, -180.0, -3.5));
+    }
+
+    @Test
+    public void rowsAreReadBackAsWritten() throws IOException {
+        EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes);
+        EarthquakeTable table = EarthquakeSnapshot.read(mFile, QUERY);
+
+        assertTrue(table.isFrozen());
+        assertEquals(mEarthquakes.size(), table.size());
+        for (int row = 0; row < mEarthquakes.size(); row++) {
+            Earthquake earthquake = mEarthquakes.get(row);
+            assertEquals(earthquake.getId(), table.getId(row));
+            assertEquals(earthquake.getMagnitude(), table.getMagnitude(row), 0);
+            assertEquals(earthquake.getPlace(), table.getPlace(row));
+            assertEquals(earthquake.getTimeInMillisecond(), table.getTimeInMillisecond(row));
+            assertEquals(earthquake.getUrl(), table.getUrl(row));
+            assertEquals(earthquake.getUpdatedInMillisecond(), table.getUpdatedInMillisecond(row));
+            assertEquals(earthquake.getLatitude(), table.getLatitude(row), 0);
+            assertEquals(earthquake.getLongitude(), table.getLongitude(row), 0);
+            assertEquals(earthquake.getDepthInKm(), table.getDepthInKm(row), 0);
+        }
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+
+        EarthquakeSnapshot.write(mFile, QUERY, new ArrayList<Earthquake>());
+        assertEquals(0, EarthquakeSnapshot.read(mFile, QUERY).size());
+    }
+
+    @Test
+    public void rowsOfATableAreWrittenTheSame() throws IOException {
+        EarthquakeSnapshot.write(mFile, QUERY, EarthquakeTable.from(mEarthquakes).asList());
+        EarthquakeTable table = EarthquakeSnapshot.read(mFile, QUERY);
+
+        assertEquals(mEarthquakes.size(), table.size());
+        for (int row = 0; row < mEarthquakes.size(); row++) {
+            Earthquake earthquake = mEarthquakes.get(row);
+            assertEquals(earthquake.getId(), table.getId(row));
+            assertEquals(earthquake.getMagnitude(), table.getMagnitude(row), 0);
+            assertEquals(earthquake.getPlace(), table.getPlace(row));
+            assertEquals(earthquake.getUrl(), table.getUrl(row));
+            assertEquals(earthquake.getUpdatedInMillisecond(), table.getUpdatedInMillisecond(row));
+            assertEquals(earthquake.getDepthInKm(), table.getDepthInKm(row), 0);
+        }
+    }
+
+    @Test
+    public void snapshotsOfOtherVersionsOrQueriesAreNotUsed() throws IOException {
+        assertNull(EarthquakeSnapshot.read(mFile, QUERY));
+
+        EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes);
+        assertNull(EarthquakeSnapshot.read(mFile, QUERY + "&minmagnitude=6"));
+
+        // Neither is checked against the CRC, a layout change may have moved it.
+        writeInt(4, EarthquakeSnapshot.VERSION + 1);
+        assertNull(EarthquakeSnapshot.read(mFile, QUERY));
+        writeInt(4, EarthquakeSnapshot.VERSION);
+        writeInt(0, 0x3C21444F);
+        assertNull(EarthquakeSnapshot.read(mFile, QUERY));
+    }
+
+    @Test
+    public void damagedSnapshotsThrow() throws IOException {
+        EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes);
+        long length = mFile.length();
+
+        // A byte flipped in the middle of the columns.
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(length - 40);
+            int value = file.read();
+            file.seek(length - 40);
+            file.write(value ^ 0x10);
+        } finally {
+            file.close();
+        }
+        assertDamaged();
+
+        EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes);
+        file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(length / 2);
+        } finally {
+            file.close();
+        }
+        assertDamaged();
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldSnapshot() throws IOException {
+        EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes);
+        // Something in the way of the temporary file.
+        assertTrue(new File(mFile.getPath() + ".tmp").mkdir());
+
+        try {
+            EarthquakeSnapshot.write(mFile, QUERY, mEarthquakes.subList(0, 1));
+            fail();
+        } catch (IOException expected) {
+        }
+        EarthquakeTable table = EarthquakeSnapshot.read(mFile, QUERY);
+        assertEquals(mEarthquakes.size(), table.size());
+        assertEquals("nc72628461", table.getId(2));
+    }
+
+    private void writeInt(long position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertDamaged() {
+        try {
+            EarthquakeSnapshot.read(mFile, QUERY);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeStatsTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long START = 1451606400000L;
+
+    @Test
+    public void mergedPartsEqualTheWhole() {
+        Random random = new Random(23);
+        List<Earthquake> earthquakes = newEarthquakes(random, 2000);
+        EarthquakeStats first = EarthquakeStats.of(earthquakes.subList(0, 700));
+        EarthquakeStats second = EarthquakeStats.of(earthquakes.subList(700, earthquakes.size()));
+
+        EarthquakeStats merged = new EarthquakeStats();
+        merged.merge(first);
+        merged.merge(second);
+
+        assertSameStats(EarthquakeStats.of(earthquakes), merged, earthquakes);
+        // Merging doesn't change the parts, and subtracting one gives the other back.
+        assertSameStats(EarthquakeStats.of(earthquakes.subList(0, 700)), first, earthquakes);
+        merged.subtract(first);
+        assertSameStats(second, merged, earthquakes);
+    }
+
+    @Test
+    public void removeUndoesAdd() {
+        Random random = new Random(7);
+        List<Earthquake> kept = newEarthquakes(random, 500);
+        List<Earthquake> removed = newEarthquakes(random, 500);
+        EarthquakeStats stats = EarthquakeStats.of(kept);
+        for (Earthquake earthquake : removed) {
+            stats.add(earthquake);
+        }
+        for (Earthquake earthquake : removed) {
+            stats.remove(earthquake);
+        }
+
+        List<Earthquake> all = new ArrayList<Earthquake>(kept);
+        all.addAll(removed);
+        assertSameStats(EarthquakeStats.of(kept), stats, all);
+        for (Earthquake earthquake : kept) {
+            stats.remove(earthquake);
+        }
+        assertSameStats(new EarthquakeStats(), stats, all);
+    }
+
+    @Test
+    public void percentiles() {
+        EarthquakeStats stats = new EarthquakeStats();
+        assertTrue(Double.isNaN(stats.getMagnitudePercentile(50)));
+        assertTrue(Double.isNaN(stats.getMaxMagnitude()));
+
+        // 1.0, 1.1, ... 10.9
+        for (int i = 0; i < 100; i++) {
+            stats.add(1.0 + i / 10.0, START);
+        }
+        assertEquals(1.0, stats.getMagnitudePercentile(0), 0);
+        assertEquals(1.0, stats.getMagnitudePercentile(1), 0);
+        assertEquals(1.1, stats.getMagnitudePercentile(1.5), 0);
+        // The 7th and 14th of 100, not the ones after them.
+        assertEquals(1.6, stats.getMagnitudePercentile(7), 0);
+        assertEquals(2.3, stats.getMagnitudePercentile(14), 0);
+        assertEquals(5.9, stats.getMedianMagnitude(), 0);
+        assertEquals(10.4, stats.getMagnitudePercentile(95), 0);
+        assertEquals(10.9, stats.getMagnitudePercentile(100), 0);
+        assertEquals(10.9, stats.getMaxMagnitude(), 0);
+    }
+
+    @Test
+    public void magnitudesOutsideTheRangeAreCountedAtItsEdges() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.add(Double.NaN, START);
+        stats.add(-3.5, START);
+        stats.add(-2.0, START);
+        stats.add(12.0, START);
+        stats.add(15.2, START);
+
+        assertEquals(5, stats.getCount());
+        assertEquals(EarthquakeStats.MIN_MAGNITUDE, stats.getMagnitudePercentile(0), 0);
+        assertEquals(EarthquakeStats.MIN_MAGNITUDE, stats.getMagnitudePercentile(60), 0);
+        assertEquals(EarthquakeStats.MAX_MAGNITUDE, stats.getMagnitudePercentile(61), 0);
+        assertEquals(EarthquakeStats.MAX_MAGNITUDE, stats.getMaxMagnitude(), 0);
+        assertEquals(3, stats.getBandCount(0));
+        assertEquals(2, stats.getBandCount(EarthquakeFormatter.MAGNITUDE_BUCKETS - 1));
+
+        // And taken out from there again.
+        stats.remove(Double.NaN, START);
+        stats.remove(15.2, START);
+        assertEquals(3, stats.getCount());
+        assertEquals(2, stats.getBandCount(0));
+        assertEquals(1, stats.getBandCount(EarthquakeFormatter.MAGNITUDE_BUCKETS - 1));
+        assertEquals(EarthquakeStats.MAX_MAGNITUDE, stats.getMaxMagnitude(), 0);
+    }
+
+    @Test
+    public void hoursCountedDownToZeroAreReusedOnResize() {
+        EarthquakeStats stats = new EarthquakeStats();
+        stats.add(5.0, START - 1);
+        long initialSize = stats.estimateSizeInBytes();
+
+        // A sliding window: every hour is added and taken out again, only the one before START stays.
+        for (int i = 0; i < 10000; i++) {
+            stats.add(4.0, START + i * HOUR);
+            stats.remove(4.0, START + i * HOUR);
+        }
+
+        assertEquals(initialSize, stats.estimateSizeInBytes());
+        assertEquals(1, stats.getCount());
+        assertEquals(1, stats.getActiveHours());
+        assertEquals(1, stats.getActiveDays());
+        assertEquals(1, stats.getHourCount(START - 1));
+        assertEquals(0, stats.getHourCount(START + 5000 * HOUR));
+    }
+
+    @Test
+    public void hoursSurviveResizes() {
+        EarthquakeStats stats = new EarthquakeStats();
+        for (int i = 0; i < 1000; i++) {
+            // Every other hour taken out again, so each resize finds zeroed buckets to drop.
+            stats.add(4.0, START + i * HOUR);
+            stats.add(4.0, START + i * HOUR + 1);
+            if (i % 2 == 1)
+                stats.remove(4.0, START + (i - 1) * HOUR);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            int expected = i % 2 == 0 ? 1 : 2;
+            assertEquals("hour " + i, expected, stats.getHourCount(START + i * HOUR));
+        }
+        assertEquals(1000, stats.getActiveHours());
+        assertEquals(2, stats.getBusiestHourCount());
+        assertEquals(1500, stats.getCount());
+        // Hours before 1970 fall in their own bucket too.
+        stats.add(4.0, -1);
+        assertEquals(1, stats.getHourCount(-HOUR));
+        assertEquals(0, stats.getHourCount(0));
+    }
+
+    @Test
+    public void indexStatsMatchARecountAfterUpdatesAndEvictions() {
+        Random random = new Random(42);
+        EarthquakeIndex index = new EarthquakeIndex(300);
+        List<Earthquake> seen = new ArrayList<Earthquake>();
+        for (int poll = 0; poll < 50; poll++) {
+            List<Earthquake> earthquakes = new ArrayList<Earthquake>();
+            for (int i = 0; i < 40; i++) {
+                // Known ids come back with a newer revision, some with a corrected time and magnitude.
+                String id = "us" + random.nextInt(600);
+                earthquakes.add(new Earthquake(id, randomMagnitude(random), "Anza, CA",
+                        START + random.nextInt(500) * 60000L, null, START + poll * 1000L + i,
+                        Double.NaN, Double.NaN, Double.NaN));
+            }
+            index.apply(earthquakes);
+            seen.addAll(earthquakes);
+            if (poll % 5 == 4)
+                index.remove("us" + random.nextInt(600));
+
+            List<Earthquake> held = index.snapshot();
+            assertTrue(held.size() <= 300);
+            assertSameStats(EarthquakeStats.of(held), index.getStats(), seen);
+        }
+    }
+
+    private static void assertSameStats(EarthquakeStats expected, EarthquakeStats actual,
+                                        List<Earthquake> earthquakes) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int band = 0; band < EarthquakeFormatter.MAGNITUDE_BUCKETS; band++) {
+            assertEquals("band " + band, expected.getBandCount(band), actual.getBandCount(band));
+        }
+        assertEquals(expected.getMaxMagnitude(), actual.getMaxMagnitude(), 0);
+        for (int percentile = 0; percentile <= 100; percentile += 5) {
+            assertEquals("p" + percentile, expected.getMagnitudePercentile(percentile),
+                    actual.getMagnitudePercentile(percentile), 0);
+        }
+        for (Earthquake earthquake : earthquakes) {
+            long time = earthquake.getTimeInMillisecond();
+            assertEquals(expected.getHourCount(time), actual.getHourCount(time));
+            assertEquals(expected.getDayCount(time), actual.getDayCount(time));
+        }
+        assertEquals(expected.getActiveHours(), actual.getActiveHours());
+        assertEquals(expected.getActiveDays(), actual.getActiveDays());
+        assertEquals(expected.getBusiestHourCount(), actual.getBusiestHourCount());
+        assertEquals(expected.getBusiestDayCount(), actual.getBusiestDayCount());
+    }
+
+    private static List<Earthquake> newEarthquakes(Random random, int count) {
+        List<Earthquake> earthquakes = new ArrayList<Earthquake>(count);
+        for (int i = 0; i < count; i++) {
+            long time = START + (long) (random.nextDouble() * 40 * 24 * HOUR);
+            earthquakes.add(new Earthquake("us" + i, randomMagnitude(random), "Anza, CA", time, null, time,
+                    Double.NaN, Double.NaN, Double.NaN));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * Mostly two decimals like USGS reports them, now and then one outside the counted range or NaN.
+     */
+    private static double randomMagnitude(Random random) {
+        switch (random.nextInt(50)) {
+            case 0:
+                return Double.NaN;
+            case 1:
+                return -2.5 - random.nextDouble();
+            case 2:
+                return 12.0 + random.nextDouble() * 3;
+            default:
+                return Math.round(random.nextDouble() * 900) / 100.0 - 1;
+        }
+    }
+}
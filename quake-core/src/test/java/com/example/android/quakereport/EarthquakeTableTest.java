@@ -0,0 +1,206 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeTableTest {
+
+    private static final String[] DIRECTIONS = {"N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"};
+    private static final String[] REGIONS = {"Volcano, Hawaii", "Anza, CA", "Ridgecrest, CA",
+            "Tokoroa, New Zealand", "Tobelo, Indonesia", "Petrolia, CA", "Akutan, Alaska", "Pahala, Hawaii"};
+
+    /** Enough rows that the per row sizes dwarf whatever else the heap does meanwhile. */
+    private static final int ROWS = 20000;
+
+    @Test
+    public void tableRetainsLessThanEarthquakeObjects() {
+        long before = usedHeapAfterGc();
+        // Filled from a list that is garbage right away, as the table shares its id strings.
+        EarthquakeTable table = EarthquakeTable.from(newEarthquakes(ROWS)).freeze();
+        long tableBytes = usedHeapAfterGc() - before;
+
+        before = usedHeapAfterGc();
+        List<Earthquake> earthquakes = newEarthquakes(ROWS);
+        long listBytes = usedHeapAfterGc() - before;
+
+        assertEquals(ROWS, table.size());
+        assertEquals(ROWS, earthquakes.size());
+        assertTrue("table " + tableBytes + " bytes, list " + listBytes + " bytes", tableBytes < listBytes / 2);
+
+        long estimate = table.estimateSizeInBytes();
+        assertTrue("estimated " + estimate + " bytes, measured " + tableBytes,
+                estimate > tableBytes / 2 && estimate < tableBytes * 2);
+    }
+
+    @Test
+    public void placesComeBackAsTheyWentIn() {
+        String[] places = {
+                "12km SSW of Volcano, Hawaii",
+                "12 km SSW of Volcano, Hawaii",
+                "0km N of Anza, CA",
+                "999999km NNW of Anza, CA",
+                // Nothing to pack: no distance, a bare region, or more than the prefix can hold.
+                "N of Anza, CA",
+                "Tokoroa, New Zealand",
+                "1000000km N of Anza, CA",
+                "12345678901km N of Anza, CA",
+                // Close to the pattern, but packing it wouldn't give the same string back.
+                "012km N of Anza, CA",
+                "12km  N of Anza, CA",
+                "12km NNNE of Anza, CA",
+                "12km N of ",
+                "12km N",
+                "12km",
+                "",
+                null,
+        };
+        EarthquakeTable table = new EarthquakeTable();
+        for (String place : places) {
+            table.add("us10004u1y", 4.5, place, 0, null, 0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        for (int row = 0; row < places.length; row++) {
+            assertEquals(places[row], table.getPlace(row));
+        }
+        EarthquakeTable copy = table.copyRows(0, table.size());
+        for (int row = 0; row < places.length; row++) {
+            assertEquals(places[row], copy.getPlace(row));
+        }
+    }
+
+    @Test
+    public void placePrefixes() {
+        assertNotEquals(0, EarthquakeTable.encodePlacePrefix("12km SSW of Volcano, Hawaii"));
+        assertNotEquals(0, EarthquakeTable.encodePlacePrefix("999999 km N of Anza, CA"));
+        assertNotEquals(EarthquakeTable.encodePlacePrefix("12km N of Anza, CA"),
+                EarthquakeTable.encodePlacePrefix("12 km N of Anza, CA"));
+
+        assertEquals(0, EarthquakeTable.encodePlacePrefix("N of Anza, CA"));
+        assertEquals(0, EarthquakeTable.encodePlacePrefix("Tokoroa, New Zealand"));
+        assertEquals(0, EarthquakeTable.encodePlacePrefix("1000000km N of Anza, CA"));
+        assertEquals(0, EarthquakeTable.encodePlacePrefix("012km N of Anza, CA"));
+        assertEquals(0, EarthquakeTable.encodePlacePrefix("12km N of "));
+        assertEquals(0, EarthquakeTable.encodePlacePrefix(null));
+    }
+
+    @Test
+    public void urlsComeBackAsTheyWentIn() {
+        String[][] idsAndUrls = {
+                {"us10004u1y", "https://earthquake.usgs.gov/earthquakes/eventpage/us10004u1y"},
+                // The suffix isn't the id, or there is no id to compare with.
+                {"us10004u1y", "https://earthquake.usgs.gov/earthquakes/eventpage/us10004u1y#executive"},
+                {"us10004u1y", "https://earthquake.usgs.gov/earthquakes/eventpage/us10004u1"},
+                {null, "https://earthquake.usgs.gov/earthquakes/eventpage/us10004u1y"},
+                // Not USGS event pages.
+                {"us10004u1y", "https://example.com/quakes?id=us10004u1y"},
+                {"us10004u1y", "https://example.com/quakes/"},
+                {"us10004u1y", "us10004u1y"},
+                {"us10004u1y", "quakes"},
+                {"us10004u1y", ""},
+                {"us10004u1y", null},
+        };
+        EarthquakeTable table = new EarthquakeTable();
+        for (String[] idAndUrl : idsAndUrls) {
+            table.add(idAndUrl[0], 4.5, "Anza, CA", 0, idAndUrl[1], 0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        table.freeze();
+        for (int row = 0; row < idsAndUrls.length; row++) {
+            assertEquals(idsAndUrls[row][1], table.getUrl(row));
+        }
+    }
+
+    @Test
+    public void rowsCanBeChangedThroughTheirViews() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us10004u1y", 4.5, "12km SSW of Volcano, Hawaii", 0,
+                "https://earthquake.usgs.gov/earthquakes/eventpage/us10004u1y", 0, Double.NaN, Double.NaN, Double.NaN);
+        Earthquake earthquake = table.get(0);
+
+        earthquake.setPlace("Volcano, Hawaii");
+        earthquake.setUrl("https://example.com/quakes?id=us10004u1y");
+        assertEquals("Volcano, Hawaii", table.getPlace(0));
+        assertEquals("https://example.com/quakes?id=us10004u1y", table.getUrl(0));
+
+        earthquake.setPlace(null);
+        earthquake.setUrl(null);
+        assertNull(table.getPlace(0));
+        assertNull(table.getUrl(0));
+    }
+
+    @Test
+    public void tableRetainsLessThanItsPlacesAndUrlsAsStrings() {
+        long before = usedHeapAfterGc();
+        EarthquakeTable table = EarthquakeTable.from(newEarthquakes(ROWS)).freeze();
+        long tableBytes = usedHeapAfterGc() - before;
+
+        before = usedHeapAfterGc();
+        List<Earthquake> earthquakes = newEarthquakes(ROWS);
+        String[] strings = new String[2 * ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            strings[2 * i] = earthquakes.get(i).getPlace();
+            strings[2 * i + 1] = earthquakes.get(i).getUrl();
+        }
+        earthquakes = null;
+        long stringBytes = usedHeapAfterGc() - before;
+
+        // The whole table, ids and numbers included, against the places and urls alone.
+        assertEquals(ROWS, table.size());
+        assertEquals(2 * ROWS, strings.length);
+        assertTrue("table " + tableBytes + " bytes, places and urls " + stringBytes + " bytes",
+                tableBytes < stringBytes);
+    }
+
+    @Test
+    public void magnitudesAreReadWithoutBoxing() {
+        EarthquakeTable table = new EarthquakeTable();
+        table.add("us1", 4.5, null, 0, null, 0, Double.NaN, Double.NaN, Double.NaN);
+        // An event without a magnitude is stored as NaN.
+        table.add(new Earthquake("us2", null, null, 0, null, 0));
+
+        List<Earthquake> rows = table.asList();
+        assertEquals(4.5, rows.get(0).getMagnitudeValue(), 0);
+        assertEquals(Double.NaN, table.getMagnitude(1), 0);
+        assertEquals(Double.NaN, rows.get(1).getMagnitudeValue(), 0);
+
+        rows.get(0).setMagnitude(5.5);
+        assertEquals(5.5, table.getMagnitude(0), 0);
+        assertEquals(5.5, rows.get(0).getMagnitude(), 0);
+    }
+
+    /**
+     * Rows like the parser makes them: every place, url and id is a string of its own.
+     */
+    private static List<Earthquake> newEarthquakes(int count) {
+        List<Earthquake> earthquakes = new ArrayList<Earthquake>(count);
+        for (int i = 0; i < count; i++) {
+            String id = "us" + (10000000 + i);
+            String place = (i % 300 + 1) + "km " + DIRECTIONS[i % DIRECTIONS.length] + " of "
+                    + REGIONS[i % REGIONS.length];
+            String url = "https://earthquake.usgs.gov/earthquakes/eventpage/" + id;
+            long time = 1451606400000L + i * 60000L;
+            earthquakes.add(new Earthquake(id, 2.0 + (i % 60) / 10.0, place, time, url, time + 3600000L,
+                    19.4 + (i % 100) / 100.0, -155.3 + (i % 100) / 100.0, (i % 700) / 10.0));
+        }
+        return earthquakes;
+    }
+
+    /**
+     * @return the bytes in use once the garbage collector has freed what it can. That can take a few
+     * collections, e.g. when the last reference goes away with a finalizer.
+     */
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
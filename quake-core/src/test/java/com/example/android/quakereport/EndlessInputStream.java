@@ -0,0 +1,44 @@
+package com.example.android.quakereport;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A body that never ends: a start, then the same part over and over, as fast as it is read.
+ */
+final class EndlessInputStream extends InputStream {
+    private final byte[] mStart;
+    private final byte[] mPart;
+    private byte[] mCurrent;
+    private int mPosition;
+
+    EndlessInputStream(String start, String part) {
+        Charset utf8 = Charset.forName("UTF-8");
+        mStart = start.getBytes(utf8);
+        mPart = part.getBytes(utf8);
+        mCurrent = mStart;
+    }
+
+    @Override
+    public int read() {
+        if (mPosition == mCurrent.length) {
+            mCurrent = mPart;
+            mPosition = 0;
+        }
+        return mCurrent[mPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+        if (count == 0)
+            return 0;
+        if (mPosition == mCurrent.length) {
+            mCurrent = mPart;
+            mPosition = 0;
+        }
+        int read = Math.min(count, mCurrent.length - mPosition);
+        System.arraycopy(mCurrent, mPosition, buffer, offset, read);
+        mPosition += read;
+        return read;
+    }
+}
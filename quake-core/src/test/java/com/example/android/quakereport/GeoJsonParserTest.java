@@ -0,0 +1,117 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GeoJsonParserTest {
+
+    private static final String START = "{\"type\":\"FeatureCollection\",\"metadata\":{\"count\":2},\"features\":[";
+    private static final String FEATURE = "{\"type\":\"Feature\",\"properties\":{\"mag\":5.1,"
+            + "\"place\":\"120km SSE of Lae, Papua New Guinea\",\"time\":1460000000120,\"updated\":1460001000040,"
+            + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/us20005dbv\"},"
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[147.2,-6.05,35]},\"id\":\"us20005dbv\"}";
+
+    @Test
+    public void parsesTheFieldsWeShow() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        int count = GeoJsonParser.parse(stream(START + FEATURE + "]}"), table, null);
+
+        assertEquals(1, count);
+        assertEquals("us20005dbv", table.getId(0));
+        assertEquals(5.1, table.getMagnitude(0), 0);
+        assertEquals("120km SSE of Lae, Papua New Guinea", table.getPlace(0));
+        assertEquals(1460000000120L, table.getTimeInMillisecond(0));
+        assertEquals(1460001000040L, table.getUpdatedInMillisecond(0));
+        assertEquals("https://earthquake.usgs.gov/earthquakes/eventpage/us20005dbv", table.getUrl(0));
+        assertEquals(-6.05, table.getLatitude(0), 0);
+        assertEquals(147.2, table.getLongitude(0), 0);
+        assertEquals(35.0, table.getDepthInKm(0), 0);
+    }
+
+    @Test
+    public void bodiesThatArentAFeedAreMalformed() throws IOException {
+        String[] bodies = {
+                "<!DOCTYPE html>\n<html><head><title>502 Bad Gateway</title></head></html>\n",
+                "",
+                // Cut short before the first feature was complete.
+                START + FEATURE.substring(0, 40),
+        };
+        for (String body : bodies) {
+            EarthquakeTable table = new EarthquakeTable();
+            try {
+                GeoJsonParser.parse(stream(body), table, null);
+                fail("parsed " + body);
+            } catch (FeedDecoder.MalformedFeedException e) {
+                assertEquals(0, e.getParsedCount());
+                assertEquals(0, table.size());
+            }
+        }
+    }
+
+    @Test
+    public void feedThatBreaksOffKeepsTheFeaturesBeforeIt() throws IOException {
+        EarthquakeTable table = new EarthquakeTable();
+        try {
+            GeoJsonParser.parse(stream(START + FEATURE + ",<html>"), table, null);
+            fail();
+        } catch (FeedDecoder.MalformedFeedException e) {
+            assertEquals(1, e.getParsedCount());
+            assertEquals(1, table.size());
+        }
+    }
+
+    @Test
+    public void cancelUnblocksAParseStalledOnTheConnection() throws Exception {
+        final StalledConnection connection = new StalledConnection(START + FEATURE + "," + FEATURE);
+        final CancellationToken cancellation = new CancellationToken();
+        connection.closeOnCancel(cancellation);
+        final CsvFeedDecoderTest.CountingSink sink = new CsvFeedDecoderTest.CountingSink(2);
+
+        StalledConnection.Worker worker = new StalledConnection.Worker(new StalledConnection.Worker.Work() {
+            @Override
+            public void run() throws Exception {
+                GeoJsonParser.parse(connection.getInputStream(), sink, cancellation);
+            }
+        });
+        assertTrue(sink.await());
+        StalledConnection.awaitStall();
+
+        cancellation.cancel();
+        long millis = worker.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", worker.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertTrue(String.valueOf(worker.mFailure), worker.mFailure instanceof IOException);
+        assertEquals(2, sink.mCount.get());
+        connection.close();
+    }
+
+    @Test
+    public void cancelStopsAParseBetweenFeatures() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final CsvFeedDecoderTest.CountingSink sink = new CsvFeedDecoderTest.CountingSink(1000);
+
+        StalledConnection.Worker worker = new StalledConnection.Worker(new StalledConnection.Worker.Work() {
+            @Override
+            public void run() throws Exception {
+                GeoJsonParser.parse(new EndlessInputStream(START + FEATURE, "," + FEATURE), sink, cancellation);
+            }
+        });
+        assertTrue(sink.await());
+
+        cancellation.cancel();
+        long millis = worker.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", worker.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertTrue(String.valueOf(worker.mFailure), worker.mFailure instanceof InterruptedIOException);
+    }
+
+    private static ByteArrayInputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")));
+    }
+}
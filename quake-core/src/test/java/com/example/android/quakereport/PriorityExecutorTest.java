@@ -0,0 +1,159 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One thread, held up by a first task until the test has queued the rest.
+ */
+public class PriorityExecutorTest {
+
+    private static final long BLOCKED_MILLIS = 50;
+
+    private PriorityExecutor mExecutor;
+    private final List<String> mRan = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mExecutor = new PriorityExecutor("test", 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "PriorityExecutorTest");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                mStarted.countDown();
+                try {
+                    mRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, PriorityExecutor.DEFAULT_PRIORITY);
+        assertTrue(mStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+    }
+
+    @Test
+    public void higherPrioritiesRunFirstThenFirstComeFirstServed() throws InterruptedException {
+        submit("low 1", -1);
+        submit("default 1", PriorityExecutor.DEFAULT_PRIORITY);
+        submit("high 1", 10);
+        submit("low 2", -1);
+        submit("high 2", 10);
+        submit("default 2", PriorityExecutor.DEFAULT_PRIORITY);
+        submit("higher", 11);
+
+        runAll(7);
+        assertEquals(Arrays.asList("higher", "high 1", "high 2", "default 1", "default 2", "low 1", "low 2"), mRan);
+    }
+
+    @Test
+    public void setPriorityMovesAWaitingTask() throws InterruptedException {
+        PriorityExecutor.Task first = submit("first", 0);
+        PriorityExecutor.Task second = submit("second", 0);
+        PriorityExecutor.Task third = submit("third", 0);
+
+        third.setPriority(5);
+        // Back among its new peers by when it came in, not at their end.
+        submit("fourth", 1);
+        first.setPriority(1);
+        assertEquals(1, first.getPriority());
+        assertEquals(4, mExecutor.getQueueDepth());
+
+        runAll(4);
+        assertEquals(Arrays.asList("third", "first", "fourth", "second"), mRan);
+        // Too late now, but it doesn't hurt.
+        second.setPriority(9);
+        assertEquals(9, second.getPriority());
+        assertEquals(4, mRan.size());
+    }
+
+    @Test
+    public void cancelWorksOnlyWhileTheTaskWaits() throws InterruptedException {
+        PriorityExecutor.Task canceled = submit("canceled", 0);
+        PriorityExecutor.Task ran = submit("ran", 0);
+
+        assertTrue(canceled.cancel());
+        assertFalse(canceled.cancel());
+        // Reprioritizing a canceled task doesn't bring it back.
+        canceled.setPriority(3);
+        assertEquals(1, mExecutor.getQueueDepth());
+
+        runAll(1);
+        assertEquals(Collections.singletonList("ran"), mRan);
+        assertFalse(ran.cancel());
+    }
+
+    @Test
+    public void queueDepthAndWaitTimesAreCounted() throws InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            submit("task " + i, i);
+        }
+        assertEquals(5, mExecutor.getQueueDepth());
+        assertEquals(5, mExecutor.getMaxQueueDepth());
+        assertEquals(1, mExecutor.getActiveCount());
+        Thread.sleep(BLOCKED_MILLIS);
+
+        runAll(5);
+        assertEquals(0, mExecutor.getQueueDepth());
+        assertEquals(5, mExecutor.getMaxQueueDepth());
+
+        // The blocking task and the five behind it.
+        RollingHistogram.Snapshot waits = mExecutor.getWaitTimes();
+        assertEquals(6, waits.getCount());
+        assertTrue(waits.getMax() >= TimeUnit.MILLISECONDS.toNanos(BLOCKED_MILLIS));
+        // Only the blocking task didn't wait.
+        assertTrue(waits.getPercentile(100 / 6.0) < TimeUnit.MILLISECONDS.toNanos(BLOCKED_MILLIS));
+        assertTrue(waits.getPercentile(100 / 3.0) >= TimeUnit.MILLISECONDS.toNanos(BLOCKED_MILLIS));
+
+        RollingHistogram.Snapshot runs = mExecutor.getRunTimes();
+        assertEquals(6, runs.getCount());
+        assertTrue(runs.getMax() >= TimeUnit.MILLISECONDS.toNanos(BLOCKED_MILLIS));
+        assertTrue(mExecutor.dump(), mExecutor.dump().contains("0 queued (at most 5)"));
+    }
+
+    private PriorityExecutor.Task submit(final String name, int priority) {
+        return mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                mRan.add(name);
+            }
+        }, priority);
+    }
+
+    /**
+     * Let the blocking task go, and wait until that many tasks behind it have run.
+     */
+    private void runAll(int tasks) throws InterruptedException {
+        mRelease.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mExecutor.getRunTimes().getCount() < tasks + 1) {
+            assertTrue("still running", System.nanoTime() - deadline < 0);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryKeyTest {
+
+    private static final String QUERY = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    @Test
+    public void parameterOrderDoesNotMatter() {
+        assertEquals(QUERY + "?format=geojson&limit=20&minmagnitude=6",
+                QueryKey.normalize(QUERY + "?minmagnitude=6&limit=20&format=geojson"));
+        assertEquals(QueryKey.normalize(QUERY + "?format=geojson&limit=20&minmagnitude=6"),
+                QueryKey.normalize(QUERY + "?limit=20&minmagnitude=6&format=geojson"));
+    }
+
+    @Test
+    public void shortNamesAreSpelledOut() {
+        assertEquals(QUERY + "?maxmagnitude=8&minmagnitude=6",
+                QueryKey.normalize(QUERY + "?minmag=6&maxmag=8"));
+        assertEquals(QueryKey.normalize(QUERY + "?minmagnitude=6"), QueryKey.normalize(QUERY + "?MinMag=6"));
+    }
+
+    @Test
+    public void defaultValuesAreDropped() {
+        assertEquals(QUERY + "?format=geojson",
+                QueryKey.normalize(QUERY + "?format=geojson&offset=1.0&mindepth=-100&orderby=TIME"));
+        assertEquals(QUERY + "?format=geojson",
+                QueryKey.normalize(QUERY + "?offset=1&mindepth=-100.0&maxdepth=1000&includedeleted=false"
+                        + "&format=geojson"));
+        // Anything else is a different query.
+        assertEquals(QUERY + "?mindepth=-50&offset=21&orderby=magnitude",
+                QueryKey.normalize(QUERY + "?offset=21&mindepth=-50&orderby=magnitude"));
+        // A default nobody documented for this parameter stays.
+        assertEquals(QUERY + "?limit=1", QueryKey.normalize(QUERY + "?limit=1"));
+    }
+
+    @Test
+    public void valuesAreEncodedTheSameWay() {
+        String expected = QUERY + "?starttime=2016-04-01T00%3A00%3A00";
+        assertEquals(expected, QueryKey.normalize(QUERY + "?starttime=2016-04-01T00:00:00"));
+        assertEquals(expected, QueryKey.normalize(QUERY + "?starttime=2016-04-01T00%3a00%3a00"));
+        assertEquals(QueryKey.normalize(QUERY + "?place=San+Jose"), QueryKey.normalize(QUERY + "?place=San%20Jose"));
+        assertEquals(QUERY + "?place=100%25", QueryKey.normalize(QUERY + "?place=100%25"));
+    }
+
+    @Test
+    public void schemeHostAndPortAreNormalized() {
+        assertEquals(QUERY + "?limit=20",
+                QueryKey.normalize("HTTPS://Earthquake.USGS.gov:443/fdsnws/event/1/query?limit=20#top"));
+        assertEquals("http://earthquake.usgs.gov:8080/?limit=20",
+                QueryKey.normalize("http://earthquake.usgs.gov:8080?limit=20&"));
+        assertEquals("not a url", QueryKey.normalize("not a url"));
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResultCacheTest {
+
+    private static final long TTL = 60 * 1000;
+
+    /** Every value weighs as many bytes as it says. */
+    private static final ResultCache.Weigher<Integer> WEIGHER = new ResultCache.Weigher<Integer>() {
+        @Override
+        public long weigh(Integer value) {
+            return value;
+        }
+    };
+
+    @Test
+    public void leastRecentlyUsedIsEvictedFirst() throws InterruptedException {
+        ResultCache<String, Integer> cache = new ResultCache<String, Integer>(30, WEIGHER);
+        put(cache, "a", 10);
+        put(cache, "b", 10);
+        put(cache, "c", 10);
+        // Reading "a" makes "b" the eldest.
+        assertEquals(Integer.valueOf(10), get(cache, "a"));
+
+        put(cache, "d", 10);
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(10), get(cache, "a"));
+        assertEquals(Integer.valueOf(10), get(cache, "c"));
+        assertEquals(Integer.valueOf(10), get(cache, "d"));
+
+        // Now "a" is the eldest again, and one larger value takes the place of two.
+        put(cache, "e", 20);
+        assertNull(cache.get("a"));
+        assertNull(cache.get("c"));
+        assertEquals(Integer.valueOf(10), cache.get("d"));
+        assertEquals(Integer.valueOf(20), cache.get("e"));
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void valuesAreBoundedByBytesNotByCount() throws InterruptedException {
+        ResultCache<String, Integer> cache = new ResultCache<String, Integer>(100, WEIGHER);
+        for (int i = 0; i < 50; i++) {
+            put(cache, "small" + i, 1);
+        }
+        assertEquals(50, cache.getEntryCount());
+        assertEquals(50, cache.size());
+
+        put(cache, "large", 70);
+        assertEquals(100, cache.size());
+        assertEquals(31, cache.getEntryCount());
+        assertEquals(20, cache.getEvictionCount());
+        // The oldest small ones went.
+        assertNull(cache.get("small19"));
+        assertEquals(Integer.valueOf(1), cache.get("small20"));
+
+        // Replacing a value accounts for the difference only.
+        put(cache, "large", 40);
+        assertEquals(70, cache.size());
+        assertEquals(31, cache.getEntryCount());
+
+        // A value larger than the cache isn't kept, and takes the old one of its key out.
+        cache.put("large", 101, TTL);
+        assertNull(cache.get("large"));
+        assertEquals(30, cache.size());
+        assertEquals(20, cache.getEvictionCount());
+    }
+
+    @Test
+    public void entriesExpireOnTheirOwnTimeToLive() throws InterruptedException {
+        ResultCache<String, Integer> cache = new ResultCache<String, Integer>(100, WEIGHER);
+        cache.put("short", 10, 50);
+        cache.put("long", 10, TTL);
+        cache.put("none", 10, 0);
+        assertNull(cache.get("none"));
+        assertEquals(Integer.valueOf(10), cache.get("short"));
+
+        Thread.sleep(100);
+        assertNull(cache.get("short"));
+        assertEquals(Integer.valueOf(10), cache.get("long"));
+        assertEquals(10, cache.size());
+        assertEquals(1, cache.getExpiredCount());
+
+        // Expired entries nobody asks for go on the next write, without counting as evictions.
+        cache.put("short", 10, 50);
+        Thread.sleep(100);
+        cache.put("other", 10, TTL);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(20, cache.size());
+        assertEquals(2, cache.getExpiredCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    /**
+     * What {@code EarthquakeFetcher.onTrimMemory} does: halve the cache when memory runs low, clear
+     * it when the process is about to go.
+     */
+    @Test
+    public void trimToSizeEvictsTheEldestFirst() throws InterruptedException {
+        ResultCache<String, Integer> cache = new ResultCache<String, Integer>(100, WEIGHER);
+        for (int i = 0; i < 10; i++) {
+            put(cache, "key" + i, 10);
+        }
+        get(cache, "key0");
+        get(cache, "key1");
+
+        cache.trimToSize(cache.maxSize() / 2);
+        assertEquals(50, cache.size());
+        assertEquals(5, cache.getEntryCount());
+        assertEquals(5, cache.getEvictionCount());
+        assertEquals(Integer.valueOf(10), cache.get("key0"));
+        assertEquals(Integer.valueOf(10), cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertNull(cache.get("key6"));
+        assertEquals(Integer.valueOf(10), cache.get("key7"));
+
+        // Not a limit for what comes next.
+        put(cache, "key10", 50);
+        assertEquals(100, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(11, cache.getEvictionCount());
+    }
+
+    @Test
+    public void counters() throws InterruptedException {
+        ResultCache<String, Integer> cache = new ResultCache<String, Integer>(20, WEIGHER);
+        assertEquals(0, cache.getHitRate(), 0);
+
+        put(cache, "a", 10);
+        get(cache, "a");
+        get(cache, "a");
+        cache.get("missing");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2 / 3.0, cache.getHitRate(), 1e-9);
+
+        put(cache, "b", 10);
+        put(cache, "c", 10);
+        assertEquals(1, cache.getEvictionCount());
+        // An evicted entry is a plain miss.
+        cache.get("a");
+        assertEquals(2, cache.getMissCount());
+
+        // Removed on purpose is neither evicted nor expired.
+        cache.remove("b");
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.getExpiredCount());
+
+        cache.put("d", 1, 1);
+        Thread.sleep(20);
+        cache.get("d");
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getExpiredCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.toString(), cache.toString().startsWith("1 entries, 10 of 20 bytes, 2 hits, 3 misses (40%)"));
+    }
+
+    @Test
+    public void sizeMatchesTheEntriesAfterConcurrentUse() throws InterruptedException {
+        final ResultCache<Integer, Integer> cache = new ResultCache<Integer, Integer>(500, WEIGHER);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final Random random = new Random(t);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            Integer key = random.nextInt(64);
+                            switch (random.nextInt(10)) {
+                                case 0:
+                                    cache.remove(key);
+                                    break;
+                                case 1:
+                                    cache.trimToSize(random.nextInt(500));
+                                    break;
+                                case 2:
+                                case 3:
+                                case 4:
+                                    // Some expire while the others read them.
+                                    cache.put(key, 1 + random.nextInt(50), random.nextBoolean() ? 1 : TTL);
+                                    break;
+                                default:
+                                    cache.get(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        Thread.sleep(5);
+        cache.trimToSize(cache.maxSize());
+        long weight = 0;
+        int entries = 0;
+        for (int key = 0; key < 64; key++) {
+            Integer value = cache.get(key);
+            if (value != null) {
+                weight += value;
+                entries++;
+            }
+        }
+        assertEquals(weight, cache.size());
+        assertEquals(entries, cache.getEntryCount());
+        assertTrue(cache.size() <= cache.maxSize());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    /**
+     * Access times are {@link System#nanoTime()}, wait a little so two calls in a row don't tie.
+     */
+    private static void put(ResultCache<String, Integer> cache, String key, int value) throws InterruptedException {
+        cache.put(key, value, TTL);
+        Thread.sleep(1);
+    }
+
+    private static Integer get(ResultCache<String, Integer> cache, String key) throws InterruptedException {
+        Integer value = cache.get(key);
+        Thread.sleep(1);
+        return value;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class RollingHistogramTest {
+
+    @Test
+    public void percentilesAreNearestRank() {
+        RollingHistogram histogram = new RollingHistogram();
+        // 1 to 200 in a random order, the snapshot sorts them.
+        for (long value : shuffled(1, 200)) {
+            histogram.record(value);
+        }
+
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(200, snapshot.size());
+        assertEquals(200, snapshot.getCount());
+        assertEquals(100, snapshot.getMedian());
+        assertEquals(190, snapshot.getPercentile(95));
+        assertEquals(198, snapshot.getPercentile(99));
+        assertEquals(200, snapshot.getPercentile(99.9));
+        assertEquals(200, snapshot.getMax());
+        // The rank is rounded up, and never below the first sample.
+        assertEquals(14, snapshot.getPercentile(7));
+        assertEquals(1, snapshot.getPercentile(0.1));
+        assertEquals(1, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void everyIntegerPercentileHasItsRank() {
+        for (int size = 1; size <= 300; size++) {
+            RollingHistogram histogram = new RollingHistogram(size);
+            for (long value = 1; value <= size; value++) {
+                histogram.record(value);
+            }
+            RollingHistogram.Snapshot snapshot = histogram.snapshot();
+            for (int percentile = 1; percentile <= 100; percentile++) {
+                // ceil(percentile * size / 100), the values are their own ranks.
+                long rank = (percentile * size + 99) / 100;
+                assertEquals("p" + percentile + " of " + size, rank, snapshot.getPercentile(percentile));
+            }
+        }
+    }
+
+    @Test
+    public void oldSamplesLeaveTheWindow() {
+        RollingHistogram histogram = new RollingHistogram();
+        for (long value = 1; value <= RollingHistogram.DEFAULT_WINDOW; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1, histogram.snapshot().getPercentile(0));
+
+        // Each new sample pushes out the oldest one.
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(100000 + value);
+        }
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(RollingHistogram.DEFAULT_WINDOW, snapshot.size());
+        assertEquals(RollingHistogram.DEFAULT_WINDOW + 100, snapshot.getCount());
+        assertEquals(101, snapshot.getPercentile(0));
+        // 101 to 512 are the lowest 412 samples, the new ones are above them.
+        int oldSamples = RollingHistogram.DEFAULT_WINDOW - 100;
+        assertEquals(RollingHistogram.DEFAULT_WINDOW,
+                snapshot.getPercentile(100.0 * oldSamples / RollingHistogram.DEFAULT_WINDOW));
+        assertEquals(100001, snapshot.getPercentile(100.0 * (oldSamples + 1) / RollingHistogram.DEFAULT_WINDOW));
+        assertEquals(100100, snapshot.getMax());
+
+        // Once around again, none of the first samples are left.
+        for (int i = 0; i < RollingHistogram.DEFAULT_WINDOW; i++) {
+            histogram.record(7);
+        }
+        snapshot = histogram.snapshot();
+        assertEquals(7, snapshot.getPercentile(0));
+        assertEquals(7, snapshot.getMax());
+    }
+
+    @Test
+    public void emptyAndClearedHistogramsAreZero() {
+        RollingHistogram histogram = new RollingHistogram(4);
+        assertEquals(0, histogram.snapshot().getMedian());
+        assertEquals(0, histogram.snapshot().getMax());
+
+        histogram.record(5);
+        histogram.record(9);
+        // Snapshots don't change with the histogram.
+        RollingHistogram.Snapshot snapshot = histogram.snapshot();
+        histogram.clear();
+        assertEquals(0, histogram.snapshot().size());
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(2, snapshot.size());
+        assertEquals(5, snapshot.getMedian());
+
+        histogram.record(3);
+        assertEquals(3, histogram.snapshot().getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowMustHoldASample() {
+        new RollingHistogram(0);
+    }
+
+    private static List<Long> shuffled(long from, long to) {
+        List<Long> values = new ArrayList<Long>();
+        for (long value = from; value <= to; value++) {
+            values.add(value);
+        }
+        Collections.shuffle(values, new Random(5));
+        return values;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SingleFlightTest {
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void callersShareOneFlight() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(mExecutor);
+        StalledCall call = new StalledCall();
+
+        StalledConnection.Worker first = get(flights, call, null);
+        assertTrue(call.awaitStarted());
+        StalledConnection.Worker second = get(flights, call, null);
+        StalledConnection.awaitStall();
+        call.mConnection.finish();
+        first.join(5000);
+        second.join(5000);
+
+        assertNull(first.mFailure);
+        assertNull(second.mFailure);
+        assertEquals(1, flights.getStartedCount());
+        assertEquals(1, flights.getJoinedCount());
+        call.mConnection.close();
+    }
+
+    @Test
+    public void cancelReturnsTheCallerAndAbortsTheStalledFlight() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(mExecutor);
+        StalledCall call = new StalledCall();
+
+        CancellationToken cancellation = new CancellationToken();
+        StalledConnection.Worker caller = get(flights, call, cancellation);
+        assertTrue(call.awaitStarted());
+        StalledConnection.awaitStall();
+
+        long start = System.nanoTime();
+        cancellation.cancel();
+        long millis = caller.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", caller.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertTrue(String.valueOf(caller.mFailure), caller.mFailure instanceof CancellationException);
+
+        // It was the only caller, so the flight is canceled too, which closes its connection.
+        assertTrue(call.awaitFinished());
+        millis = (System.nanoTime() - start) / 1000000;
+        assertTrue("flight returned after " + millis + " ms", millis <= StalledConnection.RETURN_MILLIS);
+        call.mConnection.close();
+    }
+
+    @Test
+    public void cancelOfOneCallerLeavesTheFlightToTheOthers() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(mExecutor);
+        StalledCall call = new StalledCall();
+
+        CancellationToken cancellation = new CancellationToken();
+        StalledConnection.Worker leaving = get(flights, call, cancellation);
+        assertTrue(call.awaitStarted());
+        StalledConnection.Worker staying = get(flights, call, new CancellationToken());
+        StalledConnection.awaitStall();
+
+        cancellation.cancel();
+        long millis = leaving.awaitReturn(StalledConnection.RETURN_MILLIS);
+        assertTrue("returned after " + millis + " ms", leaving.mReturned && millis <= StalledConnection.RETURN_MILLIS);
+        assertFalse(call.mCancellation.isCanceled());
+        assertFalse(staying.mReturned);
+
+        call.mConnection.finish();
+        staying.join(5000);
+        assertNull(staying.mFailure);
+        call.mConnection.close();
+    }
+
+    @Test
+    public void abandonedFlightIsPickedUpAgainWithinTheDelay() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<String, String>(mExecutor, mScheduler, 200);
+        StalledCall call = new StalledCall();
+
+        CancellationToken cancellation = new CancellationToken();
+        StalledConnection.Worker caller = get(flights, call, cancellation);
+        assertTrue(call.awaitStarted());
+        cancellation.cancel();
+        caller.join(5000);
+
+        // Like a loader restarted after a rotation, before the delay is up.
+        StalledConnection.Worker again = get(flights, call, new CancellationToken());
+        Thread.sleep(400);
+        assertFalse(call.mCancellation.isCanceled());
+        assertFalse(again.mReturned);
+        assertEquals(1, flights.getStartedCount());
+
+        call.mConnection.finish();
+        again.join(5000);
+        assertNull(again.mFailure);
+        call.mConnection.close();
+    }
+
+    private static StalledConnection.Worker get(final SingleFlight<String, String> flights,
+                                                final SingleFlight.Call<String> call,
+                                                final CancellationToken cancellation) {
+        return new StalledConnection.Worker(new StalledConnection.Worker.Work() {
+            @Override
+            public void run() throws Exception {
+                flights.get("key", call, cancellation);
+            }
+        });
+    }
+
+    /**
+     * A flight that reads a stalled connection to its end, and closes it when it is canceled.
+     */
+    private static final class StalledCall implements SingleFlight.Call<String> {
+        final StalledConnection mConnection;
+        volatile CancellationToken mCancellation;
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+
+        StalledCall() throws Exception {
+            mConnection = new StalledConnection("");
+        }
+
+        @Override
+        public String call(CancellationToken cancellation) throws Exception {
+            mCancellation = cancellation;
+            mConnection.closeOnCancel(cancellation);
+            mStarted.countDown();
+            try {
+                while (mConnection.getInputStream().read() != -1) {
+                }
+                return "result";
+            } finally {
+                mFinished.countDown();
+            }
+        }
+
+        boolean awaitStarted() throws InterruptedException {
+            return mStarted.await(5, TimeUnit.SECONDS);
+        }
+
+        boolean awaitFinished() throws InterruptedException {
+            return mFinished.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * A local socket whose server side sends the start of a body and then goes quiet without closing,
+ * like a server that stalls halfway through a response. Reads past what was sent block.
+ *
+ * {@link #closeOnCancel} closes the client socket when a token is canceled, which unblocks such a
+ * read the way the app's transport does by disconnecting its connection.
+ */
+final class StalledConnection {
+
+    /** How long a worker may take to return once canceled. */
+    static final long RETURN_MILLIS = 50;
+
+    private final ServerSocket mServerSocket;
+    private final Socket mClient;
+    private final Socket mServer;
+
+    StalledConnection(String start) throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        mClient = new Socket(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+        mServer = mServerSocket.accept();
+        OutputStream out = mServer.getOutputStream();
+        out.write(start.getBytes(Charset.forName("UTF-8")));
+        out.flush();
+    }
+
+    InputStream getInputStream() throws IOException {
+        return mClient.getInputStream();
+    }
+
+    void closeOnCancel(CancellationToken cancellation) {
+        cancellation.addListener(new CancellationToken.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                try {
+                    mClient.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Let the server end the body, reads on the client side see its end.
+     */
+    void finish() throws IOException {
+        mServer.close();
+    }
+
+    void close() throws IOException {
+        mClient.close();
+        mServer.close();
+        mServerSocket.close();
+    }
+
+    /**
+     * Give a thread that was just started, or just received the start of the body, time to get
+     * stuck. A thread blocked on a socket still counts as running, so there is no telling from its state.
+     */
+    static void awaitStall() throws InterruptedException {
+        Thread.sleep(50);
+    }
+
+    /**
+     * Runs a piece of work on a thread of its own and keeps what it threw.
+     */
+    static final class Worker extends Thread {
+        interface Work {
+            void run() throws Exception;
+        }
+
+        private final Work mWork;
+        volatile Throwable mFailure;
+        volatile boolean mReturned;
+
+        Worker(Work work) {
+            mWork = work;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            try {
+                mWork.run();
+            } catch (Throwable t) {
+                mFailure = t;
+            } finally {
+                mReturned = true;
+            }
+        }
+
+        /**
+         * @return the milliseconds it took the worker to return, at most a little over the limit
+         */
+        long awaitReturn(long limitMillis) throws InterruptedException {
+            long start = System.nanoTime();
+            join(limitMillis + 1000);
+            return (System.nanoTime() - start) / 1000000;
+        }
+    }
+}